@@ -52,7 +52,6 @@ import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.ServiceFactory;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
-import com.android.bluetooth.btservice.storage.BaikalDatabase;
 import com.android.bluetooth.hfp.HeadsetService;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
@@ -79,7 +78,6 @@ public class A2dpService extends ProfileService {
 
     private AdapterService mAdapterService;
     private DatabaseManager mDatabaseManager;
-    private BaikalDatabase mBaikalDatabase;
     private HandlerThread mStateMachinesThread;
 
     @VisibleForTesting
@@ -139,8 +137,6 @@ public class A2dpService extends ProfileService {
 
         mDatabaseManager = Objects.requireNonNull(mAdapterService.getDatabase(),
                 "DatabaseManager cannot be null when A2dpService starts");
-        mBaikalDatabase = Objects.requireNonNull(mAdapterService.getBaikalDatabase(),
-                "BaikalDatabase cannot be null when A2dpService starts");
 
         mAudioManager = getSystemService(AudioManager.class);
         Objects.requireNonNull(mAudioManager,
@@ -1049,29 +1045,15 @@ public class A2dpService extends ProfileService {
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_PRIVILEGED)
     public int getSbcBitrate(BluetoothDevice device) {
-        int rate = 0;
-        try {
-            rate = mBaikalDatabase.getSbcBitrate(device);
-        }
-        catch(Exception e) {
-            Log.i(TAG, "getSbcBitrate exception:", e);
-            return 0;
-        }
-        //Log.i(TAG, "getSbcBitrate:" + rate);
-        return rate;
+        return mDatabaseManager.getA2dpSbcBitrate(device);
     }
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_PRIVILEGED)
     public void setSbcBitrate(BluetoothDevice device, int value) {
         Log.i(TAG, "setSbcBitrate :" + value);
 
-        try {
-            mBaikalDatabase.setSbcBitrate(device, value);
-            updateOptionalCodecsSupport(device);
-        }
-        catch(Exception e) {
-            Log.i(TAG, "setSbcBitrate exception:", e);
-        }
+        mDatabaseManager.setA2dpSbcBitrate(device, value);
+        updateOptionalCodecsSupport(device);
     }
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_PRIVILEGED)
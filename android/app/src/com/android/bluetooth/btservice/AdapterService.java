@@ -530,7 +530,7 @@ public class AdapterService extends Service {
         mDatabaseManager = new DatabaseManager(this);
         mDatabaseManager.start(MetadataDatabase.createDatabase(this));
 
-        mBaikalDatabase = new BaikalDatabase(mHandler,this);
+        mBaikalDatabase = new BaikalDatabase(mHandler, this, mDatabaseManager);
 
         boolean isAutomotiveDevice = getApplicationContext().getPackageManager().hasSystemFeature(
                 PackageManager.FEATURE_AUTOMOTIVE);
@@ -5219,6 +5219,7 @@ public class AdapterService extends Service {
 
         writer.println();
         mAdapterProperties.dump(fd, writer, args);
+        mRemoteDevices.dump(writer);
         writer.println("mSnoopLogSettingAtEnable = " + mSnoopLogSettingAtEnable);
         writer.println("mDefaultSnoopLogSettingAtEnable = " + mDefaultSnoopLogSettingAtEnable);
 
@@ -49,11 +49,13 @@ import com.android.bluetooth.bas.BatteryService;
 import com.android.bluetooth.hfp.HeadsetHalConstants;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -61,8 +63,8 @@ final class RemoteDevices {
     private static final boolean DBG = false;
     private static final String TAG = "BluetoothRemoteDevices";
 
-    // Maximum number of device properties to remember
-    private static final int MAX_DEVICE_QUEUE_SIZE = 200;
+    // Maximum number of unpinned device properties to remember
+    private static final int MAX_DEVICE_CACHE_SIZE = 200;
 
     private static BluetoothAdapter sAdapter;
     private static AdapterService sAdapterService;
@@ -72,9 +74,15 @@ final class RemoteDevices {
     private static final int UUID_INTENT_DELAY = 6000;
     private static final int MESSAGE_UUID_INTENT = 1;
 
-    private final HashMap<String, DeviceProperties> mDevices;
+    // Access ordered, keyed by the packed 48-bit address, so the eldest entry is the least
+    // recently used device.
+    private final LinkedHashMap<Long, DeviceProperties> mDevices;
     private final HashMap<String, String> mDualDevicesMap;
-    private Queue<String> mDeviceQueue;
+    // Devices that are bonding, bonded or connected, and are never evicted from mDevices.
+    private final HashSet<Long> mPinnedDevices;
+    private long mCacheHits;
+    private long mCacheMisses;
+    private long mCacheEvictions;
 
     /**
      * Bluetooth HFP v1.8 specifies the Battery Charge indicator of AG can take values from
@@ -168,9 +176,9 @@ final class RemoteDevices {
         sAdapter = BluetoothAdapter.getDefaultAdapter();
         sAdapterService = service;
         sSdpTracker = new ArrayList<BluetoothDevice>();
-        mDevices = new HashMap<String, DeviceProperties>();
+        mDevices = new LinkedHashMap<Long, DeviceProperties>(16, 0.75f, true);
         mDualDevicesMap = new HashMap<String, String>();
-        mDeviceQueue = new LinkedList<String>();
+        mPinnedDevices = new HashSet<Long>();
         mHandler = new RemoteDevicesHandler(looper);
     }
 
@@ -213,10 +221,10 @@ final class RemoteDevices {
             if (mDevices != null) {
                 debugLog("reset(): Broadcasting ACL_DISCONNECTED");
 
-                mDevices.forEach((address, deviceProperties) -> {
+                mDevices.forEach((key, deviceProperties) -> {
                     BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
 
-                    debugLog("reset(): address=" + address + ", connected="
+                    debugLog("reset(): address=" + bluetoothDevice.getAddress() + ", connected="
                             + bluetoothDevice.isConnected());
 
                     if (bluetoothDevice.isConnected()) {
@@ -228,16 +236,13 @@ final class RemoteDevices {
                     }
                 });
                 mDevices.clear();
+                mPinnedDevices.clear();
             }
         }
 
         if (mDualDevicesMap != null) {
             mDualDevicesMap.clear();
         }
-
-        if (mDeviceQueue != null) {
-            mDeviceQueue.clear();
-        }
     }
 
     @Override
@@ -247,28 +252,37 @@ final class RemoteDevices {
 
     DeviceProperties getDeviceProperties(BluetoothDevice device) {
         synchronized (mDevices) {
-            String address = mDualDevicesMap.get(device.getAddress());
-            // If the device is not in the dual map, use its original address
-            if (address == null || mDevices.get(address) == null) {
-                address = device.getAddress();
-            }
-            return mDevices.get(address);
+            return getDevicePropertiesLocked(device.getAddress());
         }
     }
 
     BluetoothDevice getDevice(byte[] address) {
-        String addressString = Utils.getAddressStringFromByte(address);
-        String deviceAddress = mDualDevicesMap.get(addressString);
-        // If the device is not in the dual map, use its original address
-        if (deviceAddress == null || mDevices.get(deviceAddress) == null) {
-            deviceAddress = addressString;
+        synchronized (mDevices) {
+            DeviceProperties prop =
+                    getDevicePropertiesLocked(Utils.getAddressStringFromByte(address));
+            if (prop != null) {
+                return prop.getDevice();
+            }
+            return null;
         }
+    }
 
-        DeviceProperties prop = mDevices.get(deviceAddress);
+    private DeviceProperties getDevicePropertiesLocked(String address) {
+        DeviceProperties prop = null;
+        String dualAddress = mDualDevicesMap.get(address);
+        if (dualAddress != null) {
+            prop = mDevices.get(addressToKey(Utils.getBytesFromAddress(dualAddress)));
+        }
+        // If the device is not in the dual map, use its original address
+        if (prop == null) {
+            prop = mDevices.get(addressToKey(Utils.getBytesFromAddress(address)));
+        }
         if (prop != null) {
-            return prop.getDevice();
+            mCacheHits++;
+        } else {
+            mCacheMisses++;
         }
-        return null;
+        return prop;
     }
 
     @VisibleForTesting
@@ -277,26 +291,80 @@ final class RemoteDevices {
             DeviceProperties prop = new DeviceProperties();
             prop.mDevice = sAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address));
             prop.mAddress = address;
-            String key = Utils.getAddressStringFromByte(address);
+            long key = addressToKey(address);
             DeviceProperties pv = mDevices.put(key, prop);
 
             if (pv == null) {
-                mDeviceQueue.offer(key);
-                if (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
-                    String deleteKey = mDeviceQueue.poll();
-                    for (BluetoothDevice device : sAdapterService.getBondedDevices()) {
-                        if (device.getAddress().equals(deleteKey)) {
-                            return prop;
-                        }
-                    }
-                    debugLog("Removing device " + deleteKey + " from property map");
-                    mDevices.remove(deleteKey);
+                if (mDevices.size() - mPinnedDevices.size() > MAX_DEVICE_CACHE_SIZE) {
+                    evictLeastRecentlyUsedLocked();
                 }
+            } else {
+                // The new properties start unbonded and disconnected
+                mPinnedDevices.remove(key);
             }
             return prop;
         }
     }
 
+    /**
+     * Removes the least recently used device that is neither bonded nor connected. Pinned devices
+     * are bounded by the number of bonded and connected devices, so this is constant time with
+     * respect to the number of discovered devices.
+     */
+    private void evictLeastRecentlyUsedLocked() {
+        Iterator<Map.Entry<Long, DeviceProperties>> it = mDevices.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, DeviceProperties> entry = it.next();
+            if (mPinnedDevices.contains(entry.getKey())) {
+                continue;
+            }
+            debugLog("Removing device " + entry.getValue().getDevice() + " from property map");
+            it.remove();
+            mCacheEvictions++;
+            return;
+        }
+    }
+
+    private void setPinned(byte[] address, boolean pinned) {
+        synchronized (mDevices) {
+            if (pinned) {
+                mPinnedDevices.add(addressToKey(address));
+            } else {
+                mPinnedDevices.remove(addressToKey(address));
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getCachedDeviceCount() {
+        synchronized (mDevices) {
+            return mDevices.size();
+        }
+    }
+
+    /** Packs a 6 byte Bluetooth address into the low 48 bits of a long. */
+    @VisibleForTesting
+    static long addressToKey(byte[] address) {
+        long key = 0;
+        for (int i = 0; i < address.length; i++) {
+            key = (key << 8) | (address[i] & 0xFF);
+        }
+        return key;
+    }
+
+    void dump(PrintWriter writer) {
+        synchronized (mDevices) {
+            long lookups = mCacheHits + mCacheMisses;
+            writer.println("RemoteDevices:");
+            writer.println("  Cached devices: " + mDevices.size() + " (pinned: "
+                    + mPinnedDevices.size() + ", max unpinned: " + MAX_DEVICE_CACHE_SIZE + ")");
+            writer.println("  Lookups: " + lookups + ", hit rate: "
+                    + (lookups == 0 ? 0 : mCacheHits * 100 / lookups) + "%, evictions: "
+                    + mCacheEvictions);
+            writer.println();
+        }
+    }
+
     class DeviceProperties {
         private String mName;
         private byte[] mAddress;
@@ -307,6 +375,7 @@ final class RemoteDevices {
         private String mAlias;
         private BluetoothDevice mDevice;
         private boolean mIsBondingInitiatedLocally;
+        private boolean mIsAclConnected;
         private int mBatteryLevel = BluetoothDevice.BATTERY_LEVEL_UNKNOWN;
         private boolean mIsCoordinatedSetMember;
         @VisibleForTesting int mBondState;
@@ -427,6 +496,7 @@ final class RemoteDevices {
          * @param mBondState the mBondState to set
          */
         void setBondState(int newBondState) {
+            boolean pinned;
             synchronized (mObject) {
                 if ((mBondState == BluetoothDevice.BOND_BONDED
                         && newBondState == BluetoothDevice.BOND_BONDING)
@@ -439,7 +509,21 @@ final class RemoteDevices {
                     mAlias = null;
                 }
                 mBondState = newBondState;
+                pinned = mIsAclConnected || newBondState != BluetoothDevice.BOND_NONE;
+            }
+            setPinned(mAddress, pinned);
+        }
+
+        /**
+         * @param isAclConnected whether an ACL link to the device is up
+         */
+        void setAclConnected(boolean isAclConnected) {
+            boolean pinned;
+            synchronized (mObject) {
+                mIsAclConnected = isAclConnected;
+                pinned = isAclConnected || mBondState != BluetoothDevice.BOND_NONE;
             }
+            setPinned(mAddress, pinned);
         }
 
         /**
@@ -854,6 +938,11 @@ final class RemoteDevices {
         }
         int state = sAdapterService.getState();
 
+        DeviceProperties prop = getDeviceProperties(device);
+        if (prop != null) {
+            prop.setAclConnected(newState == AbstractionLayer.BT_ACL_STATE_CONNECTED);
+        }
+
         Intent intent = null;
         if (newState == AbstractionLayer.BT_ACL_STATE_CONNECTED) {
             if (state == BluetoothAdapter.STATE_ON || state == BluetoothAdapter.STATE_TURNING_ON) {
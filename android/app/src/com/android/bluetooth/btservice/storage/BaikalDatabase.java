@@ -33,35 +33,29 @@ import android.os.SystemProperties;
 import android.provider.Settings;
 import android.text.TextUtils;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-
 import android.util.Slog;
 
+/**
+ * Imports the per-device A2DP tuning values that BaikalOS used to keep in a
+ * {@link Settings.Global} string blob into the {@link DatabaseManager}.
+ *
+ * The values are served from the metadata cache of the {@link DatabaseManager}, the blob is only
+ * parsed when it is written by a legacy writer and cleared once imported.
+ */
 public class BaikalDatabase extends ContentObserver {
 
     private static final String TAG = "Baikal.BtService";
 
-    private static ContentResolver mResolver;
-    private static Handler mHandler;
-    private static Context mContext;
-   	private static Object _staticLock = new Object();
-
-    private static String mSbcBitrateString;
-
-    private static Object mBtDatabaseLock = new Object();
-
-    private static HashMap<String, Integer> mBtDatabase = null; 
+    private final ContentResolver mResolver;
+    private final DatabaseManager mDatabaseManager;
 
     private static final TextUtils.StringSplitter mBtDbSplitter = new TextUtils.SimpleStringSplitter('|');
 
 
-    public BaikalDatabase(Handler handler, Context context) {
+    public BaikalDatabase(Handler handler, Context context, DatabaseManager databaseManager) {
         super(handler);
-	    mHandler = handler;
-        mContext = context;
         mResolver = context.getContentResolver();
+        mDatabaseManager = databaseManager;
 
         try {
                 mResolver.registerContentObserver(
@@ -70,72 +64,45 @@ public class BaikalDatabase extends ContentObserver {
         } catch( Exception e ) {
         }
 
-        updateConstants();
+        // The metadata cache is loaded asynchronously, import once the devices are known.
+        mDatabaseManager.runWhenDatabaseReady(this::importLegacySbcBitrates);
     }
 
-    public void cleanup() {
-        if( mResolver != null ) {
-            mResolver.unregisterContentObserver(this);
-        }
+    @Override
+    public void onChange(boolean selfChange) {
+        mDatabaseManager.runWhenDatabaseReady(this::importLegacySbcBitrates);
     }
 
-    public void factoryReset() {
-        if( mResolver != null ) {
-            Settings.Global.putString(mResolver,Settings.Global.BAIKALOS_SBC_BITRATE,"");
-        }
+    public void cleanup() {
+        mResolver.unregisterContentObserver(this);
     }
 
-    private void updateConstants() {
-        synchronized(mBtDatabaseLock) {
-            updateSbcBitratesLocked();
-        }
+    public void factoryReset() {
+        Settings.Global.putString(mResolver,Settings.Global.BAIKALOS_SBC_BITRATE,"");
     }
 
     public boolean setSbcBitrate(BluetoothDevice device, int value) {
-
-        synchronized(mBtDatabaseLock) {
-            Integer prev = mBtDatabase.get(device.getAddress());
-            if( prev != null &&  prev.equals(Integer.valueOf(value)) ) return false;
-            Slog.i(TAG, "a2dp: SBC set bitrate: device=" + device + ", rate=" + value);
-            mBtDatabase.put(device.getAddress(),Integer.valueOf(value));
-            saveSbcBitratesLocked();
-        }
-        return true;
+        return mDatabaseManager.setA2dpSbcBitrate(device, value);
     }
 
     public int getSbcBitrate(BluetoothDevice device) {
-        synchronized(mBtDatabaseLock) {
-            if( mBtDatabase == null ) {
-                updateSbcBitratesLocked();
-            }
-            if( !mBtDatabase.containsKey(device.getAddress()) ) {
-                //Slog.i(TAG, "a2dp: SBC bitrate is not set: device=" + device);
-                return 0;
-            }
-            int rate = mBtDatabase.get(device.getAddress()).intValue();
-            //Slog.i(TAG, "a2dp: SBC bitrate:device=" + device + ", rate="  + rate);
-            return rate;
-        }
+        return mDatabaseManager.getA2dpSbcBitrate(device);
     }
 
-    private void updateSbcBitratesLocked() {
-
-        mBtDatabase = new HashMap<String,Integer> ();
-
+    private synchronized void importLegacySbcBitrates() {
         String sbcBitrateString = Settings.Global.getString(mResolver,Settings.Global.BAIKALOS_SBC_BITRATE);
 
-        if( sbcBitrateString == null ) return;
-        if( sbcBitrateString.equals(mSbcBitrateString) ) return;
-
-        mSbcBitrateString = sbcBitrateString;
+        if( sbcBitrateString == null || sbcBitrateString.isEmpty() ) return;
 
         try {
-            mBtDbSplitter.setString(mSbcBitrateString);
+            mBtDbSplitter.setString(sbcBitrateString);
         } catch (IllegalArgumentException e) {
-            Slog.e(TAG, "Bad mSbcBitrateString settings :" + mSbcBitrateString, e);
+            Slog.e(TAG, "Bad mSbcBitrateString settings :" + sbcBitrateString, e);
             return ;
         }
 
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        boolean imported = true;
         for(String deviceString:mBtDbSplitter) {
 
             KeyValueListParser parser = new KeyValueListParser(',');
@@ -145,24 +112,22 @@ public class BaikalDatabase extends ContentObserver {
                 String address = parser.getString("addr",null);
                 if( address == null || address.equals("") ) continue;
                 int bitrate = parser.getInt("sbcbr",0);
-                mBtDatabase.put(address,bitrate);
+                Slog.i(TAG, "a2dp: SBC import bitrate: device=" + address + ", rate=" + bitrate);
+                BluetoothDevice device = adapter.getRemoteDevice(address);
+                if (!mDatabaseManager.setA2dpSbcBitrate(device, bitrate)) {
+                    Slog.e(TAG, "a2dp: SBC import failed: device=" + address);
+                    imported = false;
+                }
             } catch (IllegalArgumentException e) {
                 Slog.e(TAG, "Bad deviceString :" + deviceString, e);
+                imported = false;
                 continue;
             }
         }
-    }
-
-    private void saveSbcBitratesLocked() {
-        String val = "";    
 
-        for(HashMap.Entry<String, Integer> entry : mBtDatabase.entrySet()) {
-            String entryString = "addr=" + entry.getKey().toString() + "," + "sbcbr=" +  entry.getValue().toString();
-            if( entryString != null ) val += entryString + "|";
-        } 
-
-        if( mSbcBitrateString != null && mSbcBitrateString.equals(val) ) return;
-        mSbcBitrateString = val;
-        Settings.Global.putString(mResolver,Settings.Global.BAIKALOS_SBC_BITRATE,val);
+        // The values now live in the metadata database, keep the blob if any of them does not.
+        if (imported) {
+            Settings.Global.putString(mResolver,Settings.Global.BAIKALOS_SBC_BITRATE,"");
+        }
     }
 }
@@ -48,6 +48,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -71,12 +72,21 @@ public class DatabaseManager {
     @VisibleForTesting
     final Map<String, Metadata> mMetadataCache = new HashMap<>();
     private final Semaphore mSemaphore = new Semaphore(1);
+    // Tasks waiting for the metadata cache to be loaded, guarded by mMetadataCache.
+    private final List<Runnable> mDatabaseReadyTasks = new ArrayList<>();
     private static final int METADATA_CHANGED_LOG_MAX_SIZE = 20;
     private final EvictingQueue<String> mMetadataChangedLog;
 
+    // Metadata waiting to be written, keyed by address. Updates made within the write-behind
+    // window are coalesced and written in a single transaction.
+    private final Map<String, Metadata> mPendingUpdates = new LinkedHashMap<>();
+    private static final long WRITE_BEHIND_DELAY_MILLIS = 100;
+    @VisibleForTesting
+    long mWriteBehindDelayMillis = WRITE_BEHIND_DELAY_MILLIS;
+
     private static final int LOAD_DATABASE_TIMEOUT = 500; // milliseconds
     private static final int MSG_LOAD_DATABASE = 0;
-    private static final int MSG_UPDATE_DATABASE = 1;
+    private static final int MSG_FLUSH_DATABASE = 1;
     private static final int MSG_DELETE_DATABASE = 2;
     private static final int MSG_CLEAR_DATABASE = 100;
     private static final String LOCAL_STORAGE = "LocalStorage";
@@ -140,11 +150,8 @@ public class DatabaseManager {
                     }
                     break;
                 }
-                case MSG_UPDATE_DATABASE: {
-                    Metadata data = (Metadata) msg.obj;
-                    synchronized (mDatabase) {
-                        mDatabase.insert(data);
-                    }
+                case MSG_FLUSH_DATABASE: {
+                    flushPendingUpdates();
                     break;
                 }
                 case MSG_DELETE_DATABASE: {
@@ -582,6 +589,60 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Set the SBC bitrate to use for a device
+     *
+     * @param device {@link BluetoothDevice} wish to set
+     * @param newValue the SBC bitrate, 0 to use the codec default
+     * @return true if the value is stored
+     */
+    public boolean setA2dpSbcBitrate(BluetoothDevice device, int newValue) {
+        synchronized (mMetadataCache) {
+            if (device == null) {
+                Log.e(TAG, "setA2dpSbcBitrate: device is null");
+                return false;
+            }
+            if (newValue < 0) {
+                Log.e(TAG, "setA2dpSbcBitrate: invalid value " + newValue);
+                return false;
+            }
+
+            String address = device.getAddress();
+
+            if (!mMetadataCache.containsKey(address)) {
+                createMetadata(address, false);
+            }
+            Metadata data = mMetadataCache.get(address);
+            int oldValue = data.a2dp_sbc_bitrate;
+            if (oldValue == newValue) {
+                return true;
+            }
+            logMetadataChange(address, "SBC bitrate changed: " + oldValue + " -> " + newValue);
+
+            data.a2dp_sbc_bitrate = newValue;
+            updateDatabase(data);
+            return true;
+        }
+    }
+
+    /**
+     * Get the SBC bitrate to use for a device
+     *
+     * @param device {@link BluetoothDevice} wish to get
+     * @return the SBC bitrate, 0 if the codec default is used
+     */
+    public int getA2dpSbcBitrate(BluetoothDevice device) {
+        synchronized (mMetadataCache) {
+            if (device == null) {
+                Log.e(TAG, "getA2dpSbcBitrate: device is null");
+                return 0;
+            }
+
+            Metadata data = mMetadataCache.get(device.getAddress());
+            return data == null ? 0 : data.a2dp_sbc_bitrate;
+        }
+    }
+
     /**
      * Updates the time this device was last connected
      *
@@ -824,6 +885,9 @@ public class DatabaseManager {
      */
     public void factoryReset() {
         Log.w(TAG, "factoryReset");
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.clear();
+        }
         Message message = mHandler.obtainMessage(MSG_CLEAR_DATABASE);
         mHandler.sendMessage(message);
     }
@@ -833,7 +897,13 @@ public class DatabaseManager {
      */
     public void cleanup() {
         removeUnusedMetadata();
+        synchronized (mMetadataCache) {
+            mMigratedFromSettingsGlobal = false;
+            mDatabaseReadyTasks.clear();
+        }
         mAdapterService.unregisterReceiver(mReceiver);
+        // Quitting the handler thread drops the scheduled flush, write pending data now.
+        flushPendingUpdates();
         if (mHandlerThread != null) {
             mHandlerThread.quit();
             mHandlerThread = null;
@@ -869,6 +939,7 @@ public class DatabaseManager {
     }
 
     void cacheMetadata(List<Metadata> list) {
+        List<Runnable> tasks;
         synchronized (mMetadataCache) {
             Log.i(TAG, "cacheMetadata");
             // Unlock the main thread.
@@ -886,9 +957,32 @@ public class DatabaseManager {
                 mMetadataCache.put(address, data);
             }
             Log.i(TAG, "cacheMetadata: Database is ready");
+            tasks = new ArrayList<>(mDatabaseReadyTasks);
+            mDatabaseReadyTasks.clear();
+        }
+        for (Runnable task : tasks) {
+            task.run();
         }
     }
 
+    /**
+     * Run a task once the metadata cache is loaded from the database, which happens
+     * asynchronously after {@link #start(MetadataDatabase)} and, on the first boot, only after
+     * the migration from Settings Global.
+     *
+     * @param task the task, run on the database handler thread if the cache is not loaded yet,
+     *             or right away on the calling thread otherwise
+     */
+    public void runWhenDatabaseReady(Runnable task) {
+        synchronized (mMetadataCache) {
+            if (!mMigratedFromSettingsGlobal) {
+                mDatabaseReadyTasks.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
     boolean isMigrated(List<Metadata> list) {
         for (Metadata data : list) {
             String address = data.getAddress();
@@ -1090,9 +1184,37 @@ public class DatabaseManager {
             return;
         }
         Log.d(TAG, "updateDatabase " + data.getAnonymizedAddress());
-        Message message = mHandler.obtainMessage(MSG_UPDATE_DATABASE);
-        message.obj = data;
-        mHandler.sendMessage(message);
+        synchronized (mPendingUpdates) {
+            boolean flushScheduled = !mPendingUpdates.isEmpty();
+            mPendingUpdates.put(data.getAddress(), data);
+            if (flushScheduled) {
+                return;
+            }
+        }
+        mHandler.sendEmptyMessageDelayed(MSG_FLUSH_DATABASE, mWriteBehindDelayMillis);
+    }
+
+    /**
+     * Write all the pending metadata updates in a single transaction.
+     */
+    @VisibleForTesting
+    void flushPendingUpdates() {
+        List<Metadata> updates;
+        synchronized (mPendingUpdates) {
+            if (mPendingUpdates.isEmpty()) {
+                return;
+            }
+            updates = new ArrayList<>(mPendingUpdates.values());
+            mPendingUpdates.clear();
+        }
+        if (mDatabase == null) {
+            Log.e(TAG, "flushPendingUpdates: database is null");
+            return;
+        }
+        Log.d(TAG, "flushPendingUpdates: writing " + updates.size() + " entries");
+        synchronized (mDatabase) {
+            mDatabase.insertAll(updates);
+        }
     }
 
     @VisibleForTesting
@@ -1103,6 +1225,9 @@ public class DatabaseManager {
             return;
         }
         logMetadataChange(address, "Metadata deleted");
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.remove(address);
+        }
         Message message = mHandler.obtainMessage(MSG_DELETE_DATABASE);
         message.obj = data.getAddress();
         mHandler.sendMessage(message);
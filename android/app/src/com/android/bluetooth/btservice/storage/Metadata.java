@@ -77,6 +77,11 @@ public class Metadata {
      */
     public int preferred_duplex_profile;
 
+    /**
+     * The SBC bitrate configured for this device, 0 if the codec default is used.
+     */
+    public int a2dp_sbc_bitrate;
+
     Metadata(String address) {
         this.address = address;
         migrated = false;
@@ -89,6 +94,7 @@ public class Metadata {
         audioPolicyMetadata = new AudioPolicyEntity();
         preferred_output_only_profile = 0;
         preferred_duplex_profile = 0;
+        a2dp_sbc_bitrate = 0;
     }
 
     /**
@@ -37,6 +37,12 @@ interface MetadataDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insert(Metadata... metadata);
 
+    /**
+     * Create or update several Metadata in the database in a single transaction
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<Metadata> metadata);
+
     /**
      * Delete a Metadata in the database
      */
@@ -33,7 +33,7 @@ import java.util.List;
 /**
  * MetadataDatabase is a Room database stores Bluetooth persistence data
  */
-@Database(entities = {Metadata.class}, version = 117)
+@Database(entities = {Metadata.class}, version = 118)
 public abstract class MetadataDatabase extends RoomDatabase {
     /**
      * The metadata database file name
@@ -70,6 +70,7 @@ public abstract class MetadataDatabase extends RoomDatabase {
                 .addMigrations(MIGRATION_114_115)
                 .addMigrations(MIGRATION_115_116)
                 .addMigrations(MIGRATION_116_117)
+                .addMigrations(MIGRATION_117_118)
                 .allowMainThreadQueries()
                 .build();
     }
@@ -98,6 +99,15 @@ public abstract class MetadataDatabase extends RoomDatabase {
         mMetadataDao().insert(metadata);
     }
 
+    /**
+     * Insert several {@link Metadata} to metadata table in a single transaction
+     *
+     * @param metadata the data wish to put into storage
+     */
+    public void insertAll(List<Metadata> metadata) {
+        mMetadataDao().insertAll(metadata);
+    }
+
     /**
      * Load all data from metadata table as a {@link List} of {@link Metadata}
      *
@@ -566,4 +576,21 @@ public abstract class MetadataDatabase extends RoomDatabase {
             }
         }
     };
+
+    @VisibleForTesting
+    static final Migration MIGRATION_117_118 = new Migration(117, 118) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            try {
+                database.execSQL("ALTER TABLE metadata ADD COLUMN `a2dp_sbc_bitrate` "
+                        + "INTEGER NOT NULL DEFAULT 0");
+            } catch (SQLException ex) {
+                // Check if user has new schema, but is just missing the version update
+                Cursor cursor = database.query("SELECT * FROM metadata");
+                if (cursor == null || cursor.getColumnIndex("a2dp_sbc_bitrate") == -1) {
+                    throw ex;
+                }
+            }
+        }
+    };
 }
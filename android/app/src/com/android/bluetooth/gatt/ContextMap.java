@@ -34,15 +34,18 @@ import com.android.internal.annotations.GuardedBy;
 
 import com.google.common.collect.EvictingQueue;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Helper class that keeps track of registered GATT applications.
@@ -123,7 +126,17 @@ public class ContextMap<C, T> {
         public List<String> mAssociatedDevices;
 
         /** Internal callback info queue, waiting to be send on congestion clear */
-        private List<CallbackInfo> mCongestionQueue = new ArrayList<CallbackInfo>();
+        @GuardedBy("mCongestionQueue")
+        private final ArrayDeque<CallbackInfo> mCongestionQueue =
+                new ArrayDeque<CallbackInfo>();
+
+        /** Highest number of callbacks queued at once while congested */
+        @GuardedBy("mCongestionQueue")
+        private int mCongestionQueueHighWaterMark;
+
+        /** Number of writes and notifications rejected because the queue was full */
+        @GuardedBy("mCongestionQueue")
+        private long mCongestionQueueRejected;
 
         /**
          * Creates a new app context.
@@ -176,15 +189,46 @@ public class ContextMap<C, T> {
             }
         }
 
+        /**
+         * Queued callbacks are completions the app waits for before sending more, they are
+         * never dropped. The queue is bounded by rejecting new operations instead, see
+         * {@link #isCongestionQueueFull()}.
+         */
         void queueCallback(CallbackInfo callbackInfo) {
-            mCongestionQueue.add(callbackInfo);
+            synchronized (mCongestionQueue) {
+                mCongestionQueue.addLast(callbackInfo);
+                mCongestionQueueHighWaterMark =
+                        Math.max(mCongestionQueueHighWaterMark, mCongestionQueue.size());
+            }
+        }
+
+        /**
+         * Returns whether a new write or notification must be rejected because
+         * {@link #MAX_CONGESTION_QUEUE_SIZE} completions are already queued.
+         */
+        boolean isCongestionQueueFull() {
+            synchronized (mCongestionQueue) {
+                if (mCongestionQueue.size() < MAX_CONGESTION_QUEUE_SIZE) {
+                    return false;
+                }
+                mCongestionQueueRejected++;
+                return true;
+            }
         }
 
         CallbackInfo popQueuedCallback() {
-            if (mCongestionQueue.size() == 0) {
-                return null;
+            synchronized (mCongestionQueue) {
+                return mCongestionQueue.pollFirst();
+            }
+        }
+
+        void dumpCongestionQueue(StringBuilder sb) {
+            synchronized (mCongestionQueue) {
+                sb.append("  " + id + " " + name + ": congested " + isCongested
+                        + ", queued " + mCongestionQueue.size()
+                        + ", high water mark " + mCongestionQueueHighWaterMark
+                        + ", rejected " + mCongestionQueueRejected + "\n");
             }
-            return mCongestionQueue.remove(0);
         }
     }
 
@@ -202,12 +246,30 @@ public class ContextMap<C, T> {
 
     private static final int ADVERTISE_STATE_MAX_SIZE = 5;
 
+    /** Number of callbacks queued while congested above which new operations are rejected */
+    @VisibleForTesting
+    static final int MAX_CONGESTION_QUEUE_SIZE = 1024;
+
     private final EvictingQueue<AppAdvertiseStats> mLastAdvertises =
             EvictingQueue.create(ADVERTISE_STATE_MAX_SIZE);
 
     /** Internal list of connected devices **/
     private Set<Connection> mConnections = new HashSet<Connection>();
 
+    /*
+     * Secondary indexes of mApps and mConnections, updated under the same locks as the lists
+     * and read without locking so that lookups from the JNI callback thread never wait on binder
+     * threads registering apps. App ids are assigned after registration, so the id index is
+     * filled on the first lookup and an entry whose id no longer matches is ignored.
+     */
+    private final Map<Integer, App> mAppsById = new ConcurrentHashMap<Integer, App>();
+    private final Map<UUID, App> mAppsByUuid = new ConcurrentHashMap<UUID, App>();
+    private final Map<String, App> mAppsByName = new ConcurrentHashMap<String, App>();
+    private final Map<Integer, Connection> mConnectionsByConnId =
+            new ConcurrentHashMap<Integer, Connection>();
+    private final Map<String, List<Connection>> mConnectionsByAddress =
+            new HashMap<String, List<Connection>>();
+
     /** Add an entry to the application context list. */
     App add(
             UUID uuid,
@@ -236,6 +298,7 @@ public class ContextMap<C, T> {
             }
             App app = new App(uuid, callback, (T) piInfo, appName, appScanStats);
             mApps.add(app);
+            indexApp(app);
             appScanStats.isRegistered = true;
             return app;
         }
@@ -264,6 +327,7 @@ public class ContextMap<C, T> {
             if (app == null) {
                 app = new App(appUid, callback, appName);
                 mApps.add(app);
+                indexApp(app);
             }
             return app;
         }
@@ -281,6 +345,7 @@ public class ContextMap<C, T> {
                     entry.unlinkToDeath();
                     entry.appScanStats.isRegistered = false;
                     i.remove();
+                    unindexApp(entry);
                     break;
                 }
             }
@@ -301,6 +366,7 @@ public class ContextMap<C, T> {
                     entry.unlinkToDeath();
                     entry.appScanStats.isRegistered = false;
                     i.remove();
+                    unindexApp(entry);
                     break;
                 }
             }
@@ -329,7 +395,9 @@ public class ContextMap<C, T> {
         synchronized (mConnections) {
             App entry = getById(id);
             if (entry != null) {
-                mConnections.add(new Connection(connId, address, id));
+                Connection connection = new Connection(connId, address, id);
+                mConnections.add(connection);
+                indexConnection(connection);
             }
         }
     }
@@ -344,6 +412,7 @@ public class ContextMap<C, T> {
                 Connection connection = i.next();
                 if (connection.connId == connId) {
                     i.remove();
+                    unindexConnection(connection);
                     break;
                 }
             }
@@ -360,6 +429,7 @@ public class ContextMap<C, T> {
                 Connection connection = i.next();
                 if (connection.appId == appId) {
                     i.remove();
+                    unindexConnection(connection);
                 }
             }
         }
@@ -369,11 +439,16 @@ public class ContextMap<C, T> {
      * Get an application context by ID.
      */
     App getById(int id) {
+        App app = mAppsById.get(id);
+        if (app != null && app.id == id) {
+            return app;
+        }
         synchronized (mApps) {
             Iterator<App> i = mApps.iterator();
             while (i.hasNext()) {
                 App entry = i.next();
                 if (entry.id == id) {
+                    mAppsById.put(id, entry);
                     return entry;
                 }
             }
@@ -386,6 +461,10 @@ public class ContextMap<C, T> {
      * Get an application context by UUID.
      */
     App getByUuid(UUID uuid) {
+        App app = uuid == null ? null : mAppsByUuid.get(uuid);
+        if (app != null) {
+            return app;
+        }
         synchronized (mApps) {
             Iterator<App> i = mApps.iterator();
             while (i.hasNext()) {
@@ -403,6 +482,10 @@ public class ContextMap<C, T> {
      * Get an application context by the calling Apps name.
      */
     App getByName(String name) {
+        App app = name == null ? null : mAppsByName.get(name);
+        if (app != null) {
+            return app;
+        }
         synchronized (mApps) {
             Iterator<App> i = mApps.iterator();
             while (i.hasNext()) {
@@ -599,19 +682,9 @@ public class ContextMap<C, T> {
      * Get an application context by a connection ID.
      */
     App getByConnId(int connId) {
-        int appId = -1;
-        synchronized (mConnections) {
-            Iterator<Connection> ii = mConnections.iterator();
-            while (ii.hasNext()) {
-                Connection connection = ii.next();
-                if (connection.connId == connId) {
-                    appId = connection.appId;
-                    break;
-                }
-            }
-        }
-        if (appId >= 0) {
-            return getById(appId);
+        Connection connection = mConnectionsByConnId.get(connId);
+        if (connection != null && connection.appId >= 0) {
+            return getById(connection.appId);
         }
         return null;
     }
@@ -624,12 +697,17 @@ public class ContextMap<C, T> {
         if (entry == null) {
             return null;
         }
+        if (address == null) {
+            return null;
+        }
         synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.address.equalsIgnoreCase(address) && connection.appId == id) {
-                    return connection.connId;
+            List<Connection> connections =
+                    mConnectionsByAddress.get(address.toUpperCase(Locale.ROOT));
+            if (connections != null) {
+                for (Connection connection : connections) {
+                    if (connection.appId == id) {
+                        return connection.connId;
+                    }
                 }
             }
         }
@@ -640,16 +718,8 @@ public class ContextMap<C, T> {
      * Returns the device address for a given connection ID.
      */
     String addressByConnId(int connId) {
-        synchronized (mConnections) {
-            Iterator<Connection> i = mConnections.iterator();
-            while (i.hasNext()) {
-                Connection connection = i.next();
-                if (connection.connId == connId) {
-                    return connection.address;
-                }
-            }
-        }
-        return null;
+        Connection connection = mConnectionsByConnId.get(connId);
+        return connection == null ? null : connection.address;
     }
 
     List<Connection> getConnectionByApp(int appId) {
@@ -680,10 +750,15 @@ public class ContextMap<C, T> {
                 }
                 i.remove();
             }
+            mAppsById.clear();
+            mAppsByUuid.clear();
+            mAppsByName.clear();
         }
 
         synchronized (mConnections) {
             mConnections.clear();
+            mConnectionsByConnId.clear();
+            mConnectionsByAddress.clear();
         }
 
         synchronized (this) {
@@ -692,6 +767,76 @@ public class ContextMap<C, T> {
         }
     }
 
+    // Must be called with the app list locked.
+    private void indexApp(App app) {
+        if (app.uuid != null) {
+            mAppsByUuid.putIfAbsent(app.uuid, app);
+        }
+        if (app.name != null) {
+            mAppsByName.putIfAbsent(app.name, app);
+        }
+        mAppsById.putIfAbsent(app.id, app);
+    }
+
+    // Must be called with the app list locked.
+    private void unindexApp(App app) {
+        mAppsById.values().removeIf(entry -> entry == app);
+        if (app.uuid != null && mAppsByUuid.remove(app.uuid, app)) {
+            for (App entry : mApps) {
+                if (app.uuid.equals(entry.uuid)) {
+                    mAppsByUuid.put(entry.uuid, entry);
+                    break;
+                }
+            }
+        }
+        if (app.name != null && mAppsByName.remove(app.name, app)) {
+            for (App entry : mApps) {
+                if (app.name.equals(entry.name)) {
+                    mAppsByName.put(entry.name, entry);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Must be called with mConnections locked.
+    private void indexConnection(Connection connection) {
+        mConnectionsByConnId.putIfAbsent(connection.connId, connection);
+        if (connection.address == null) {
+            return;
+        }
+        String key = connection.address.toUpperCase(Locale.ROOT);
+        List<Connection> connections = mConnectionsByAddress.get(key);
+        if (connections == null) {
+            connections = new ArrayList<Connection>();
+            mConnectionsByAddress.put(key, connections);
+        }
+        connections.add(connection);
+    }
+
+    // Must be called with mConnections locked.
+    private void unindexConnection(Connection connection) {
+        if (mConnectionsByConnId.remove(connection.connId, connection)) {
+            for (Connection entry : mConnections) {
+                if (entry.connId == connection.connId) {
+                    mConnectionsByConnId.put(entry.connId, entry);
+                    break;
+                }
+            }
+        }
+        if (connection.address == null) {
+            return;
+        }
+        String key = connection.address.toUpperCase(Locale.ROOT);
+        List<Connection> connections = mConnectionsByAddress.get(key);
+        if (connections != null) {
+            connections.remove(connection);
+            if (connections.isEmpty()) {
+                mConnectionsByAddress.remove(key);
+            }
+        }
+    }
+
     /**
      * Returns connect device map with addr and appid
      */
@@ -720,6 +865,17 @@ public class ContextMap<C, T> {
         }
     }
 
+    /**
+     * Logs the congestion queue state of each app.
+     */
+    void dumpCongestionQueues(StringBuilder sb) {
+        synchronized (mApps) {
+            for (App app : mApps) {
+                app.dumpCongestionQueue(sb);
+            }
+        }
+    }
+
     /**
      * Logs advertiser debug information.
      */
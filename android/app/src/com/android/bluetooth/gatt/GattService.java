@@ -71,6 +71,7 @@ import android.provider.Settings;
 import android.sysprop.BluetoothProperties;
 import android.text.format.DateUtils;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 
 import com.android.bluetooth.BluetoothMetricsProto;
 import com.android.bluetooth.BluetoothStatsLog;
@@ -87,6 +88,8 @@ import com.android.modules.utils.SynchronousResultReceiver;
 
 import libcore.util.HexEncoding;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -99,6 +102,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 /**
@@ -117,6 +121,8 @@ public class GattService extends ProfileService {
     static final int SCAN_FILTER_MODIFIED = 2;
 
     private static final int MAC_ADDRESS_LENGTH = 6;
+    private static final int MAC_ADDRESS_STRING_LENGTH = 17;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
     // Batch scan related constants.
     private static final int TRUNCATED_RESULT_SIZE = 11;
     private static final int TIME_STAMP_LENGTH = 2;
@@ -275,6 +281,35 @@ public class GattService extends ProfileService {
      */
     private final HashMap<String, Integer> mPermits = new HashMap<>();
 
+    /**
+     * Number of writes without response in flight for the remote devices whose permit is held by
+     * such writes, guarded by mPermits. The stack completes the writes of a connection in order,
+     * and a permit is never shared by writes with and without response.
+     */
+    private final HashMap<String, Integer> mWritesWithoutResponseInFlight = new HashMap<>();
+
+    /** Maximum number of writes without response in flight for each remote device */
+    @VisibleForTesting
+    static final int MAX_WRITES_WITHOUT_RESPONSE_IN_FLIGHT = 8;
+
+    /**
+     * Number of advertising reports received from the stack, and number of scan records parsed
+     * while dispatching them to the registered scanners.
+     */
+    private final AtomicLong mScanReportCount = new AtomicLong();
+    private final AtomicLong mScanRecordParseCount = new AtomicLong();
+
+    /**
+     * Location mode per user id, invalidated by the location mode change broadcast.
+     */
+    private final SparseBooleanArray mLocationEnabledByUser = new SparseBooleanArray();
+
+    /**
+     * Incremented on every invalidation, guarded by mLocationEnabledByUser. A lookup started
+     * before an invalidation must not cache its result.
+     */
+    private int mLocationEnabledGeneration = 0;
+
     private AdapterService mAdapterService;
     private BluetoothAdapterProxy mBluetoothAdapterProxy;
     @VisibleForTesting
@@ -1397,6 +1432,27 @@ public class GattService extends ProfileService {
                 attributionSource);
         }
 
+        @Override
+        public void sendNotificationToDevices(int serverIf, List<String> addresses, int handle,
+                boolean confirm, byte[] value, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            try {
+                receiver.send(sendNotificationToDevices(serverIf, addresses, handle, confirm,
+                            value, attributionSource));
+            } catch (RuntimeException e) {
+                receiver.propagateException(e);
+            }
+        }
+        private int sendNotificationToDevices(int serverIf, List<String> addresses, int handle,
+                boolean confirm, byte[] value, AttributionSource attributionSource) {
+            GattService service = getService();
+            if (service == null) {
+                return BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND;
+            }
+            return service.sendNotificationToDevices(serverIf, addresses, handle, confirm, value,
+                attributionSource);
+        }
+
         @Override
         public void startAdvertisingSet(AdvertisingSetParameters parameters,
                 AdvertiseData advertiseData, AdvertiseData scanResponse,
@@ -1818,7 +1874,14 @@ public class GattService extends ProfileService {
         }
 
 
-        byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+        mScanReportCount.incrementAndGet();
+
+        // The device, the parsed records and the resulting ScanResults are immutable, so they are
+        // built at most once per advertising report (once for the legacy view, once for the full
+        // extended data) and shared between every client that is interested in them.
+        BluetoothDevice device = null;
+        ScanResult legacyResult = null;
+        ScanResult extendedResult = null;
 
         for (ScanClient client : mScanManager.getRegularScanQueue()) {
             ScannerMap.App app = mScannerMap.getById(client.scannerId);
@@ -1829,10 +1892,8 @@ public class GattService extends ProfileService {
                 continue;
             }
 
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-
             ScanSettings settings = client.settings;
-            byte[] scanRecordData;
+            ScanResult result;
             // This is for compability with applications that assume fixed size scan data.
             if (settings.getLegacy()) {
                 if ((eventType & ET_LEGACY_MASK) == 0) {
@@ -1841,20 +1902,30 @@ public class GattService extends ProfileService {
                         Log.d(TAG, "Legacy scan, non legacy result; skip.");
                     }
                     continue;
-                } else {
+                }
+                if (legacyResult == null) {
+                    if (device == null) {
+                        device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+                    }
                     // Some apps are used to fixed-size advertise data.
-                    scanRecordData = legacyAdvData;
+                    byte[] legacyAdvData = Arrays.copyOfRange(advData, 0, 62);
+                    legacyResult = new ScanResult(device, eventType, primaryPhy, secondaryPhy,
+                            advertisingSid, txPower, rssi, periodicAdvInt,
+                            parseScanRecord(legacyAdvData), SystemClock.elapsedRealtimeNanos());
                 }
+                result = legacyResult;
             } else {
-                scanRecordData = advData;
+                if (extendedResult == null) {
+                    if (device == null) {
+                        device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+                    }
+                    extendedResult = new ScanResult(device, eventType, primaryPhy, secondaryPhy,
+                            advertisingSid, txPower, rssi, periodicAdvInt,
+                            parseScanRecord(advData), SystemClock.elapsedRealtimeNanos());
+                }
+                result = extendedResult;
             }
 
-            ScanRecord scanRecord = ScanRecord.parseFromBytes(scanRecordData);
-            ScanResult result =
-                    new ScanResult(device, eventType, primaryPhy, secondaryPhy, advertisingSid,
-                            txPower, rssi, periodicAdvInt, scanRecord,
-                            SystemClock.elapsedRealtimeNanos());
-
             if (client.hasDisavowedLocation) {
                 if (mLocationDenylistPredicate.test(result)) {
                     Log.i(TAG, "Skipping client for location deny list");
@@ -1862,15 +1933,8 @@ public class GattService extends ProfileService {
                 }
             }
 
-            boolean hasPermission = hasScanResultPermission(client);
-            if (!hasPermission) {
-                for (String associatedDevice : client.associatedDevices) {
-                    if (associatedDevice.equalsIgnoreCase(address)) {
-                        hasPermission = true;
-                        break;
-                    }
-                }
-            }
+            boolean hasPermission =
+                    hasScanResultPermission(client) || client.isAssociatedDevice(address);
             if (!hasPermission && client.eligibleForSanitizedExposureNotification) {
                 ScanResult sanitized = getSanitizedExposureNotification(result);
                 if (sanitized != null) {
@@ -1913,6 +1977,11 @@ public class GattService extends ProfileService {
         }
     }
 
+    private ScanRecord parseScanRecord(byte[] scanRecordData) {
+        mScanRecordParseCount.incrementAndGet();
+        return ScanRecord.parseFromBytes(scanRecordData);
+    }
+
     private void sendResultByPendingIntent(PendingIntentInfo pii, ScanResult result,
             int callbackType, ScanClient client) {
         ArrayList<ScanResult> results = new ArrayList<>();
@@ -1977,15 +2046,58 @@ public class GattService extends ProfileService {
 
     /** Determines if the given scan client has the appropriate permissions to receive callbacks. */
     private boolean hasScanResultPermission(final ScanClient client) {
-        if (client.hasNetworkSettingsPermission
-                || client.hasNetworkSetupWizardPermission
-                || client.hasScanWithoutLocationPermission) {
+        if (client.isPermittedRegardlessOfLocationMode()) {
             return true;
         }
-        if (client.hasDisavowedLocation) {
-            return true;
+        return client.hasLocationPermission && isLocationEnabledForUser(client.userHandle);
+    }
+
+    /**
+     * Returns whether location is enabled for {@code userHandle}, without a binder call to the
+     * location manager unless the location mode changed since the last query.
+     */
+    @VisibleForTesting
+    boolean isLocationEnabledForUser(UserHandle userHandle) {
+        if (userHandle == null) {
+            return isLocationEnabledUncached(userHandle);
+        }
+        int userId = userHandle.getIdentifier();
+        int generation;
+        synchronized (mLocationEnabledByUser) {
+            int index = mLocationEnabledByUser.indexOfKey(userId);
+            if (index >= 0) {
+                return mLocationEnabledByUser.valueAt(index);
+            }
+            generation = mLocationEnabledGeneration;
+        }
+        boolean enabled = isLocationEnabledUncached(userHandle);
+        synchronized (mLocationEnabledByUser) {
+            if (generation == mLocationEnabledGeneration) {
+                mLocationEnabledByUser.put(userId, enabled);
+            }
+        }
+        return enabled;
+    }
+
+    @VisibleForTesting
+    boolean isLocationEnabledUncached(UserHandle userHandle) {
+        return !Utils.blockedByLocationOff(this, userHandle);
+    }
+
+    /**
+     * Drops the cached location mode of a user, called when the location mode changes.
+     *
+     * @param userHandle the user whose location mode changed, or {@code null} for all users
+     */
+    void invalidateLocationEnabledCache(UserHandle userHandle) {
+        synchronized (mLocationEnabledByUser) {
+            mLocationEnabledGeneration++;
+            if (userHandle == null) {
+                mLocationEnabledByUser.clear();
+            } else {
+                mLocationEnabledByUser.delete(userHandle.getIdentifier());
+            }
         }
-        return client.hasLocationPermission && !Utils.blockedByLocationOff(this, client.userHandle);
     }
 
     // Check if a scan record matches a specific filters.
@@ -1996,21 +2108,19 @@ public class GattService extends ProfileService {
     // Check if a scan record matches a specific filters or original address
     private MatchResult matchesFilters(ScanClient client, ScanResult scanResult,
             String originalAddress) {
-        if (client.filters == null || client.filters.isEmpty()) {
+        ScanFilterIndex filterIndex = client.getFilterIndex();
+        if (filterIndex == null) {
             // TODO: Do we really wanna return true here?
             return new MatchResult(true, MatchOrigin.PSEUDO_ADDRESS);
         }
-        for (ScanFilter filter : client.filters) {
-            // Need to check the filter matches, and the original address without changing the API
-            if (filter.matches(scanResult)) {
+        switch (filterIndex.match(scanResult, originalAddress)) {
+            case ScanFilterIndex.MATCH_PSEUDO_ADDRESS:
                 return new MatchResult(true, MatchOrigin.PSEUDO_ADDRESS);
-            }
-            if (originalAddress != null
-                    && originalAddress.equalsIgnoreCase(filter.getDeviceAddress())) {
+            case ScanFilterIndex.MATCH_ORIGINAL_ADDRESS:
                 return new MatchResult(true, MatchOrigin.ORIGINAL_ADDRESS);
-            }
+            default:
+                return new MatchResult(false, MatchOrigin.PSEUDO_ADDRESS);
         }
-        return new MatchResult(false, MatchOrigin.PSEUDO_ADDRESS);
     }
 
     void onClientRegistered(int status, int clientIf, long uuidLsb, long uuidMsb)
@@ -2040,7 +2150,8 @@ public class GattService extends ProfileService {
         if (status == 0) {
             mClientMap.addConnection(clientIf, connId, address);
 
-            // Allow one writeCharacteristic operation at a time for each connected remote device.
+            // Allow one writeCharacteristic operation at a time for each connected remote device,
+            // or a few writes without response, see writeCharacteristic().
             synchronized (mPermits) {
                 Log.d(TAG, "onConnected() - adding permit for address="
                     + address);
@@ -2075,12 +2186,14 @@ public class GattService extends ProfileService {
                 Log.d(TAG, "onDisconnected() - removing permit for address="
                     + address);
                 mPermits.remove(address);
+                mWritesWithoutResponseInFlight.remove(address);
             }
         } else {
             synchronized (mPermits) {
                 if (mPermits.get(address) == connId) {
                     Log.d(TAG, "onDisconnected() - set permit -1 for address=" + address);
                     mPermits.put(address, -1);
+                    mWritesWithoutResponseInFlight.remove(address);
                 }
             }
         }
@@ -2386,9 +2499,15 @@ public class GattService extends ProfileService {
             throws RemoteException {
         String address = mClientMap.addressByConnId(connId);
         synchronized (mPermits) {
-            Log.d(TAG, "onWriteCharacteristic() - increasing permit for address="
-                    + address);
-            mPermits.put(address, -1);
+            Integer writesInFlight = mWritesWithoutResponseInFlight.get(address);
+            if (writesInFlight != null && writesInFlight > 1) {
+                mWritesWithoutResponseInFlight.put(address, writesInFlight - 1);
+            } else {
+                Log.d(TAG, "onWriteCharacteristic() - increasing permit for address="
+                        + address);
+                mPermits.put(address, -1);
+                mWritesWithoutResponseInFlight.remove(address);
+            }
         }
 
         if (VDBG) {
@@ -2540,7 +2659,7 @@ public class GattService extends ProfileService {
                     + ", reportType=" + reportType + ", numRecords=" + numRecords);
         }
         mScanManager.callbackDone(scannerId, status);
-        Set<ScanResult> results = parseBatchScanResults(numRecords, reportType, recordData);
+        List<ScanResult> results = parseBatchScanResults(numRecords, reportType, recordData);
         if (reportType == ScanManager.SCAN_RESULT_TYPE_TRUNCATED) {
             // We only support single client for truncated mode.
             ScannerMap.App app = mScannerMap.getById(scannerId);
@@ -2559,11 +2678,8 @@ public class GattService extends ProfileService {
             } else {
                 permittedResults = new ArrayList<ScanResult>();
                 for (ScanResult scanResult : results) {
-                    for (String associatedDevice : client.associatedDevices) {
-                        if (associatedDevice.equalsIgnoreCase(scanResult.getDevice()
-                                    .getAddress())) {
-                            permittedResults.add(scanResult);
-                        }
+                    if (client.isAssociatedDevice(scanResult.getDevice().getAddress())) {
+                        permittedResults.add(scanResult);
                     }
                 }
                 if (permittedResults.isEmpty()) {
@@ -2610,7 +2726,7 @@ public class GattService extends ProfileService {
     }
 
     // Check and deliver scan results for different scan clients.
-    private void deliverBatchScan(ScanClient client, Set<ScanResult> allResults)
+    private void deliverBatchScan(ScanClient client, List<ScanResult> allResults)
             throws RemoteException {
         ScannerMap.App app = mScannerMap.getById(client.scannerId);
         if (app == null) {
@@ -2623,10 +2739,8 @@ public class GattService extends ProfileService {
         } else {
             permittedResults = new ArrayList<ScanResult>();
             for (ScanResult scanResult : allResults) {
-                for (String associatedDevice : client.associatedDevices) {
-                    if (associatedDevice.equalsIgnoreCase(scanResult.getDevice().getAddress())) {
-                        permittedResults.add(scanResult);
-                    }
+                if (client.isAssociatedDevice(scanResult.getDevice().getAddress())) {
+                    permittedResults.add(scanResult);
                 }
             }
             if (permittedResults.isEmpty()) {
@@ -2648,10 +2762,11 @@ public class GattService extends ProfileService {
         sendBatchScanResults(app, client, results);
     }
 
-    private Set<ScanResult> parseBatchScanResults(int numRecords, int reportType,
+    @VisibleForTesting
+    List<ScanResult> parseBatchScanResults(int numRecords, int reportType,
             byte[] batchRecord) {
         if (numRecords == 0) {
-            return Collections.emptySet();
+            return Collections.emptyList();
         }
         if (DBG) {
             Log.d(TAG, "current time is " + SystemClock.elapsedRealtimeNanos());
@@ -2663,65 +2778,66 @@ public class GattService extends ProfileService {
         }
     }
 
-    private Set<ScanResult> parseTruncatedResults(int numRecords, byte[] batchRecord) {
+    private List<ScanResult> parseTruncatedResults(int numRecords, byte[] batchRecord) {
         if (DBG) {
             Log.d(TAG, "batch record " + Arrays.toString(batchRecord));
         }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
+        List<ScanResult> results = new ArrayList<ScanResult>(numRecords);
+        ByteBuffer buffer = ByteBuffer.wrap(batchRecord).order(ByteOrder.LITTLE_ENDIAN);
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        char[] addressChars = new char[MAC_ADDRESS_STRING_LENGTH];
+        // Truncated records carry no advertising data, the empty record can be shared.
+        ScanRecord emptyRecord = ScanRecord.parseFromBytes(new byte[0]);
         long now = SystemClock.elapsedRealtimeNanos();
         for (int i = 0; i < numRecords; ++i) {
-            byte[] record =
-                    extractBytes(batchRecord, i * TRUNCATED_RESULT_SIZE, TRUNCATED_RESULT_SIZE);
-            byte[] address = extractBytes(record, 0, 6);
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            int rssi = record[8];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(record, 9, 2));
-            results.add(new ScanResult(device, ScanRecord.parseFromBytes(new byte[0]), rssi,
-                    timestampNanos));
+            int position = i * TRUNCATED_RESULT_SIZE;
+            BluetoothDevice device =
+                    adapter.getRemoteDevice(readAddress(buffer, position, addressChars));
+            int rssi = buffer.get(position + 8);
+            long timestampNanos = now - parseTimestampNanos(buffer.getShort(position + 9));
+            results.add(new ScanResult(device, emptyRecord, rssi, timestampNanos));
         }
         return results;
     }
 
     @VisibleForTesting
     long parseTimestampNanos(byte[] data) {
-        long timestampUnit = NumberUtils.littleEndianByteArrayToInt(data);
+        return parseTimestampNanos((short) NumberUtils.littleEndianByteArrayToInt(data));
+    }
+
+    private static long parseTimestampNanos(short data) {
+        long timestampUnit = Short.toUnsignedInt(data);
         // Timestamp is in every 50 ms.
         return TimeUnit.MILLISECONDS.toNanos(timestampUnit * 50);
     }
 
-    private Set<ScanResult> parseFullResults(int numRecords, byte[] batchRecord) {
+    private List<ScanResult> parseFullResults(int numRecords, byte[] batchRecord) {
         if (DBG) {
             Log.d(TAG, "Batch record : " + Arrays.toString(batchRecord));
         }
-        Set<ScanResult> results = new HashSet<ScanResult>(numRecords);
-        int position = 0;
+        List<ScanResult> results = new ArrayList<ScanResult>(numRecords);
+        ByteBuffer buffer = ByteBuffer.wrap(batchRecord).order(ByteOrder.LITTLE_ENDIAN);
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        char[] addressChars = new char[MAC_ADDRESS_STRING_LENGTH];
         long now = SystemClock.elapsedRealtimeNanos();
-        while (position < batchRecord.length) {
-            byte[] address = extractBytes(batchRecord, position, 6);
-            // TODO: remove temp hack.
-            reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
-            position += 6;
-            // Skip address type.
-            position++;
-            // Skip tx power level.
-            position++;
-            int rssi = batchRecord[position++];
-            long timestampNanos = now - parseTimestampNanos(extractBytes(batchRecord, position, 2));
-            position += 2;
+        while (buffer.hasRemaining()) {
+            int position = buffer.position();
+            BluetoothDevice device =
+                    adapter.getRemoteDevice(readAddress(buffer, position, addressChars));
+            // Skip address, address type and tx power level.
+            buffer.position(position + MAC_ADDRESS_LENGTH + 2);
+            int rssi = buffer.get();
+            long timestampNanos = now - parseTimestampNanos(buffer.getShort());
 
             // Combine advertise packet and scan response packet.
-            int advertisePacketLen = batchRecord[position++];
-            byte[] advertiseBytes = extractBytes(batchRecord, position, advertisePacketLen);
-            position += advertisePacketLen;
-            int scanResponsePacketLen = batchRecord[position++];
-            byte[] scanResponseBytes = extractBytes(batchRecord, position, scanResponsePacketLen);
-            position += scanResponsePacketLen;
+            int advertisePacketLen = buffer.get() & 0xFF;
+            int scanResponsePacketLen =
+                    buffer.get(buffer.position() + advertisePacketLen) & 0xFF;
             byte[] scanRecord = new byte[advertisePacketLen + scanResponsePacketLen];
-            System.arraycopy(advertiseBytes, 0, scanRecord, 0, advertisePacketLen);
-            System.arraycopy(scanResponseBytes, 0, scanRecord, advertisePacketLen,
-                    scanResponsePacketLen);
+            buffer.get(scanRecord, 0, advertisePacketLen);
+            // Skip scan response length.
+            buffer.get();
+            buffer.get(scanRecord, advertisePacketLen, scanResponsePacketLen);
             if (DBG) {
                 Log.d(TAG, "ScanRecord : " + Arrays.toString(scanRecord));
             }
@@ -2731,21 +2847,18 @@ public class GattService extends ProfileService {
         return results;
     }
 
-    // Reverse byte array.
-    private void reverse(byte[] address) {
-        int len = address.length;
-        for (int i = 0; i < len / 2; ++i) {
-            byte b = address[i];
-            address[i] = address[len - 1 - i];
-            address[len - 1 - i] = b;
+    // Formats the little endian address at position into a "XX:XX:XX:XX:XX:XX" string.
+    private static String readAddress(ByteBuffer buffer, int position, char[] chars) {
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            int b = buffer.get(position + MAC_ADDRESS_LENGTH - 1 - i) & 0xFF;
+            int offset = i * 3;
+            chars[offset] = HEX_DIGITS[b >>> 4];
+            chars[offset + 1] = HEX_DIGITS[b & 0x0F];
+            if (offset + 2 < chars.length) {
+                chars[offset + 2] = ':';
+            }
         }
-    }
-
-    // Helper method to extract bytes from byte array.
-    private static byte[] extractBytes(byte[] scanRecord, int start, int length) {
-        byte[] bytes = new byte[length];
-        System.arraycopy(scanRecord, start, bytes, 0, length);
-        return bytes;
+        return new String(chars);
     }
 
     @RequiresPermission(android.Manifest.permission.BLUETOOTH_SCAN)
@@ -3685,7 +3798,14 @@ public class GattService extends ProfileService {
         }
         permissionCheck(connId, handle);
 
+        ClientMap.App app = mClientMap.getById(clientIf);
+        if (app != null && app.isCongestionQueueFull()) {
+            Log.w(TAG, "writeCharacteristic() - too many writes queued while congested");
+            return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
+        }
+
         Log.d(TAG, "writeCharacteristic() - trying to acquire permit.");
+        boolean withoutResponse = writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
         // Lock the thread until onCharacteristicWrite callback comes back.
         synchronized (mPermits) {
             Integer permit = mPermits.get(address);
@@ -3694,12 +3814,23 @@ public class GattService extends ProfileService {
                 return BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
             }
 
-            boolean success = (permit == -1);
-            if (!success) {
-                Log.d(TAG, "writeCharacteristic() - no permit available.");
-                return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
+            if (permit == -1) {
+                mPermits.put(address, connId);
+                if (withoutResponse) {
+                    mWritesWithoutResponseInFlight.put(address, 1);
+                }
+            } else {
+                // Writes without response of the permit holder can be pipelined, as long as
+                // the link keeps up with them.
+                Integer writesInFlight = mWritesWithoutResponseInFlight.get(address);
+                if (!withoutResponse || !connId.equals(permit) || writesInFlight == null
+                        || writesInFlight >= MAX_WRITES_WITHOUT_RESPONSE_IN_FLIGHT
+                        || (app != null && app.isCongested)) {
+                    Log.d(TAG, "writeCharacteristic() - no permit available.");
+                    return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
+                }
+                mWritesWithoutResponseInFlight.put(address, writesInFlight + 1);
             }
-            mPermits.put(address, connId);
         }
 
         gattClientWriteCharacteristicNative(connId, handle, writeType, authReq, value);
@@ -3949,28 +4080,23 @@ public class GattService extends ProfileService {
 
         for (GattDbElement el : service) {
             if (el.type == GattDbElement.TYPE_PRIMARY_SERVICE) {
-                mHandleMap.addService(serverIf, el.attributeHandle, el.uuid,
-                        BluetoothGattService.SERVICE_TYPE_PRIMARY, 0, false);
                 svc = new BluetoothGattService(svcEl.uuid, svcEl.attributeHandle,
                         BluetoothGattService.SERVICE_TYPE_PRIMARY);
             } else if (el.type == GattDbElement.TYPE_SECONDARY_SERVICE) {
-                mHandleMap.addService(serverIf, el.attributeHandle, el.uuid,
-                        BluetoothGattService.SERVICE_TYPE_SECONDARY, 0, false);
                 svc = new BluetoothGattService(svcEl.uuid, svcEl.attributeHandle,
                         BluetoothGattService.SERVICE_TYPE_SECONDARY);
             } else if (el.type == GattDbElement.TYPE_CHARACTERISTIC) {
-                mHandleMap.addCharacteristic(serverIf, el.attributeHandle, el.uuid, srvcHandle);
                 svc.addCharacteristic(
                         new BluetoothGattCharacteristic(el.uuid, el.attributeHandle, el.properties,
                                 el.permissions));
             } else if (el.type == GattDbElement.TYPE_DESCRIPTOR) {
-                mHandleMap.addDescriptor(serverIf, el.attributeHandle, el.uuid, srvcHandle);
                 List<BluetoothGattCharacteristic> chars = svc.getCharacteristics();
                 chars.get(chars.size() - 1)
                         .addDescriptor(new BluetoothGattDescriptor(el.uuid, el.attributeHandle,
                                 el.permissions));
             }
         }
+        mHandleMap.addServiceElements(serverIf, service);
         mHandleMap.setStarted(serverIf, srvcHandle, true);
 
         ServerMap.App app = mServerMap.getById(serverIf);
@@ -4433,6 +4559,13 @@ public class GattService extends ProfileService {
             return BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
         }
 
+        ServerMap.App app = mServerMap.getById(serverIf);
+        if (app != null && app.isCongestionQueueFull()) {
+            // ERROR_GATT_WRITE_REQUEST_BUSY is not part of the notifyCharacteristicChanged API
+            Log.w(TAG, "sendNotification() - too many notifications queued while congested");
+            return BluetoothStatusCodes.ERROR_UNKNOWN;
+        }
+
         if (confirm) {
             gattServerSendIndicationNative(serverIf, handle, connId, value);
         } else {
@@ -4442,6 +4575,53 @@ public class GattService extends ProfileService {
         return BluetoothStatusCodes.SUCCESS;
     }
 
+    /**
+     * Sends the same notification or indication to several devices, checking the permission only
+     * once. Devices that are not connected are skipped.
+     *
+     * @return {@link BluetoothStatusCodes#ERROR_DEVICE_NOT_CONNECTED} if any of the devices was
+     * skipped, {@link BluetoothStatusCodes#ERROR_UNKNOWN} if none was notified because too many
+     * notifications are queued while congested,
+     * {@link BluetoothStatusCodes#SUCCESS} otherwise
+     */
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    int sendNotificationToDevices(int serverIf, List<String> addresses, int handle,
+            boolean confirm, byte[] value, AttributionSource attributionSource) {
+        if (!Utils.checkConnectPermissionForDataDelivery(
+                this, attributionSource, "GattService sendNotificationToDevices")) {
+            return BluetoothStatusCodes.ERROR_MISSING_BLUETOOTH_CONNECT_PERMISSION;
+        }
+
+        if (VDBG) {
+            Log.d(TAG, "sendNotificationToDevices() - addresses=" + addresses
+                    + " handle=" + handle);
+        }
+
+        ServerMap.App app = mServerMap.getById(serverIf);
+        if (app != null && app.isCongestionQueueFull()) {
+            Log.w(TAG, "sendNotificationToDevices() - too many notifications queued while"
+                    + " congested");
+            return BluetoothStatusCodes.ERROR_UNKNOWN;
+        }
+
+        int status = BluetoothStatusCodes.SUCCESS;
+        for (String address : addresses) {
+            Integer connId = mServerMap.connIdByAddress(serverIf, address);
+            if (connId == null || connId == 0) {
+                status = BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
+                continue;
+            }
+
+            if (confirm) {
+                gattServerSendIndicationNative(serverIf, handle, connId, value);
+            } else {
+                gattServerSendNotificationNative(serverIf, handle, connId, value);
+            }
+        }
+
+        return status;
+    }
+
 
     /**************************************************************************
      * Private functions
@@ -4617,10 +4797,8 @@ public class GattService extends ProfileService {
         }
 
         if (status == 0) {
-            List<HandleMap.Entry> entries = mHandleMap.getEntries();
-            for (HandleMap.Entry entry : entries) {
-                if (entry.type != HandleMap.TYPE_SERVICE || entry.serverIf != serverIf
-                        || !entry.started) {
+            for (HandleMap.Entry entry : mHandleMap.getServices(serverIf)) {
+                if (!entry.started) {
                     continue;
                 }
 
@@ -4640,11 +4818,7 @@ public class GattService extends ProfileService {
          * The handles are copied into a new list to avoid race conditions.
          */
         List<Integer> handleList = new ArrayList<Integer>();
-        List<HandleMap.Entry> entries = mHandleMap.getEntries();
-        for (HandleMap.Entry entry : entries) {
-            if (entry.type != HandleMap.TYPE_SERVICE || entry.serverIf != serverIf) {
-                continue;
-            }
+        for (HandleMap.Entry entry : mHandleMap.getServices(serverIf)) {
             handleList.add(entry.handle);
         }
 
@@ -4680,6 +4854,12 @@ public class GattService extends ProfileService {
 
         println(sb, "mMaxScanFilters: " + mMaxScanFilters);
 
+        long reports = mScanReportCount.get();
+        long parses = mScanRecordParseCount.get();
+        println(sb, "Scan reports: " + reports + ", scan record parses: " + parses
+                + (reports > 0 ? String.format(", parses/report: %.2f", (double) parses / reports)
+                        : ""));
+
         sb.append("\nRegistered App\n");
         dumpRegisterId(sb);
 
@@ -4691,9 +4871,11 @@ public class GattService extends ProfileService {
 
         sb.append("GATT Client Map\n");
         mClientMap.dump(sb);
+        mClientMap.dumpCongestionQueues(sb);
 
         sb.append("GATT Server Map\n");
         mServerMap.dump(sb);
+        mServerMap.dumpCongestionQueues(sb);
 
         sb.append("GATT Handle Map\n");
         mHandleMap.dump(sb);
@@ -15,8 +15,12 @@
  */
 package com.android.bluetooth.gatt;
 
+import android.bluetooth.BluetoothGattService;
 import android.util.Log;
+import android.util.SparseArray;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -86,71 +90,173 @@ class HandleMap {
     Map<Integer, Integer> mRequestMap = null;
     int mLastCharacteristic = 0;
 
+    // Index of mEntries by attribute handle, and of the service entries by server interface.
+    // Both are guarded by mIndexLock, mEntries stays a copy on write list for iteration.
+    private final Object mIndexLock = new Object();
+    private final SparseArray<Entry> mEntriesByHandle = new SparseArray<Entry>();
+    private final SparseArray<List<Entry>> mServicesByServerIf = new SparseArray<List<Entry>>();
+
     HandleMap() {
         mEntries = new CopyOnWriteArrayList<Entry>();
         mRequestMap = new ConcurrentHashMap<Integer, Integer>();
     }
 
     void clear() {
-        mEntries.clear();
+        synchronized (mIndexLock) {
+            mEntries.clear();
+            mEntriesByHandle.clear();
+            mServicesByServerIf.clear();
+        }
         mRequestMap.clear();
     }
 
     void addService(int serverIf, int handle, UUID uuid, int serviceType, int instance,
             boolean advertisePreferred) {
-        mEntries.add(new Entry(serverIf, handle, uuid, serviceType, instance, advertisePreferred));
+        addEntries(Collections.singletonList(
+                new Entry(serverIf, handle, uuid, serviceType, instance, advertisePreferred)));
     }
 
     void addCharacteristic(int serverIf, int handle, UUID uuid, int serviceHandle) {
         mLastCharacteristic = handle;
-        mEntries.add(new Entry(serverIf, TYPE_CHARACTERISTIC, handle, uuid, serviceHandle));
+        addEntries(Collections.singletonList(
+                new Entry(serverIf, TYPE_CHARACTERISTIC, handle, uuid, serviceHandle)));
     }
 
     void addDescriptor(int serverIf, int handle, UUID uuid, int serviceHandle) {
-        mEntries.add(new Entry(serverIf, TYPE_DESCRIPTOR, handle, uuid, serviceHandle,
-                mLastCharacteristic));
+        addEntries(Collections.singletonList(new Entry(serverIf, TYPE_DESCRIPTOR, handle, uuid,
+                serviceHandle, mLastCharacteristic)));
     }
 
-    void setStarted(int serverIf, int handle, boolean started) {
-        for (Entry entry : mEntries) {
-            if (entry.type != TYPE_SERVICE || entry.serverIf != serverIf
-                    || entry.handle != handle) {
-                continue;
+    /**
+     * Adds all the attributes of a service in one go.
+     *
+     * @param serverIf server interface owning the service
+     * @param service elements of the service, the service declaration first
+     */
+    void addServiceElements(int serverIf, List<GattDbElement> service) {
+        int srvcHandle = service.get(0).attributeHandle;
+        List<Entry> entries = new ArrayList<Entry>(service.size());
+        for (GattDbElement el : service) {
+            if (el.type == GattDbElement.TYPE_PRIMARY_SERVICE) {
+                entries.add(new Entry(serverIf, el.attributeHandle, el.uuid,
+                        BluetoothGattService.SERVICE_TYPE_PRIMARY, 0, false));
+            } else if (el.type == GattDbElement.TYPE_SECONDARY_SERVICE) {
+                entries.add(new Entry(serverIf, el.attributeHandle, el.uuid,
+                        BluetoothGattService.SERVICE_TYPE_SECONDARY, 0, false));
+            } else if (el.type == GattDbElement.TYPE_CHARACTERISTIC) {
+                mLastCharacteristic = el.attributeHandle;
+                entries.add(new Entry(serverIf, TYPE_CHARACTERISTIC, el.attributeHandle, el.uuid,
+                        srvcHandle));
+            } else if (el.type == GattDbElement.TYPE_DESCRIPTOR) {
+                entries.add(new Entry(serverIf, TYPE_DESCRIPTOR, el.attributeHandle, el.uuid,
+                        srvcHandle, mLastCharacteristic));
             }
+        }
+        addEntries(entries);
+    }
 
+    private void addEntries(List<Entry> entries) {
+        synchronized (mIndexLock) {
+            mEntries.addAll(entries);
+            for (Entry entry : entries) {
+                // Keep the first entry for a handle, as the former linear lookup did.
+                if (mEntriesByHandle.get(entry.handle) == null) {
+                    mEntriesByHandle.put(entry.handle, entry);
+                }
+                if (entry.type == TYPE_SERVICE) {
+                    List<Entry> services = mServicesByServerIf.get(entry.serverIf);
+                    if (services == null) {
+                        services = new ArrayList<Entry>();
+                        mServicesByServerIf.put(entry.serverIf, services);
+                    }
+                    services.add(entry);
+                }
+            }
+        }
+    }
+
+    void setStarted(int serverIf, int handle, boolean started) {
+        Entry entry = getServiceEntry(serverIf, handle);
+        if (entry != null) {
             entry.started = started;
-            return;
         }
     }
 
     Entry getByHandle(int handle) {
-        for (Entry entry : mEntries) {
-            if (entry.handle == handle) {
-                return entry;
-            }
+        Entry entry;
+        synchronized (mIndexLock) {
+            entry = mEntriesByHandle.get(handle);
         }
-        Log.e(TAG, "getByHandle() - Handle " + handle + " not found!");
-        return null;
+        if (entry == null) {
+            Log.e(TAG, "getByHandle() - Handle " + handle + " not found!");
+        }
+        return entry;
     }
 
     boolean checkServiceExists(UUID uuid, int handle) {
-        for (Entry entry : mEntries) {
-            if (entry.type == TYPE_SERVICE && entry.handle == handle && entry.uuid.equals(uuid)) {
-                return true;
-            }
+        synchronized (mIndexLock) {
+            Entry entry = mEntriesByHandle.get(handle);
+            return entry != null && entry.type == TYPE_SERVICE && entry.uuid.equals(uuid);
         }
-        return false;
     }
 
     void deleteService(int serverIf, int serviceHandle) {
-        mEntries.removeIf(entry -> ((entry.serverIf == serverIf)
-                && (entry.handle == serviceHandle || entry.serviceHandle == serviceHandle)));
+        synchronized (mIndexLock) {
+            List<Entry> removed = new ArrayList<Entry>();
+            for (Entry entry : mEntries) {
+                if (entry.serverIf == serverIf
+                        && (entry.handle == serviceHandle || entry.serviceHandle == serviceHandle)) {
+                    removed.add(entry);
+                }
+            }
+            if (removed.isEmpty()) {
+                return;
+            }
+            mEntries.removeAll(removed);
+            for (Entry entry : removed) {
+                if (mEntriesByHandle.get(entry.handle) == entry) {
+                    mEntriesByHandle.remove(entry.handle);
+                }
+            }
+            List<Entry> services = mServicesByServerIf.get(serverIf);
+            if (services != null) {
+                services.removeAll(removed);
+                if (services.isEmpty()) {
+                    mServicesByServerIf.remove(serverIf);
+                }
+            }
+        }
     }
 
     List<Entry> getEntries() {
         return mEntries;
     }
 
+    /**
+     * Returns a snapshot of the service entries registered by {@code serverIf}.
+     */
+    List<Entry> getServices(int serverIf) {
+        synchronized (mIndexLock) {
+            List<Entry> services = mServicesByServerIf.get(serverIf);
+            return services == null ? Collections.emptyList() : new ArrayList<Entry>(services);
+        }
+    }
+
+    private Entry getServiceEntry(int serverIf, int handle) {
+        synchronized (mIndexLock) {
+            List<Entry> services = mServicesByServerIf.get(serverIf);
+            if (services == null) {
+                return null;
+            }
+            for (Entry entry : services) {
+                if (entry.handle == handle) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+    }
+
     void addRequest(int requestId, int handle) {
         mRequestMap.put(requestId, handle);
     }
@@ -21,8 +21,11 @@ import android.bluetooth.le.ScanSettings;
 import android.os.Binder;
 import android.os.UserHandle;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Helper class identifying a client that has requested LE scan results.
@@ -50,6 +53,13 @@ import java.util.Objects;
 
     public AppScanStats stats = null;
 
+    // Compiled form of filters, built on first use.
+    private ScanFilterIndex mFilterIndex;
+    // Upper case form of associatedDevices, built on first use.
+    private Set<String> mAssociatedAddresses;
+    // Permission verdict that does not depend on the location mode, computed on first use.
+    private Boolean mPermittedRegardlessOfLocationMode;
+
     private static final ScanSettings DEFAULT_SCAN_SETTINGS =
             new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
 
@@ -99,6 +109,52 @@ import java.util.Objects;
         return sb.toString();
     }
 
+    /**
+     * Returns the compiled index of {@link #filters}, or null if the client has no filters.
+     */
+    ScanFilterIndex getFilterIndex() {
+        if (filters == null || filters.isEmpty()) {
+            return null;
+        }
+        if (mFilterIndex == null) {
+            mFilterIndex = new ScanFilterIndex(filters);
+        }
+        return mFilterIndex;
+    }
+
+    /**
+     * Returns true if the client may receive scan results whatever the location mode is.
+     *
+     * <p>The verdict is computed once, the permission fields are expected to be set before the
+     * client starts scanning.
+     */
+    boolean isPermittedRegardlessOfLocationMode() {
+        if (mPermittedRegardlessOfLocationMode == null) {
+            mPermittedRegardlessOfLocationMode = hasNetworkSettingsPermission
+                    || hasNetworkSetupWizardPermission
+                    || hasScanWithoutLocationPermission
+                    || hasDisavowedLocation;
+        }
+        return mPermittedRegardlessOfLocationMode;
+    }
+
+    /**
+     * Returns true if {@code address} is one of the companion devices associated with the client.
+     */
+    boolean isAssociatedDevice(String address) {
+        if (associatedDevices == null || associatedDevices.isEmpty() || address == null) {
+            return false;
+        }
+        if (mAssociatedAddresses == null) {
+            Set<String> addresses = new HashSet<>();
+            for (String associatedDevice : associatedDevices) {
+                addresses.add(associatedDevice.toUpperCase(Locale.ROOT));
+            }
+            mAssociatedAddresses = addresses;
+        }
+        return mAssociatedAddresses.contains(address.toUpperCase(Locale.ROOT));
+    }
+
     /**
      * Update scan settings with the new scan mode.
      * @param newScanMode
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compiled form of the software {@link ScanFilter}s of a {@link ScanClient}.
+ *
+ * <p>Filters on an exact device address, an unmasked service UUID or a manufacturer ID are hashed
+ * by that key, so that only the filters that can possibly match a scan result are evaluated with
+ * {@link ScanFilter#matches}. Filters that cannot be keyed are always evaluated. Matching keeps
+ * the semantics of walking the filter list in order.
+ *
+ * @hide
+ */
+/* package */ class ScanFilterIndex {
+    static final int NO_MATCH = 0;
+    static final int MATCH_PSEUDO_ADDRESS = 1;
+    static final int MATCH_ORIGINAL_ADDRESS = 2;
+
+    private final ScanFilter[] mFilters;
+    // Keyed by upper case address, as the original address is compared ignoring case.
+    private final Map<String, int[]> mByAddress = new HashMap<>();
+    private final Map<ParcelUuid, int[]> mByServiceUuid = new HashMap<>();
+    private final SparseArray<int[]> mByManufacturerId = new SparseArray<>();
+    private final int[] mUnindexed;
+
+    ScanFilterIndex(List<ScanFilter> filters) {
+        mFilters = filters.toArray(new ScanFilter[0]);
+        List<Integer> unindexed = new ArrayList<>();
+        for (int i = 0; i < mFilters.length; i++) {
+            ScanFilter filter = mFilters[i];
+            if (filter == null) {
+                continue;
+            }
+            if (filter.getDeviceAddress() != null) {
+                String key = filter.getDeviceAddress().toUpperCase(Locale.ROOT);
+                mByAddress.put(key, append(mByAddress.get(key), i));
+            } else if (filter.getServiceUuid() != null && filter.getServiceUuidMask() == null) {
+                ParcelUuid key = filter.getServiceUuid();
+                mByServiceUuid.put(key, append(mByServiceUuid.get(key), i));
+            } else if (filter.getManufacturerId() >= 0) {
+                int key = filter.getManufacturerId();
+                mByManufacturerId.put(key, append(mByManufacturerId.get(key), i));
+            } else {
+                unindexed.add(i);
+            }
+        }
+        mUnindexed = new int[unindexed.size()];
+        for (int i = 0; i < mUnindexed.length; i++) {
+            mUnindexed[i] = unindexed.get(i);
+        }
+    }
+
+    /** Returns the number of filters that have to be evaluated for every scan result. */
+    int getUnindexedCount() {
+        return mUnindexed.length;
+    }
+
+    /**
+     * Returns how {@code scanResult} matches the filters: {@link #MATCH_PSEUDO_ADDRESS} if a
+     * filter matches the result, {@link #MATCH_ORIGINAL_ADDRESS} if a filter address matches
+     * {@code originalAddress}, and {@link #NO_MATCH} otherwise. When several filters match, the
+     * first one in the original filter order decides.
+     */
+    int match(ScanResult scanResult, String originalAddress) {
+        BitSet candidates = new BitSet(mFilters.length);
+        addAll(candidates, mUnindexed);
+
+        if (!mByAddress.isEmpty()) {
+            BluetoothDevice device = scanResult.getDevice();
+            if (device != null) {
+                addAll(candidates, mByAddress.get(device.getAddress().toUpperCase(Locale.ROOT)));
+            }
+            if (originalAddress != null) {
+                addAll(candidates, mByAddress.get(originalAddress.toUpperCase(Locale.ROOT)));
+            }
+        }
+
+        ScanRecord scanRecord = scanResult.getScanRecord();
+        if (scanRecord != null) {
+            if (!mByServiceUuid.isEmpty()) {
+                List<ParcelUuid> uuids = scanRecord.getServiceUuids();
+                if (uuids != null) {
+                    for (ParcelUuid uuid : uuids) {
+                        addAll(candidates, mByServiceUuid.get(uuid));
+                    }
+                }
+            }
+            if (mByManufacturerId.size() > 0) {
+                SparseArray<byte[]> manufacturerData = scanRecord.getManufacturerSpecificData();
+                if (manufacturerData != null) {
+                    for (int i = 0; i < manufacturerData.size(); i++) {
+                        addAll(candidates, mByManufacturerId.get(manufacturerData.keyAt(i)));
+                    }
+                }
+            }
+        }
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            ScanFilter filter = mFilters[i];
+            // Need to check the filter matches, and the original address without changing the API
+            if (filter.matches(scanResult)) {
+                return MATCH_PSEUDO_ADDRESS;
+            }
+            if (originalAddress != null
+                    && originalAddress.equalsIgnoreCase(filter.getDeviceAddress())) {
+                return MATCH_ORIGINAL_ADDRESS;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    private static void addAll(BitSet set, int[] indexes) {
+        if (indexes == null) {
+            return;
+        }
+        for (int index : indexes) {
+            set.set(index);
+        }
+    }
+
+    private static int[] append(int[] array, int value) {
+        if (array == null) {
+            return new int[] {value};
+        }
+        int[] result = new int[array.length + 1];
+        System.arraycopy(array, 0, result, 0, array.length);
+        result[array.length] = value;
+        return result;
+    }
+}
@@ -20,6 +20,7 @@ import android.annotation.RequiresPermission;
 import android.app.ActivityManager;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
+import android.bluetooth.BluetoothUtils;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanSettings;
@@ -36,6 +37,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.os.UserHandle;
 import android.provider.Settings;
 import android.util.Log;
 import android.util.SparseBooleanArray;
@@ -187,7 +189,8 @@ public class ScanManager {
                     FOREGROUND_IMPORTANCE_CUTOFF);
         }
         IntentFilter locationIntentFilter = new IntentFilter(LocationManager.MODE_CHANGED_ACTION);
-        mService.registerReceiver(mLocationReceiver, locationIntentFilter);
+        // Scan clients of every user are served, and the location mode is per user.
+        mService.registerReceiverForAllUsers(mLocationReceiver, locationIntentFilter, null, null);
     }
 
     void cleanup() {
@@ -1653,6 +1656,11 @@ public class ScanManager {
                 public void onReceive(Context context, Intent intent) {
                     String action = intent.getAction();
                     if (LocationManager.MODE_CHANGED_ACTION.equals(action)) {
+                        int userId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE,
+                                BluetoothUtils.USER_HANDLE_NULL.getIdentifier());
+                        mService.invalidateLocationEnabledCache(
+                                userId == BluetoothUtils.USER_HANDLE_NULL.getIdentifier()
+                                        ? null : UserHandle.of(userId));
                         final boolean locationEnabled = mLocationManager.isLocationEnabled();
                         if (locationEnabled) {
                             sendMessage(MSG_RESUME_SCANS, null);
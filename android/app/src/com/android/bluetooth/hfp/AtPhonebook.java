@@ -28,7 +28,6 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.provider.CallLog.Calls;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
-import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
 import android.util.Log;
 
@@ -54,7 +53,7 @@ public class AtPhonebook {
      *   dialed calls respectively)
      */
     private static final String[] CALLS_PROJECTION = new String[]{
-            Calls._ID, Calls.NUMBER, Calls.NUMBER_PRESENTATION
+            Calls._ID, Calls.NUMBER, Calls.NUMBER_PRESENTATION, Calls.CACHED_NORMALIZED_NUMBER
     };
 
     /** The projection to use when querying the contacts database in response
@@ -68,6 +67,10 @@ public class AtPhonebook {
      *  BT periphals don't. Limit the number we'll report. */
     private static final int MAX_PHONEBOOK_SIZE = 16384;
 
+    /** CPBR records are sent in AT responses of up to this many bytes, see BTA_AG_AT_MAX_LEN. */
+    @VisibleForTesting
+    static final int MAX_AT_RESPONSE_LENGTH = 256;
+
     private static final String OUTGOING_CALL_WHERE = Calls.TYPE + "=" + Calls.OUTGOING_TYPE;
     private static final String INCOMING_CALL_WHERE = Calls.TYPE + "=" + Calls.INCOMING_TYPE;
     private static final String MISSED_CALL_WHERE = Calls.TYPE + "=" + Calls.MISSED_TYPE;
@@ -77,6 +80,7 @@ public class AtPhonebook {
         public Cursor cursor; // result set of last query
         public int numberColumn;
         public int numberPresentationColumn;
+        public int normalizedNumberColumn;
         public int typeColumn;
         public int nameColumn;
     }
@@ -448,6 +452,7 @@ public class AtPhonebook {
             pbr.numberColumn = pbr.cursor.getColumnIndexOrThrow(Calls.NUMBER);
             pbr.numberPresentationColumn =
                     pbr.cursor.getColumnIndexOrThrow(Calls.NUMBER_PRESENTATION);
+            pbr.normalizedNumberColumn = pbr.cursor.getColumnIndex(Calls.CACHED_NORMALIZED_NUMBER);
             pbr.typeColumn = -1;
             pbr.nameColumn = -1;
         } else {
@@ -464,6 +469,7 @@ public class AtPhonebook {
 
             pbr.numberColumn = pbr.cursor.getColumnIndex(Phone.NUMBER);
             pbr.numberPresentationColumn = -1;
+            pbr.normalizedNumberColumn = -1;
             pbr.typeColumn = pbr.cursor.getColumnIndex(Phone.TYPE);
             pbr.nameColumn = pbr.cursor.getColumnIndex(Phone.DISPLAY_NAME);
         }
@@ -505,8 +511,8 @@ public class AtPhonebook {
         log("processCpbrCommand");
         int atCommandResult = HeadsetHalConstants.AT_RESPONSE_ERROR;
         int atCommandErrorCode = -1;
-        String atCommandResponse = null;
         StringBuilder response = new StringBuilder();
+        int responseLength = 0;
         String record;
 
         // Shortcut SM phonebook
@@ -542,27 +548,23 @@ public class AtPhonebook {
         // Process
         atCommandResult = HeadsetHalConstants.AT_RESPONSE_OK;
         int errorDetected = -1; // no error
-        pbr.cursor.moveToPosition(mCpbrIndex1 - 1);
         log("mCpbrIndex1 = " + mCpbrIndex1 + " and mCpbrIndex2 = " + mCpbrIndex2);
+        // Look up the caller ids of the whole range at once rather than record by record.
+        HashMap<String, CallerIdCache.CallerId> callerIds = null;
+        if (pbr.nameColumn == -1) {
+            callerIds = CallerIdCache.lookup(mContext, mContentResolver,
+                    getCallerIdNumbers(pbr, mCpbrIndex1, mCpbrIndex2));
+        }
+        pbr.cursor.moveToPosition(mCpbrIndex1 - 1);
         for (int index = mCpbrIndex1; index <= mCpbrIndex2; index++) {
             String number = pbr.cursor.getString(pbr.numberColumn);
             String name = null;
             int type = -1;
             if (pbr.nameColumn == -1 && number != null && number.length() > 0) {
-                // try caller id lookup
-                // TODO: This code is horribly inefficient. I saw it
-                // take 7 seconds to process 100 missed calls.
-                Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(mContentResolver,
-                        Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, number),
-                        new String[]{
-                                PhoneLookup.DISPLAY_NAME, PhoneLookup.TYPE
-                        }, null, null, null);
-                if (c != null) {
-                    if (c.moveToFirst()) {
-                        name = c.getString(0);
-                        type = c.getInt(1);
-                    }
-                    c.close();
+                CallerIdCache.CallerId callerId = callerIds.get(number);
+                if (callerId != null) {
+                    name = callerId.name;
+                    type = callerId.type;
                 }
                 if (DBG && name == null) {
                     log("Caller ID lookup failed for " + number);
@@ -620,12 +622,22 @@ public class AtPhonebook {
 
             record = "+CPBR: " + index + ",\"" + number + "\"," + regionType + ",\"" + name + "\"";
             record = record + "\r\n\r\n";
-            atCommandResponse = record;
-            mNativeInterface.atResponseString(device, atCommandResponse);
+            // Send as many records as fit in one AT response together.
+            int recordLength = getAtResponseLength(record);
+            if (responseLength > 0 && responseLength + recordLength > MAX_AT_RESPONSE_LENGTH) {
+                mNativeInterface.atResponseString(device, response.toString());
+                response.setLength(0);
+                responseLength = 0;
+            }
+            response.append(record);
+            responseLength += recordLength;
             if (!pbr.cursor.moveToNext()) {
                 break;
             }
         }
+        if (responseLength > 0) {
+            mNativeInterface.atResponseString(device, response.toString());
+        }
         if (pbr.cursor != null) {
             pbr.cursor.close();
             pbr.cursor = null;
@@ -633,6 +645,46 @@ public class AtPhonebook {
         return atCommandResult;
     }
 
+    /* Returns the phone numbers of the records index1 to index2 of a call log phonebook whose
+     * caller id is shown, mapped to their E.164 form if known. */
+    private static HashMap<String, String> getCallerIdNumbers(PhonebookResult pbr, int index1,
+            int index2) {
+        HashMap<String, String> numbers = new HashMap<>();
+        pbr.cursor.moveToPosition(index1 - 1);
+        for (int index = index1; index <= index2; index++) {
+            String number = pbr.cursor.getString(pbr.numberColumn);
+            boolean allowed = pbr.numberPresentationColumn == -1
+                    || pbr.cursor.getInt(pbr.numberPresentationColumn)
+                            == Calls.PRESENTATION_ALLOWED;
+            if (allowed && number != null && number.length() > 0
+                    && !numbers.containsKey(number)) {
+                numbers.put(number, pbr.normalizedNumberColumn != -1
+                        ? pbr.cursor.getString(pbr.normalizedNumberColumn) : null);
+            }
+            if (!pbr.cursor.moveToNext()) {
+                break;
+            }
+        }
+        return numbers;
+    }
+
+    /* Returns the length of a response once converted to modified UTF-8 by JNI. */
+    @VisibleForTesting
+    static int getAtResponseLength(String response) {
+        int length = 0;
+        for (int i = 0; i < response.length(); i++) {
+            char c = response.charAt(i);
+            if (c != 0 && c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
     /**
      * Checks if the remote device has premission to read our phone book.
      * If the return value is {@link BluetoothDevice#ACCESS_UNKNOWN}, it means this method has sent
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hfp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.PhoneLookup;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.bluetooth.util.DevicePolicyUtils;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the contact name and phone type of the phone numbers of the call log, for the
+ * AT+CPBR responses of the DC, RC and MC phonebooks.
+ *
+ * <p>Numbers are looked up a whole CPBR index range at a time: numbers with a normalized form
+ * are matched with a single query of the phone numbers of the contacts, and only the remaining
+ * ones are looked up one by one through {@link PhoneLookup}. Results are kept in a cache shared
+ * by all headsets while {@link HeadsetService} runs, which is cleared whenever the contacts
+ * change.
+ */
+class CallerIdCache {
+    private static final String TAG = "HeadsetCallerIdCache";
+
+    private static final int CACHE_SIZE = 512;
+    // Stays well below the SQLite limit on the number of arguments of a query.
+    @VisibleForTesting
+    static final int MAX_NUMBERS_PER_QUERY = 100;
+
+    /** The name and phone type of the contact of a phone number. */
+    static class CallerId {
+        final String name;
+        final int type;
+
+        CallerId(String name, int type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    // Cached value for a phone number without a contact
+    static final CallerId UNKNOWN = new CallerId(null, -1);
+
+    private static final String[] PHONE_PROJECTION = new String[]{
+            Phone.NORMALIZED_NUMBER, Phone.DISPLAY_NAME, Phone.TYPE
+    };
+    private static final String[] PHONE_LOOKUP_PROJECTION = new String[]{
+            PhoneLookup.DISPLAY_NAME, PhoneLookup.TYPE
+    };
+
+    private static final Object sLock = new Object();
+    @GuardedBy("sLock")
+    private static LruCache<String, CallerId> sCache = null;
+    @GuardedBy("sLock")
+    private static ContentObserver sObserver = null;
+    // Incremented on every clear, to not cache caller ids looked up before a contacts change
+    @GuardedBy("sLock")
+    private static int sGeneration = 0;
+
+    /**
+     * Starts caching the caller ids looked up with {@link #lookup}, until {@link #stop} is called.
+     * The cache is cleared whenever the contacts change.
+     */
+    static void start(ContentResolver resolver) {
+        synchronized (sLock) {
+            if (sObserver != null) {
+                return;
+            }
+            sCache = new LruCache<String, CallerId>(CACHE_SIZE);
+            sObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    clear();
+                }
+            };
+            resolver.registerContentObserver(Contacts.CONTENT_URI, true, sObserver);
+        }
+    }
+
+    /** Stops caching caller ids and drops the cache. */
+    static void stop(ContentResolver resolver) {
+        synchronized (sLock) {
+            if (sObserver == null) {
+                return;
+            }
+            resolver.unregisterContentObserver(sObserver);
+            sObserver = null;
+            sCache = null;
+            sGeneration++;
+        }
+    }
+
+    @VisibleForTesting
+    static void clear() {
+        synchronized (sLock) {
+            if (sCache != null) {
+                sCache.evictAll();
+            }
+            sGeneration++;
+        }
+    }
+
+    /**
+     * Looks up the caller ids of phone numbers.
+     *
+     * @param numbers the phone numbers to look up, mapped to their E.164 form or to null if it is
+     *        unknown
+     * @return the caller id of each phone number, {@link #UNKNOWN} if there is no such contact
+     */
+    static HashMap<String, CallerId> lookup(Context context, ContentResolver resolver,
+            Map<String, String> numbers) {
+        HashMap<String, CallerId> callerIds = new HashMap<>(numbers.size());
+        int generation;
+        synchronized (sLock) {
+            for (String number : numbers.keySet()) {
+                CallerId callerId = sCache != null ? sCache.get(number) : null;
+                if (callerId != null) {
+                    callerIds.put(number, callerId);
+                }
+            }
+            generation = sGeneration;
+        }
+
+        // Match the numbers with a normalized form, a bounded number of them per query.
+        HashMap<String, List<String>> numbersByNormalized = new HashMap<>();
+        for (Map.Entry<String, String> entry : numbers.entrySet()) {
+            String normalized = entry.getValue();
+            if (callerIds.containsKey(entry.getKey()) || normalized == null
+                    || normalized.isEmpty()) {
+                continue;
+            }
+            List<String> sameNumbers = numbersByNormalized.get(normalized);
+            if (sameNumbers == null) {
+                sameNumbers = new ArrayList<>(1);
+                numbersByNormalized.put(normalized, sameNumbers);
+            }
+            sameNumbers.add(entry.getKey());
+        }
+        List<String> normalizedNumbers = new ArrayList<>(numbersByNormalized.keySet());
+        for (int i = 0; i < normalizedNumbers.size(); i += MAX_NUMBERS_PER_QUERY) {
+            lookupNormalized(context, resolver,
+                    normalizedNumbers.subList(i,
+                            Math.min(i + MAX_NUMBERS_PER_QUERY, normalizedNumbers.size())),
+                    numbersByNormalized, callerIds);
+        }
+
+        // PhoneLookup matches numbers loosely, e.g. without their country code.
+        for (String number : numbers.keySet()) {
+            if (!callerIds.containsKey(number)) {
+                callerIds.put(number, lookupNumber(resolver, number));
+            }
+        }
+
+        synchronized (sLock) {
+            if (sCache != null && generation == sGeneration) {
+                for (Map.Entry<String, CallerId> entry : callerIds.entrySet()) {
+                    sCache.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return callerIds;
+    }
+
+    private static void lookupNormalized(Context context, ContentResolver resolver,
+            List<String> normalizedNumbers, Map<String, List<String>> numbersByNormalized,
+            Map<String, CallerId> callerIds) {
+        StringBuilder selection = new StringBuilder(Phone.NORMALIZED_NUMBER).append(" IN (");
+        for (int i = 0; i < normalizedNumbers.size(); i++) {
+            selection.append(i > 0 ? ",?" : "?");
+        }
+        selection.append(')');
+        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(resolver,
+                DevicePolicyUtils.getEnterprisePhoneUri(context), PHONE_PROJECTION,
+                selection.toString(), normalizedNumbers.toArray(new String[0]), null);
+        if (c == null) {
+            Log.w(TAG, "Failed to look up " + normalizedNumbers.size() + " numbers");
+            return;
+        }
+        try {
+            while (c.moveToNext()) {
+                List<String> sameNumbers = numbersByNormalized.get(c.getString(0));
+                if (sameNumbers == null) {
+                    continue;
+                }
+                CallerId callerId = new CallerId(c.getString(1), c.getInt(2));
+                for (String number : sameNumbers) {
+                    // The first contact found wins, as with PhoneLookup.
+                    if (!callerIds.containsKey(number)) {
+                        callerIds.put(number, callerId);
+                    }
+                }
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    private static CallerId lookupNumber(ContentResolver resolver, String number) {
+        CallerId callerId = UNKNOWN;
+        Cursor c = BluetoothMethodProxy.getInstance().contentResolverQuery(resolver,
+                Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, number),
+                PHONE_LOOKUP_PROJECTION, null, null, null);
+        if (c != null) {
+            if (c.moveToFirst()) {
+                callerId = new CallerId(c.getString(0), c.getInt(1));
+            }
+            c.close();
+        }
+        return callerId;
+    }
+}
@@ -204,6 +204,7 @@ public class HeadsetService extends ProfileService {
         filter.addAction(BluetoothDevice.ACTION_CONNECTION_ACCESS_REPLY);
         filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         registerReceiver(mHeadsetReceiver, filter);
+        CallerIdCache.start(getContentResolver());
         // Step 7: Mark service as started
         mStarted = true;
         BluetoothDevice activeDevice = getActiveDevice();
@@ -231,6 +232,7 @@ public class HeadsetService extends ProfileService {
         mAdapterService.notifyActivityAttributionInfo(getAttributionSource(), deviceAddress);
         mStarted = false;
         // Step 6: Tear down broadcast receivers
+        CallerIdCache.stop(getContentResolver());
         unregisterReceiver(mHeadsetReceiver);
         synchronized (mStateMachines) {
             // Reset active device to null
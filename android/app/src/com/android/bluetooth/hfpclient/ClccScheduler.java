@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hfpclient;
+
+import android.util.Log;
+
+/**
+ * Decides how often {@link HeadsetClientStateMachine} polls the current calls of the AG with
+ * AT+CLCC while there are calls.
+ *
+ * <p>Call state changes are normally signalled by +CIEV, +CLIP and +CCWA, which trigger a query
+ * right away, so polling only catches what the indicators missed. The poll interval starts at
+ * the minimum interval, doubles after every poll that finds the calls unchanged up to the maximum
+ * interval, and returns to the minimum on every indicator. Once a poll finds a change that no
+ * indicator announced, the AG is considered to omit indicators and is polled at the minimum
+ * interval until it disconnects.
+ */
+class ClccScheduler {
+    private static final String TAG = "HeadsetClientClccScheduler";
+
+    private final long mMinIntervalMs;
+    private final long mMaxIntervalMs;
+    private long mIntervalMs;
+    private boolean mAgOmitsIndicators = false;
+
+    private int mQueriesIssued = 0;
+    private int mQueriesSkipped = 0;
+    private int mDriftDetected = 0;
+
+    ClccScheduler(long minIntervalMs, long maxIntervalMs) {
+        mMinIntervalMs = minIntervalMs;
+        mMaxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+        mIntervalMs = mMinIntervalMs;
+    }
+
+    /** Called on call indicators, which make the call state likely to change again soon. */
+    void onIndicator() {
+        mIntervalMs = mMinIntervalMs;
+    }
+
+    void onQueryIssued() {
+        mQueriesIssued++;
+    }
+
+    /** Called when a query is not sent because one is already pending. */
+    void onQuerySkipped() {
+        mQueriesSkipped++;
+    }
+
+    /**
+     * Called when the calls have been queried.
+     *
+     * @param polled whether the query was only made by the poll timer, without any indicator
+     * @param changed whether the calls differ from the ones known before the query
+     * @return the delay before the next poll, in milliseconds
+     */
+    long onQueryDone(boolean polled, boolean changed) {
+        if (polled && changed) {
+            mDriftDetected++;
+            if (!mAgOmitsIndicators) {
+                Log.w(TAG, "Calls changed without indicators, polling every "
+                        + mMinIntervalMs + " ms");
+                mAgOmitsIndicators = true;
+            }
+        }
+        if (changed || mAgOmitsIndicators) {
+            mIntervalMs = mMinIntervalMs;
+        } else {
+            mIntervalMs = Math.min(mIntervalMs * 2, mMaxIntervalMs);
+        }
+        return mIntervalMs;
+    }
+
+    /** Returns the delay before the next poll, in milliseconds. */
+    long getPollDelayMs() {
+        return mIntervalMs;
+    }
+
+    boolean isAgOmittingIndicators() {
+        return mAgOmitsIndicators;
+    }
+
+    /** Forgets what has been learnt about the AG, e.g. on disconnection. */
+    void reset() {
+        mIntervalMs = mMinIntervalMs;
+        mAgOmitsIndicators = false;
+    }
+
+    @Override
+    public String toString() {
+        return "queriesIssued=" + mQueriesIssued + " queriesSkipped=" + mQueriesSkipped
+                + " driftDetected=" + mDriftDetected + " pollIntervalMs=" + mIntervalMs
+                + " agOmitsIndicators=" + mAgOmitsIndicators;
+    }
+}
@@ -138,6 +138,12 @@ public class HeadsetClientStateMachine extends StateMachine {
     static final int HF_ORIGINATED_CALL_ID = -1;
     private static final long OUTGOING_TIMEOUT_MILLI = 10 * 1000; // 10 seconds
     private static final long QUERY_CURRENT_CALLS_WAIT_MILLIS = 2 * 1000; // 2 seconds
+    // A query of the current calls without a result for this long is considered lost.
+    private static final long QUERY_CURRENT_CALLS_TIMEOUT_MILLIS = 5 * 1000; // 5 seconds
+
+    // Why the current calls are queried, passed as arg1 of QUERY_CURRENT_CALLS.
+    private static final int QUERY_REASON_EVENT = 0;
+    private static final int QUERY_REASON_POLL = 1;
 
     // Keep track of audio routing across all devices.
     private static boolean sAudioIsRouted = false;
@@ -147,7 +153,11 @@ public class HeadsetClientStateMachine extends StateMachine {
     private final Connected mConnected;
     private final AudioOn mAudioOn;
     private State mPrevState;
+    // Time the pending query of the current calls was sent, 0 if there is none.
     private long mClccTimer = 0;
+    // Whether the calls should be queried again once the pending query completes.
+    private boolean mClccRequeryPending = false;
+    private ClccScheduler mClccScheduler;
 
     private final HeadsetClientService mService;
     private final HeadsetService mHeadsetService;
@@ -241,6 +251,10 @@ public class HeadsetClientStateMachine extends StateMachine {
         ProfileService.println(sb, "  mAudioPolicyRemoteSupported: " + mAudioPolicyRemoteSupported);
         ProfileService.println(sb, "  mHsClientAudioPolicy: " + mHsClientAudioPolicy);
 
+        if (mClccScheduler != null) {
+            ProfileService.println(sb, "  mClccScheduler: " + mClccScheduler);
+        }
+
         ProfileService.println(sb, "  mCalls:");
         if (mCalls != null) {
             for (HfpClientCall call : mCalls.values()) {
@@ -410,16 +424,39 @@ public class HeadsetClientStateMachine extends StateMachine {
                 Utils.getTempBroadcastOptions());
     }
 
-    private boolean queryCallsStart() {
+    private ClccScheduler getClccScheduler() {
+        if (mClccScheduler == null) {
+            mClccScheduler = new ClccScheduler(
+                    mService.getResources().getInteger(
+                            R.integer.hfp_clcc_poll_interval_during_call),
+                    mService.getResources().getInteger(
+                            R.integer.hfp_clcc_poll_max_interval_during_call));
+        }
+        return mClccScheduler;
+    }
+
+    private boolean isQueryCallsPending() {
+        return mClccTimer != 0
+                && SystemClock.elapsedRealtime() - mClccTimer < QUERY_CURRENT_CALLS_TIMEOUT_MILLIS;
+    }
+
+    private boolean queryCallsStart(boolean polled) {
         logD("queryCallsStart");
         clearPendingAction();
         mNativeInterface.queryCurrentCalls(mCurrentDevice);
-        addQueuedAction(QUERY_CURRENT_CALLS, 0);
+        addQueuedAction(QUERY_CURRENT_CALLS, polled ? QUERY_REASON_POLL : QUERY_REASON_EVENT);
+        mClccTimer = SystemClock.elapsedRealtime();
+        getClccScheduler().onQueryIssued();
         return true;
     }
 
-    private void queryCallsDone() {
+    private void queryCallsDone(boolean polled) {
         logD("queryCallsDone");
+        mClccTimer = 0;
+        // An indicator received meanwhile may not be reflected by this result.
+        boolean requery = mClccRequeryPending;
+        mClccRequeryPending = false;
+        boolean hfOriginated = mCalls.containsKey(HF_ORIGINATED_CALL_ID);
         // mCalls has two types of calls:
         // (a) Calls that are received from AG of a previous iteration of queryCallsStart()
         // (b) Calls that are outgoing initiated from HF
@@ -522,6 +559,8 @@ public class HeadsetClientStateMachine extends StateMachine {
             sendCallChangedIntent(c);
         }
 
+        boolean changed = !callRemovedIds.isEmpty() || !callAddedIds.isEmpty();
+
         // Update the existing calls.
         for (Integer idx : callRetainedIds) {
             HfpClientCall cOrig = mCalls.get(idx);
@@ -539,26 +578,32 @@ public class HeadsetClientStateMachine extends StateMachine {
 
                 // Send update with original object (UUID, idx).
                 sendCallChangedIntent(cOrig);
+                changed = true;
             }
         }
 
-        if (mCalls.size() > 0) {
+        // Changes found by a poll of an associated call went unannounced by the AG.
+        long pollDelay = getClccScheduler().onQueryDone(polled && !requery && !hfOriginated,
+                changed);
+        removeMessages(QUERY_CURRENT_CALLS);
+        if (requery) {
+            sendMessage(QUERY_CURRENT_CALLS, QUERY_REASON_EVENT);
+        } else if (mCalls.size() > 0) {
             // Continue polling even if not enabled until the new outgoing call is associated with
             // a valid call on the phone. The polling would at most continue until
             // OUTGOING_TIMEOUT_MILLI. This handles the potential scenario where the phone creates
             // and terminates a call before the first QUERY_CURRENT_CALLS completes.
-            if (mService.getResources().getBoolean(R.bool.hfp_clcc_poll_during_call)
-                    || (mCalls.containsKey(HF_ORIGINATED_CALL_ID))) {
-                sendMessageDelayed(QUERY_CURRENT_CALLS,
+            if (mCalls.containsKey(HF_ORIGINATED_CALL_ID)) {
+                sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_REASON_POLL,
                         mService.getResources().getInteger(
                         R.integer.hfp_clcc_poll_interval_during_call));
-            } else {
-                if (getCall(HfpClientCall.CALL_STATE_INCOMING) != null) {
-                    logD("Still have incoming call; polling");
-                    sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_CURRENT_CALLS_WAIT_MILLIS);
-                } else {
-                    removeMessages(QUERY_CURRENT_CALLS);
-                }
+            } else if (mService.getResources().getBoolean(R.bool.hfp_clcc_poll_during_call)) {
+                // Indicators trigger queries themselves, so back off while nothing changes.
+                sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_REASON_POLL, pollDelay);
+            } else if (getCall(HfpClientCall.CALL_STATE_INCOMING) != null) {
+                logD("Still have incoming call; polling");
+                sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_REASON_POLL,
+                        QUERY_CURRENT_CALLS_WAIT_MILLIS);
             }
         }
 
@@ -1016,6 +1061,11 @@ public class HeadsetClientStateMachine extends StateMachine {
             mChldFeatures = 0;
 
             removeMessages(QUERY_CURRENT_CALLS);
+            mClccTimer = 0;
+            mClccRequeryPending = false;
+            if (mClccScheduler != null) {
+                mClccScheduler.reset();
+            }
 
             if (mPrevState == mConnecting) {
                 broadcastConnectionState(mCurrentDevice, BluetoothProfile.STATE_DISCONNECTED,
@@ -1488,18 +1538,29 @@ public class HeadsetClientStateMachine extends StateMachine {
                     break;
                 case QUERY_CURRENT_CALLS:
                     removeMessages(QUERY_CURRENT_CALLS);
-                    // If there are ongoing calls periodically check their status.
-                    if (mCalls.size() > 1
-                            && mService.getResources().getBoolean(
-                            R.bool.hfp_clcc_poll_during_call)) {
-                        sendMessageDelayed(QUERY_CURRENT_CALLS,
-                                mService.getResources().getInteger(
-                                R.integer.hfp_clcc_poll_interval_during_call));
-                    } else if (mCalls.size() > 0) {
-                        sendMessageDelayed(QUERY_CURRENT_CALLS,
-                                QUERY_CURRENT_CALLS_WAIT_MILLIS);
+                    boolean polled = message.arg1 == QUERY_REASON_POLL;
+                    if (!polled) {
+                        getClccScheduler().onIndicator();
+                    }
+                    if (isQueryCallsPending()) {
+                        // Bursts of indicators are folded into a single query after the
+                        // pending one.
+                        getClccScheduler().onQuerySkipped();
+                        mClccRequeryPending |= !polled;
+                        sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_REASON_POLL,
+                                QUERY_CURRENT_CALLS_TIMEOUT_MILLIS);
+                        break;
+                    }
+                    // If there are ongoing calls, poll again in case the result is lost. The
+                    // poll is rescheduled once the result is received.
+                    if (mCalls.size() > 0) {
+                        sendMessageDelayed(QUERY_CURRENT_CALLS, QUERY_REASON_POLL,
+                                mService.getResources().getBoolean(
+                                        R.bool.hfp_clcc_poll_during_call)
+                                        ? getClccScheduler().getPollDelayMs()
+                                        : QUERY_CURRENT_CALLS_WAIT_MILLIS);
                     }
-                    queryCallsStart();
+                    queryCallsStart(polled);
                     break;
                 case StackEvent.STACK_EVENT:
                     Intent intent = null;
@@ -1638,7 +1699,8 @@ public class HeadsetClientStateMachine extends StateMachine {
 
                             switch (queuedAction.first) {
                                 case QUERY_CURRENT_CALLS:
-                                    queryCallsDone();
+                                    queryCallsDone(Integer.valueOf(QUERY_REASON_POLL)
+                                            .equals(queuedAction.second));
                                     break;
                                 case VOICE_RECOGNITION_START:
                                     if (event.valueInt == AT_OK) {
@@ -61,6 +61,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.regex.Pattern;
 
 @TargetApi(19)
 public class BluetoothMapContent {
@@ -151,6 +152,9 @@ public class BluetoothMapContent {
 
     public static final String INSERT_ADDRES_TOKEN = "insert-address-token";
 
+    // A service "number" consisting of a name, e.g. "Some-Tele-company"
+    private static final Pattern ALPHA_ADDRESS_PATTERN = Pattern.compile("[0-9]*[a-zA-Z]+[0-9]*");
+
     private final Context mContext;
     private final ContentResolver mResolver;
     @VisibleForTesting
@@ -164,6 +168,8 @@ public class BluetoothMapContent {
     private int mRemoteFeatureMask = BluetoothMapUtils.MAP_FEATURE_DEFAULT_BITMASK;
     @VisibleForTesting
     int mMsgListingVersion = BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10;
+    // Set while a message listing is built
+    private MessageListingResolver mListingResolver = null;
 
     static final String[] SMS_PROJECTION = new String[]{
             BaseColumns._ID,
@@ -1032,7 +1038,7 @@ public class BluetoothMapContent {
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
                 long id = c.getLong(c.getColumnIndex(BaseColumns._ID));
-                address = getAddressMms(mResolver, id, MMS_TO);
+                address = getListingResolver().getAddressMms(id, MMS_TO);
             } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL) {
                 /* Might be another way to handle addresses */
                 address = getRecipientAddressingEmail(c, fi);
@@ -1056,7 +1062,7 @@ public class BluetoothMapContent {
                 if (msgType != 1) {
                     String phone = c.getString(fi.mSmsColAddress);
                     if (phone != null && !phone.isEmpty()) {
-                        name = getContactNameFromPhone(phone, mResolver);
+                        name = getListingResolver().getContactName(phone);
                     }
                 } else {
                     name = fi.mPhoneAlphaTag;
@@ -1065,12 +1071,12 @@ public class BluetoothMapContent {
                 long id = c.getLong(fi.mMmsColId);
                 String phone;
                 if (e.getRecipientAddressing() != null) {
-                    phone = getAddressMms(mResolver, id, MMS_TO);
+                    phone = getListingResolver().getAddressMms(id, MMS_TO);
                 } else {
                     phone = e.getRecipientAddressing();
                 }
                 if (phone != null && !phone.isEmpty()) {
-                    name = getContactNameFromPhone(phone, mResolver);
+                    name = getListingResolver().getContactName(phone);
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL) {
                 /* Might be another way to handle address and names */
@@ -1109,8 +1115,8 @@ public class BluetoothMapContent {
                      * because of the N in compaNy)
                      * Hence we need to check if the number is actually a string with alpha chars.
                      * */
-                    Boolean alpha = PhoneNumberUtils.stripSeparators(tempAddress)
-                            .matches("[0-9]*[a-zA-Z]+[0-9]*");
+                    boolean alpha = ALPHA_ADDRESS_PATTERN.matcher(
+                            PhoneNumberUtils.stripSeparators(tempAddress)).matches();
 
                     if (address == null || address.length() < 2 || alpha) {
                         address = tempAddress; // if the number is a service acsii text just use it
@@ -1118,7 +1124,7 @@ public class BluetoothMapContent {
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
                 long id = c.getLong(fi.mMmsColId);
-                tempAddress = getAddressMms(mResolver, id, MMS_FROM);
+                tempAddress = getListingResolver().getAddressMms(id, MMS_FROM);
                 address = PhoneNumberUtils.extractNetworkPortion(tempAddress);
                 if (address == null || address.length() < 1) {
                     address = tempAddress; // if the number is a service acsii text just use it
@@ -1191,7 +1197,7 @@ public class BluetoothMapContent {
                 if (msgType == 1) {
                     String phone = c.getString(fi.mSmsColAddress);
                     if (phone != null && !phone.isEmpty()) {
-                        name = getContactNameFromPhone(phone, mResolver);
+                        name = getListingResolver().getContactName(phone);
                     }
                 } else {
                     name = fi.mPhoneAlphaTag;
@@ -1200,12 +1206,12 @@ public class BluetoothMapContent {
                 long id = c.getLong(fi.mMmsColId);
                 String phone;
                 if (e.getSenderAddressing() != null) {
-                    phone = getAddressMms(mResolver, id, MMS_FROM);
+                    phone = getListingResolver().getAddressMms(id, MMS_FROM);
                 } else {
                     phone = e.getSenderAddressing();
                 }
                 if (phone != null && !phone.isEmpty()) {
-                    name = getContactNameFromPhone(phone, mResolver);
+                    name = getListingResolver().getContactName(phone);
                 }
             } else if (fi.mMsgType == FilterInfo.TYPE_EMAIL/*  ||
                        fi.mMsgType == FilterInfo.TYPE_IM*/) {
@@ -1562,19 +1568,19 @@ public class BluetoothMapContent {
      * Matching functions for originator and recipient for MMS
      * @return true if found a match
      */
-    private boolean matchRecipientMms(Cursor c, FilterInfo fi, String recip) {
+    private boolean matchRecipientMms(Cursor c, FilterInfo fi, Pattern recip) {
         boolean res;
         long id = c.getLong(c.getColumnIndex(BaseColumns._ID));
-        String phone = getAddressMms(mResolver, id, MMS_TO);
+        String phone = getListingResolver().getAddressMms(id, MMS_TO);
         if (phone != null && phone.length() > 0) {
-            if (phone.matches(recip)) {
+            if (recip.matcher(phone).matches()) {
                 if (V) {
                     Log.v(TAG, "matchRecipientMms: match recipient phone = " + phone);
                 }
                 res = true;
             } else {
-                String name = getContactNameFromPhone(phone, mResolver);
-                if (name != null && name.length() > 0 && name.matches(recip)) {
+                String name = getListingResolver().getContactName(phone);
+                if (name != null && name.length() > 0 && recip.matcher(name).matches()) {
                     if (V) {
                         Log.v(TAG, "matchRecipientMms: match recipient name = " + name);
                     }
@@ -1589,18 +1595,18 @@ public class BluetoothMapContent {
         return res;
     }
 
-    private boolean matchRecipientSms(Cursor c, FilterInfo fi, String recip) {
+    private boolean matchRecipientSms(Cursor c, FilterInfo fi, Pattern recip) {
         boolean res;
         int msgType = c.getInt(c.getColumnIndex(Sms.TYPE));
         if (msgType == 1) {
             String phone = fi.mPhoneNum;
             String name = fi.mPhoneAlphaTag;
-            if (phone != null && phone.length() > 0 && phone.matches(recip)) {
+            if (phone != null && phone.length() > 0 && recip.matcher(phone).matches()) {
                 if (V) {
                     Log.v(TAG, "matchRecipientSms: match recipient phone = " + phone);
                 }
                 res = true;
-            } else if (name != null && name.length() > 0 && name.matches(recip)) {
+            } else if (name != null && name.length() > 0 && recip.matcher(name).matches()) {
                 if (V) {
                     Log.v(TAG, "matchRecipientSms: match recipient name = " + name);
                 }
@@ -1611,14 +1617,14 @@ public class BluetoothMapContent {
         } else {
             String phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
             if (phone != null && phone.length() > 0) {
-                if (phone.matches(recip)) {
+                if (recip.matcher(phone).matches()) {
                     if (V) {
                         Log.v(TAG, "matchRecipientSms: match recipient phone = " + phone);
                     }
                     res = true;
                 } else {
-                    String name = getContactNameFromPhone(phone, mResolver);
-                    if (name != null && name.length() > 0 && name.matches(recip)) {
+                    String name = getListingResolver().getContactName(phone);
+                    if (name != null && name.length() > 0 && recip.matcher(name).matches()) {
                         if (V) {
                             Log.v(TAG, "matchRecipientSms: match recipient name = " + name);
                         }
@@ -1636,10 +1642,9 @@ public class BluetoothMapContent {
 
     private boolean matchRecipient(Cursor c, FilterInfo fi, BluetoothMapAppParams ap) {
         boolean res;
-        String recip = ap.getFilterRecipient();
-        if (recip != null && recip.length() > 0) {
-            recip = recip.replace("*", ".*");
-            recip = ".*" + recip + ".*";
+        String filter = ap.getFilterRecipient();
+        if (filter != null && filter.length() > 0) {
+            Pattern recip = getListingResolver().getFilterPattern(filter);
             if (fi.mMsgType == FilterInfo.TYPE_SMS) {
                 res = matchRecipientSms(c, fi, recip);
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
@@ -1656,19 +1661,19 @@ public class BluetoothMapContent {
         return res;
     }
 
-    private boolean matchOriginatorMms(Cursor c, FilterInfo fi, String orig) {
+    private boolean matchOriginatorMms(Cursor c, FilterInfo fi, Pattern orig) {
         boolean res;
         long id = c.getLong(c.getColumnIndex(BaseColumns._ID));
-        String phone = getAddressMms(mResolver, id, MMS_FROM);
+        String phone = getListingResolver().getAddressMms(id, MMS_FROM);
         if (phone != null && phone.length() > 0) {
-            if (phone.matches(orig)) {
+            if (orig.matcher(phone).matches()) {
                 if (V) {
                     Log.v(TAG, "matchOriginatorMms: match originator phone = " + phone);
                 }
                 res = true;
             } else {
-                String name = getContactNameFromPhone(phone, mResolver);
-                if (name != null && name.length() > 0 && name.matches(orig)) {
+                String name = getListingResolver().getContactName(phone);
+                if (name != null && name.length() > 0 && orig.matcher(name).matches()) {
                     if (V) {
                         Log.v(TAG, "matchOriginatorMms: match originator name = " + name);
                     }
@@ -1683,20 +1688,20 @@ public class BluetoothMapContent {
         return res;
     }
 
-    private boolean matchOriginatorSms(Cursor c, FilterInfo fi, String orig) {
+    private boolean matchOriginatorSms(Cursor c, FilterInfo fi, Pattern orig) {
         boolean res;
         int msgType = c.getInt(c.getColumnIndex(Sms.TYPE));
         if (msgType == 1) {
             String phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
             if (phone != null && phone.length() > 0) {
-                if (phone.matches(orig)) {
+                if (orig.matcher(phone).matches()) {
                     if (V) {
                         Log.v(TAG, "matchOriginatorSms: match originator phone = " + phone);
                     }
                     res = true;
                 } else {
-                    String name = getContactNameFromPhone(phone, mResolver);
-                    if (name != null && name.length() > 0 && name.matches(orig)) {
+                    String name = getListingResolver().getContactName(phone);
+                    if (name != null && name.length() > 0 && orig.matcher(name).matches()) {
                         if (V) {
                             Log.v(TAG, "matchOriginatorSms: match originator name = " + name);
                         }
@@ -1711,12 +1716,12 @@ public class BluetoothMapContent {
         } else {
             String phone = fi.mPhoneNum;
             String name = fi.mPhoneAlphaTag;
-            if (phone != null && phone.length() > 0 && phone.matches(orig)) {
+            if (phone != null && phone.length() > 0 && orig.matcher(phone).matches()) {
                 if (V) {
                     Log.v(TAG, "matchOriginatorSms: match originator phone = " + phone);
                 }
                 res = true;
-            } else if (name != null && name.length() > 0 && name.matches(orig)) {
+            } else if (name != null && name.length() > 0 && orig.matcher(name).matches()) {
                 if (V) {
                     Log.v(TAG, "matchOriginatorSms: match originator name = " + name);
                 }
@@ -1730,10 +1735,9 @@ public class BluetoothMapContent {
 
     private boolean matchOriginator(Cursor c, FilterInfo fi, BluetoothMapAppParams ap) {
         boolean res;
-        String orig = ap.getFilterOriginator();
-        if (orig != null && orig.length() > 0) {
-            orig = orig.replace("*", ".*");
-            orig = ".*" + orig + ".*";
+        String filter = ap.getFilterOriginator();
+        if (filter != null && filter.length() > 0) {
+            Pattern orig = getListingResolver().getFilterPattern(filter);
             if (fi.mMsgType == FilterInfo.TYPE_SMS) {
                 res = matchOriginatorSms(c, fi, orig);
             } else if (fi.mMsgType == FilterInfo.TYPE_MMS) {
@@ -1754,6 +1758,18 @@ public class BluetoothMapContent {
         return matchOriginator(c, fi, ap) && matchRecipient(c, fi, ap);
     }
 
+    /**
+     * Returns the resolver of the message listing being built, or a resolver for a single
+     * lookup otherwise.
+     */
+    private MessageListingResolver getListingResolver() {
+        MessageListingResolver resolver = mListingResolver;
+        if (resolver == null) {
+            resolver = new MessageListingResolver(mResolver);
+        }
+        return resolver;
+    }
+
     /*
      * Where filter functions
      * */
@@ -2225,6 +2241,69 @@ public class BluetoothMapContent {
         }
     }
 
+    /** A date sorted message cursor taking part in the merge of a message listing. */
+    private static class ListingCursor {
+        final Cursor mCursor;
+        final int mMsgType;
+        // The next element of this cursor, or null if it still has to be read.
+        BluetoothMapMessageListingElement mHead;
+        // True if an email and an IM cursor are merged, see setMessageColumns().
+        boolean mSharesMessageColumns;
+
+        ListingCursor(Cursor cursor, int msgType) {
+            mCursor = cursor;
+            mMsgType = msgType;
+        }
+    }
+
+    /**
+     * Returns the cursor holding the newest element not yet taken from any of {@code sources},
+     * or null when all of them are exhausted. On equal dates the earlier cursor wins, which keeps
+     * the order of a stable sort of the concatenated cursors.
+     */
+    private ListingCursor nextListingCursor(List<ListingCursor> sources, FilterInfo fi,
+            BluetoothMapAppParams ap) {
+        ListingCursor newest = null;
+        for (ListingCursor source : sources) {
+            if (source.mHead == null) {
+                fi.mMsgType = source.mMsgType;
+                setMessageColumns(source, fi);
+                Cursor c = source.mCursor;
+                while (source.mHead == null && c.moveToNext()) {
+                    // Email and IM are filtered on addresses by the provider.
+                    boolean isSmsMms = source.mMsgType == FilterInfo.TYPE_SMS
+                            || source.mMsgType == FilterInfo.TYPE_MMS;
+                    if (!isSmsMms || matchAddresses(c, fi, ap)) {
+                        if (V) {
+                            BluetoothMapUtils.printCursor(c);
+                        }
+                        source.mHead = element(c, fi, ap);
+                    }
+                }
+            }
+            if (source.mHead != null
+                    && (newest == null || source.mHead.compareTo(newest.mHead) < 0)) {
+                newest = source;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Email and IM cursors share the message column indexes of {@link FilterInfo}, so they have to
+     * be looked up again when a listing merges both.
+     */
+    private static void setMessageColumns(ListingCursor source, FilterInfo fi) {
+        if (!source.mSharesMessageColumns) {
+            return;
+        }
+        if (source.mMsgType == FilterInfo.TYPE_EMAIL) {
+            fi.setEmailMessageColumns(source.mCursor);
+        } else if (source.mMsgType == FilterInfo.TYPE_IM) {
+            fi.setImMessageColumns(source.mCursor);
+        }
+    }
+
     /**
      * Get a listing of message in folder after applying filter.
      * @param folderElement Must contain a valid folder string != null
@@ -2268,6 +2347,8 @@ public class BluetoothMapContent {
         if (ap.getMaxListCount() > 0) {
             limit = " LIMIT " + (ap.getMaxListCount() + ap.getStartOffset());
         }
+        List<ListingCursor> sources = new ArrayList<>();
+        mListingResolver = new MessageListingResolver(mResolver);
         try {
             if (smsSelected(fi, ap) && folderElement.hasSmsMmsContent()) {
                 if (ap.getFilterMessageType() == (BluetoothMapAppParams.FILTER_NO_EMAIL
@@ -2295,21 +2376,12 @@ public class BluetoothMapContent {
                             Sms.CONTENT_URI, SMS_PROJECTION, where, null,
                             Sms.DATE + " DESC" + limit);
                     if (smsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         if (D) {
                             Log.d(TAG, "Found " + smsCursor.getCount() + " sms messages.");
                         }
                         fi.setSmsColumns(smsCursor);
-                        while (smsCursor.moveToNext()) {
-                            if (matchAddresses(smsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(smsCursor);
-                                }
-                                e = element(smsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new ListingCursor(smsCursor, FilterInfo.TYPE_SMS));
                     }
                 }
             }
@@ -2338,21 +2410,12 @@ public class BluetoothMapContent {
                             Mms.CONTENT_URI, MMS_PROJECTION, where, null,
                             Mms.DATE + " DESC" + limit);
                     if (mmsCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setMmsColumns(mmsCursor);
                         if (D) {
                             Log.d(TAG, "Found " + mmsCursor.getCount() + " mms messages.");
                         }
-                        while (mmsCursor.moveToNext()) {
-                            if (matchAddresses(mmsCursor, fi, ap)) {
-                                if (V) {
-                                    BluetoothMapUtils.printCursor(mmsCursor);
-                                }
-                                e = element(mmsCursor, fi, ap);
-                                bmList.add(e);
-                            }
-                        }
+                        sources.add(new ListingCursor(mmsCursor, FilterInfo.TYPE_MMS));
                     }
                 }
             }
@@ -2382,21 +2445,12 @@ public class BluetoothMapContent {
                             contentUri, BluetoothMapContract.BT_MESSAGE_PROJECTION, where, null,
                             BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                     if (emailCursor != null) {
-                        BluetoothMapMessageListingElement e = null;
                         // store column index so we dont have to look them up anymore (optimization)
                         fi.setEmailMessageColumns(emailCursor);
-                        int cnt = 0;
                         if (D) {
                             Log.d(TAG, "Found " + emailCursor.getCount() + " email messages.");
                         }
-                        while (emailCursor.moveToNext()) {
-                            if (V) {
-                                BluetoothMapUtils.printCursor(emailCursor);
-                            }
-                            e = element(emailCursor, fi, ap);
-                            bmList.add(e);
-                        }
-                        //   emailCursor.close();
+                        sources.add(new ListingCursor(emailCursor, FilterInfo.TYPE_EMAIL));
                     }
                 }
             }
@@ -2425,71 +2479,62 @@ public class BluetoothMapContent {
                         contentUri, BluetoothMapContract.BT_INSTANT_MESSAGE_PROJECTION, where, null,
                         BluetoothMapContract.MessageColumns.DATE + " DESC" + limit);
                 if (imCursor != null) {
-                    BluetoothMapMessageListingElement e = null;
                     // store column index so we dont have to look them up anymore (optimization)
                     fi.setImMessageColumns(imCursor);
                     if (D) {
                         Log.d(TAG, "Found " + imCursor.getCount() + " im messages.");
                     }
-                    while (imCursor.moveToNext()) {
-                        if (V) {
-                            BluetoothMapUtils.printCursor(imCursor);
-                        }
-                        e = element(imCursor, fi, ap);
-                        bmList.add(e);
-                    }
+                    sources.add(new ListingCursor(imCursor, FilterInfo.TYPE_IM));
                 }
             }
 
-            /* Enable this if post sorting and segmenting needed */
-            bmList.sort();
-            bmList.segment(ap.getMaxListCount(), offsetNum);
-            List<BluetoothMapMessageListingElement> list = bmList.getList();
-            int listSize = list.size();
-            Cursor tmpCursor = null;
-            for (int x = 0; x < listSize; x++) {
-                BluetoothMapMessageListingElement ele = list.get(x);
-                /* If OBEX "GET" request header includes "ParameterMask" with 'Type' NOT set,
-                 * then ele.getType() returns "null" even for a valid cursor.
-                 * Avoid NullPointerException in equals() check when 'mType' value is "null" */
-                TYPE tmpType = ele.getType();
-                if (smsCursor != null && ((TYPE.SMS_GSM).equals(tmpType) || (TYPE.SMS_CDMA).equals(
-                        tmpType))) {
-                    tmpCursor = smsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_SMS;
-                } else if (mmsCursor != null && (TYPE.MMS).equals(tmpType)) {
-                    tmpCursor = mmsCursor;
-                    fi.mMsgType = FilterInfo.TYPE_MMS;
-                } else if (emailCursor != null && ((TYPE.EMAIL).equals(tmpType))) {
-                    tmpCursor = emailCursor;
-                    fi.mMsgType = FilterInfo.TYPE_EMAIL;
-                } else if (imCursor != null && ((TYPE.IM).equals(tmpType))) {
-                    tmpCursor = imCursor;
-                    fi.mMsgType = FilterInfo.TYPE_IM;
+            /* Every cursor is sorted by date, newest first. Merge them and stop as soon as the
+             * requested segment of the listing is complete, so only the messages that are sent
+             * are turned into listing elements. */
+            if (emailCursor != null && imCursor != null) {
+                for (ListingCursor source : sources) {
+                    source.mSharesMessageColumns = true;
                 }
-                if (tmpCursor != null) {
-                    tmpCursor.moveToPosition(ele.getCursorIndex());
-                    setSenderAddressing(ele, tmpCursor, fi, ap);
-                    setSenderName(ele, tmpCursor, fi, ap);
-                    setRecipientAddressing(ele, tmpCursor, fi, ap);
-                    setRecipientName(ele, tmpCursor, fi, ap);
-                    setSubject(ele, tmpCursor, fi, ap);
-                    setSize(ele, tmpCursor, fi, ap);
-                    setText(ele, tmpCursor, fi, ap);
-                    setPriority(ele, tmpCursor, fi, ap);
-                    setSent(ele, tmpCursor, fi, ap);
-                    setProtected(ele, tmpCursor, fi, ap);
-                    setReceptionStatus(ele, tmpCursor, fi, ap);
-                    setAttachment(ele, tmpCursor, fi, ap);
-
-                    if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
-                        setDeliveryStatus(ele, tmpCursor, fi, ap);
-                        setThreadId(ele, tmpCursor, fi, ap);
-                        setThreadName(ele, tmpCursor, fi, ap);
-                    }
+            }
+            int skip = offsetNum;
+            int remaining = countNum > 0 ? countNum : Integer.MAX_VALUE;
+            ListingCursor source;
+            while (remaining > 0 && (source = nextListingCursor(sources, fi, ap)) != null) {
+                BluetoothMapMessageListingElement ele = source.mHead;
+                source.mHead = null;
+                if (skip > 0) {
+                    bmList.addSkipped(ele);
+                    skip--;
+                    continue;
+                }
+                bmList.add(ele);
+                remaining--;
+
+                // The cursor still points at the row of the element.
+                Cursor tmpCursor = source.mCursor;
+                fi.mMsgType = source.mMsgType;
+                setMessageColumns(source, fi);
+                setSenderAddressing(ele, tmpCursor, fi, ap);
+                setSenderName(ele, tmpCursor, fi, ap);
+                setRecipientAddressing(ele, tmpCursor, fi, ap);
+                setRecipientName(ele, tmpCursor, fi, ap);
+                setSubject(ele, tmpCursor, fi, ap);
+                setSize(ele, tmpCursor, fi, ap);
+                setText(ele, tmpCursor, fi, ap);
+                setPriority(ele, tmpCursor, fi, ap);
+                setSent(ele, tmpCursor, fi, ap);
+                setProtected(ele, tmpCursor, fi, ap);
+                setReceptionStatus(ele, tmpCursor, fi, ap);
+                setAttachment(ele, tmpCursor, fi, ap);
+
+                if (mMsgListingVersion > BluetoothMapUtils.MAP_MESSAGE_LISTING_FORMAT_V10) {
+                    setDeliveryStatus(ele, tmpCursor, fi, ap);
+                    setThreadId(ele, tmpCursor, fi, ap);
+                    setThreadName(ele, tmpCursor, fi, ap);
                 }
             }
         } finally {
+            mListingResolver = null;
             if (emailCursor != null) {
                 emailCursor.close();
             }
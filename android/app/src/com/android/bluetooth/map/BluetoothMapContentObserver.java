@@ -55,6 +55,7 @@ import android.util.Xml;
 
 import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.bluetooth.Utils;
+import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.map.BluetoothMapUtils.TYPE;
 import com.android.bluetooth.map.BluetoothMapbMessageMime.MimePart;
 import com.android.bluetooth.mapapi.BluetoothMapContract;
@@ -202,6 +203,24 @@ public class BluetoothMapContentObserver {
     private boolean mStorageUnlocked = false;
     private boolean mInitialized = false;
 
+    /* A change notification for the SMS/MMS provider that does not identify a message is first
+     * handled by only scanning the messages above the highest known _id. A full scan of both
+     * tables is still done when that finds nothing, and otherwise within this delay, to catch
+     * updates and deletes of already known messages. */
+    private static final long FULL_SCAN_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Handler mHandler = new Handler();
+    private final Runnable mFullScanRunnable = this::handleMsgListChangesSmsMmsFull;
+    // Highest SMS/MMS _id seen by the last scans
+    private long mSmsIdWatermark = 0;
+    private long mMmsIdWatermark = 0;
+    // Scan statistics reported in the MAP dump
+    private int mFullScanCount = 0;
+    private int mLastFullScanRows = 0;
+    private int mIncrementalScanCount = 0;
+    private int mLastIncrementalScanRows = 0;
+    private long mTotalScannedRows = 0;
+
 
     static final String[] SMS_PROJECTION = new String[]{
             Sms._ID,
@@ -482,7 +501,7 @@ public class BluetoothMapContentObserver {
         return smsType;
     }
 
-    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
             onChange(selfChange, null);
@@ -1080,6 +1099,7 @@ public class BluetoothMapContentObserver {
             Log.d(TAG, "unregisterObserver");
         }
         mResolver.unregisterContentObserver(mObserver);
+        mHandler.removeCallbacks(mFullScanRunnable);
         mObserverRegistered = false;
         if (mProviderClient != null) {
             mProviderClient.close();
@@ -1277,6 +1297,7 @@ public class BluetoothMapContentObserver {
 
         if (mEnableSmsMms) {
             HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
+            long smsIdWatermark = 0;
 
             Cursor c;
             try {
@@ -1297,6 +1318,7 @@ public class BluetoothMapContentObserver {
 
                         Msg msg = new Msg(id, type, threadId, read);
                         msgListSms.put(id, msg);
+                        smsIdWatermark = Math.max(smsIdWatermark, id);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1308,9 +1330,11 @@ public class BluetoothMapContentObserver {
             synchronized (getMsgListSms()) {
                 getMsgListSms().clear();
                 setMsgListSms(msgListSms, true); // Set initial folder version counter
+                mSmsIdWatermark = smsIdWatermark;
             }
 
             HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
+            long mmsIdWatermark = 0;
 
             c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver, Mms.CONTENT_URI,
                     MMS_PROJECTION_SHORT, null, null, null);
@@ -1324,6 +1348,7 @@ public class BluetoothMapContentObserver {
 
                         Msg msg = new Msg(id, type, threadId, read);
                         msgListMms.put(id, msg);
+                        mmsIdWatermark = Math.max(mmsIdWatermark, id);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1335,6 +1360,7 @@ public class BluetoothMapContentObserver {
             synchronized (getMsgListMms()) {
                 getMsgListMms().clear();
                 setMsgListMms(msgListMms, true); // Set initial folder version counter
+                mMmsIdWatermark = mmsIdWatermark;
             }
         }
 
@@ -1425,149 +1451,45 @@ public class BluetoothMapContentObserver {
 
     @VisibleForTesting
     void handleMsgListChangesSms() {
+        handleMsgListChangesSms(null, null);
+    }
+
+    /**
+     * Diffs the SMS messages matching {@code selection} against the tracked list. A null
+     * selection scans all messages and reports the tracked messages that were not found as
+     * deleted.
+     *
+     * @return the number of rows scanned
+     */
+    private int handleMsgListChangesSms(String selection, String[] selectionArgs) {
         if (V) {
-            Log.d(TAG, "handleMsgListChangesSms");
+            Log.d(TAG, "handleMsgListChangesSms selection: " + selection);
         }
 
-        HashMap<Long, Msg> msgListSms = new HashMap<Long, Msg>();
+        boolean fullScan = selection == null;
         boolean listChanged = false;
-
+        int rows = 0;
         Cursor c;
         synchronized (getMsgListSms()) {
+            Map<Long, Msg> msgListSms = fullScan ? new HashMap<Long, Msg>() : getMsgListSms();
             if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT, null, null, null);
+                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT, selection, selectionArgs, null);
             } else {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, null, null, null);
+                        Sms.CONTENT_URI, SMS_PROJECTION_SHORT_EXT, selection, selectionArgs,
+                        null);
             }
+            long maxId = fullScan ? 0 : mSmsIdWatermark;
             try {
                 if (c != null && c.moveToFirst()) {
+                    int idIndex = c.getColumnIndexOrThrow(Sms._ID);
                     do {
-                        int idIndex = c.getColumnIndexOrThrow(Sms._ID);
-                        if (c.isNull(idIndex)) {
-                            Log.w(TAG, "handleMsgListChangesSms, ID is null");
-                            continue;
-                        }
-                        long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Sms.TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Sms.THREAD_ID));
-                        int read = c.getInt(c.getColumnIndex(Sms.READ));
-
-                        Msg msg = getMsgListSms().remove(id);
-
-                        /* We must filter out any actions made by the MCE, hence do not send e.g.
-                         * a message deleted and/or MessageShift for messages deleted by the MCE. */
-
-                        if (msg == null) {
-                            /* New message */
-                            msg = new Msg(id, type, threadId, read);
-                            msgListSms.put(id, msg);
-                            listChanged = true;
-                            Event evt;
-                            if (mTransmitEvents && // extract contact details only if needed
-                                    mMapEventReportVersion
-                                            > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                long timestamp = c.getLong(c.getColumnIndex(Sms.DATE));
-                                String date = BluetoothMapUtils.getDateTimeString(timestamp);
-                                if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
-                                    // Skip sending message events older than one year
-                                    listChanged = false;
-                                    msgListSms.remove(id);
-                                    continue;
-                                }
-                                String subject = c.getString(c.getColumnIndex(Sms.BODY));
-                                if (subject == null) {
-                                    subject = "";
-                                }
-                                String name = "";
-                                String phone = "";
-                                if (type == 1) { //inbox
-                                    phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
-                                    if (phone != null && !phone.isEmpty()) {
-                                        name = BluetoothMapContent.getContactNameFromPhone(phone,
-                                                mResolver);
-                                        if (name == null || name.isEmpty()) {
-                                            name = phone;
-                                        }
-                                    } else {
-                                        name = phone;
-                                    }
-                                } else {
-                                    TelephonyManager tm = mContext.getSystemService(
-                                            TelephonyManager.class);
-                                    if (tm != null) {
-                                        phone = tm.getLine1Number();
-                                        name = phone;
-                                    }
-                                }
-                                String priority = "no"; // no priority for sms
-                                /* Incoming message from the network */
-                                if (mMapEventReportVersion
-                                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
-                                            mSmsType, date, subject, name, priority);
-                                } else {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
-                                            mSmsType, date, subject, name, priority,
-                                            (long) threadId, null);
-                                }
-                            } else {
-                                /* Incoming message from the network */
-                                evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type), null,
-                                        mSmsType);
-                            }
-                            sendEvent(evt);
-                        } else {
-                            /* Existing message */
-                            if (type != msg.type) {
-                                listChanged = true;
-                                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
-                                String oldFolder = getSmsFolderName(msg.type);
-                                String newFolder = getSmsFolderName(type);
-                                // Filter out the intermediate outbox steps
-                                if (!oldFolder.equalsIgnoreCase(newFolder)) {
-                                    Event evt =
-                                            new Event(EVENT_TYPE_SHIFT, id, getSmsFolderName(type),
-                                                    oldFolder, mSmsType);
-                                    sendEvent(evt);
-                                }
-                                msg.type = type;
-                            } else if (threadId != msg.threadId) {
-                                listChanged = true;
-                                Log.d(TAG, "Message delete change: type: " + type + " old type: "
-                                        + msg.type + "\n    threadId: " + threadId
-                                        + " old threadId: " + msg.threadId);
-                                if (threadId == DELETED_THREAD_ID) { // Message deleted
-                                    // TODO:
-                                    // We shall only use the folder attribute, but can't remember
-                                    // wether to set it to "deleted" or the name of the folder
-                                    // from which the message have been deleted.
-                                    // "old_folder" used only for MessageShift event
-                                    Event evt = new Event(EVENT_TYPE_DELETE, id,
-                                            getSmsFolderName(msg.type), null, mSmsType);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                } else { // Undelete
-                                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
-                                            getSmsFolderName(msg.type),
-                                            BluetoothMapContract.FOLDER_NAME_DELETED, mSmsType);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                }
-                            }
-                            if (read != msg.flagRead) {
-                                listChanged = true;
-                                msg.flagRead = read;
-                                if (mMapEventReportVersion
-                                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
-                                            getSmsFolderName(msg.type), mSmsType);
-                                    sendEvent(evt);
-                                }
-                            }
-                            msgListSms.put(id, msg);
+                        rows++;
+                        if (!c.isNull(idIndex)) {
+                            maxId = Math.max(maxId, c.getLong(idIndex));
                         }
+                        listChanged |= handleSmsRow(c, msgListSms);
                     } while (c.moveToNext());
                 }
             } finally {
@@ -1575,200 +1497,379 @@ public class BluetoothMapContentObserver {
                     c.close();
                 }
             }
-            String eventType = EVENT_TYPE_DELETE;
-            for (Msg msg : getMsgListSms().values()) {
-                // "old_folder" used only for MessageShift event
-                if (mMapEventReportVersion >= BluetoothMapUtils.MAP_EVENT_REPORT_V12) {
-                    eventType = EVENT_TYPE_REMOVED;
-                    if (V) Log.v(TAG," sent EVENT_TYPE_REMOVED");
+            if (fullScan) {
+                for (Msg msg : getMsgListSms().values()) {
+                    sendSmsDeletedEvent(msg);
+                    listChanged = true;
                 }
-                Event evt = new Event(eventType, msg.id, getSmsFolderName(msg.type), null,
-                        mSmsType);
-                sendEvent(evt);
-                listChanged = true;
             }
+            mSmsIdWatermark = maxId;
 
             setMsgListSms(msgListSms, listChanged);
         }
+        return rows;
+    }
+
+    private void sendSmsDeletedEvent(Msg msg) {
+        String eventType = EVENT_TYPE_DELETE;
+        // "old_folder" used only for MessageShift event
+        if (mMapEventReportVersion >= BluetoothMapUtils.MAP_EVENT_REPORT_V12) {
+            eventType = EVENT_TYPE_REMOVED;
+            if (V) Log.v(TAG," sent EVENT_TYPE_REMOVED");
+        }
+        Event evt = new Event(eventType, msg.id, getSmsFolderName(msg.type), null, mSmsType);
+        sendEvent(evt);
+    }
+
+    /**
+     * Diffs the SMS row at the cursor position against the tracked list, sends the resulting
+     * events and stores the row in {@code msgListSms}.
+     *
+     * @return true if the row changed the list
+     */
+    private boolean handleSmsRow(Cursor c, Map<Long, Msg> msgListSms) {
+        boolean listChanged = false;
+        int idIndex = c.getColumnIndexOrThrow(Sms._ID);
+        if (c.isNull(idIndex)) {
+            Log.w(TAG, "handleMsgListChangesSms, ID is null");
+            return false;
+        }
+        long id = c.getLong(idIndex);
+        int type = c.getInt(c.getColumnIndex(Sms.TYPE));
+        int threadId = c.getInt(c.getColumnIndex(Sms.THREAD_ID));
+        int read = c.getInt(c.getColumnIndex(Sms.READ));
+
+        Msg msg = getMsgListSms().remove(id);
+
+        /* We must filter out any actions made by the MCE, hence do not send e.g.
+         * a message deleted and/or MessageShift for messages deleted by the MCE. */
+
+        if (msg == null) {
+            /* New message */
+            msg = new Msg(id, type, threadId, read);
+            msgListSms.put(id, msg);
+            listChanged = true;
+            Event evt;
+            if (mTransmitEvents && // extract contact details only if needed
+                    mMapEventReportVersion
+                            > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                long timestamp = c.getLong(c.getColumnIndex(Sms.DATE));
+                String date = BluetoothMapUtils.getDateTimeString(timestamp);
+                if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
+                    // Skip sending message events older than one year
+                    msgListSms.remove(id);
+                    return false;
+                }
+                String subject = c.getString(c.getColumnIndex(Sms.BODY));
+                if (subject == null) {
+                    subject = "";
+                }
+                String name = "";
+                String phone = "";
+                if (type == 1) { //inbox
+                    phone = c.getString(c.getColumnIndex(Sms.ADDRESS));
+                    if (phone != null && !phone.isEmpty()) {
+                        name = BluetoothMapContent.getContactNameFromPhone(phone,
+                                mResolver);
+                        if (name == null || name.isEmpty()) {
+                            name = phone;
+                        }
+                    } else {
+                        name = phone;
+                    }
+                } else {
+                    TelephonyManager tm = mContext.getSystemService(
+                            TelephonyManager.class);
+                    if (tm != null) {
+                        phone = tm.getLine1Number();
+                        name = phone;
+                    }
+                }
+                String priority = "no"; // no priority for sms
+                /* Incoming message from the network */
+                if (mMapEventReportVersion
+                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
+                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
+                            mSmsType, date, subject, name, priority);
+                } else {
+                    evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type),
+                            mSmsType, date, subject, name, priority,
+                            (long) threadId, null);
+                }
+            } else {
+                /* Incoming message from the network */
+                evt = new Event(EVENT_TYPE_NEW, id, getSmsFolderName(type), null,
+                        mSmsType);
+            }
+            sendEvent(evt);
+        } else {
+            /* Existing message */
+            if (type != msg.type) {
+                listChanged = true;
+                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
+                String oldFolder = getSmsFolderName(msg.type);
+                String newFolder = getSmsFolderName(type);
+                // Filter out the intermediate outbox steps
+                if (!oldFolder.equalsIgnoreCase(newFolder)) {
+                    Event evt =
+                            new Event(EVENT_TYPE_SHIFT, id, getSmsFolderName(type),
+                                    oldFolder, mSmsType);
+                    sendEvent(evt);
+                }
+                msg.type = type;
+            } else if (threadId != msg.threadId) {
+                listChanged = true;
+                Log.d(TAG, "Message delete change: type: " + type + " old type: "
+                        + msg.type + "\n    threadId: " + threadId
+                        + " old threadId: " + msg.threadId);
+                if (threadId == DELETED_THREAD_ID) { // Message deleted
+                    // TODO:
+                    // We shall only use the folder attribute, but can't remember
+                    // wether to set it to "deleted" or the name of the folder
+                    // from which the message have been deleted.
+                    // "old_folder" used only for MessageShift event
+                    Event evt = new Event(EVENT_TYPE_DELETE, id,
+                            getSmsFolderName(msg.type), null, mSmsType);
+                    sendEvent(evt);
+                    msg.threadId = threadId;
+                } else { // Undelete
+                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
+                            getSmsFolderName(msg.type),
+                            BluetoothMapContract.FOLDER_NAME_DELETED, mSmsType);
+                    sendEvent(evt);
+                    msg.threadId = threadId;
+                }
+            }
+            if (read != msg.flagRead) {
+                listChanged = true;
+                msg.flagRead = read;
+                if (mMapEventReportVersion
+                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
+                            getSmsFolderName(msg.type), mSmsType);
+                    sendEvent(evt);
+                }
+            }
+            msgListSms.put(id, msg);
+        }
+        return listChanged;
     }
 
     @VisibleForTesting
     void handleMsgListChangesMms() {
+        handleMsgListChangesMms(null, null);
+    }
+
+    /**
+     * Diffs the MMS messages matching {@code selection} against the tracked list, see
+     * {@link #handleMsgListChangesSms(String, String[])}.
+     *
+     * @return the number of rows scanned
+     */
+    private int handleMsgListChangesMms(String selection, String[] selectionArgs) {
         if (V) {
-            Log.d(TAG, "handleMsgListChangesMms");
+            Log.d(TAG, "handleMsgListChangesMms selection: " + selection);
         }
 
-        HashMap<Long, Msg> msgListMms = new HashMap<Long, Msg>();
+        boolean fullScan = selection == null;
         boolean listChanged = false;
+        int rows = 0;
         Cursor c;
         synchronized (getMsgListMms()) {
+            Map<Long, Msg> msgListMms = fullScan ? new HashMap<Long, Msg>() : getMsgListMms();
             if (mMapEventReportVersion == BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT, null, null, null);
+                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT, selection, selectionArgs, null);
             } else {
                 c = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
-                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, null, null, null);
+                        Mms.CONTENT_URI, MMS_PROJECTION_SHORT_EXT, selection, selectionArgs,
+                        null);
             }
-
+            long maxId = fullScan ? 0 : mMmsIdWatermark;
             try {
                 if (c != null && c.moveToFirst()) {
+                    int idIndex = c.getColumnIndexOrThrow(Mms._ID);
                     do {
-                        int idIndex = c.getColumnIndexOrThrow(Mms._ID);
-                        if (c.isNull(idIndex)) {
-                            Log.w(TAG, "handleMsgListChangesMms, ID is null");
-                            continue;
+                        rows++;
+                        if (!c.isNull(idIndex)) {
+                            maxId = Math.max(maxId, c.getLong(idIndex));
                         }
-                        long id = c.getLong(idIndex);
-                        int type = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX));
-                        int mtype = c.getInt(c.getColumnIndex(Mms.MESSAGE_TYPE));
-                        int threadId = c.getInt(c.getColumnIndex(Mms.THREAD_ID));
-                        // TODO: Go through code to see if we have an issue with mismatch in types
-                        //       for threadId. Seems to be a long in DB??
-                        int read = c.getInt(c.getColumnIndex(Mms.READ));
+                        listChanged |= handleMmsRow(c, msgListMms);
+                    } while (c.moveToNext());
+                }
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+            if (fullScan) {
+                for (Msg msg : getMsgListMms().values()) {
+                    sendMmsDeletedEvent(msg);
+                    listChanged = true;
+                }
+            }
+            mMmsIdWatermark = maxId;
 
-                        Msg msg = getMsgListMms().remove(id);
+            setMsgListMms(msgListMms, listChanged);
+        }
+        return rows;
+    }
 
-                        /* We must filter out any actions made by the MCE, hence do not send
-                         * e.g. a message deleted and/or MessageShift for messages deleted by the
-                         * MCE.*/
+    private void sendMmsDeletedEvent(Msg msg) {
+        // "old_folder" used only for MessageShift event
+        Event evt = new Event(EVENT_TYPE_DELETE, msg.id, getMmsFolderName(msg.type), null,
+                TYPE.MMS);
+        sendEvent(evt);
+    }
 
-                        if (msg == null) {
-                            /* New message - only notify on retrieve conf */
-                            if (getMmsFolderName(type).equalsIgnoreCase(
-                                    BluetoothMapContract.FOLDER_NAME_INBOX)
-                                    && mtype != MESSAGE_TYPE_RETRIEVE_CONF) {
-                                continue;
-                            }
-                            msg = new Msg(id, type, threadId, read);
-                            msgListMms.put(id, msg);
-                            Event evt;
-                            if (mTransmitEvents && // extract contact details only if needed
-                                    mMapEventReportVersion
-                                            != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                // MMS date field is in seconds
-                                long timestamp =
-                                        TimeUnit.SECONDS.toMillis(
-                                            c.getLong(c.getColumnIndex(Mms.DATE)));
-                                String date = BluetoothMapUtils.getDateTimeString(timestamp);
-                                if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
-                                    // Skip sending new message events older than one year
-                                    msgListMms.remove(id);
-                                    continue;
-                                }
-                                String subject = c.getString(c.getColumnIndex(Mms.SUBJECT));
-                                if (subject == null || subject.length() == 0) {
-                                    /* Get subject from mms text body parts - if any exists */
-                                    subject = BluetoothMapContent.getTextPartsMms(mResolver, id);
-                                    if (subject == null) {
-                                        subject = "";
-                                    }
-                                }
-                                int tmpPri = c.getInt(c.getColumnIndex(Mms.PRIORITY));
-                                Log.d(TAG, "TEMP handleMsgListChangesMms, "
-                                        + "newMessage 'read' state: " + read + "priority: "
-                                        + tmpPri);
-
-                                String address = BluetoothMapContent.getAddressMms(mResolver, id,
-                                        BluetoothMapContent.MMS_FROM);
-                                if (address == null) {
-                                    address = "";
-                                }
+    /**
+     * Diffs the MMS row at the cursor position against the tracked list, sends the resulting
+     * events and stores the row in {@code msgListMms}.
+     *
+     * @return true if the row changed the list
+     */
+    private boolean handleMmsRow(Cursor c, Map<Long, Msg> msgListMms) {
+        boolean listChanged = false;
+        int idIndex = c.getColumnIndexOrThrow(Mms._ID);
+        if (c.isNull(idIndex)) {
+            Log.w(TAG, "handleMsgListChangesMms, ID is null");
+            return false;
+        }
+        long id = c.getLong(idIndex);
+        int type = c.getInt(c.getColumnIndex(Mms.MESSAGE_BOX));
+        int mtype = c.getInt(c.getColumnIndex(Mms.MESSAGE_TYPE));
+        int threadId = c.getInt(c.getColumnIndex(Mms.THREAD_ID));
+        // TODO: Go through code to see if we have an issue with mismatch in types
+        //       for threadId. Seems to be a long in DB??
+        int read = c.getInt(c.getColumnIndex(Mms.READ));
+
+        Msg msg = getMsgListMms().remove(id);
+
+        /* We must filter out any actions made by the MCE, hence do not send
+         * e.g. a message deleted and/or MessageShift for messages deleted by the
+         * MCE.*/
+
+        if (msg == null) {
+            /* New message - only notify on retrieve conf */
+            if (getMmsFolderName(type).equalsIgnoreCase(
+                    BluetoothMapContract.FOLDER_NAME_INBOX)
+                    && mtype != MESSAGE_TYPE_RETRIEVE_CONF) {
+                return false;
+            }
+            msg = new Msg(id, type, threadId, read);
+            msgListMms.put(id, msg);
+            Event evt;
+            if (mTransmitEvents && // extract contact details only if needed
+                    mMapEventReportVersion
+                            != BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                // MMS date field is in seconds
+                long timestamp =
+                        TimeUnit.SECONDS.toMillis(
+                            c.getLong(c.getColumnIndex(Mms.DATE)));
+                String date = BluetoothMapUtils.getDateTimeString(timestamp);
+                if (BluetoothMapUtils.isDateTimeOlderThanOneYear(timestamp)) {
+                    // Skip sending new message events older than one year
+                    msgListMms.remove(id);
+                    return false;
+                }
+                String subject = c.getString(c.getColumnIndex(Mms.SUBJECT));
+                if (subject == null || subject.length() == 0) {
+                    /* Get subject from mms text body parts - if any exists */
+                    subject = BluetoothMapContent.getTextPartsMms(mResolver, id);
+                    if (subject == null) {
+                        subject = "";
+                    }
+                }
+                int tmpPri = c.getInt(c.getColumnIndex(Mms.PRIORITY));
+                Log.d(TAG, "TEMP handleMsgListChangesMms, "
+                        + "newMessage 'read' state: " + read + "priority: "
+                        + tmpPri);
 
-                                String priority = "no";
-                                if (tmpPri == PduHeaders.PRIORITY_HIGH) {
-                                    priority = "yes";
-                                }
+                String address = BluetoothMapContent.getAddressMms(mResolver, id,
+                        BluetoothMapContent.MMS_FROM);
+                if (address == null) {
+                    address = "";
+                }
 
-                                /* Incoming message from the network */
-                                if (mMapEventReportVersion
-                                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
-                                            TYPE.MMS, date, subject, address, priority);
-                                } else {
-                                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
-                                            TYPE.MMS, date, subject, address, priority,
-                                            (long) threadId, null);
-                                }
+                String priority = "no";
+                if (tmpPri == PduHeaders.PRIORITY_HIGH) {
+                    priority = "yes";
+                }
 
-                            } else {
-                                /* Incoming message from the network */
-                                evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type), null,
-                                        TYPE.MMS);
-                            }
-                            listChanged = true;
+                /* Incoming message from the network */
+                if (mMapEventReportVersion
+                        == BluetoothMapUtils.MAP_EVENT_REPORT_V11) {
+                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
+                            TYPE.MMS, date, subject, address, priority);
+                } else {
+                    evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type),
+                            TYPE.MMS, date, subject, address, priority,
+                            (long) threadId, null);
+                }
 
-                            sendEvent(evt);
-                        } else {
-                            /* Existing message */
-                            if (type != msg.type) {
-                                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
-                                Event evt;
-                                listChanged = true;
-                                if (!msg.localInitiatedSend) {
-                                    // Only send events about local initiated changes
-                                    evt = new Event(EVENT_TYPE_SHIFT, id, getMmsFolderName(type),
-                                            getMmsFolderName(msg.type), TYPE.MMS);
-                                    sendEvent(evt);
-                                }
-                                msg.type = type;
+            } else {
+                /* Incoming message from the network */
+                evt = new Event(EVENT_TYPE_NEW, id, getMmsFolderName(type), null,
+                        TYPE.MMS);
+            }
+            listChanged = true;
 
-                                if (getMmsFolderName(type).equalsIgnoreCase(
-                                        BluetoothMapContract.FOLDER_NAME_SENT)
-                                        && msg.localInitiatedSend) {
-                                    // Stop tracking changes for this message
-                                    msg.localInitiatedSend = false;
-                                    evt = new Event(EVENT_TYPE_SENDING_SUCCESS, id,
-                                            getMmsFolderName(type), null, TYPE.MMS);
-                                    sendEvent(evt);
-                                }
-                            } else if (threadId != msg.threadId) {
-                                Log.d(TAG, "Message delete change: type: " + type + " old type: "
-                                        + msg.type + "\n    threadId: " + threadId
-                                        + " old threadId: " + msg.threadId);
-                                listChanged = true;
-                                if (threadId == DELETED_THREAD_ID) { // Message deleted
-                                    // "old_folder" used only for MessageShift event
-                                    Event evt = new Event(EVENT_TYPE_DELETE, id,
-                                            getMmsFolderName(msg.type), null, TYPE.MMS);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                } else { // Undelete
-                                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
-                                            getMmsFolderName(msg.type),
-                                            BluetoothMapContract.FOLDER_NAME_DELETED, TYPE.MMS);
-                                    sendEvent(evt);
-                                    msg.threadId = threadId;
-                                }
-                            }
-                            if (read != msg.flagRead) {
-                                listChanged = true;
-                                msg.flagRead = read;
-                                if (mMapEventReportVersion
-                                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
-                                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
-                                            getMmsFolderName(msg.type), TYPE.MMS);
-                                    sendEvent(evt);
-                                }
-                            }
-                            msgListMms.put(id, msg);
-                        }
-                    } while (c.moveToNext());
+            sendEvent(evt);
+        } else {
+            /* Existing message */
+            if (type != msg.type) {
+                Log.d(TAG, "new type: " + type + " old type: " + msg.type);
+                Event evt;
+                listChanged = true;
+                if (!msg.localInitiatedSend) {
+                    // Only send events about local initiated changes
+                    evt = new Event(EVENT_TYPE_SHIFT, id, getMmsFolderName(type),
+                            getMmsFolderName(msg.type), TYPE.MMS);
+                    sendEvent(evt);
+                }
+                msg.type = type;
 
+                if (getMmsFolderName(type).equalsIgnoreCase(
+                        BluetoothMapContract.FOLDER_NAME_SENT)
+                        && msg.localInitiatedSend) {
+                    // Stop tracking changes for this message
+                    msg.localInitiatedSend = false;
+                    evt = new Event(EVENT_TYPE_SENDING_SUCCESS, id,
+                            getMmsFolderName(type), null, TYPE.MMS);
+                    sendEvent(evt);
                 }
-            } finally {
-                if (c != null) {
-                    c.close();
+            } else if (threadId != msg.threadId) {
+                Log.d(TAG, "Message delete change: type: " + type + " old type: "
+                        + msg.type + "\n    threadId: " + threadId
+                        + " old threadId: " + msg.threadId);
+                listChanged = true;
+                if (threadId == DELETED_THREAD_ID) { // Message deleted
+                    // "old_folder" used only for MessageShift event
+                    Event evt = new Event(EVENT_TYPE_DELETE, id,
+                            getMmsFolderName(msg.type), null, TYPE.MMS);
+                    sendEvent(evt);
+                    msg.threadId = threadId;
+                } else { // Undelete
+                    Event evt = new Event(EVENT_TYPE_SHIFT, id,
+                            getMmsFolderName(msg.type),
+                            BluetoothMapContract.FOLDER_NAME_DELETED, TYPE.MMS);
+                    sendEvent(evt);
+                    msg.threadId = threadId;
                 }
             }
-            for (Msg msg : getMsgListMms().values()) {
-                // "old_folder" used only for MessageShift event
-                Event evt = new Event(EVENT_TYPE_DELETE, msg.id, getMmsFolderName(msg.type), null,
-                        TYPE.MMS);
-                sendEvent(evt);
+            if (read != msg.flagRead) {
                 listChanged = true;
+                msg.flagRead = read;
+                if (mMapEventReportVersion
+                        > BluetoothMapUtils.MAP_EVENT_REPORT_V10) {
+                    Event evt = new Event(EVENT_TYPE_READ_STATUS, id,
+                            getMmsFolderName(msg.type), TYPE.MMS);
+                    sendEvent(evt);
+                }
             }
-            setMsgListMms(msgListMms, listChanged);
+            msgListMms.put(id, msg);
         }
+        return listChanged;
     }
 
     @VisibleForTesting
@@ -1981,9 +2082,62 @@ public class BluetoothMapContentObserver {
         }
         // TODO: check to see if there could be problem with IM and SMS in one instance
         if (mEnableSmsMms) {
-            handleMsgListChangesSms();
-            handleMsgListChangesMms();
+            handleMsgListChangesSmsMms();
+        }
+    }
+
+    /**
+     * Handles a change notification for the SMS/MMS provider. The observer is registered on
+     * {@link MmsSms#CONTENT_URI} without descendants, so the notification does not tell which
+     * message changed: only the messages that are newer than the last scan are queried. See
+     * {@link #FULL_SCAN_DELAY_MS} for when all messages are scanned.
+     */
+    @VisibleForTesting
+    void handleMsgListChangesSmsMms() {
+        int rows = handleMsgListChangesSms(Sms._ID + ">?",
+                new String[] {Long.toString(mSmsIdWatermark)});
+        rows += handleMsgListChangesMms(Mms._ID + ">?",
+                new String[] {Long.toString(mMmsIdWatermark)});
+        recordIncrementalScan(rows);
+        if (rows == 0) {
+            // Nothing new, hence an existing message was changed or deleted
+            handleMsgListChangesSmsMmsFull();
+        } else if (!mHandler.hasCallbacks(mFullScanRunnable)) {
+            mHandler.postDelayed(mFullScanRunnable, FULL_SCAN_DELAY_MS);
+        }
+    }
+
+    private void handleMsgListChangesSmsMmsFull() {
+        mHandler.removeCallbacks(mFullScanRunnable);
+        if (!mObserverRegistered || !mStorageUnlocked) {
+            return;
+        }
+        int rows = handleMsgListChangesSms(null, null);
+        rows += handleMsgListChangesMms(null, null);
+        mFullScanCount++;
+        mLastFullScanRows = rows;
+        mTotalScannedRows += rows;
+    }
+
+    private void recordIncrementalScan(int rows) {
+        mIncrementalScanCount++;
+        mLastIncrementalScanRows = rows;
+        mTotalScannedRows += rows;
+    }
+
+    /**
+     * Dumps the SMS/MMS change tracking statistics.
+     */
+    public void dump(StringBuilder sb) {
+        if (!mEnableSmsMms) {
+            return;
         }
+        ProfileService.println(sb, "    SMS/MMS full scans: " + mFullScanCount + " (last: "
+                + mLastFullScanRows + " rows), incremental scans: " + mIncrementalScanCount
+                + " (last: " + mLastIncrementalScanRows + " rows), total rows: "
+                + mTotalScannedRows);
+        ProfileService.println(sb, "    SMS/MMS _id watermarks: " + mSmsIdWatermark + "/"
+                + mMmsIdWatermark);
     }
 
     @VisibleForTesting
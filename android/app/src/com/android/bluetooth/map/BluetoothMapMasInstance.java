@@ -27,6 +27,7 @@ import android.util.Log;
 import com.android.bluetooth.BluetoothObexTransport;
 import com.android.bluetooth.IObexConnectionHandler;
 import com.android.bluetooth.ObexServerSockets;
+import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.map.BluetoothMapContentObserver.Msg;
 import com.android.bluetooth.map.BluetoothMapUtils.TYPE;
 import com.android.bluetooth.sdp.SdpManager;
@@ -159,6 +160,17 @@ public class BluetoothMapMasInstance implements IObexConnectionHandler {
         return "MasId: " + mMasInstanceId + " Uri:" + mBaseUri + " SMS/MMS:" + mEnableSmsMms;
     }
 
+    /**
+     * Dumps the state of this MAS instance.
+     */
+    public void dump(StringBuilder sb) {
+        ProfileService.println(sb, "  " + this);
+        BluetoothMapContentObserver observer = mObserver;
+        if (observer != null) {
+            observer.dump(sb);
+        }
+    }
+
     private void init() {
         mAdapter = BluetoothAdapter.getDefaultAdapter();
     }
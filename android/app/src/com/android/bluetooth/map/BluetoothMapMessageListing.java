@@ -19,14 +19,20 @@ import android.util.Xml;
 
 import com.android.bluetooth.DeviceWorkArounds;
 import com.android.bluetooth.Utils;
+import com.android.internal.annotations.VisibleForTesting;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterWriter;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 public class BluetoothMapMessageListing {
@@ -67,6 +73,16 @@ public class BluetoothMapMessageListing {
         return mHasUnread;
     }
 
+    /**
+     * Account for a message that is not part of the requested segment of the listing, so that
+     * {@link #hasUnread()} still reflects it.
+     */
+    void addSkipped(BluetoothMapMessageListingElement element) {
+        if (!element.getReadBool()) {
+            mHasUnread = true;
+        }
+    }
+
 
     /**
      *  returns the entire list as a list
@@ -90,19 +106,47 @@ public class BluetoothMapMessageListing {
     // TODO: Remove includeThreadId when MAP-IM is adopted
     public byte[] encode(boolean includeThreadId, String version)
             throws UnsupportedEncodingException {
-        StringWriter sw = new StringWriter();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            encode(out, includeThreadId, version);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode the list of BluetoothMapMessageListingElement(s) as UTF-8 formatted XML directly
+     * into a stream, without building the document in memory first.
+     *
+     * @param out the stream to write to. It is flushed, but not closed.
+     * @param version the version as a string, see {@link #encode(boolean, String)}.
+     * @throws IOException if writing to the stream fails.
+     */
+    // TODO: Remove includeThreadId when MAP-IM is adopted
+    public void encode(OutputStream out, boolean includeThreadId, String version)
+            throws IOException {
         boolean isBenzCarkit;
+        boolean isBrezzaCarkit;
 
         if (Utils.isInstrumentationTestMode()) {
             isBenzCarkit = false;
+            isBrezzaCarkit = false;
         } else {
-            isBenzCarkit = DeviceWorkArounds.addressStartsWith(
-                    BluetoothMapService.getRemoteDevice().getAddress(),
+            String address = BluetoothMapService.getRemoteDevice().getAddress();
+            isBenzCarkit = DeviceWorkArounds.addressStartsWith(address,
                     DeviceWorkArounds.MERCEDES_BENZ_CARKIT);
+            isBrezzaCarkit = DeviceWorkArounds.addressStartsWith(address,
+                    DeviceWorkArounds.BREZZA_ZDI_CARKIT);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        /* Fix IOT issue to replace '&amp;' by '&', &lt; by < and '&gt; by '>' in MessageListing */
+        if (isBrezzaCarkit) {
+            writer = EntityUnescapingWriter.unescapeAll(writer);
         }
         try {
             XmlSerializer xmlMsgElement = Xml.newSerializer();
-            xmlMsgElement.setOutput(sw);
+            xmlMsgElement.setOutput(writer);
             if (isBenzCarkit) {
                 Log.d(TAG, "java_interop: Remote is Mercedes Benz, "
                         + "using Xml Workaround.");
@@ -124,40 +168,77 @@ public class BluetoothMapMessageListing {
             Log.w(TAG, e);
         } catch (IllegalStateException e) {
             Log.w(TAG, e);
-        } catch (IOException e) {
-            Log.w(TAG, e);
-        }
-        /* Fix IOT issue to replace '&amp;' by '&', &lt; by < and '&gt; by '>' in MessageListing */
-        if (!Utils.isInstrumentationTestMode() && DeviceWorkArounds.addressStartsWith(
-                BluetoothMapService.getRemoteDevice().getAddress(),
-                DeviceWorkArounds.BREZZA_ZDI_CARKIT)) {
-            return sw.toString()
-                    .replaceAll("&amp;", "&")
-                    .replaceAll("&lt;", "<")
-                    .replaceAll("&gt;", ">")
-                    .getBytes("UTF-8");
         }
-        return sw.toString().getBytes("UTF-8");
+        writer.flush();
     }
 
-    public void sort() {
-        Collections.sort(mList);
-    }
+    /**
+     * Writes XML with one entity replaced by the character it stands for, for remotes that do not
+     * decode entities. The entity is recognized as the text passes through, so the document never
+     * needs to be held in memory.
+     */
+    @VisibleForTesting
+    static class EntityUnescapingWriter extends FilterWriter {
+        private final String mEntity;
+        private final char mCharacter;
+
+        // The start of a possible entity, waiting for enough characters to decide.
+        private final StringBuilder mPending = new StringBuilder();
+
+        EntityUnescapingWriter(Writer out, String entity, char character) {
+            super(out);
+            mEntity = entity;
+            mCharacter = character;
+        }
 
-    public void segment(int count, int offset) {
-        count = Math.min(count, mList.size() - offset);
-        if (count > 0) {
-            mList = mList.subList(offset, offset + count);
-            if (mList == null) {
-                mList = new ArrayList<BluetoothMapMessageListingElement>(); // Return an empty list
+        /**
+         * Replaces '&amp;', then '&lt;', then '&gt;', each in a separate pass like the
+         * replaceAll() chain this replaces. Hence '&amp;lt;' is written as '<'.
+         */
+        static Writer unescapeAll(Writer out) {
+            out = new EntityUnescapingWriter(out, "&gt;", '>');
+            out = new EntityUnescapingWriter(out, "&lt;", '<');
+            return new EntityUnescapingWriter(out, "&amp;", '&');
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (mPending.length() == 0 && c != mEntity.charAt(0)) {
+                out.write(c);
+                return;
             }
-        } else {
-            if (offset > mList.size()) {
-                mList = new ArrayList<BluetoothMapMessageListingElement>();
-                Log.d(TAG, "offset greater than list size. Returning empty list");
-            } else {
-                mList = mList.subList(offset, mList.size());
+            mPending.append((char) c);
+            String pending = mPending.toString();
+            if (mEntity.equals(pending)) {
+                mPending.setLength(0);
+                out.write(mCharacter);
+            } else if (!mEntity.startsWith(pending)) {
+                // Not the entity after all, the last character may start a new one.
+                mPending.setLength(0);
+                out.write(pending, 0, pending.length() - 1);
+                write(c);
             }
         }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(str.charAt(i));
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.write(mPending.toString());
+            mPending.setLength(0);
+            super.flush();
+        }
     }
 }
@@ -39,6 +39,8 @@ import com.android.obex.Operation;
 import com.android.obex.ResponseCodes;
 import com.android.obex.ServerRequestHandler;
 
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -1140,12 +1142,12 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
     private int sendMessageListingRsp(Operation op, BluetoothMapAppParams appParams,
             String folderName) {
         OutputStream outStream = null;
-        byte[] outBytes = null;
-        int maxChunkSize, bytesToWrite, bytesWritten = 0, listSize;
+        int maxChunkSize, listSize;
         boolean hasUnread = false;
         HeaderSet replyHeaders = new HeaderSet();
         BluetoothMapAppParams outAppParams = new BluetoothMapAppParams();
-        BluetoothMapMessageListing outList;
+        BluetoothMapMessageListing outList = null;
+        String version = null;
         if (appParams == null) {
             appParams = new BluetoothMapAppParams();
             appParams.setMaxListCount(1024);
@@ -1194,7 +1196,6 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                 outList = mOutContent.msgListing(folderToList, appParams);
                 // Generate the byte stream
                 outAppParams.setMessageListingSize(outList.getCount());
-                String version;
                 if (0 < (mRemoteFeatureMask
                         & BluetoothMapUtils.MAP_FEATURE_MESSAGE_LISTING_FORMAT_V11_BIT)) {
                     version = BluetoothMapUtils.MAP_V11_STR;
@@ -1202,8 +1203,7 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     version = BluetoothMapUtils.MAP_V10_STR;
                 }
                 /* This will only set the version, the bit must also be checked before adding any
-                 * 1.1 bits to the listing. */
-                outBytes = outList.encode(mThreadIdSupport, version);
+                 * 1.1 bits to the listing. The listing is encoded once the body stream is open. */
                 hasUnread = outList.hasUnread();
             } else {
                 listSize = mOutContent.msgListingSize(folderToList, appParams);
@@ -1264,13 +1264,13 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         }
 
         maxChunkSize = op.getMaxPacketSize(); // This must be called after setting the headers.
-        if (outBytes != null) {
+        if (outList != null) {
+            boolean isEncoded = false;
             try {
-                while (bytesWritten < outBytes.length && !mIsAborted) {
-                    bytesToWrite = Math.min(maxChunkSize, outBytes.length - bytesWritten);
-                    outStream.write(outBytes, bytesWritten, bytesToWrite);
-                    bytesWritten += bytesToWrite;
-                }
+                // Encode the listing straight into the body, one OBEX packet at a time.
+                outList.encode(new BufferedOutputStream(new AbortableOutputStream(outStream),
+                        maxChunkSize), mThreadIdSupport, version);
+                isEncoded = true;
             } catch (IOException e) {
                 if (D) {
                     Log.w(TAG, e);
@@ -1284,8 +1284,8 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
                     }
                 }
             }
-            if (bytesWritten != outBytes.length && !mIsAborted) {
-                Log.w(TAG, "sendMessageListingRsp: bytesWritten != outBytes.length"
+            if (!isEncoded && !mIsAborted) {
+                Log.w(TAG, "sendMessageListingRsp: listing not fully written"
                         + " - sending OBEX_HTTP_BAD_REQUEST");
                 return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
             }
@@ -1877,6 +1877,26 @@ public class BluetoothMapObexServer extends ServerRequestHandler {
         return ResponseCodes.OBEX_HTTP_BAD_REQUEST;
     }
 
+    /** Stops writing a response body once the operation has been aborted by the client. */
+    private class AbortableOutputStream extends FilterOutputStream {
+        AbortableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mIsAborted) {
+                throw new IOException("Operation aborted");
+            }
+            out.write(b, off, len);
+        }
+    }
+
     private void notifyUpdateWakeLock() {
         if (mCallback != null) {
             Message msg = Message.obtain(mCallback);
@@ -678,6 +678,7 @@ public class BluetoothMapService extends ProfileService {
 
         setComponentAvailable(MAP_SETTINGS_ACTIVITY, true);
         setComponentAvailable(MAP_FILE_PROVIDER, true);
+        SmsMmsContacts.startNameCache(getContentResolver());
 
         HandlerThread thread = new HandlerThread("BluetoothMapHandler");
         thread.start();
@@ -900,6 +901,7 @@ public class BluetoothMapService extends ProfileService {
             mAppObserver.shutdown();
         }
         sendShutdownMessage();
+        SmsMmsContacts.stopNameCache(getContentResolver());
         setComponentAvailable(MAP_SETTINGS_ACTIVITY, false);
         setComponentAvailable(MAP_FILE_PROVIDER, false);
         return true;
@@ -1426,5 +1428,9 @@ public class BluetoothMapService extends ProfileService {
         for (BluetoothMapAccountItem account : mEnabledAccounts) {
             println(sb, "  " + account);
         }
+        println(sb, "mMasInstances:");
+        for (int i = 0; i < mMasInstances.size(); i++) {
+            mMasInstances.valueAt(i).dump(sb);
+        }
     }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.content.ContentResolver;
+import android.util.LongSparseArray;
+
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the addresses and contact names needed to build a single message listing.
+ *
+ * <p>Filtering and the sender/recipient setters of {@link BluetoothMapContent} ask for the same
+ * MMS address and the same contact name several times per listing element, and many elements
+ * share the same phone numbers. This remembers every answer for the lifetime of the listing, so
+ * each MMS address is queried once per message and address type, and each phone number is
+ * resolved once through {@link SmsMmsContacts#getContactName}.
+ */
+class MessageListingResolver {
+    private final ContentResolver mResolver;
+    private final LongSparseArray<String> mMmsFromAddresses = new LongSparseArray<>();
+    private final LongSparseArray<String> mMmsToAddresses = new LongSparseArray<>();
+    private final HashMap<String, String> mNames = new HashMap<>();
+    private final HashMap<String, Pattern> mFilterPatterns = new HashMap<>();
+
+    MessageListingResolver(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Returns the first {@link BluetoothMapContent#MMS_FROM} or {@link BluetoothMapContent#MMS_TO}
+     * address of an MMS, see {@link BluetoothMapContent#getAddressMms}.
+     */
+    String getAddressMms(long id, int type) {
+        LongSparseArray<String> addresses;
+        if (type == BluetoothMapContent.MMS_FROM) {
+            addresses = mMmsFromAddresses;
+        } else if (type == BluetoothMapContent.MMS_TO) {
+            addresses = mMmsToAddresses;
+        } else {
+            return BluetoothMapContent.getAddressMms(mResolver, id, type);
+        }
+        int index = addresses.indexOfKey(id);
+        if (index >= 0) {
+            return addresses.valueAt(index);
+        }
+        String address = BluetoothMapContent.getAddressMms(mResolver, id, type);
+        addresses.put(id, address);
+        return address;
+    }
+
+    /** Returns the contact name of a phone number, or null if there is no such contact. */
+    String getContactName(String phone) {
+        if (mNames.containsKey(phone)) {
+            return mNames.get(phone);
+        }
+        String name = SmsMmsContacts.getContactName(phone, mResolver);
+        mNames.put(phone, name);
+        return name;
+    }
+
+    /**
+     * Returns the compiled form of an originator or recipient filter, where '*' matches any
+     * sequence of characters and the filter may match anywhere in the address or name.
+     */
+    Pattern getFilterPattern(String filter) {
+        Pattern pattern = mFilterPatterns.get(filter);
+        if (pattern == null) {
+            pattern = Pattern.compile(".*" + filter.replace("*", ".*") + ".*");
+            mFilterPatterns.put(filter, pattern);
+        }
+        return pattern;
+    }
+}
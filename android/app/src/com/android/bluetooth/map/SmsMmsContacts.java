@@ -17,6 +17,7 @@ package com.android.bluetooth.map;
 
 import android.annotation.TargetApi;
 import android.content.ContentResolver;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract;
@@ -25,8 +26,10 @@ import android.provider.ContactsContract.PhoneLookup;
 import android.provider.Telephony.CanonicalAddressesColumns;
 import android.provider.Telephony.MmsSms;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.Arrays;
@@ -66,6 +69,94 @@ public class SmsMmsContacts {
     private static final int COL_CONTACT_NAME =
             Arrays.asList(CONTACT_PROJECTION).indexOf(Contacts.DISPLAY_NAME);
 
+    private static final int NAME_CACHE_SIZE = 512;
+    // Cached value for a phone number without a contact
+    private static final String NO_NAME = "";
+
+    private static final Object sNameCacheLock = new Object();
+    /* Phone number to contact name cache shared by all listings. It is only used while an
+     * observer of the contacts provider is registered to clear it. */
+    @GuardedBy("sNameCacheLock")
+    private static LruCache<String, String> sNameCache = null;
+    @GuardedBy("sNameCacheLock")
+    private static ContentObserver sNameCacheObserver = null;
+    // Incremented on every clear, to not cache names looked up before a contacts change
+    @GuardedBy("sNameCacheLock")
+    private static int sNameCacheGeneration = 0;
+
+    /**
+     * Starts caching contact names looked up with {@link #getContactName}, until
+     * {@link #stopNameCache} is called. The cache is cleared whenever the contacts change.
+     */
+    static void startNameCache(ContentResolver resolver) {
+        synchronized (sNameCacheLock) {
+            if (sNameCacheObserver != null) {
+                return;
+            }
+            sNameCache = new LruCache<String, String>(NAME_CACHE_SIZE);
+            sNameCacheObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    clearNameCache();
+                }
+            };
+            resolver.registerContentObserver(Contacts.CONTENT_URI, true, sNameCacheObserver);
+        }
+    }
+
+    /** Stops caching contact names and drops the cache. */
+    static void stopNameCache(ContentResolver resolver) {
+        synchronized (sNameCacheLock) {
+            if (sNameCacheObserver == null) {
+                return;
+            }
+            resolver.unregisterContentObserver(sNameCacheObserver);
+            sNameCacheObserver = null;
+            sNameCache = null;
+            sNameCacheGeneration++;
+        }
+    }
+
+    @VisibleForTesting
+    static void clearNameCache() {
+        synchronized (sNameCacheLock) {
+            if (sNameCache != null) {
+                sNameCache.evictAll();
+            }
+            sNameCacheGeneration++;
+        }
+    }
+
+    /**
+     * Lookup the display name of a phone number, through the shared name cache if it is started.
+     * @param phone the phone number of the contact
+     * @param resolver the ContentResolver to use.
+     * @return the name of the contact or null, if no contact was found.
+     */
+    static String getContactName(String phone, ContentResolver resolver) {
+        if (phone == null || phone.isEmpty()) {
+            return null;
+        }
+        int generation;
+        synchronized (sNameCacheLock) {
+            if (sNameCache == null) {
+                return BluetoothMapContent.getContactNameFromPhone(phone, resolver);
+            }
+            String name = sNameCache.get(phone);
+            if (name != null) {
+                return NO_NAME.equals(name) ? null : name;
+            }
+            generation = sNameCacheGeneration;
+        }
+        String name = BluetoothMapContent.getContactNameFromPhone(phone, resolver);
+        synchronized (sNameCacheLock) {
+            if (sNameCache != null && generation == sNameCacheGeneration) {
+                sNameCache.put(phone, name == null ? NO_NAME : name);
+            }
+        }
+        return name;
+    }
+
     /**
      * Get a contacts phone number based on the canonical addresses id of the contact.
      * (The ID listed in the Threads table.)
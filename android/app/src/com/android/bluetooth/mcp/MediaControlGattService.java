@@ -39,6 +39,7 @@ import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
 import android.bluetooth.IBluetoothManager;
 import android.bluetooth.IBluetoothStateChangeCallback;
 import android.content.Context;
@@ -818,6 +819,12 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
                     device, characteristic, confirm);
         }
 
+        public boolean notifyCharacteristicChanged(List<BluetoothDevice> devices,
+                BluetoothGattCharacteristic characteristic, boolean confirm) {
+            return mBluetoothGattServer.notifyCharacteristicChanged(devices, characteristic,
+                    confirm, characteristic.getValue()) == BluetoothStatusCodes.SUCCESS;
+        }
+
         public List<BluetoothDevice> getConnectedDevices() {
             return mBluetoothManager.getConnectedDevices(BluetoothProfile.GATT_SERVER);
         }
@@ -1425,6 +1432,7 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
     private void notifyCharacteristic(@NonNull BluetoothGattCharacteristic characteristic,
             @Nullable BluetoothDevice originDevice) {
+        List<BluetoothDevice> subscribers = new ArrayList<>();
         for (BluetoothDevice device : mBluetoothGattServer.getConnectedDevices()) {
             // Skip the origin device who changed the characteristic
             if (device == originDevice) {
@@ -1443,10 +1451,14 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
             if (!Arrays.equals(ccc, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) continue;
 
-            if (VDBG) Log.d(TAG, "notifyCharacteristic sending notification");
-
-            mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
+            subscribers.add(device);
         }
+
+        if (subscribers.isEmpty()) return;
+
+        if (VDBG) Log.d(TAG, "notifyCharacteristic sending notification to " + subscribers);
+
+        mBluetoothGattServer.notifyCharacteristicChanged(subscribers, characteristic, false);
     }
 
     private static int SpeedFloatToCharacteristicIntValue(float speed) {
@@ -46,7 +46,6 @@ import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.PhoneLookup;
-import android.provider.ContactsContract.RawContactsEntity;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
 import android.util.Log;
@@ -65,6 +64,7 @@ import com.android.vcard.VCardPhoneNumberTranslationCallback;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 public class BluetoothPbapVcardManager {
     private static final String TAG = "BluetoothPbapVcardManager";
@@ -352,6 +352,7 @@ public class BluetoothPbapVcardManager {
 
         final Uri myUri = DevicePolicyUtils.getEnterprisePhoneUri(mContext);
         Cursor contactCursor = null;
+        RawContactsEntityFetcher entityFetcher = null;
         try {
             contactCursor = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
                     myUri, PHONES_CONTACTS_PROJECTION, null, null,
@@ -372,9 +373,10 @@ public class BluetoothPbapVcardManager {
 
                 int i = 0;
                 contactCursor.moveToFirst();
+                entityFetcher = new RawContactsEntityFetcher(mResolver, contactCursor, idColumn);
                 while (!contactCursor.isAfterLast()) {
-                    String vcard = composer.buildVCard(RawContactsEntity.queryRawContactEntity(
-                                mResolver, contactCursor.getLong(idColumn)));
+                    String vcard = composer.buildVCard(
+                            entityFetcher.query(contactCursor.getLong(idColumn)));
                     if (!contactCursor.moveToNext()) {
                         Log.e(TAG, "Cursor#moveToNext() returned false");
                     }
@@ -418,6 +420,9 @@ public class BluetoothPbapVcardManager {
         } catch (CursorWindowAllocationException e) {
             Log.e(TAG, "CursorWindowAllocationException while getting Phonebook name list");
         } finally {
+            if (entityFetcher != null) {
+                entityFetcher.close();
+            }
             if (contactCursor != null) {
                 contactCursor.close();
                 contactCursor = null;
@@ -713,6 +718,7 @@ public class BluetoothPbapVcardManager {
         VCardFilter vcardfilter = new VCardFilter(ignorefilter ? null : filter);
 
         HandlerForStringBuffer buffer = null;
+        RawContactsEntityFetcher entityFetcher = null;
         try {
             // Currently only support Generic Vcard 2.1 and 3.0
             int vcardType;
@@ -757,6 +763,9 @@ public class BluetoothPbapVcardManager {
             if (idColumn < 0) {
                 idColumn = contactIdCursor.getColumnIndex(Contacts._ID);
             }
+            // Filtered vCards are built in here, reused for every contact.
+            StringBuilder cleanVCard = new StringBuilder();
+            entityFetcher = new RawContactsEntityFetcher(mResolver, contactIdCursor, idColumn);
 
             while (!contactIdCursor.isAfterLast()) {
                 if (BluetoothPbapObexServer.sIsAborted) {
@@ -764,8 +773,8 @@ public class BluetoothPbapVcardManager {
                     BluetoothPbapObexServer.sIsAborted = false;
                     break;
                 }
-                String vcard = composer.buildVCard(RawContactsEntity.queryRawContactEntity(
-                            mResolver, contactIdCursor.getLong(idColumn)));
+                String vcard = composer.buildVCard(
+                        entityFetcher.query(contactIdCursor.getLong(idColumn)));
                 if (!contactIdCursor.moveToNext()) {
                     Log.e(TAG, "Cursor#moveToNext() returned false");
                 }
@@ -780,19 +789,22 @@ public class BluetoothPbapVcardManager {
                     Log.v(TAG, "vCard from composer: " + vcard);
                 }
 
-                vcard = vcardfilter.apply(vcard, vcardType21);
-                vcard = stripTelephoneNumber(vcard);
+                cleanVCard.setLength(0);
+                vcardfilter.apply(vcard, vcardType21, true, cleanVCard);
 
                 if (V) {
-                    Log.v(TAG, "vCard after cleanup: " + vcard);
+                    Log.v(TAG, "vCard after cleanup: " + cleanVCard);
                 }
 
-                if (!buffer.writeVCard(vcard)) {
+                if (!buffer.writeVCard(cleanVCard)) {
                     // onEntryCreate() already emits error.
                     return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                 }
             }
         } finally {
+            if (entityFetcher != null) {
+                entityFetcher.close();
+            }
             if (composer != null) {
                 composer.terminate();
             }
@@ -822,6 +834,7 @@ public class BluetoothPbapVcardManager {
         PropertySelector vcardselector = new PropertySelector(selector);
 
         HandlerForStringBuffer buffer = null;
+        RawContactsEntityFetcher entityFetcher = null;
 
         try {
             // Currently only support Generic Vcard 2.1 and 3.0
@@ -862,6 +875,9 @@ public class BluetoothPbapVcardManager {
             if (idColumn < 0) {
                 idColumn = contactIdCursor.getColumnIndex(Contacts._ID);
             }
+            // Filtered vCards are built in here, reused for every contact.
+            StringBuilder cleanVCard = new StringBuilder();
+            entityFetcher = new RawContactsEntityFetcher(mResolver, contactIdCursor, idColumn);
 
             while (!contactIdCursor.isAfterLast()) {
                 if (BluetoothPbapObexServer.sIsAborted) {
@@ -869,8 +885,8 @@ public class BluetoothPbapVcardManager {
                     BluetoothPbapObexServer.sIsAborted = false;
                     break;
                 }
-                String vcard = composer.buildVCard(RawContactsEntity.queryRawContactEntity(
-                            mResolver, contactIdCursor.getLong(idColumn)));
+                String vcard = composer.buildVCard(
+                        entityFetcher.query(contactIdCursor.getLong(idColumn)));
                 if (!contactIdCursor.moveToNext()) {
                     Log.e(TAG, "Cursor#moveToNext() returned false");
                 }
@@ -895,14 +911,14 @@ public class BluetoothPbapVcardManager {
                 Log.e(TAG, "vcard selector check pass");
 
                 if (needSendBody == NEED_SEND_BODY) {
-                    vcard = vcardfilter.apply(vcard, vcardType21);
-                    vcard = stripTelephoneNumber(vcard);
+                    cleanVCard.setLength(0);
+                    vcardfilter.apply(vcard, vcardType21, true, cleanVCard);
 
                     if (V) {
-                        Log.v(TAG, "vCard after cleanup: " + vcard);
+                        Log.v(TAG, "vCard after cleanup: " + cleanVCard);
                     }
 
-                    if (!buffer.writeVCard(vcard)) {
+                    if (!buffer.writeVCard(cleanVCard)) {
                         // onEntryCreate() already emits error.
                         return ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
                     }
@@ -913,6 +929,9 @@ public class BluetoothPbapVcardManager {
                 return pbSize;
             }
         } finally {
+            if (entityFetcher != null) {
+                entityFetcher.close();
+            }
             if (composer != null) {
                 composer.terminate();
             }
@@ -1015,37 +1034,32 @@ public class BluetoothPbapVcardManager {
     }
 
     public String stripTelephoneNumber(String vCard) {
-        String separator = System.getProperty("line.separator");
-        String[] attr = vCard.split(separator);
-        String stripedVCard = "";
-        for (int i = 0; i < attr.length; i++) {
-            if (attr[i].startsWith("TEL")) {
-                String[] vTagAndTel = attr[i].split(":", 2);
-                int telLenBefore = vTagAndTel[1].length();
-                // Remove '-', '(', ')' or ' ' from TEL number
-                vTagAndTel[1] = vTagAndTel[1].replace("-", "")
-                                             .replace("(", "")
-                                             .replace(")", "")
-                                             .replace(" ", "");
-                if (vTagAndTel[1].length() < telLenBefore) {
-                    if (V) {
-                        Log.v(TAG, "Fixing vCard TEL to " + vTagAndTel[1]);
-                    }
-                    attr[i] = new StringBuilder().append(vTagAndTel[0]).append(":")
-                                                 .append(vTagAndTel[1]).toString();
-                }
-            }
+        StringBuilder stripedVCard = new StringBuilder(vCard.length());
+        new VCardFilter(null).apply(vCard, false, true, stripedVCard);
+        if (V) {
+            Log.v(TAG, "vCard with stripped telephone no.: " + stripedVCard);
         }
+        return stripedVCard.toString();
+    }
 
-        for (int i = 0; i < attr.length; i++) {
-            if (!attr[i].isEmpty()) {
-                stripedVCard = stripedVCard.concat(attr[i] + separator);
-            }
+    /**
+     * Appends the TEL property line {@code vCard[start, end)} to {@code out} with '-', '(', ')'
+     * and ' ' removed from the number.
+     */
+    private static void appendStrippedTelephoneNumber(String vCard, int start, int end,
+            StringBuilder out) {
+        int colon = vCard.indexOf(':', start);
+        if (colon < 0 || colon >= end) {
+            out.append(vCard, start, end);
+            return;
         }
-        if (V) {
-            Log.v(TAG, "vCard with stripped telephone no.: " + stripedVCard);
+        out.append(vCard, start, colon + 1);
+        for (int i = colon + 1; i < end; i++) {
+            char c = vCard.charAt(i);
+            if (c != '-' && c != '(' && c != ')' && c != ' ') {
+                out.append(c);
+            }
         }
-        return stripedVCard;
     }
 
     public static class VCardFilter {
@@ -1078,7 +1092,34 @@ public class BluetoothPbapVcardManager {
         }
 
         private static final String SEPARATOR = System.getProperty("line.separator");
+        private static final String EXTENSION_PREFIX = "X-";
+
+        // FilterBits indexed by the length of their property name, so that the property of a
+        // vCard line can be looked up in place.
+        private static final FilterBit[][] BITS_BY_LENGTH;
+
+        static {
+            int maxLength = 0;
+            for (FilterBit bit : FilterBit.values()) {
+                maxLength = Math.max(maxLength, bit.prop.length());
+            }
+            List<List<FilterBit>> bitsByLength = new ArrayList<>();
+            for (int i = 0; i <= maxLength; i++) {
+                bitsByLength.add(new ArrayList<>());
+            }
+            for (FilterBit bit : FilterBit.values()) {
+                bitsByLength.get(bit.prop.length()).add(bit);
+            }
+            BITS_BY_LENGTH = new FilterBit[maxLength + 1][];
+            for (int i = 0; i <= maxLength; i++) {
+                BITS_BY_LENGTH[i] = bitsByLength.get(i).toArray(new FilterBit[0]);
+            }
+        }
+
         private final byte[] mFilter;
+        // Result of isFilteredIn() for every FilterBit, for vCard 2.1 and 3.0.
+        private final boolean[] mFilteredInV21 = new boolean[FilterBit.values().length];
+        private final boolean[] mFilteredInV30 = new boolean[FilterBit.values().length];
 
         //This function returns true if the attributes needs to be included in the filtered vcard.
         private boolean isFilteredIn(FilterBit bit, boolean vCardType21) {
@@ -1098,6 +1139,10 @@ public class BluetoothPbapVcardManager {
 
         VCardFilter(byte[] filter) {
             this.mFilter = filter;
+            for (FilterBit bit : FilterBit.values()) {
+                mFilteredInV21[bit.ordinal()] = isFilteredIn(bit, true);
+                mFilteredInV30[bit.ordinal()] = isFilteredIn(bit, false);
+            }
         }
 
         public boolean isPhotoEnabled() {
@@ -1108,42 +1153,75 @@ public class BluetoothPbapVcardManager {
             if (mFilter == null) {
                 return vCard;
             }
-            String[] lines = vCard.split(SEPARATOR);
-            StringBuilder filteredVCard = new StringBuilder();
-            boolean filteredIn = false;
-
-            for (String line : lines) {
-                // Check whether the current property is changing (ignoring multi-line properties)
-                // and determine if the current property is filtered in.
-                if (!Character.isWhitespace(line.charAt(0)) && !line.startsWith("=")) {
-                    String currentProp = line.split("[;:]")[0];
-                    filteredIn = true;
-
-                    for (FilterBit bit : FilterBit.values()) {
-                        if (bit.prop.equals(currentProp)) {
-                            filteredIn = isFilteredIn(bit, vCardType21);
-                            break;
-                        }
-                    }
+            StringBuilder filteredVCard = new StringBuilder(vCard.length());
+            apply(vCard, vCardType21, false, filteredVCard);
+            return filteredVCard.toString();
+        }
 
-                    // Since PBAP does not have filter bits for IM and SIP,
-                    // exclude them by default. Easiest way is to exclude all
-                    // X- fields, except date time....
-                    if (currentProp.startsWith("X-")) {
-                        filteredIn = false;
-                        if (currentProp.equals("X-IRMC-CALL-DATETIME")) {
-                            filteredIn = true;
+        /**
+         * Appends the lines of {@code vCard} that are filtered in to {@code out}, each followed by
+         * the line separator. Empty lines are dropped. With {@code stripTelephoneNumber} the TEL
+         * numbers are cleaned up as by {@link BluetoothPbapVcardManager#stripTelephoneNumber}.
+         *
+         * <p>This walks the vCard once and only copies the lines that are kept, so a caller can
+         * reuse {@code out} for every vCard of a phonebook.
+         */
+        void apply(String vCard, boolean vCardType21, boolean stripTelephoneNumber,
+                StringBuilder out) {
+            boolean filteredIn = mFilter == null;
+            int length = vCard.length();
+            int start = 0;
+            while (start < length) {
+                int end = vCard.indexOf(SEPARATOR, start);
+                if (end < 0) {
+                    end = length;
+                }
+                if (end > start) {
+                    // Check whether the current property is changing (ignoring multi-line
+                    // properties) and determine if the current property is filtered in.
+                    char first = vCard.charAt(start);
+                    if (mFilter != null && !Character.isWhitespace(first) && first != '=') {
+                        filteredIn = isPropertyFilteredIn(vCard, start, end, vCardType21);
+                    }
+                    if (filteredIn) {
+                        if (stripTelephoneNumber && vCard.startsWith("TEL", start)) {
+                            appendStrippedTelephoneNumber(vCard, start, end, out);
+                        } else {
+                            out.append(vCard, start, end);
                         }
+                        out.append(SEPARATOR);
                     }
                 }
+                start = end + SEPARATOR.length();
+            }
+        }
 
-                // Build filtered vCard
-                if (filteredIn) {
-                    filteredVCard.append(line + SEPARATOR);
-                }
+        private boolean isPropertyFilteredIn(String line, int start, int end,
+                boolean vCardType21) {
+            int propEnd = start;
+            while (propEnd < end && line.charAt(propEnd) != ';' && line.charAt(propEnd) != ':') {
+                propEnd++;
+            }
+            int propLength = propEnd - start;
+
+            // Since PBAP does not have filter bits for IM and SIP,
+            // exclude them by default. Easiest way is to exclude all
+            // X- fields, except date time....
+            if (propLength >= EXTENSION_PREFIX.length()
+                    && line.startsWith(EXTENSION_PREFIX, start)) {
+                return propLength == FilterBit.DATETIME.prop.length()
+                        && line.startsWith(FilterBit.DATETIME.prop, start);
             }
 
-            return filteredVCard.toString();
+            if (propLength < BITS_BY_LENGTH.length) {
+                for (FilterBit bit : BITS_BY_LENGTH[propLength]) {
+                    if (line.regionMatches(start, bit.prop, 0, propLength)) {
+                        return vCardType21 ? mFilteredInV21[bit.ordinal()]
+                                : mFilteredInV30[bit.ordinal()];
+                    }
+                }
+            }
+            return true;
         }
     }
 
@@ -22,6 +22,12 @@ import com.android.obex.Operation;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Handler to emit vCards to PCE.
@@ -32,7 +38,12 @@ public class HandlerForStringBuffer {
     private final Operation mOperation;
     private final String mOwnerVCard;
 
+    // Large enough for a typical vCard without a photo.
+    private static final int ENCODE_BUFFER_SIZE = 4096;
+
     private OutputStream mOutputStream;
+    private CharsetEncoder mEncoder;
+    private ByteBuffer mEncodeBuffer;
 
     public HandlerForStringBuffer(Operation op, String ownerVCard) {
         mOperation = op;
@@ -67,6 +78,47 @@ public class HandlerForStringBuffer {
         return false;
     }
 
+    /**
+     * Writes a vCard held in a reusable buffer, such as the output of {@link
+     * BluetoothPbapVcardManager.VCardFilter#apply(String, boolean, boolean, StringBuilder)}. The
+     * characters are encoded to UTF-8 through a buffer that is reused for every vCard.
+     */
+    public boolean writeVCard(CharSequence vCard) {
+        if (vCard == null) {
+            return false;
+        }
+        if (mEncoder == null) {
+            mEncoder = StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            mEncodeBuffer = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
+        }
+        try {
+            CharBuffer chars = CharBuffer.wrap(vCard);
+            mEncoder.reset();
+            CoderResult result;
+            do {
+                result = mEncoder.encode(chars, mEncodeBuffer, true);
+                writeEncodeBuffer();
+            } while (result.isOverflow());
+            do {
+                result = mEncoder.flush(mEncodeBuffer);
+                writeEncodeBuffer();
+            } while (result.isOverflow());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "write failed", e);
+        }
+        return false;
+    }
+
+    private void writeEncodeBuffer() throws IOException {
+        if (mEncodeBuffer.position() > 0) {
+            mOutputStream.write(mEncodeBuffer.array(), 0, mEncodeBuffer.position());
+            mEncodeBuffer.clear();
+        }
+    }
+
     public void terminate() {
         boolean result = BluetoothPbapObexServer.closeStream(mOutputStream, mOperation);
         if (BluetoothPbapService.VERBOSE) {
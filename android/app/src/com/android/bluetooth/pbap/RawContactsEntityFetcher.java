@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.RawContactsEntity;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Provides the {@link RawContactsEntity} rows of the contacts of a phonebook pull.
+ *
+ * <p>{@link RawContactsEntity#queryRawContactEntity} runs one provider query per contact. This
+ * instead reads ahead {@link #CHUNK_SIZE} contact ids from the contact id cursor, fetches the
+ * entity rows of all of them with a single {@code CONTACT_ID IN (...)} query ordered by contact
+ * id, and hands out the rows of one contact at a time as a cursor over that chunk.
+ */
+class RawContactsEntityFetcher {
+    private static final String TAG = "RawContactsEntityFetcher";
+
+    @VisibleForTesting
+    static final int CHUNK_SIZE = 50;
+
+    private static final String SORT_ORDER = RawContacts.CONTACT_ID + "," + RawContactsEntity._ID
+            + "," + RawContactsEntity.DATA_ID;
+
+    private final ContentResolver mResolver;
+    private final Cursor mContactIdCursor;
+    private final int mIdColumn;
+
+    private Cursor mChunk;
+    // Position and number of the rows of each contact of the chunk.
+    private final LongSparseArray<int[]> mRanges = new LongSparseArray<>();
+
+    /**
+     * @param contactIdCursor the contacts of the pull, read ahead from its current position
+     *        without moving it
+     * @param idColumn the column of {@code contactIdCursor} holding the contact id
+     */
+    RawContactsEntityFetcher(ContentResolver resolver, Cursor contactIdCursor, int idColumn) {
+        mResolver = resolver;
+        mContactIdCursor = contactIdCursor;
+        mIdColumn = idColumn;
+    }
+
+    /**
+     * Returns the entity rows of a contact, to be passed to
+     * {@link com.android.vcard.VCardComposer#buildVCard}. The contact should be the one the
+     * contact id cursor currently points at.
+     */
+    Cursor query(long contactId) {
+        if (mRanges.indexOfKey(contactId) < 0 && !Contacts.isEnterpriseContactId(contactId)) {
+            fetchChunk();
+        }
+        int[] range = mRanges.get(contactId);
+        if (range == null || mChunk == null) {
+            return RawContactsEntity.queryRawContactEntity(mResolver, contactId);
+        }
+        return new ContactCursor(mChunk, range[0], range[1]);
+    }
+
+    /** Closes the current chunk. */
+    void close() {
+        if (mChunk != null) {
+            mChunk.close();
+            mChunk = null;
+        }
+        mRanges.clear();
+    }
+
+    private void fetchChunk() {
+        close();
+
+        int position = mContactIdCursor.getPosition();
+        StringBuilder selection = new StringBuilder(RawContacts.CONTACT_ID).append(" IN (");
+        int count = 0;
+        while (count < CHUNK_SIZE && !mContactIdCursor.isAfterLast()) {
+            long contactId = mContactIdCursor.getLong(mIdColumn);
+            if (!Contacts.isEnterpriseContactId(contactId) && mRanges.indexOfKey(contactId) < 0) {
+                // Contacts without rows, e.g. deleted meanwhile, get an empty range.
+                mRanges.put(contactId, new int[] {0, 0});
+                selection.append(count > 0 ? "," : "").append(contactId);
+                count++;
+            }
+            mContactIdCursor.moveToNext();
+        }
+        mContactIdCursor.moveToPosition(position);
+        if (count == 0) {
+            return;
+        }
+        selection.append(')');
+
+        mChunk = BluetoothMethodProxy.getInstance().contentResolverQuery(mResolver,
+                RawContactsEntity.CONTENT_URI, null, selection.toString(), null, SORT_ORDER);
+        if (mChunk == null) {
+            Log.w(TAG, "Failed to query the entities of " + count + " contacts");
+            mRanges.clear();
+            return;
+        }
+        int contactIdColumn = mChunk.getColumnIndex(RawContacts.CONTACT_ID);
+        int[] range = null;
+        long rangeContactId = 0;
+        while (mChunk.moveToNext()) {
+            long contactId = mChunk.getLong(contactIdColumn);
+            if (range == null || contactId != rangeContactId) {
+                range = new int[] {mChunk.getPosition(), 0};
+                rangeContactId = contactId;
+                mRanges.put(contactId, range);
+            }
+            range[1]++;
+        }
+    }
+
+    /** The rows of a single contact within a chunk. Closing it leaves the chunk open. */
+    @VisibleForTesting
+    static class ContactCursor extends CursorWrapper {
+        private final int mStart;
+        private final int mCount;
+        private int mPosition = -1;
+
+        ContactCursor(Cursor chunk, int start, int count) {
+            super(chunk);
+            mStart = start;
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            if (position >= mCount) {
+                mPosition = mCount;
+                return false;
+            }
+            if (position < 0) {
+                mPosition = -1;
+                return false;
+            }
+            mPosition = position;
+            return super.moveToPosition(mStart + position);
+        }
+
+        @Override
+        public boolean move(int offset) {
+            return moveToPosition(mPosition + offset);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return moveToPosition(0);
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return moveToPosition(mCount - 1);
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return moveToPosition(mPosition + 1);
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            return moveToPosition(mPosition - 1);
+        }
+
+        @Override
+        public boolean isFirst() {
+            return mCount > 0 && mPosition == 0;
+        }
+
+        @Override
+        public boolean isLast() {
+            return mCount > 0 && mPosition == mCount - 1;
+        }
+
+        @Override
+        public boolean isBeforeFirst() {
+            return mCount == 0 || mPosition == -1;
+        }
+
+        @Override
+        public boolean isAfterLast() {
+            return mCount == 0 || mPosition == mCount;
+        }
+
+        @Override
+        public void close() {
+            // The chunk is closed by the fetcher.
+        }
+    }
+}
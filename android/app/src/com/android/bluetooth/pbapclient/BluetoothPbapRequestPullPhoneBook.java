@@ -26,6 +26,7 @@ import com.android.vcard.VCardEntry;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 
 final class BluetoothPbapRequestPullPhoneBook extends BluetoothPbapRequest {
 
@@ -116,6 +117,10 @@ final class BluetoothPbapRequestPullPhoneBook extends BluetoothPbapRequest {
         return mResponse.getList();
     }
 
+    public List<String> getFingerprints() {
+        return mResponse.getFingerprints();
+    }
+
     public int getNewMissedCalls() {
         return mNewMissedCalls;
     }
@@ -16,6 +16,7 @@
 
 package com.android.bluetooth.pbapclient;
 
+import android.util.Base64;
 import android.util.Log;
 
 import com.android.bluetooth.ObexAppParameters;
@@ -31,6 +32,10 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
 
     private int mSize;
 
+    private byte[] mPrimaryVersionCounter;
+    private byte[] mSecondaryVersionCounter;
+    private byte[] mDatabaseIdentifier;
+
     BluetoothPbapRequestPullPhoneBookSize(String pbName, long filter) {
         mHeaderSet.setHeader(HeaderSet.NAME, pbName);
 
@@ -59,9 +64,34 @@ final class BluetoothPbapRequestPullPhoneBookSize extends BluetoothPbapRequest {
         if (oap.exists(OAP_TAGID_PHONEBOOK_SIZE)) {
             mSize = oap.getShort(OAP_TAGID_PHONEBOOK_SIZE);
         }
+        // Only present if both sides support the folder version counters and database
+        // identifier features, see PBAP v1.2.3, Sec. 5.1.4.
+        mPrimaryVersionCounter = oap.getByteArray(OAP_TAGID_PRIMARY_VERSION_COUNTER);
+        mSecondaryVersionCounter = oap.getByteArray(OAP_TAGID_SECONDARY_VERSION_COUNTER);
+        mDatabaseIdentifier = oap.getByteArray(OAP_TAGID_DATABASE_IDENTIFIER);
     }
 
     public int getSize() {
         return mSize;
     }
+
+    /**
+     * Returns the version of the phonebook object, made of the database identifier and the
+     * primary and secondary version counters, or null if the server did not report them. Two
+     * equal versions of the same phonebook object mean that its content has not changed.
+     */
+    public String getVersion() {
+        if (mDatabaseIdentifier == null || mPrimaryVersionCounter == null) {
+            return null;
+        }
+        StringBuilder version = new StringBuilder()
+                .append(Base64.encodeToString(mDatabaseIdentifier, Base64.NO_WRAP))
+                .append(',')
+                .append(Base64.encodeToString(mPrimaryVersionCounter, Base64.NO_WRAP));
+        if (mSecondaryVersionCounter != null) {
+            version.append(',')
+                    .append(Base64.encodeToString(mSecondaryVersionCounter, Base64.NO_WRAP));
+        }
+        return version.toString();
+    }
 }
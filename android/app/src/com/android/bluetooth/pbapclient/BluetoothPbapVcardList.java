@@ -17,24 +17,34 @@
 package com.android.bluetooth.pbapclient;
 
 import android.accounts.Account;
+import android.util.Base64;
+import android.util.Log;
 
 import com.android.vcard.VCardConfig;
 import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardEntryConstructor;
 import com.android.vcard.VCardEntryCounter;
 import com.android.vcard.VCardEntryHandler;
+import com.android.vcard.VCardInterpreter;
 import com.android.vcard.VCardParser;
 import com.android.vcard.VCardParser_V21;
 import com.android.vcard.VCardParser_V30;
+import com.android.vcard.VCardProperty;
 import com.android.vcard.exception.VCardException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.List;
 
 class BluetoothPbapVcardList {
+    private static final String TAG = "BluetoothPbapVcardList";
 
     private final ArrayList<VCardEntry> mCards = new ArrayList<VCardEntry>();
+    private final ArrayList<String> mFingerprints = new ArrayList<String>();
     private final Account mAccount;
 
     class CardEntryHandler implements VCardEntryHandler {
@@ -52,6 +62,60 @@ class BluetoothPbapVcardList {
         }
     }
 
+    /* Computes a digest of the properties of each top level vCard, so that a vCard that is
+     * downloaded again can be recognized without comparing the contacts themselves. */
+    static class FingerprintInterpreter implements VCardInterpreter {
+        private final MessageDigest mDigest;
+        private final List<String> mFingerprints;
+        private int mDepth = 0;
+
+        FingerprintInterpreter(List<String> fingerprints) throws NoSuchAlgorithmException {
+            mDigest = MessageDigest.getInstance("SHA-256");
+            mFingerprints = fingerprints;
+        }
+
+        @Override
+        public void onVCardStarted() {
+        }
+
+        @Override
+        public void onVCardEnded() {
+        }
+
+        @Override
+        public void onEntryStarted() {
+            if (mDepth++ == 0) {
+                mDigest.reset();
+            }
+        }
+
+        @Override
+        public void onEntryEnded() {
+            if (--mDepth == 0) {
+                mFingerprints.add(Base64.encodeToString(mDigest.digest(), Base64.NO_WRAP));
+            }
+        }
+
+        @Override
+        public void onPropertyCreated(VCardProperty property) {
+            update(property.getName());
+            update(String.valueOf(property.getParameterMap()));
+            update(property.getRawValue());
+            byte[] byteValue = property.getByteValue();
+            if (byteValue != null) {
+                mDigest.update(byteValue);
+            }
+            mDigest.update((byte) 0);
+        }
+
+        private void update(String value) {
+            if (value != null) {
+                mDigest.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+            mDigest.update((byte) 0);
+        }
+    }
+
     BluetoothPbapVcardList(Account account, InputStream in, byte format) throws IOException {
         mAccount = account;
         parse(in, format);
@@ -75,6 +139,11 @@ class BluetoothPbapVcardList {
 
         parser.addInterpreter(constructor);
         parser.addInterpreter(counter);
+        try {
+            parser.addInterpreter(new FingerprintInterpreter(mFingerprints));
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, "Contacts will not be fingerprinted", e);
+        }
 
         try {
             parser.parse(in);
@@ -91,6 +160,17 @@ class BluetoothPbapVcardList {
         return mCards;
     }
 
+    /**
+     * Returns a fingerprint of each entry of {@link #getList()}, in the same order, or null if
+     * they could not be computed. Equal fingerprints mean equal vCards.
+     */
+    public List<String> getFingerprints() {
+        if (mFingerprints.size() != mCards.size()) {
+            return null;
+        }
+        return mFingerprints;
+    }
+
     public VCardEntry getFirst() {
         return mCards.get(0);
     }
@@ -25,6 +25,7 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.CallLog;
 import android.provider.CallLog.Calls;
 import android.util.Log;
@@ -32,6 +33,7 @@ import android.util.Log;
 import com.android.bluetooth.BluetoothObexTransport;
 import com.android.bluetooth.ObexAppParameters;
 import com.android.bluetooth.R;
+import com.android.bluetooth.btservice.ProfileService;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
@@ -86,6 +88,8 @@ class PbapClientConnectionHandler extends Handler {
     };
 
     private static final int PBAP_FEATURE_DEFAULT_IMAGE_FORMAT = 0x00000200;
+    private static final int PBAP_FEATURE_FOLDER_VERSION_COUNTERS = 0x00000008;
+    private static final int PBAP_FEATURE_DATABASE_IDENTIFIER = 0x00000004;
     private static final int PBAP_FEATURE_BROWSING = 0x00000002;
     private static final int PBAP_FEATURE_DOWNLOADING = 0x00000001;
 
@@ -99,7 +103,8 @@ class PbapClientConnectionHandler extends Handler {
     private static final long PBAP_FILTER_NICKNAME = 1 << 23;
 
     private static final int PBAP_SUPPORTED_FEATURE =
-            PBAP_FEATURE_DEFAULT_IMAGE_FORMAT | PBAP_FEATURE_DOWNLOADING;
+            PBAP_FEATURE_DEFAULT_IMAGE_FORMAT | PBAP_FEATURE_FOLDER_VERSION_COUNTERS
+                    | PBAP_FEATURE_DATABASE_IDENTIFIER | PBAP_FEATURE_DOWNLOADING;
     private static final long PBAP_REQUESTED_FIELDS =
             PBAP_FILTER_VERSION | PBAP_FILTER_FN | PBAP_FILTER_N | PBAP_FILTER_PHOTO
                     | PBAP_FILTER_ADR | PBAP_FILTER_EMAIL | PBAP_FILTER_TEL | PBAP_FILTER_NICKNAME;
@@ -117,6 +122,11 @@ class PbapClientConnectionHandler extends Handler {
     public static final String SIM_ICH_PATH = "SIM1/telecom/ich.vcf";
     public static final String SIM_OCH_PATH = "SIM1/telecom/och.vcf";
 
+    // Account user data holding the version of the phonebook object a path was last completely
+    // downloaded from, see BluetoothPbapRequestPullPhoneBookSize#getVersion().
+    private static final String VERSION_KEY_PREFIX = "pbap_version_";
+    private static final String[] CONTACTS_PATHS = {FAV_PATH, PB_PATH, SIM_PB_PATH};
+
     // PBAP v1.2.3 Sec. 7.1.2
     private static final int SUPPORTED_REPOSITORIES_LOCALPHONEBOOK = 1 << 0;
     private static final int SUPPORTED_REPOSITORIES_SIMCARD = 1 << 1;
@@ -137,6 +147,27 @@ class PbapClientConnectionHandler extends Handler {
     private BluetoothPbapObexAuthenticator mAuth = null;
     private final PbapClientStateMachine mPbapClientStateMachine;
     private boolean mAccountCreated;
+    private final DownloadStats mDownloadStats = new DownloadStats();
+
+    /* Time spent in each stage of the phonebook downloads of this connection. The OBEX thread
+     * downloads and parses batches while the PhonebookInserter inserts the previous one. */
+    private static class DownloadStats {
+        volatile int mContactCount;
+        // Requesting and parsing batches on the OBEX thread.
+        volatile long mDownloadTimeMs;
+        // The OBEX thread waiting for the inserter to accept the next batch.
+        volatile long mHandoffWaitTimeMs;
+        // Inserting batches on the inserter thread.
+        volatile long mInsertTimeMs;
+        volatile long mTotalTimeMs;
+
+        @Override
+        public String toString() {
+            return "contacts=" + mContactCount + " download=" + mDownloadTimeMs + "ms"
+                    + " handoffWait=" + mHandoffWaitTimeMs + "ms insert=" + mInsertTimeMs + "ms"
+                    + " total=" + mTotalTimeMs + "ms";
+        }
+    }
 
     /**
      * Constructs PCEConnectionHandler object
@@ -240,7 +271,12 @@ class PbapClientConnectionHandler extends Handler {
                 if (DBG) {
                     Log.d(TAG, "Completing Disconnect");
                 }
-                removeAccount();
+                // Keep the contacts of a device whose phonebook versions are known, so that the
+                // next connection only downloads the phonebooks that have changed. The account is
+                // removed by PbapClientService when the device is unpaired.
+                if (!hasStoredVersions()) {
+                    removeAccount();
+                }
                 removeCallLog();
 
                 mPbapClientStateMachine.sendMessage(PbapClientStateMachine.MSG_CONNECTION_CLOSED);
@@ -387,17 +423,34 @@ class PbapClientConnectionHandler extends Handler {
 
     @VisibleForTesting
     void downloadContacts(String path) {
+        long start = SystemClock.elapsedRealtime();
+        PhonebookPullRequest processor =
+                new PhonebookPullRequest(mPbapClientStateMachine.getContext(),
+                        mAccount, path);
+        // Batches are inserted on a thread of their own while the next one downloads.
+        PhonebookInserter inserter = new PhonebookInserter(processor);
+        inserter.start();
+        String version = null;
+        boolean downloaded = false;
         try {
-            PhonebookPullRequest processor =
-                    new PhonebookPullRequest(mPbapClientStateMachine.getContext(),
-                            mAccount);
-
             // Download contacts in batches of size DEFAULT_BATCH_SIZE
             BluetoothPbapRequestPullPhoneBookSize requestPbSize =
                     new BluetoothPbapRequestPullPhoneBookSize(path,
                             PBAP_REQUESTED_FIELDS);
             requestPbSize.execute(mObexSession);
 
+            version = requestPbSize.getVersion();
+            if (version != null && version.equals(getStoredVersion(path))) {
+                if (DBG) {
+                    Log.d(TAG, "Phonebook " + path + " unchanged, skipping download");
+                }
+                return;
+            }
+            // Not valid again until this download completes. The contacts already in the
+            // account are updated with the difference to what is downloaded.
+            setStoredVersion(path, null);
+            processor.loadExistingContacts();
+
             int numberOfContactsRemaining = requestPbSize.getSize();
             int startOffset = 0;
             if (PB_PATH.equals(path)) {
@@ -413,6 +466,7 @@ class PbapClientConnectionHandler extends Handler {
                 int numberOfContactsToDownload =
                         Math.min(Math.min(DEFAULT_BATCH_SIZE, numberOfContactsRemaining),
                         UPPER_LIMIT - startOffset + 1);
+                long downloadStart = SystemClock.elapsedRealtime();
                 BluetoothPbapRequestPullPhoneBook request =
                         new BluetoothPbapRequestPullPhoneBook(path, mAccount,
                                 PBAP_REQUESTED_FIELDS, VCARD_TYPE_30,
@@ -425,17 +479,47 @@ class PbapClientConnectionHandler extends Handler {
                         v.setStarred(true);
                     }
                 }
-                processor.setResults(vcards);
-                processor.onPullComplete();
+                long handoffStart = SystemClock.elapsedRealtime();
+                mDownloadStats.mDownloadTimeMs += handoffStart - downloadStart;
+                boolean handedOff = inserter.insert(vcards, request.getFingerprints());
+                mDownloadStats.mHandoffWaitTimeMs += SystemClock.elapsedRealtime() - handoffStart;
+                if (!handedOff) {
+                    break;
+                }
 
                 startOffset += numberOfContactsToDownload;
                 numberOfContactsRemaining -= numberOfContactsToDownload;
             }
+            downloaded = numberOfContactsRemaining <= 0;
             if ((startOffset > UPPER_LIMIT) && (numberOfContactsRemaining > 0)) {
                 Log.w(TAG, "Download contacts incomplete, index exceeded upper limit.");
             }
         } catch (IOException e) {
             Log.w(TAG, "Download contacts failure" + e.toString());
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Download contacts interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            // Insert what has been downloaded so far, unless we are being torn down.
+            if (Thread.currentThread().isInterrupted()) {
+                inserter.interrupt();
+            } else {
+                try {
+                    inserter.finish();
+                } catch (InterruptedException e) {
+                    inserter.interrupt();
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // Only a complete download replaces what the previous one has left.
+            if (downloaded && !Thread.currentThread().isInterrupted()
+                    && !processor.hasFailed()) {
+                processor.removeStaleContacts();
+                setStoredVersion(path, version);
+            }
+            mDownloadStats.mInsertTimeMs += inserter.getInsertTimeMs();
+            mDownloadStats.mContactCount += inserter.getInsertedCount();
+            mDownloadStats.mTotalTimeMs += SystemClock.elapsedRealtime() - start;
         }
     }
 
@@ -463,6 +547,42 @@ class PbapClientConnectionHandler extends Handler {
             }
             return true;
         }
+        // Left from a previous connection, see hasStoredVersions().
+        for (Account account : mAccountManager.getAccountsByType(mAccount.type)) {
+            if (mAccount.equals(account)) {
+                if (DBG) {
+                    Log.d(TAG, "Reusing account " + mAccount);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @VisibleForTesting
+    String getStoredVersion(String path) {
+        return mAccountManager.getUserData(mAccount, VERSION_KEY_PREFIX + path);
+    }
+
+    private void setStoredVersion(String path, String version) {
+        mAccountManager.setUserData(mAccount, VERSION_KEY_PREFIX + path, version);
+    }
+
+    @VisibleForTesting
+    boolean hasStoredVersions() {
+        return hasStoredVersions(mAccountManager, mAccount);
+    }
+
+    /**
+     * Returns whether the versions of the phonebooks downloaded from a device are stored in its
+     * account, in which case the account is kept while the device is bonded.
+     */
+    static boolean hasStoredVersions(AccountManager accountManager, Account account) {
+        for (String path : CONTACTS_PATHS) {
+            if (accountManager.getUserData(account, VERSION_KEY_PREFIX + path) != null) {
+                return true;
+            }
+        }
         return false;
     }
 
@@ -494,6 +614,10 @@ class PbapClientConnectionHandler extends Handler {
         }
     }
 
+    void dump(StringBuilder sb) {
+        ProfileService.println(sb, "  Phonebook download: " + mDownloadStats);
+    }
+
     @VisibleForTesting
     boolean isRepositorySupported(int mask) {
         if (mPseRec == null) {
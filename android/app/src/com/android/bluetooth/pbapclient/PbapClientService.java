@@ -46,9 +46,11 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -137,6 +139,8 @@ public class PbapClientService extends ProfileService {
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+        // The contacts of a device are kept across connections until it is unpaired.
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         // delay initial download until after the user is unlocked to add an account.
         filter.addAction(Intent.ACTION_USER_UNLOCKED);
         // To remove call logs when PBAP was never connected while calls were made,
@@ -221,21 +225,64 @@ public class PbapClientService extends ProfileService {
             return;
         }
 
-        // Find all accounts that match the type "pbap" and delete them.
+        Set<String> bondedAddresses = new HashSet<>();
+        AdapterService adapterService = AdapterService.getAdapterService();
+        BluetoothDevice[] bondedDevices =
+                adapterService != null ? adapterService.getBondedDevices() : null;
+        if (bondedDevices != null) {
+            for (BluetoothDevice device : bondedDevices) {
+                bondedAddresses.add(device.getAddress());
+            }
+        }
+
+        // Find all accounts that match the type "pbap" and delete them, except the ones of
+        // bonded devices with phonebook versions so that only changed phonebooks are downloaded
+        // again.
         AccountManager accountManager = AccountManager.get(this);
         Account[] accounts =
                 accountManager.getAccountsByType(getString(R.string.pbap_account_type));
         if (VDBG) Log.v(TAG, "Found " + accounts.length + " unclean accounts");
         for (Account acc : accounts) {
-            Log.w(TAG, "Deleting " + acc);
-            try {
-                getContentResolver().delete(CallLog.Calls.CONTENT_URI,
-                        CallLog.Calls.PHONE_ACCOUNT_ID + "=?", new String[]{acc.name});
-            } catch (IllegalArgumentException e) {
-                Log.w(TAG, "Call Logs could not be deleted, they may not exist yet.");
+            if (bondedAddresses.contains(acc.name)
+                    && PbapClientConnectionHandler.hasStoredVersions(accountManager, acc)) {
+                Log.i(TAG, "Keeping versioned " + acc);
+                removeCallLog(acc.name);
+                continue;
             }
-            // The device ID is the name of the account.
-            accountManager.removeAccountExplicitly(acc);
+            Log.w(TAG, "Deleting " + acc);
+            removeAccount(accountManager, acc);
+        }
+    }
+
+    /**
+     * Removes the account of a device that is no longer bonded, with its contacts, phonebook
+     * versions and call logs.
+     */
+    @VisibleForTesting
+    void removeDeviceAccount(BluetoothDevice device) {
+        if (!isAuthenticationServiceReady()) {
+            Log.w(TAG, "Can't remove account. AccountManager hasn't registered our service yet.");
+            return;
+        }
+        if (DBG) Log.d(TAG, "Removing account of unbonded device " + device);
+        // The device ID is the name of the account.
+        removeAccount(AccountManager.get(this),
+                new Account(device.getAddress(), getString(R.string.pbap_account_type)));
+    }
+
+    private void removeAccount(AccountManager accountManager, Account account) {
+        removeCallLog(account.name);
+        // Removing the account also removes its user data, the phonebook versions.
+        accountManager.removeAccountExplicitly(account);
+    }
+
+    private void removeCallLog(String accountName) {
+        try {
+            BluetoothMethodProxy.getInstance().contentResolverDelete(getContentResolver(),
+                    CallLog.Calls.CONTENT_URI, CallLog.Calls.PHONE_ACCOUNT_ID + "=?",
+                    new String[]{accountName});
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Call Logs could not be deleted, they may not exist yet.");
         }
     }
 
@@ -295,6 +342,13 @@ public class PbapClientService extends ProfileService {
                 if (getConnectionState(device) == BluetoothProfile.STATE_CONNECTED) {
                     disconnect(device);
                 }
+            } else if (action.equals(BluetoothDevice.ACTION_BOND_STATE_CHANGED)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                int bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE,
+                        BluetoothDevice.ERROR);
+                if (bondState == BluetoothDevice.BOND_NONE) {
+                    removeDeviceAccount(device);
+                }
             } else if (action.equals(Intent.ACTION_USER_UNLOCKED)) {
                 for (PbapClientStateMachine stateMachine : mPbapClientStateMachineMap.values()) {
                     stateMachine.tryDownloadIfConnected();
@@ -450,5 +450,9 @@ class PbapClientStateMachine extends StateMachine {
     public void dump(StringBuilder sb) {
         ProfileService.println(sb, "mCurrentDevice: " + mCurrentDevice.getAddress() + "("
                 + Utils.getName(mCurrentDevice) + ") " + this.toString());
+        PbapClientConnectionHandler connectionHandler = mConnectionHandler;
+        if (connectionHandler != null) {
+            connectionHandler.dump(sb);
+        }
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.bluetooth.pbapclient;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.vcard.VCardEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/* Bluetooth/pbapclient/PhonebookInserter inserts the batches of a phonebook
+ * download into the contacts provider on a thread of its own, so that the
+ * next batch can be downloaded and parsed while the previous one is being
+ * inserted. At most MAX_PENDING_BATCHES parsed batches wait for insertion,
+ * beyond that the downloading thread blocks.
+ */
+class PhonebookInserter extends Thread {
+    private static final String TAG = "PbapPhonebookInserter";
+    private static final boolean VDBG = Utils.VDBG;
+
+    @VisibleForTesting
+    static final int MAX_PENDING_BATCHES = 1;
+    // How often a blocked download checks that the inserter is still running.
+    private static final long HANDOFF_POLL_MS = 1000;
+
+    // Marks the end of the download, compared by identity.
+    private static final Batch END_OF_DOWNLOAD = new Batch(new ArrayList<>(0), null);
+
+    private final BlockingQueue<Batch> mBatches = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+    private final PhonebookPullRequest mProcessor;
+
+    private volatile long mInsertTimeMs = 0;
+    private volatile int mInsertedCount = 0;
+
+    private static class Batch {
+        final List<VCardEntry> mEntries;
+        final List<String> mFingerprints;
+
+        Batch(List<VCardEntry> entries, List<String> fingerprints) {
+            mEntries = entries;
+            mFingerprints = fingerprints;
+        }
+    }
+
+    PhonebookInserter(PhonebookPullRequest processor) {
+        super("PBAP PCE inserter");
+        mProcessor = processor;
+    }
+
+    /**
+     * Hands a parsed batch over for insertion, waiting while {@link #MAX_PENDING_BATCHES} batches
+     * are already pending.
+     *
+     * @param fingerprints the fingerprints of the entries of the batch, or null if unknown
+     * @return false if the inserter has stopped and the download should be given up
+     */
+    boolean insert(List<VCardEntry> entries, List<String> fingerprints)
+            throws InterruptedException {
+        return insert(new Batch(entries, fingerprints));
+    }
+
+    private boolean insert(Batch batch) throws InterruptedException {
+        while (!mBatches.offer(batch, HANDOFF_POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (!isAlive()) {
+                Log.e(TAG, "Inserter stopped, dropping " + batch.mEntries.size() + " contacts.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Waits until all batches handed over have been inserted. */
+    void finish() throws InterruptedException {
+        insert(END_OF_DOWNLOAD);
+        join();
+    }
+
+    /** Returns the time spent inserting, in milliseconds. */
+    long getInsertTimeMs() {
+        return mInsertTimeMs;
+    }
+
+    /** Returns the number of contacts handed to the contacts provider. */
+    int getInsertedCount() {
+        return mInsertedCount;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Batch batch = mBatches.take();
+                if (batch == END_OF_DOWNLOAD) {
+                    break;
+                }
+                long start = SystemClock.elapsedRealtime();
+                mProcessor.setResults(batch.mEntries, batch.mFingerprints);
+                mProcessor.onPullComplete();
+                mInsertTimeMs += SystemClock.elapsedRealtime() - start;
+                mInsertedCount += batch.mEntries.size();
+                if (isInterrupted()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while waiting for contacts to insert.");
+        }
+        if (VDBG) {
+            Log.v(TAG, "Inserted " + mInsertedCount + " contacts in " + mInsertTimeMs + " ms");
+        }
+    }
+}
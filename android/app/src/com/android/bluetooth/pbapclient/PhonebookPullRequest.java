@@ -18,16 +18,24 @@ package com.android.bluetooth.pbapclient;
 import android.accounts.Account;
 import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.RemoteException;
 import android.provider.ContactsContract;
+import android.provider.ContactsContract.RawContacts;
 import android.util.Log;
 
+import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.vcard.VCardEntry;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 public class PhonebookPullRequest extends PullRequest {
     @VisibleForTesting
@@ -35,14 +43,111 @@ public class PhonebookPullRequest extends PullRequest {
     private static final boolean VDBG = Utils.VDBG;
     private static final String TAG = "PbapPbPullRequest";
 
+    private static final Uri RAW_CONTACTS_URI = RawContacts.CONTENT_URI.buildUpon()
+            .appendQueryParameter(ContactsContract.CALLER_IS_SYNCADAPTER, "true").build();
+
     private final Account mAccount;
     private final Context mContext;
     public boolean complete = false;
+    private boolean mFailed = false;
+
+    private List<String> mFingerprints;
+    // Raw contacts of a previous download of this path by fingerprint, see
+    // loadExistingContacts(). Those that are downloaded again are left as they are.
+    private final HashMap<String, ArrayDeque<Long>> mExistingContacts = new HashMap<>();
 
     public PhonebookPullRequest(Context context, Account account) {
+        this(context, account, PbapClientConnectionHandler.PB_PATH);
+    }
+
+    public PhonebookPullRequest(Context context, Account account, String path) {
         mContext = context;
         mAccount = account;
-        path = PbapClientConnectionHandler.PB_PATH;
+        this.path = path;
+    }
+
+    /**
+     * Sets the entries to insert along with their fingerprints, see
+     * {@link BluetoothPbapVcardList#getFingerprints()}. Raw contacts are tagged with their path
+     * and fingerprint so a later download of the same path can be applied as a diff.
+     */
+    public void setResults(List<VCardEntry> results, List<String> fingerprints) {
+        mEntries = results;
+        mFingerprints = fingerprints;
+    }
+
+    @Override
+    public void setResults(List<VCardEntry> results) {
+        setResults(results, null);
+    }
+
+    /**
+     * Loads the raw contacts a previous download of this path has left in the account. Entries
+     * of the following pulls matching one of them are not inserted again, and the ones left
+     * unmatched are deleted by {@link #removeStaleContacts()}.
+     */
+    public void loadExistingContacts() {
+        mExistingContacts.clear();
+        Cursor cursor = BluetoothMethodProxy.getInstance().contentResolverQuery(
+                mContext.getContentResolver(), RawContacts.CONTENT_URI,
+                new String[] {RawContacts._ID, RawContacts.SYNC2},
+                RawContacts.ACCOUNT_NAME + "=? AND " + RawContacts.ACCOUNT_TYPE + "=? AND "
+                        + RawContacts.SYNC1 + "=? AND " + RawContacts.DELETED + "=0",
+                new String[] {mAccount.name, mAccount.type, path}, null);
+        if (cursor == null) {
+            return;
+        }
+        if (VDBG) {
+            Log.d(TAG, "Found " + cursor.getCount() + " existing contacts of " + path);
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String fingerprint = cursor.getString(1);
+                ArrayDeque<Long> ids = mExistingContacts.get(fingerprint);
+                if (ids == null) {
+                    ids = new ArrayDeque<>();
+                    mExistingContacts.put(fingerprint, ids);
+                }
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Deletes the existing raw contacts that were not downloaded again. */
+    public void removeStaleContacts() {
+        ArrayList<ContentProviderOperation> deleteOperations = new ArrayList<>();
+        int count = 0;
+        try {
+            ContentResolver contactsProvider = mContext.getContentResolver();
+            for (ArrayDeque<Long> ids : mExistingContacts.values()) {
+                for (long id : ids) {
+                    deleteOperations.add(ContentProviderOperation
+                            .newDelete(ContentUris.withAppendedId(RAW_CONTACTS_URI, id)).build());
+                    if (deleteOperations.size() >= MAX_OPS) {
+                        contactsProvider.applyBatch(ContactsContract.AUTHORITY, deleteOperations);
+                        count += deleteOperations.size();
+                        deleteOperations.clear();
+                    }
+                }
+            }
+            if (deleteOperations.size() > 0) {
+                contactsProvider.applyBatch(ContactsContract.AUTHORITY, deleteOperations);
+                count += deleteOperations.size();
+            }
+        } catch (OperationApplicationException | RemoteException e) {
+            Log.e(TAG, "Got exception: ", e);
+        }
+        mExistingContacts.clear();
+        if (VDBG) {
+            Log.d(TAG, "Removed " + count + " stale contacts of " + path);
+        }
+    }
+
+    /** Returns true if inserting any of the entries has failed. */
+    public boolean hasFailed() {
+        return mFailed;
     }
 
 
@@ -59,23 +164,35 @@ public class PhonebookPullRequest extends PullRequest {
         try {
             ContentResolver contactsProvider = mContext.getContentResolver();
             ArrayList<ContentProviderOperation> insertOperations = new ArrayList<>();
-            ArrayList<ContentProviderOperation> currentContactOperations;
+            int added = 0;
             // Group insert operations together to minimize inter process communication and improve
             // processing time.
-            for (VCardEntry e : mEntries) {
+            for (int i = 0; i < mEntries.size(); i++) {
                 if (Thread.currentThread().isInterrupted()) {
                     Log.e(TAG, "Interrupted durring insert.");
+                    mFailed = true;
                     break;
                 }
+                VCardEntry e = mEntries.get(i);
+                String fingerprint = mFingerprints != null ? mFingerprints.get(i) : null;
+                ArrayDeque<Long> existing =
+                        fingerprint != null ? mExistingContacts.get(fingerprint) : null;
+                if (existing != null && !existing.isEmpty()) {
+                    // Unchanged since the previous download, keep the existing contact.
+                    existing.poll();
+                    continue;
+                }
+                added++;
                 int numberOfOperations = insertOperations.size();
                 // Append current vcard to list of insert operations.
-                e.constructInsertOperations(contactsProvider, insertOperations);
+                appendInsertOperations(contactsProvider, e, fingerprint, insertOperations);
                 if (insertOperations.size() >= MAX_OPS) {
                     // If we have exceded the limit to the insert operation remove the latest vcard
                     // and submit.
                     insertOperations.subList(numberOfOperations, insertOperations.size()).clear();
                     contactsProvider.applyBatch(ContactsContract.AUTHORITY, insertOperations);
-                    insertOperations = e.constructInsertOperations(contactsProvider, null);
+                    insertOperations.clear();
+                    appendInsertOperations(contactsProvider, e, fingerprint, insertOperations);
                     if (insertOperations.size() >= MAX_OPS) {
                         // Current VCard has more than 500 attributes, drop the card.
                         insertOperations.clear();
@@ -88,12 +205,32 @@ public class PhonebookPullRequest extends PullRequest {
                 insertOperations.clear();
             }
             if (VDBG) {
-                Log.d(TAG, "Sync complete: add=" + mEntries.size());
+                Log.d(TAG, "Sync complete: add=" + added + " unchanged="
+                        + (mEntries.size() - added));
             }
         } catch (OperationApplicationException | RemoteException | NumberFormatException e) {
             Log.e(TAG, "Got exception: ", e);
+            mFailed = true;
         } finally {
             complete = true;
         }
     }
+
+    /* Appends the operations inserting an entry, followed by one tagging its raw contact with
+     * the path and fingerprint of the entry. Contacts without a fingerprint never match a later
+     * download and are replaced by it. */
+    private void appendInsertOperations(ContentResolver contactsProvider, VCardEntry entry,
+            String fingerprint, ArrayList<ContentProviderOperation> operations) {
+        int rawContactIndex = operations.size();
+        entry.constructInsertOperations(contactsProvider, operations);
+        if (operations.size() == rawContactIndex) {
+            return;
+        }
+        operations.add(ContentProviderOperation.newUpdate(RAW_CONTACTS_URI)
+                .withSelection(RawContacts._ID + "=?", new String[1])
+                .withSelectionBackReference(0, rawContactIndex)
+                .withValue(RawContacts.SYNC1, path)
+                .withValue(RawContacts.SYNC2, fingerprint)
+                .build());
+    }
 }
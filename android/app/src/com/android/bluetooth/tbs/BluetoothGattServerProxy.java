@@ -24,6 +24,7 @@ import android.bluetooth.BluetoothGattServerCallback;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
 import android.content.Context;
 
 import java.util.List;
@@ -89,6 +90,12 @@ public class BluetoothGattServerProxy {
         return mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, confirm);
     }
 
+    public boolean notifyCharacteristicChanged(List<BluetoothDevice> devices,
+            BluetoothGattCharacteristic characteristic, boolean confirm) {
+        return mBluetoothGattServer.notifyCharacteristicChanged(devices, characteristic, confirm,
+                characteristic.getValue()) == BluetoothStatusCodes.SUCCESS;
+    }
+
     public List<BluetoothDevice> getConnectedDevices() {
         return mBluetoothManager.getConnectedDevices(BluetoothProfile.GATT_SERVER);
     }
@@ -361,8 +361,9 @@ public class TbsGatt {
         }
 
         public void notifyAll(BluetoothGattCharacteristic characteristic) {
-            for (BluetoothDevice device : mSubscribers) {
-                notifyCharacteristicChanged(device, characteristic);
+            if (mBluetoothGattServer != null && !mSubscribers.isEmpty()) {
+                mBluetoothGattServer.notifyCharacteristicChanged(mSubscribers, characteristic,
+                        false);
             }
         }
     }
@@ -595,6 +595,39 @@ public class RemoteDevicesTest {
         return list.toArray();
     }
 
+    @Test
+    public void testDeviceCache_evictsLeastRecentlyUsedUnpinnedDevice() {
+        byte[] bonded = Utils.getBytesFromAddress("00:00:00:00:00:01");
+        byte[] recentlyUsed = Utils.getBytesFromAddress("00:00:00:00:00:02");
+        byte[] eldest = Utils.getBytesFromAddress("00:00:00:00:00:03");
+        mRemoteDevices.addDeviceProperties(bonded).setBondState(BluetoothDevice.BOND_BONDED);
+        mRemoteDevices.addDeviceProperties(recentlyUsed);
+        mRemoteDevices.addDeviceProperties(eldest);
+
+        // Fill the cache up to its limit of unpinned devices
+        for (int i = 0; i < 198; i++) {
+            mRemoteDevices.addDeviceProperties(new byte[] {0x01, 0, 0, 0, (byte) (i >> 8),
+                    (byte) i});
+        }
+        Assert.assertEquals(201, mRemoteDevices.getCachedDeviceCount());
+        Assert.assertNotNull(mRemoteDevices.getDevice(recentlyUsed));
+
+        // The next new device evicts the least recently used device that is not bonded
+        mRemoteDevices.addDeviceProperties(Utils.getBytesFromAddress(TEST_BT_ADDR_1));
+        Assert.assertEquals(201, mRemoteDevices.getCachedDeviceCount());
+        Assert.assertNotNull(mRemoteDevices.getDevice(bonded));
+        Assert.assertNotNull(mRemoteDevices.getDevice(recentlyUsed));
+        Assert.assertNull(mRemoteDevices.getDevice(eldest));
+    }
+
+    @Test
+    public void testAddressToKey() {
+        Assert.assertEquals(0x001122334455L,
+                RemoteDevices.addressToKey(Utils.getBytesFromAddress(TEST_BT_ADDR_1)));
+        Assert.assertEquals(0xFFFFFFFFFFFFL,
+                RemoteDevices.addressToKey(Utils.getBytesFromAddress("FF:FF:FF:FF:FF:FF")));
+    }
+
     private static Intent getHeadsetClientConnectionStateChangedIntent(BluetoothDevice device,
             int oldState, int newState) {
         Intent intent = new Intent(BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED);
@@ -58,6 +58,7 @@ import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @MediumTest
 @RunWith(AndroidJUnit4.class)
@@ -104,6 +105,8 @@ public final class DatabaseManagerTest {
         when(mAdapterService.getPackageManager()).thenReturn(
                 InstrumentationRegistry.getTargetContext().getPackageManager());
         mDatabaseManager = new DatabaseManager(mAdapterService);
+        // Write metadata updates as soon as the handler runs so tests can wait on the looper.
+        mDatabaseManager.mWriteBehindDelayMillis = 0;
 
         BluetoothDevice[] bondedDevices = {mTestDevice};
         doReturn(bondedDevices).when(mAdapterService).getBondedDevices();
@@ -120,6 +123,26 @@ public final class DatabaseManagerTest {
         mDatabaseManager.cleanup();
     }
 
+    @Test
+    public void testUpdatesAreCoalescedAndFlushedOnCleanup() {
+        mDatabaseManager.mWriteBehindDelayMillis = TimeUnit.HOURS.toMillis(1);
+        int id = BluetoothProfile.HEADSET;
+
+        mDatabaseManager.setProfileConnectionPolicy(mTestDevice, id,
+                BluetoothProfile.CONNECTION_POLICY_FORBIDDEN);
+        mDatabaseManager.setProfileConnectionPolicy(mTestDevice, id,
+                BluetoothProfile.CONNECTION_POLICY_ALLOWED);
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+        // Nothing is written until the write-behind window expires.
+        Assert.assertTrue(mDatabase.load().isEmpty());
+
+        mDatabaseManager.cleanup();
+        List<Metadata> list = mDatabase.load();
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(BluetoothProfile.CONNECTION_POLICY_ALLOWED,
+                list.get(0).getProfileConnectionPolicy(id));
+    }
+
     @Test
     public void testMetadataDefault() {
         Metadata data = new Metadata(TEST_BT_ADDR);
@@ -1309,6 +1332,69 @@ public final class DatabaseManagerTest {
         }
     }
 
+    @Test
+    public void testDatabaseMigration_117_118() throws IOException {
+        // Create a database with version 117
+        SupportSQLiteDatabase db = testHelper.createDatabase(DB_NAME, 117);
+        // insert a device to the database
+        ContentValues device = new ContentValues();
+        device.put("address", TEST_BT_ADDR);
+        device.put("migrated", false);
+        assertThat(db.insert("metadata", SQLiteDatabase.CONFLICT_IGNORE, device),
+                CoreMatchers.not(-1));
+        // Migrate database from 117 to 118
+        db.close();
+        db = testHelper.runMigrationsAndValidate(DB_NAME, 118, true,
+                MetadataDatabase.MIGRATION_117_118);
+        Cursor cursor = db.query("SELECT * FROM metadata");
+        assertHasColumn(cursor, "a2dp_sbc_bitrate", true);
+        while (cursor.moveToNext()) {
+            // Check the new column was added with default value
+            assertColumnIntData(cursor, "a2dp_sbc_bitrate", 0);
+        }
+    }
+
+    @Test
+    public void testSetGetA2dpSbcBitrate() {
+        int bitrate = 328;
+
+        Assert.assertFalse(mDatabaseManager.setA2dpSbcBitrate(mTestDevice, -1));
+        Assert.assertEquals(0, mDatabaseManager.getA2dpSbcBitrate(mTestDevice));
+
+        // Device not in the cache, the metadata is created
+        Assert.assertTrue(mDatabaseManager.setA2dpSbcBitrate(mTestDevice, bitrate));
+        Assert.assertTrue(mDatabaseManager.setA2dpSbcBitrate(mTestDevice, bitrate));
+        Assert.assertEquals(bitrate, mDatabaseManager.getA2dpSbcBitrate(mTestDevice));
+
+        // Wait for database update
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+        List<Metadata> list = mDatabase.load();
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(bitrate, list.get(0).a2dp_sbc_bitrate);
+    }
+
+    @Test
+    public void testRunWhenDatabaseReady() {
+        int[] runs = {0};
+
+        // Not migrated from Settings Global yet, the task waits for the cache
+        mDatabaseManager.cleanup();
+        mDatabaseManager.start(mDatabase);
+        TestUtils.waitForLooperToFinishScheduledTask(mDatabaseManager.getHandlerLooper());
+        mDatabaseManager.runWhenDatabaseReady(() -> runs[0]++);
+        Assert.assertEquals(0, runs[0]);
+
+        Metadata data = new Metadata(LOCAL_STORAGE);
+        data.migrated = true;
+        mDatabase.insert(data);
+        mDatabaseManager.cacheMetadata(mDatabase.load());
+        Assert.assertEquals(1, runs[0]);
+
+        // Cache loaded, the task runs right away
+        mDatabaseManager.runWhenDatabaseReady(() -> runs[0]++);
+        Assert.assertEquals(2, runs[0]);
+    }
+
     /**
      * Helper function to check whether the database has the expected column
      */
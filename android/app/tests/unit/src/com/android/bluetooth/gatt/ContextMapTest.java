@@ -94,6 +94,61 @@ public class ContextMapTest {
         TestUtils.clearAdapterService(mAdapterService);
     }
 
+    @Test
+    public void connectionLookups() {
+        ContextMap contextMap = new ContextMap<>();
+        UUID uuid = UUID.randomUUID();
+        ContextMap.App app = contextMap.add(uuid, null, null, null, mService);
+        int appId = 7;
+        int connId = 3;
+        String address = "aa:bb:cc:dd:ee:ff";
+
+        // Ids are assigned once the app is registered.
+        app.id = appId;
+        assertThat(contextMap.getById(appId)).isEqualTo(app);
+        assertThat(contextMap.getByUuid(uuid)).isEqualTo(app);
+
+        contextMap.addConnection(appId, connId, address);
+        assertThat(contextMap.getByConnId(connId)).isEqualTo(app);
+        assertThat(contextMap.addressByConnId(connId)).isEqualTo(address);
+        assertThat(contextMap.connIdByAddress(appId, address.toUpperCase())).isEqualTo(connId);
+
+        contextMap.removeConnection(appId, connId);
+        assertThat(contextMap.getByConnId(connId)).isNull();
+        assertThat(contextMap.addressByConnId(connId)).isNull();
+        assertThat(contextMap.connIdByAddress(appId, address)).isNull();
+
+        contextMap.remove(appId);
+        assertThat(contextMap.getById(appId)).isNull();
+        assertThat(contextMap.getByUuid(uuid)).isNull();
+    }
+
+    @Test
+    public void congestionQueue_isFifoAndRejectsWhenFull() {
+        ContextMap contextMap = new ContextMap<>();
+        ContextMap.App app = contextMap.add(UUID.randomUUID(), null, null, null, mService);
+        String address = "aa:bb:cc:dd:ee:ff";
+
+        for (int i = 0; i < ContextMap.MAX_CONGESTION_QUEUE_SIZE; i++) {
+            assertThat(app.isCongestionQueueFull()).isFalse();
+            app.queueCallback(new CallbackInfo.Builder(address, 0).setHandle(i).build());
+        }
+        assertThat(app.isCongestionQueueFull()).isTrue();
+
+        // Completions are never dropped, even past the limit.
+        app.queueCallback(new CallbackInfo.Builder(address, 0)
+                .setHandle(ContextMap.MAX_CONGESTION_QUEUE_SIZE).build());
+        for (int i = 0; i <= ContextMap.MAX_CONGESTION_QUEUE_SIZE; i++) {
+            assertThat(app.popQueuedCallback().handle).isEqualTo(i);
+        }
+        assertThat(app.popQueuedCallback()).isNull();
+        assertThat(app.isCongestionQueueFull()).isFalse();
+
+        StringBuilder sb = new StringBuilder();
+        contextMap.dumpCongestionQueues(sb);
+        assertThat(sb.toString()).contains("rejected 1");
+    }
+
     @Test
     public void getByMethods() {
         ContextMap contextMap = new ContextMap<>();
@@ -577,6 +577,21 @@ public class GattServiceBinderTest {
                 mAttributionSource);
     }
 
+    @Test
+    public void sendNotificationToDevices() throws Exception {
+        int serverIf = 1;
+        List<String> addresses = List.of(REMOTE_DEVICE_ADDRESS);
+        int handle = 2;
+        boolean confirm = false;
+        byte[] value = new byte[] {5, 6};
+
+        mBinder.sendNotificationToDevices(serverIf, addresses, handle, confirm, value,
+                mAttributionSource, SynchronousResultReceiver.get());
+
+        verify(mService).sendNotificationToDevices(serverIf, addresses, handle, confirm, value,
+                mAttributionSource);
+    }
+
     @Test
     public void startAdvertisingSet() throws Exception {
         AdvertisingSetParameters parameters = new AdvertisingSetParameters.Builder().build();
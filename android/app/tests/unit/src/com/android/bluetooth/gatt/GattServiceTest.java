@@ -24,6 +24,7 @@ import static org.mockito.Mockito.verify;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.BluetoothStatusCodes;
@@ -44,6 +45,8 @@ import android.content.res.Resources;
 import android.os.Binder;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.UserHandle;
 import android.os.WorkSource;
 
 import androidx.test.InstrumentationRegistry;
@@ -69,6 +72,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -182,6 +186,81 @@ public class GattServiceTest {
         Assert.assertEquals(99700000000L, timestampNanos);
     }
 
+    @Test
+    public void parseBatchScanResults_truncated() {
+        // Address 00:11:22:33:44:55 little endian, address type, tx power, rssi and timestamp
+        byte[] record = new byte[] {
+                0x55, 0x44, 0x33, 0x22, 0x11, 0x00, 0x00, 0x00, -60, (byte) 0xFF, (byte) 0xFF};
+        byte[] batchRecord = new byte[record.length * 2];
+        System.arraycopy(record, 0, batchRecord, 0, record.length);
+        System.arraycopy(record, 0, batchRecord, record.length, record.length);
+
+        long before = SystemClock.elapsedRealtimeNanos();
+        List<ScanResult> results = mService.parseBatchScanResults(2,
+                ScanManager.SCAN_RESULT_TYPE_TRUNCATED, batchRecord);
+        long after = SystemClock.elapsedRealtimeNanos();
+
+        // Identical records are all reported
+        assertThat(results).hasSize(2);
+        for (ScanResult result : results) {
+            assertThat(result.getDevice().getAddress()).isEqualTo("00:11:22:33:44:55");
+            assertThat(result.getRssi()).isEqualTo(-60);
+            assertThat(result.getScanRecord().getBytes()).isEmpty();
+            // The timestamp is unsigned, 0xFFFF units of 50 ms
+            assertThat(result.getTimestampNanos()).isAtMost(after - 3276750000000L);
+            assertThat(result.getTimestampNanos()).isAtLeast(before - 3276750000000L);
+        }
+    }
+
+    @Test
+    public void parseBatchScanResults_full_withLongPackets() {
+        byte[] advertisement = new byte[0x80];
+        advertisement[0] = 0x02;
+        advertisement[1] = 0x01;
+        advertisement[2] = 0x06;
+        byte[] scanResponse = new byte[0x81];
+        Arrays.fill(scanResponse, (byte) 7);
+        byte[] first = fullBatchRecord((byte) 0x55, -60, advertisement, scanResponse);
+        byte[] second = fullBatchRecord((byte) 0x66, -70, new byte[] {0x02, 0x01, 0x06},
+                new byte[0]);
+        byte[] batchRecord = new byte[first.length + second.length];
+        System.arraycopy(first, 0, batchRecord, 0, first.length);
+        System.arraycopy(second, 0, batchRecord, first.length, second.length);
+
+        List<ScanResult> results = mService.parseBatchScanResults(2,
+                ScanManager.SCAN_RESULT_TYPE_FULL, batchRecord);
+
+        assertThat(results).hasSize(2);
+        byte[] expectedScanRecord = new byte[advertisement.length + scanResponse.length];
+        System.arraycopy(advertisement, 0, expectedScanRecord, 0, advertisement.length);
+        System.arraycopy(scanResponse, 0, expectedScanRecord, advertisement.length,
+                scanResponse.length);
+        assertThat(results.get(0).getDevice().getAddress()).isEqualTo("00:11:22:33:44:55");
+        assertThat(results.get(0).getRssi()).isEqualTo(-60);
+        assertThat(results.get(0).getScanRecord().getBytes()).isEqualTo(expectedScanRecord);
+        assertThat(results.get(1).getDevice().getAddress()).isEqualTo("00:11:22:33:44:66");
+        assertThat(results.get(1).getRssi()).isEqualTo(-70);
+        assertThat(results.get(1).getScanRecord().getBytes())
+                .isEqualTo(new byte[] {0x02, 0x01, 0x06});
+    }
+
+    // Builds a full batch scan record for address 00:11:22:33:44:<lastAddressByte>.
+    private static byte[] fullBatchRecord(byte lastAddressByte, int rssi, byte[] advertisement,
+            byte[] scanResponse) {
+        byte[] header = new byte[] {
+                lastAddressByte, 0x44, 0x33, 0x22, 0x11, 0x00, 0x00, 0x00, (byte) rssi, 0x01, 0x00};
+        byte[] record = new byte[header.length + 2 + advertisement.length + scanResponse.length];
+        int position = 0;
+        System.arraycopy(header, 0, record, position, header.length);
+        position += header.length;
+        record[position++] = (byte) advertisement.length;
+        System.arraycopy(advertisement, 0, record, position, advertisement.length);
+        position += advertisement.length;
+        record[position++] = (byte) scanResponse.length;
+        System.arraycopy(scanResponse, 0, record, position, scanResponse.length);
+        return record;
+    }
+
     public void emptyClearServices() {
         int serverIf = 1;
 
@@ -504,6 +583,75 @@ public class GattServiceTest {
                 .isEqualTo(BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED);
     }
 
+    @Test
+    public void writeCharacteristic_busyWhileCongestionQueueIsFull() {
+        int clientIf = 1;
+        String address = REMOTE_DEVICE_ADDRESS;
+        int handle = 2;
+        int writeType = 3;
+        int authReq = 4;
+        byte[] value = new byte[] {5, 6};
+
+        Integer connId = 1;
+        doReturn(connId).when(mClientMap).connIdByAddress(clientIf, address);
+        GattService.ClientMap.App app = mock(GattService.ClientMap.App.class);
+        doReturn(true).when(app).isCongestionQueueFull();
+        doReturn(app).when(mClientMap).getById(clientIf);
+
+        assertThat(mService.writeCharacteristic(clientIf, address, handle, writeType, authReq,
+                value, mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY);
+    }
+
+    @Test
+    public void writeCharacteristic_pipelinesWritesWithoutResponse() throws Exception {
+        int clientIf = 1;
+        String address = REMOTE_DEVICE_ADDRESS;
+        int handle = 2;
+        int authReq = 4;
+        byte[] value = new byte[] {5, 6};
+
+        int connId = 1;
+        doReturn(connId).when(mClientMap).connIdByAddress(clientIf, address);
+        doReturn(address).when(mClientMap).addressByConnId(connId);
+        mService.onConnected(clientIf, connId, BluetoothGatt.GATT_SUCCESS, address);
+
+        for (int i = 0; i < GattService.MAX_WRITES_WITHOUT_RESPONSE_IN_FLIGHT; i++) {
+            assertThat(mService.writeCharacteristic(clientIf, address, handle,
+                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, authReq, value,
+                    mAttributionSource))
+                    .isEqualTo(BluetoothStatusCodes.SUCCESS);
+        }
+        assertThat(mService.writeCharacteristic(clientIf, address, handle,
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, authReq, value,
+                mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY);
+        assertThat(mService.writeCharacteristic(clientIf, address, handle,
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, authReq, value,
+                mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY);
+
+        // A completed write frees a slot for another write without response
+        mService.onWriteCharacteristic(connId, BluetoothGatt.GATT_SUCCESS, handle, value);
+        assertThat(mService.writeCharacteristic(clientIf, address, handle,
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, authReq, value,
+                mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.SUCCESS);
+
+        // A write with response waits for all of them
+        for (int i = 0; i < GattService.MAX_WRITES_WITHOUT_RESPONSE_IN_FLIGHT; i++) {
+            mService.onWriteCharacteristic(connId, BluetoothGatt.GATT_SUCCESS, handle, value);
+        }
+        assertThat(mService.writeCharacteristic(clientIf, address, handle,
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, authReq, value,
+                mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.SUCCESS);
+        assertThat(mService.writeCharacteristic(clientIf, address, handle,
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, authReq, value,
+                mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY);
+    }
+
     @Test
     public void readDescriptor() throws Exception {
         int clientIf = 1;
@@ -647,6 +795,89 @@ public class GattServiceTest {
         mService.sendNotification(serverIf, address, handle, confirm, value, mAttributionSource);
     }
 
+    @Test
+    public void sendNotificationToDevices_skipsDisconnectedDevices() throws Exception {
+        int serverIf = 1;
+        String connectedAddress = REMOTE_DEVICE_ADDRESS;
+        String disconnectedAddress = "00:01:02:03:04:05";
+        int handle = 2;
+        byte[] value = new byte[] {5, 6};
+
+        Integer connId = 1;
+        doReturn(connId).when(mServerMap).connIdByAddress(serverIf, connectedAddress);
+        doReturn(null).when(mServerMap).connIdByAddress(serverIf, disconnectedAddress);
+
+        assertThat(mService.sendNotificationToDevices(serverIf, List.of(connectedAddress),
+                handle, false, value, mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.SUCCESS);
+        assertThat(mService.sendNotificationToDevices(serverIf,
+                List.of(connectedAddress, disconnectedAddress), handle, true, value,
+                mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED);
+    }
+
+    @Test
+    public void sendNotification_failsWhileCongestionQueueIsFull() throws Exception {
+        int serverIf = 1;
+        String address = REMOTE_DEVICE_ADDRESS;
+        int handle = 2;
+        byte[] value = new byte[] {5, 6};
+
+        Integer connId = 1;
+        doReturn(connId).when(mServerMap).connIdByAddress(serverIf, address);
+        GattService.ServerMap.App app = mock(GattService.ServerMap.App.class);
+        doReturn(true).when(app).isCongestionQueueFull();
+        doReturn(app).when(mServerMap).getById(serverIf);
+
+        assertThat(mService.sendNotification(serverIf, address, handle, false, value,
+                mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.ERROR_UNKNOWN);
+        assertThat(mService.sendNotificationToDevices(serverIf, List.of(address), handle, false,
+                value, mAttributionSource))
+                .isEqualTo(BluetoothStatusCodes.ERROR_UNKNOWN);
+    }
+
+    @Test
+    public void isLocationEnabledForUser_cachedUntilUserInvalidated() {
+        GattService service = spy(mService);
+        UserHandle user = UserHandle.of(10);
+        UserHandle otherUser = UserHandle.of(11);
+        doReturn(true).when(service).isLocationEnabledUncached(any());
+
+        assertThat(service.isLocationEnabledForUser(user)).isTrue();
+        assertThat(service.isLocationEnabledForUser(user)).isTrue();
+        verify(service, times(1)).isLocationEnabledUncached(user);
+
+        service.invalidateLocationEnabledCache(otherUser);
+        assertThat(service.isLocationEnabledForUser(user)).isTrue();
+        verify(service, times(1)).isLocationEnabledUncached(user);
+
+        doReturn(false).when(service).isLocationEnabledUncached(any());
+        service.invalidateLocationEnabledCache(user);
+        assertThat(service.isLocationEnabledForUser(user)).isFalse();
+        verify(service, times(2)).isLocationEnabledUncached(user);
+
+        service.invalidateLocationEnabledCache(null);
+        assertThat(service.isLocationEnabledForUser(user)).isFalse();
+        verify(service, times(3)).isLocationEnabledUncached(user);
+    }
+
+    @Test
+    public void isLocationEnabledForUser_lookupRacingInvalidationIsNotCached() {
+        GattService service = spy(mService);
+        UserHandle user = UserHandle.of(10);
+        // The location mode changes while the first lookup is in progress
+        doAnswer(invocation -> {
+            service.invalidateLocationEnabledCache(user);
+            return true;
+        }).doReturn(false).when(service).isLocationEnabledUncached(user);
+
+        assertThat(service.isLocationEnabledForUser(user)).isTrue();
+        assertThat(service.isLocationEnabledForUser(user)).isFalse();
+        assertThat(service.isLocationEnabledForUser(user)).isFalse();
+        verify(service, times(2)).isLocationEnabledUncached(user);
+    }
+
     @Test
     public void getOwnAddress() throws Exception {
         int advertiserId = 1;
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Test cases for {@link HandleMap}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class HandleMapTest {
+    private static final int SERVER_IF = 1;
+    private static final int OTHER_SERVER_IF = 2;
+    private static final UUID SERVICE_UUID = UUID.randomUUID();
+    private static final UUID CHAR_UUID = UUID.randomUUID();
+    private static final UUID DESC_UUID = UUID.randomUUID();
+
+    private HandleMap mHandleMap;
+
+    @Before
+    public void setUp() {
+        mHandleMap = new HandleMap();
+    }
+
+    private static List<GattDbElement> createService(int srvcHandle) {
+        List<GattDbElement> service = new ArrayList<>();
+        GattDbElement svc = GattDbElement.createPrimaryService(SERVICE_UUID);
+        svc.attributeHandle = srvcHandle;
+        service.add(svc);
+        GattDbElement chr = GattDbElement.createCharacteristic(CHAR_UUID, 0, 0);
+        chr.attributeHandle = srvcHandle + 2;
+        service.add(chr);
+        GattDbElement desc = GattDbElement.createDescriptor(DESC_UUID, 0);
+        desc.attributeHandle = srvcHandle + 3;
+        service.add(desc);
+        return service;
+    }
+
+    @Test
+    public void addServiceElements_indexesAllAttributes() {
+        mHandleMap.addServiceElements(SERVER_IF, createService(10));
+
+        assertThat(mHandleMap.getEntries()).hasSize(3);
+        assertThat(mHandleMap.getByHandle(10).type).isEqualTo(HandleMap.TYPE_SERVICE);
+        HandleMap.Entry chr = mHandleMap.getByHandle(12);
+        assertThat(chr.type).isEqualTo(HandleMap.TYPE_CHARACTERISTIC);
+        assertThat(chr.serviceHandle).isEqualTo(10);
+        HandleMap.Entry desc = mHandleMap.getByHandle(13);
+        assertThat(desc.type).isEqualTo(HandleMap.TYPE_DESCRIPTOR);
+        assertThat(desc.charHandle).isEqualTo(12);
+        assertThat(mHandleMap.getByHandle(11)).isNull();
+    }
+
+    @Test
+    public void checkServiceExists() {
+        mHandleMap.addServiceElements(SERVER_IF, createService(10));
+
+        assertThat(mHandleMap.checkServiceExists(SERVICE_UUID, 10)).isTrue();
+        assertThat(mHandleMap.checkServiceExists(CHAR_UUID, 10)).isFalse();
+        assertThat(mHandleMap.checkServiceExists(CHAR_UUID, 12)).isFalse();
+    }
+
+    @Test
+    public void setStarted_onlyAffectsServiceOfServer() {
+        mHandleMap.addServiceElements(SERVER_IF, createService(10));
+        mHandleMap.addServiceElements(OTHER_SERVER_IF, createService(20));
+
+        mHandleMap.setStarted(SERVER_IF, 20, true);
+        assertThat(mHandleMap.getByHandle(20).started).isFalse();
+
+        mHandleMap.setStarted(SERVER_IF, 10, true);
+        assertThat(mHandleMap.getByHandle(10).started).isTrue();
+    }
+
+    @Test
+    public void getServices_perServer() {
+        mHandleMap.addServiceElements(SERVER_IF, createService(10));
+        mHandleMap.addServiceElements(SERVER_IF, createService(20));
+        mHandleMap.addServiceElements(OTHER_SERVER_IF, createService(30));
+
+        assertThat(mHandleMap.getServices(SERVER_IF)).hasSize(2);
+        assertThat(mHandleMap.getServices(OTHER_SERVER_IF)).hasSize(1);
+        assertThat(mHandleMap.getServices(3)).isEmpty();
+    }
+
+    @Test
+    public void deleteService_removesIndexedEntries() {
+        mHandleMap.addServiceElements(SERVER_IF, createService(10));
+        mHandleMap.addServiceElements(SERVER_IF, createService(20));
+
+        mHandleMap.deleteService(SERVER_IF, 10);
+
+        assertThat(mHandleMap.getEntries()).hasSize(3);
+        assertThat(mHandleMap.getByHandle(10)).isNull();
+        assertThat(mHandleMap.getByHandle(12)).isNull();
+        assertThat(mHandleMap.getByHandle(22)).isNotNull();
+        assertThat(mHandleMap.getServices(SERVER_IF)).hasSize(1);
+    }
+
+    @Test
+    public void getByRequestId() {
+        mHandleMap.addServiceElements(SERVER_IF, createService(10));
+        mHandleMap.addRequest(5, 12);
+
+        assertThat(mHandleMap.getByRequestId(5).handle).isEqualTo(12);
+
+        mHandleMap.deleteRequest(5);
+        assertThat(mHandleMap.getByRequestId(5)).isNull();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test cases for {@link ScanFilterIndex}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ScanFilterIndexTest {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final String OTHER_ADDRESS = "00:01:02:03:04:06";
+    private static final ParcelUuid HEART_RATE_UUID =
+            ParcelUuid.fromString("0000180D-0000-1000-8000-00805F9B34FB");
+    private static final ParcelUuid BATTERY_UUID =
+            ParcelUuid.fromString("0000180F-0000-1000-8000-00805F9B34FB");
+
+    // Flags, 16-bit service UUID 0x180D and manufacturer data for company 0x00E0.
+    private static final byte[] ADV_DATA = new byte[] {
+            0x02, 0x01, 0x06,
+            0x03, 0x03, 0x0D, 0x18,
+            0x05, (byte) 0xFF, (byte) 0xE0, 0x00, 0x01, 0x02};
+
+    private static ScanResult createResult(String address) {
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        return new ScanResult(device, 0, 0, 0, 0, 0, -50, 0,
+                ScanRecord.parseFromBytes(ADV_DATA), 0);
+    }
+
+    private static ScanFilterIndex createIndex(ScanFilter... filters) {
+        List<ScanFilter> list = new ArrayList<>();
+        for (ScanFilter filter : filters) {
+            list.add(filter);
+        }
+        return new ScanFilterIndex(list);
+    }
+
+    @Test
+    public void match_byDeviceAddress() {
+        ScanFilterIndex index = createIndex(
+                new ScanFilter.Builder().setDeviceAddress(OTHER_ADDRESS).build(),
+                new ScanFilter.Builder().setDeviceAddress(ADDRESS).build());
+
+        assertThat(index.getUnindexedCount()).isEqualTo(0);
+        assertThat(index.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.MATCH_PSEUDO_ADDRESS);
+        assertThat(index.match(createResult("00:01:02:03:04:07"), null))
+                .isEqualTo(ScanFilterIndex.NO_MATCH);
+    }
+
+    @Test
+    public void match_byOriginalAddress() {
+        ScanFilterIndex index = createIndex(
+                new ScanFilter.Builder().setDeviceAddress(OTHER_ADDRESS).build());
+
+        assertThat(index.match(createResult(ADDRESS), OTHER_ADDRESS.toLowerCase()))
+                .isEqualTo(ScanFilterIndex.MATCH_ORIGINAL_ADDRESS);
+    }
+
+    @Test
+    public void match_byServiceUuid() {
+        ScanFilterIndex index = createIndex(
+                new ScanFilter.Builder().setServiceUuid(BATTERY_UUID).build(),
+                new ScanFilter.Builder().setServiceUuid(HEART_RATE_UUID).build());
+
+        assertThat(index.getUnindexedCount()).isEqualTo(0);
+        assertThat(index.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.MATCH_PSEUDO_ADDRESS);
+    }
+
+    @Test
+    public void match_byManufacturerData() {
+        ScanFilterIndex matching = createIndex(new ScanFilter.Builder()
+                .setManufacturerData(0x00E0, new byte[] {0x01}).build());
+        ScanFilterIndex wrongData = createIndex(new ScanFilter.Builder()
+                .setManufacturerData(0x00E0, new byte[] {0x02}).build());
+        ScanFilterIndex wrongId = createIndex(new ScanFilter.Builder()
+                .setManufacturerData(0x004C, new byte[] {0x01}).build());
+
+        assertThat(matching.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.MATCH_PSEUDO_ADDRESS);
+        assertThat(wrongData.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.NO_MATCH);
+        assertThat(wrongId.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.NO_MATCH);
+    }
+
+    @Test
+    public void match_maskedUuidIsUnindexed() {
+        ScanFilterIndex index = createIndex(new ScanFilter.Builder()
+                .setServiceUuid(BATTERY_UUID,
+                        ParcelUuid.fromString("0000FFF0-0000-0000-0000-000000000000"))
+                .build());
+
+        assertThat(index.getUnindexedCount()).isEqualTo(1);
+        assertThat(index.match(createResult(ADDRESS), null))
+                .isEqualTo(ScanFilterIndex.MATCH_PSEUDO_ADDRESS);
+    }
+
+    @Test
+    public void match_keepsFilterOrder() {
+        // The first filter only matches the original address, the second one matches the result.
+        ScanFilterIndex index = createIndex(
+                new ScanFilter.Builder().setDeviceAddress(OTHER_ADDRESS).build(),
+                new ScanFilter.Builder().setServiceUuid(HEART_RATE_UUID).build());
+
+        assertThat(index.match(createResult(ADDRESS), OTHER_ADDRESS))
+                .isEqualTo(ScanFilterIndex.MATCH_ORIGINAL_ADDRESS);
+    }
+}
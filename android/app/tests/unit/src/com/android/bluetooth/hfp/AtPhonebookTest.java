@@ -21,6 +21,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -47,6 +48,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
@@ -286,6 +288,54 @@ public class AtPhonebookTest {
         verify(mNativeInterface).atResponseString(mTestDevice, expected);
     }
 
+    @Test
+    public void processCpbrCommand_coalescesRecordsIntoAtResponses() {
+        int count = 10;
+        Cursor mockCursorOne = mock(Cursor.class);
+        when(mockCursorOne.getCount()).thenReturn(count);
+        when(mockCursorOne.getColumnIndex(Phone.TYPE)).thenReturn(1); //TypeColumn
+        when(mockCursorOne.getColumnIndex(Phone.NUMBER)).thenReturn(2); //numberColumn
+        when(mockCursorOne.getColumnIndex(Phone.DISPLAY_NAME)).thenReturn(3); // nameColumn
+        when(mockCursorOne.getInt(1)).thenReturn(Phone.TYPE_WORK);
+        when(mockCursorOne.getString(2)).thenReturn("123456789");
+        when(mockCursorOne.getString(3)).thenReturn("name");
+        when(mockCursorOne.moveToNext()).thenReturn(true);
+        doReturn(mockCursorOne).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(),
+                any(), any());
+
+        mAtPhonebook.mCurrentPhonebook = "ME";
+        mAtPhonebook.mCpbrIndex1 = 1;
+        mAtPhonebook.mCpbrIndex2 = count;
+
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+
+        ArgumentCaptor<String> responses = ArgumentCaptor.forClass(String.class);
+        verify(mNativeInterface, atLeastOnce()).atResponseString(eq(mTestDevice),
+                responses.capture());
+        assertThat(responses.getAllValues().size()).isLessThan(count);
+        StringBuilder expected = new StringBuilder();
+        for (int index = 1; index <= count; index++) {
+            expected.append("+CPBR: " + index + ",\"123456789\","
+                    + PhoneNumberUtils.toaFromString("123456789") + ",\"name/"
+                    + AtPhonebook.getPhoneType(Phone.TYPE_WORK) + "\"\r\n\r\n");
+        }
+        StringBuilder sent = new StringBuilder();
+        for (String response : responses.getAllValues()) {
+            assertThat(AtPhonebook.getAtResponseLength(response))
+                    .isAtMost(AtPhonebook.MAX_AT_RESPONSE_LENGTH);
+            sent.append(response);
+        }
+        assertThat(sent.toString()).isEqualTo(expected.toString());
+    }
+
+    @Test
+    public void getAtResponseLength_countsModifiedUtf8Bytes() {
+        assertThat(AtPhonebook.getAtResponseLength("abc")).isEqualTo(3);
+        assertThat(AtPhonebook.getAtResponseLength("\u00e9")).isEqualTo(2);
+        assertThat(AtPhonebook.getAtResponseLength("\u20ac")).isEqualTo(3);
+        assertThat(AtPhonebook.getAtResponseLength("\ud83d\ude00")).isEqualTo(6);
+    }
+
     @Test
     public void setCpbrIndex() {
         int index = 1;
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hfp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.PhoneLookup;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class CallerIdCacheTest {
+    private static final String TEST_NUMBER = "5551234";
+    private static final String TEST_NORMALIZED_NUMBER = "+15555551234";
+    private static final String TEST_NAME = "test_name";
+
+    private Context mTargetContext;
+    @Mock
+    private ContentResolver mResolver;
+    @Spy
+    private BluetoothMethodProxy mHfpMethodProxy = BluetoothMethodProxy.getInstance();
+
+    @Before
+    public void setUp() throws Exception {
+        mTargetContext = InstrumentationRegistry.getTargetContext();
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mHfpMethodProxy);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CallerIdCache.stop(mResolver);
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    private static Map<String, String> numbers(String number, String normalizedNumber) {
+        HashMap<String, String> numbers = new HashMap<>();
+        numbers.put(number, normalizedNumber);
+        return numbers;
+    }
+
+    @Test
+    public void lookup_withNormalizedNumbers_queriesOnce() {
+        doAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(new String[] {
+                    Phone.NORMALIZED_NUMBER, Phone.DISPLAY_NAME, Phone.TYPE});
+            cursor.addRow(new Object[] {TEST_NORMALIZED_NUMBER, TEST_NAME, Phone.TYPE_MOBILE});
+            return cursor;
+        }).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+        HashMap<String, String> numbers = new HashMap<>();
+        numbers.put(TEST_NUMBER, TEST_NORMALIZED_NUMBER);
+        numbers.put(TEST_NORMALIZED_NUMBER, TEST_NORMALIZED_NUMBER);
+
+        Map<String, CallerIdCache.CallerId> callerIds =
+                CallerIdCache.lookup(mTargetContext, mResolver, numbers);
+
+        assertThat(callerIds.get(TEST_NUMBER).name).isEqualTo(TEST_NAME);
+        assertThat(callerIds.get(TEST_NUMBER).type).isEqualTo(Phone.TYPE_MOBILE);
+        assertThat(callerIds.get(TEST_NORMALIZED_NUMBER).name).isEqualTo(TEST_NAME);
+        verify(mHfpMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void lookup_usesCacheUntilContactsChange() {
+        doAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(new String[] {
+                    PhoneLookup.DISPLAY_NAME, PhoneLookup.TYPE});
+            cursor.addRow(new Object[] {TEST_NAME, Phone.TYPE_HOME});
+            return cursor;
+        }).when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+        CallerIdCache.start(mResolver);
+
+        assertThat(CallerIdCache.lookup(mTargetContext, mResolver, numbers(TEST_NUMBER, null))
+                .get(TEST_NUMBER).name).isEqualTo(TEST_NAME);
+        assertThat(CallerIdCache.lookup(mTargetContext, mResolver, numbers(TEST_NUMBER, null))
+                .get(TEST_NUMBER).name).isEqualTo(TEST_NAME);
+        verify(mHfpMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+
+        CallerIdCache.clear();
+        CallerIdCache.lookup(mTargetContext, mResolver, numbers(TEST_NUMBER, null));
+        verify(mHfpMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void lookup_withoutContact_returnsUnknown() {
+        doAnswer(invocation -> new MatrixCursor(new String[] {
+                PhoneLookup.DISPLAY_NAME, PhoneLookup.TYPE}))
+                .when(mHfpMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(),
+                        any());
+
+        assertThat(CallerIdCache.lookup(mTargetContext, mResolver, numbers(TEST_NUMBER, null))
+                .get(TEST_NUMBER)).isSameInstanceAs(CallerIdCache.UNKNOWN);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hfpclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ClccSchedulerTest {
+    private static final long MIN_INTERVAL_MS = 2000;
+    private static final long MAX_INTERVAL_MS = 8000;
+
+    private ClccScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ClccScheduler(MIN_INTERVAL_MS, MAX_INTERVAL_MS);
+    }
+
+    @Test
+    public void onQueryDone_unchanged_backsOffUpToMaxInterval() {
+        assertThat(mScheduler.getPollDelayMs()).isEqualTo(MIN_INTERVAL_MS);
+        assertThat(mScheduler.onQueryDone(true, false)).isEqualTo(4000);
+        assertThat(mScheduler.onQueryDone(true, false)).isEqualTo(8000);
+        assertThat(mScheduler.onQueryDone(true, false)).isEqualTo(MAX_INTERVAL_MS);
+        assertThat(mScheduler.isAgOmittingIndicators()).isFalse();
+    }
+
+    @Test
+    public void onIndicator_resetsInterval() {
+        mScheduler.onQueryDone(true, false);
+        mScheduler.onQueryDone(true, false);
+
+        mScheduler.onIndicator();
+
+        assertThat(mScheduler.getPollDelayMs()).isEqualTo(MIN_INTERVAL_MS);
+    }
+
+    @Test
+    public void onQueryDone_changedAfterIndicator_isNotDrift() {
+        mScheduler.onQueryDone(true, false);
+
+        assertThat(mScheduler.onQueryDone(false, true)).isEqualTo(MIN_INTERVAL_MS);
+        assertThat(mScheduler.isAgOmittingIndicators()).isFalse();
+        assertThat(mScheduler.onQueryDone(true, false)).isEqualTo(4000);
+    }
+
+    @Test
+    public void onQueryDone_polledAndChanged_pollsAtMinInterval() {
+        mScheduler.onQueryDone(true, false);
+
+        assertThat(mScheduler.onQueryDone(true, true)).isEqualTo(MIN_INTERVAL_MS);
+        assertThat(mScheduler.isAgOmittingIndicators()).isTrue();
+        assertThat(mScheduler.onQueryDone(true, false)).isEqualTo(MIN_INTERVAL_MS);
+
+        mScheduler.reset();
+        assertThat(mScheduler.isAgOmittingIndicators()).isFalse();
+        assertThat(mScheduler.onQueryDone(true, false)).isEqualTo(4000);
+    }
+
+    @Test
+    public void constructor_maxBelowMin_neverBacksOff() {
+        mScheduler = new ClccScheduler(MIN_INTERVAL_MS, 0);
+
+        assertThat(mScheduler.onQueryDone(true, false)).isEqualTo(MIN_INTERVAL_MS);
+    }
+
+    @Test
+    public void toString_reportsCounters() {
+        mScheduler.onQueryIssued();
+        mScheduler.onQueryIssued();
+        mScheduler.onQuerySkipped();
+        mScheduler.onQueryDone(true, true);
+
+        String dump = mScheduler.toString();
+        assertThat(dump).contains("queriesIssued=2");
+        assertThat(dump).contains("queriesSkipped=1");
+        assertThat(dump).contains("driftDetected=1");
+        assertThat(dump).contains("agOmitsIndicators=true");
+    }
+}
@@ -1292,6 +1292,30 @@ public class HeadsetClientStateMachineTest {
         verify(mNativeInterface).startVoiceRecognition(any(BluetoothDevice.class));
     }
 
+    @Test
+    public void testProcessStackEvent_CallIndicatorsWhileQueryPending_coalescesQueries() {
+        initToConnectedState();
+        doReturn(true).when(mNativeInterface).queryCurrentCalls(any(BluetoothDevice.class));
+
+        // A burst of indicators announcing an incoming call.
+        for (int type : new int[] {StackEvent.EVENT_TYPE_CALLSETUP, StackEvent.EVENT_TYPE_CLIP,
+                StackEvent.EVENT_TYPE_CALL}) {
+            StackEvent event = new StackEvent(type);
+            event.device = mTestDevice;
+            mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, event);
+        }
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        verify(mNativeInterface).queryCurrentCalls(mTestDevice);
+
+        // Complete the pending query, the skipped ones are made up for by a single query.
+        StackEvent cmdResult = new StackEvent(StackEvent.EVENT_TYPE_CMD_RESULT);
+        cmdResult.valueInt = AT_OK;
+        cmdResult.device = mTestDevice;
+        mHeadsetClientStateMachine.sendMessage(StackEvent.STACK_EVENT, cmdResult);
+        TestUtils.waitForLooperToFinishScheduledTask(mHandlerThread.getLooper());
+        verify(mNativeInterface, times(2)).queryCurrentCalls(mTestDevice);
+    }
+
     @Test
     public void testProcessDisconnectMessage_onAudioOnState() {
         initToAudioOnState();
@@ -57,6 +57,7 @@ import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -1606,6 +1607,38 @@ public class BluetoothMapContentObserverTest {
                 TEST_READ_FLAG_ONE);
     }
 
+    @Test
+    public void handleMsgListChangesSmsMms_onlyQueriesMessagesAboveLastScannedId() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID,
+                Sms.READ});
+        cursor.addRow(new Object[] {TEST_HANDLE_ONE, TEST_SMS_TYPE_INBOX, TEST_THREAD_ID,
+                TEST_READ_FLAG_ONE});
+        doReturn(cursor).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(),
+                any(), any());
+        mObserver.mMapEventReportVersion = BluetoothMapUtils.MAP_EVENT_REPORT_V10;
+        mObserver.handleMsgListChangesSms();
+        doReturn(new MatrixCursor(new String[] {Sms._ID, Sms.TYPE, Sms.THREAD_ID, Sms.READ}))
+                .when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(),
+                        any());
+
+        mObserver.handleMsgListChangesSmsMms();
+
+        ArgumentCaptor<String> selection = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String[]> selectionArgs = ArgumentCaptor.forClass(String[].class);
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), eq(Sms.CONTENT_URI),
+                any(), selection.capture(), selectionArgs.capture(), any());
+        Assert.assertNull(selection.getAllValues().get(0));
+        Assert.assertEquals(Sms._ID + ">?", selection.getAllValues().get(1));
+        Assert.assertArrayEquals(new String[] {Long.toString(TEST_HANDLE_ONE)},
+                selectionArgs.getAllValues().get(1));
+        verify(mMapMethodProxy).contentResolverQuery(any(), eq(Mms.CONTENT_URI), any(),
+                selection.capture(), selectionArgs.capture(), any());
+        Assert.assertEquals(Mms._ID + ">?", selection.getValue());
+        Assert.assertArrayEquals(new String[] {"0"}, selectionArgs.getValue());
+        // The message is not newer than the last scan, hence not reported deleted
+        Assert.assertNotNull(mObserver.getMsgListSms().get(TEST_HANDLE_ONE));
+    }
+
     @Test
     public void handleMmsSendIntent_withMnsClientNotConnected() {
         when(mClient.isConnected()).thenReturn(false);
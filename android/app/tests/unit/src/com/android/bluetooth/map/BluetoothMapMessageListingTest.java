@@ -31,8 +31,11 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
@@ -83,33 +86,6 @@ public class BluetoothMapMessageListingTest {
         assertThat(listing.hasUnread()).isEqualTo(true);
     }
 
-    @Test
-    public void segment_whenCountIsLessThanOne_returnsOffsetToEnd() {
-        mListing.segment(0, 1);
-        assertThat(mListing.getList().size()).isEqualTo(2);
-    }
-
-    @Test
-    public void segment_whenOffsetIsBiggerThanSize_returnsEmptyList() {
-        mListing.segment(1, 4);
-        assertThat(mListing.getList().size()).isEqualTo(0);
-    }
-
-    @Test
-    public void segment_whenOffsetCountCombinationIsValid_returnsCorrectly() {
-        mListing.segment(1, 1);
-        assertThat(mListing.getList().size()).isEqualTo(1);
-    }
-
-    @Test
-    public void sort() {
-        // BluetoothMapMessageListingElements are sorted according to their mDateTime values
-        mListing.sort();
-        assertThat(mListing.getList().get(0).getDateTime()).isEqualTo(TEST_DATE_TIME_LATEST);
-        assertThat(mListing.getList().get(1).getDateTime()).isEqualTo(TEST_DATE_TIME_MIDDLE);
-        assertThat(mListing.getList().get(2).getDateTime()).isEqualTo(TEST_DATE_TIME_EARLIEST);
-    }
-
     @Test
     public void encodeToXml_thenAppendFromXml() throws Exception {
         final BluetoothMapMessageListing listingToAppend = new BluetoothMapMessageListing();
@@ -136,6 +112,37 @@ public class BluetoothMapMessageListingTest {
         assertThat(listing.getList().get(1).getReadBool()).isTrue();
     }
 
+    @Test
+    public void encodeToStream_matchesEncodedBytes() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        mListing.encode(out, false, TEST_VERSION);
+
+        assertThat(out.toByteArray()).isEqualTo(mListing.encode(false, TEST_VERSION));
+    }
+
+    @Test
+    public void entityUnescapingWriter_replacesEntities() throws Exception {
+        StringWriter sw = new StringWriter();
+        Writer writer = BluetoothMapMessageListing.EntityUnescapingWriter.unescapeAll(sw);
+
+        writer.write("a &amp; b &lt;c&gt; &&amp; &am &quot;");
+        writer.flush();
+
+        assertThat(sw.toString()).isEqualTo("a & b <c> && &am &quot;");
+    }
+
+    @Test
+    public void entityUnescapingWriter_unescapesAmpersandEntitiesTwice() throws Exception {
+        StringWriter sw = new StringWriter();
+        Writer writer = BluetoothMapMessageListing.EntityUnescapingWriter.unescapeAll(sw);
+
+        writer.write("&amp;lt;b&amp;gt; &amp;amp;");
+        writer.flush();
+
+        assertThat(sw.toString()).isEqualTo("<b> &amp;");
+    }
+
     /**
      * Decodes the encoded xml document then append the BluetoothMapMessageListingElements to the
      * given BluetoothMapMessageListing object.
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+import android.provider.Telephony;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class MessageListingResolverTest {
+    private static final long TEST_ID = 1;
+    private static final String TEST_PHONE = "111-1111-1111";
+    private static final String TEST_NAME = "test_name";
+
+    @Mock
+    private ContentResolver mResolver;
+    @Spy
+    private BluetoothMethodProxy mMapMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private MessageListingResolver mListingResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mMapMethodProxy);
+        mListingResolver = new MessageListingResolver(mResolver);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SmsMmsContacts.stopNameCache(mResolver);
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    private void mockQueryResult(String column, String value) {
+        doAnswer(invocation -> {
+            MatrixCursor cursor = new MatrixCursor(new String[] {column});
+            cursor.addRow(new Object[] {value});
+            return cursor;
+        }).when(mMapMethodProxy).contentResolverQuery(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    public void getAddressMms_queriesOncePerMessageAndType() {
+        mockQueryResult(Telephony.Mms.Addr.ADDRESS, TEST_PHONE);
+
+        assertThat(mListingResolver.getAddressMms(TEST_ID, BluetoothMapContent.MMS_FROM))
+                .isEqualTo(TEST_PHONE);
+        assertThat(mListingResolver.getAddressMms(TEST_ID, BluetoothMapContent.MMS_FROM))
+                .isEqualTo(TEST_PHONE);
+        verify(mMapMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+
+        mListingResolver.getAddressMms(TEST_ID, BluetoothMapContent.MMS_TO);
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getContactName_queriesOncePerPhone() {
+        mockQueryResult(ContactsContract.Contacts.DISPLAY_NAME, TEST_NAME);
+
+        assertThat(mListingResolver.getContactName(TEST_PHONE)).isEqualTo(TEST_NAME);
+        assertThat(mListingResolver.getContactName(TEST_PHONE)).isEqualTo(TEST_NAME);
+        verify(mMapMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getContactName_usesSharedNameCacheUntilContactsChange() {
+        mockQueryResult(ContactsContract.Contacts.DISPLAY_NAME, TEST_NAME);
+        SmsMmsContacts.startNameCache(mResolver);
+
+        assertThat(new MessageListingResolver(mResolver).getContactName(TEST_PHONE))
+                .isEqualTo(TEST_NAME);
+        assertThat(new MessageListingResolver(mResolver).getContactName(TEST_PHONE))
+                .isEqualTo(TEST_NAME);
+        verify(mMapMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+
+        SmsMmsContacts.clearNameCache();
+        assertThat(new MessageListingResolver(mResolver).getContactName(TEST_PHONE))
+                .isEqualTo(TEST_NAME);
+        verify(mMapMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void getFilterPattern_matchesWildcardsAnywhere() {
+        assertThat(mListingResolver.getFilterPattern("11*11").matcher(TEST_PHONE).matches())
+                .isTrue();
+        assertThat(mListingResolver.getFilterPattern("222").matcher(TEST_PHONE).matches())
+                .isFalse();
+        assertThat(mListingResolver.getFilterPattern("222"))
+                .isSameInstanceAs(mListingResolver.getFilterPattern("222"));
+    }
+}
@@ -98,6 +98,27 @@ public class BluetoothPbapVcardManagerNestedClassesTest {
                 .isEqualTo(expectedVCard);
     }
 
+    @Test
+    public void VCardFilter_applyToBuilder_filtersAndStripsTelephoneNumbers() {
+        final String separator = System.getProperty("line.separator");
+        String vCard = "FN:Test Full Name" + separator
+                + "EMAIL:android@android.com:" + separator
+                + "TEL;TYPE=CELL:+1-(588)-328 382" + separator
+                + "X-ANDROID-CUSTOM:value" + separator
+                + "X-IRMC-CALL-DATETIME:20170314T173942" + separator;
+
+        byte[] emailExcludeFilter = new byte[] {(byte) 0xFE, (byte) 0xFF};
+        VCardFilter vCardFilter = new VCardFilter(/*filter=*/ emailExcludeFilter);
+        StringBuilder out = new StringBuilder("previous vCard");
+        out.setLength(0);
+        vCardFilter.apply(vCard, /*vCardType21=*/ true, /*stripTelephoneNumber=*/ true, out);
+
+        String expectedVCard = "FN:Test Full Name" + separator
+                + "TEL;TYPE=CELL:+1588328382" + separator
+                + "X-IRMC-CALL-DATETIME:20170314T173942" + separator;
+        assertThat(out.toString()).isEqualTo(expectedVCard);
+    }
+
     @Test
     public void PropertySelector_checkVCardSelector_atLeastOnePropertyExists_returnsTrue() {
         final String separator = System.getProperty("line.separator");
@@ -35,8 +35,10 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -115,6 +117,23 @@ public class HandlerForStringBufferTest {
         assertThat(buffer.writeVCard(newVCard)).isFalse();
     }
 
+    @Test
+    public void writeVCard_withStringBuilder_writesUtf8Bytes() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(mOperation.openOutputStream()).thenReturn(out);
+        HandlerForStringBuffer buffer = new HandlerForStringBuffer(mOperation, /*ownerVcard=*/null);
+        buffer.init();
+
+        StringBuilder vCard = new StringBuilder("FN:J\u00f6rg \u6d4b\u8bd5\n");
+        while (vCard.length() < 10000) {
+            vCard.append("NOTE:long note\n");
+        }
+
+        assertThat(buffer.writeVCard(vCard)).isTrue();
+        assertThat(out.toByteArray())
+                .isEqualTo(vCard.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
     @Test
     public void terminate() throws Exception {
         String ownerVcard = "testOwnerVcard";
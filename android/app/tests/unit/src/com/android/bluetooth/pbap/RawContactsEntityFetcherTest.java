@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract.RawContacts;
+import android.provider.ContactsContract.RawContactsEntity;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RawContactsEntityFetcherTest {
+    private static final String DATA_COLUMN = "data";
+
+    @Mock
+    private ContentResolver mResolver;
+    @Spy
+    private BluetoothMethodProxy mPbapMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private MatrixCursor mContactIdCursor;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        BluetoothMethodProxy.setInstanceForTesting(mPbapMethodProxy);
+        mContactIdCursor = new MatrixCursor(new String[] {RawContacts.CONTACT_ID});
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void query_fetchesContactsOfChunkWithOneQuery() {
+        mContactIdCursor.addRow(new Object[] {3L});
+        mContactIdCursor.addRow(new Object[] {1L});
+        mContactIdCursor.addRow(new Object[] {2L});
+        // Contact 2 has no entity rows, e.g. it was deleted meanwhile.
+        MatrixCursor entities = new MatrixCursor(new String[] {RawContacts.CONTACT_ID,
+                DATA_COLUMN});
+        entities.addRow(new Object[] {1L, "a"});
+        entities.addRow(new Object[] {3L, "b"});
+        entities.addRow(new Object[] {3L, "c"});
+        doReturn(entities).when(mPbapMethodProxy).contentResolverQuery(any(),
+                eq(RawContactsEntity.CONTENT_URI), any(), any(), any(), any());
+
+        RawContactsEntityFetcher fetcher = new RawContactsEntityFetcher(mResolver,
+                mContactIdCursor, 0);
+        mContactIdCursor.moveToFirst();
+
+        Cursor contact = fetcher.query(3L);
+        assertThat(mContactIdCursor.getPosition()).isEqualTo(0);
+        assertThat(contact.getCount()).isEqualTo(2);
+        assertThat(contact.moveToFirst()).isTrue();
+        assertThat(contact.getString(1)).isEqualTo("b");
+        assertThat(contact.moveToNext()).isTrue();
+        assertThat(contact.getString(1)).isEqualTo("c");
+        assertThat(contact.moveToNext()).isFalse();
+        assertThat(contact.isAfterLast()).isTrue();
+        contact.close();
+
+        Cursor first = fetcher.query(1L);
+        assertThat(first.getCount()).isEqualTo(1);
+        assertThat(first.moveToFirst()).isTrue();
+        assertThat(first.getString(1)).isEqualTo("a");
+
+        assertThat(fetcher.query(2L).getCount()).isEqualTo(0);
+        verify(mPbapMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any(),
+                any());
+
+        fetcher.close();
+        assertThat(entities.isClosed()).isTrue();
+    }
+}
@@ -22,6 +22,7 @@ import static com.google.common.truth.Truth.assertWithMessage;
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.ObexAppParameters;
 import com.android.obex.HeaderSet;
 
 import org.junit.Before;
@@ -49,4 +50,44 @@ public class BluetoothPbapRequestPullPhoneBookSizeTest {
             assertWithMessage("Exception should not happen.").fail();
         }
     }
+
+    @Test
+    public void readResponseHeaders_withoutVersionCounters_returnsNullVersion() {
+        HeaderSet headerSet = new HeaderSet();
+        ObexAppParameters oap = new ObexAppParameters();
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PHONEBOOK_SIZE, (short) 10);
+        oap.addToHeaderSet(headerSet);
+
+        mRequest.readResponseHeaders(headerSet);
+
+        assertThat(mRequest.getSize()).isEqualTo(10);
+        assertThat(mRequest.getVersion()).isNull();
+    }
+
+    @Test
+    public void readResponseHeaders_withVersionCounters_returnsVersion() {
+        byte[] databaseIdentifier = new byte[16];
+        byte[] primaryVersionCounter = new byte[16];
+
+        String version = readVersion(databaseIdentifier, primaryVersionCounter);
+        assertThat(version).isNotNull();
+        assertThat(readVersion(databaseIdentifier, primaryVersionCounter)).isEqualTo(version);
+
+        primaryVersionCounter[15] = 1;
+        assertThat(readVersion(databaseIdentifier, primaryVersionCounter)).isNotEqualTo(version);
+    }
+
+    private static String readVersion(byte[] databaseIdentifier, byte[] primaryVersionCounter) {
+        HeaderSet headerSet = new HeaderSet();
+        ObexAppParameters oap = new ObexAppParameters();
+        oap.add(BluetoothPbapRequest.OAP_TAGID_DATABASE_IDENTIFIER, databaseIdentifier);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_PRIMARY_VERSION_COUNTER, primaryVersionCounter);
+        oap.add(BluetoothPbapRequest.OAP_TAGID_SECONDARY_VERSION_COUNTER, new byte[16]);
+        oap.addToHeaderSet(headerSet);
+
+        BluetoothPbapRequestPullPhoneBookSize request =
+                new BluetoothPbapRequestPullPhoneBookSize(/*pbName=*/"phonebook", /*filter=*/1);
+        request.readResponseHeaders(headerSet);
+        return request.getVersion();
+    }
 }
@@ -16,6 +16,8 @@
 
 package com.android.bluetooth.pbapclient;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.mock;
 
@@ -27,8 +29,11 @@ import androidx.test.runner.AndroidJUnit4;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
@@ -36,6 +41,13 @@ public class BluetoothPbapVcardListTest {
 
     private static final Account ACCOUNT = mock(Account.class);
 
+    private static final String VCARD_ALICE = "BEGIN:VCARD\r\nVERSION:3.0\r\nN:Alice;;;;\r\n"
+            + "TEL;TYPE=CELL:1234\r\nEND:VCARD\r\n";
+    private static final String VCARD_BOB = "BEGIN:VCARD\r\nVERSION:3.0\r\nN:Bob;;;;\r\n"
+            + "TEL;TYPE=CELL:1234\r\nEND:VCARD\r\n";
+    private static final String VCARD_BOB_CHANGED = "BEGIN:VCARD\r\nVERSION:3.0\r\n"
+            + "N:Bob;;;;\r\nTEL;TYPE=CELL:5678\r\nEND:VCARD\r\n";
+
     @Test
     public void constructor_withMockInputStream_throwsIOException() {
         InputStream is = mock(InputStream.class);
@@ -45,4 +57,21 @@ public class BluetoothPbapVcardListTest {
         assertThrows(IOException.class, () ->
                 new BluetoothPbapVcardList(ACCOUNT, is, PbapClientConnectionHandler.VCARD_TYPE_21));
     }
+
+    @Test
+    public void getFingerprints_identifiesUnchangedEntries() throws Exception {
+        List<String> first = parse(VCARD_ALICE + VCARD_BOB).getFingerprints();
+        List<String> second = parse(VCARD_BOB_CHANGED + VCARD_ALICE).getFingerprints();
+
+        assertThat(first).hasSize(2);
+        assertThat(second).hasSize(2);
+        assertThat(second.get(1)).isEqualTo(first.get(0));
+        assertThat(second.get(0)).isNotEqualTo(first.get(1));
+        assertThat(first.get(0)).isNotEqualTo(first.get(1));
+    }
+
+    private static BluetoothPbapVcardList parse(String vCards) throws IOException {
+        InputStream is = new ByteArrayInputStream(vCards.getBytes(StandardCharsets.UTF_8));
+        return new BluetoothPbapVcardList(ACCOUNT, is, PbapClientConnectionHandler.VCARD_TYPE_30);
+    }
 }
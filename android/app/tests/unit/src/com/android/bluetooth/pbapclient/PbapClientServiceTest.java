@@ -356,4 +356,21 @@ public class PbapClientServiceTest {
         assertThat(((String[]) selectionArgsCaptor.getValue())[0])
                 .isEqualTo(mRemoteDevice.getAddress());
     }
+
+    @Test
+    public void removeDeviceAccount_removesCallLog() {
+        BluetoothMethodProxy methodProxy = spy(BluetoothMethodProxy.getInstance());
+        BluetoothMethodProxy.setInstanceForTesting(methodProxy);
+        PbapClientService service = spy(mService);
+        doReturn(true).when(service).isAuthenticationServiceReady();
+
+        service.removeDeviceAccount(mRemoteDevice);
+
+        ArgumentCaptor<Object> selectionArgsCaptor = ArgumentCaptor.forClass(Object.class);
+        verify(methodProxy).contentResolverDelete(any(), eq(CallLog.Calls.CONTENT_URI), any(),
+                (String[]) selectionArgsCaptor.capture());
+
+        assertThat(((String[]) selectionArgsCaptor.getValue())[0])
+                .isEqualTo(mRemoteDevice.getAddress());
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.pbapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+
+import android.accounts.Account;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.vcard.VCardEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PhonebookInserterTest {
+
+    private static class RecordingPullRequest extends PhonebookPullRequest {
+        final List<List<VCardEntry>> mBatches = new ArrayList<>();
+        final List<List<String>> mFingerprints = new ArrayList<>();
+        Thread mThread;
+
+        RecordingPullRequest() {
+            super(InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                    mock(Account.class));
+        }
+
+        @Override
+        public void setResults(List<VCardEntry> results, List<String> fingerprints) {
+            super.setResults(results, fingerprints);
+            mFingerprints.add(fingerprints);
+        }
+
+        @Override
+        public void onPullComplete() {
+            mThread = Thread.currentThread();
+            mBatches.add(mEntries);
+        }
+    }
+
+    private static List<VCardEntry> createBatch(int size) {
+        List<VCardEntry> batch = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            batch.add(new VCardEntry());
+        }
+        return batch;
+    }
+
+    @Test
+    public void finish_insertsAllBatchesInOrderOnInserterThread() throws Exception {
+        RecordingPullRequest processor = new RecordingPullRequest();
+        PhonebookInserter inserter = new PhonebookInserter(processor);
+        List<VCardEntry> first = createBatch(2);
+        List<VCardEntry> second = createBatch(3);
+        List<VCardEntry> third = createBatch(1);
+        List<String> thirdFingerprints = List.of("fingerprint");
+
+        inserter.start();
+        assertThat(inserter.insert(first, null)).isTrue();
+        assertThat(inserter.insert(second, null)).isTrue();
+        assertThat(inserter.insert(third, thirdFingerprints)).isTrue();
+        inserter.finish();
+
+        assertThat(inserter.isAlive()).isFalse();
+        assertThat(processor.mBatches).containsExactly(first, second, third).inOrder();
+        assertThat(processor.mFingerprints.get(2)).isSameInstanceAs(thirdFingerprints);
+        assertThat(processor.mThread).isSameInstanceAs(inserter);
+        assertThat(inserter.getInsertedCount()).isEqualTo(6);
+    }
+
+    @Test
+    public void insert_afterInserterStopped_returnsFalse() throws Exception {
+        PhonebookInserter inserter = new PhonebookInserter(new RecordingPullRequest());
+        inserter.start();
+        inserter.interrupt();
+        inserter.join();
+
+        // Fill the handoff queue, then the next batch can never be accepted.
+        for (int i = 0; i < PhonebookInserter.MAX_PENDING_BATCHES; i++) {
+            assertThat(inserter.insert(createBatch(1), null)).isTrue();
+        }
+        assertThat(inserter.insert(createBatch(1), null)).isFalse();
+    }
+}
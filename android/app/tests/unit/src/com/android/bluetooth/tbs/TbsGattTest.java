@@ -288,10 +288,10 @@ public class TbsGattTest {
         }
 
         if (shouldNotify) {
-            verify(mMockGattServer).notifyCharacteristicChanged(eq(mCurrentDevice),
+            verify(mMockGattServer).notifyCharacteristicChanged(eq(List.of(mCurrentDevice)),
                     eq(characteristic), eq(false));
         } else {
-            verify(mMockGattServer, times(0)).notifyCharacteristicChanged(any(), any(),
+            verify(mMockGattServer, times(0)).notifyCharacteristicChanged(anyList(), any(),
                     anyBoolean());
         }
 
@@ -478,8 +478,8 @@ public class TbsGattTest {
         Assert.assertTrue(Arrays.equals(characteristic.getValue(),
                 new byte[] {(byte) (requestedOpcode & 0xff), (byte) (callIndex & 0xff),
                         (byte) (result & 0xff)}));
-        verify(mMockGattServer, after(2000).times(0)).notifyCharacteristicChanged(any(), any(),
-                anyBoolean());
+        verify(mMockGattServer, after(2000).times(0)).notifyCharacteristicChanged(
+                any(BluetoothDevice.class), any(), anyBoolean());
     }
 
     @Test
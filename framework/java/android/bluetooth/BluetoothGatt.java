@@ -33,14 +33,24 @@ import android.os.Handler;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
 import android.util.Log;
+import android.util.SparseArray;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -76,6 +86,26 @@ public final class BluetoothGatt implements BluetoothProfile {
     private final Object mDeviceBusyLock = new Object();
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private Boolean mDeviceBusy = false;
+    // Operations waiting for the device, dispatched in order as the previous ones complete.
+    private volatile boolean mOperationQueueEnabled = false;
+    @GuardedBy("mDeviceBusyLock")
+    private final ArrayDeque<Operation> mOperationQueue = new ArrayDeque<>();
+    @GuardedBy("mDeviceBusyLock")
+    private int mMaxWritesWithoutResponseInFlight = 1;
+    @GuardedBy("mDeviceBusyLock")
+    private int mWritesWithoutResponseInFlight = 0;
+    // Incremented as writes without response complete, to detect completions during a dispatch
+    @GuardedBy("mDeviceBusyLock")
+    private int mWritesWithoutResponseCompleted = 0;
+    // The queued request sent to the device, resent with its value on authentication retries
+    @GuardedBy("mDeviceBusyLock")
+    private Operation mRequestInFlight;
+    @GuardedBy("mDeviceBusyLock")
+    private boolean mDispatchingOperations = false;
+    // Sends the queued operations, off the binder threads delivering the callbacks. Created when
+    // the queue is first enabled.
+    @GuardedBy("mDeviceBusyLock")
+    private Executor mOperationExecutor;
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private int mTransport;
     private int mPhy;
@@ -94,8 +124,65 @@ public final class BluetoothGatt implements BluetoothProfile {
 
     private static final int WRITE_CHARACTERISTIC_MAX_RETRIES = 5;
     private static final int WRITE_CHARACTERISTIC_TIME_TO_WAIT = 10; // milliseconds
+    private static final long OPERATION_THREAD_KEEP_ALIVE_SECONDS = 10;
+
+    private static final int OPERATION_READ_CHARACTERISTIC = 0;
+    private static final int OPERATION_WRITE_CHARACTERISTIC = 1;
+    private static final int OPERATION_READ_DESCRIPTOR = 2;
+    private static final int OPERATION_WRITE_DESCRIPTOR = 3;
+    private static final int OPERATION_EXECUTE_RELIABLE_WRITE = 4;
+
+    /** A GATT operation waiting in the operation queue. */
+    private static final class Operation {
+        final int mType;
+        final String mAddress;
+        final BluetoothGattCharacteristic mCharacteristic;
+        final BluetoothGattDescriptor mDescriptor;
+        final int mWriteType;
+        final byte[] mValue;
+
+        Operation(int type, String address, BluetoothGattCharacteristic characteristic,
+                BluetoothGattDescriptor descriptor, int writeType, byte[] value) {
+            mType = type;
+            mAddress = address;
+            mCharacteristic = characteristic;
+            mDescriptor = descriptor;
+            mWriteType = writeType;
+            mValue = value;
+        }
+
+        boolean isWriteWithoutResponse() {
+            return mType == OPERATION_WRITE_CHARACTERISTIC
+                    && mWriteType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        }
+    }
 
     private List<BluetoothGattService> mServices;
+    // Lookup of the attributes of mServices by handle, only built and published once the
+    // services are complete in onSearchComplete. Null while the services change.
+    private volatile AttributeIndex mAttributeIndex;
+
+    /** Characteristics and descriptors of a GATT database, by handle. */
+    private static final class AttributeIndex {
+        final SparseArray<BluetoothGattCharacteristic> mCharacteristics = new SparseArray<>();
+        final SparseArray<BluetoothGattDescriptor> mDescriptors = new SparseArray<>();
+
+        AttributeIndex(List<BluetoothGattService> services) {
+            for (BluetoothGattService svc : services) {
+                for (BluetoothGattCharacteristic charac : svc.getCharacteristics()) {
+                    // Keep the first attribute found for a handle, as the lookup used to
+                    if (mCharacteristics.get(charac.getInstanceId()) == null) {
+                        mCharacteristics.put(charac.getInstanceId(), charac);
+                    }
+                    for (BluetoothGattDescriptor desc : charac.getDescriptors()) {
+                        if (mDescriptors.get(desc.getInstanceId()) == null) {
+                            mDescriptors.put(desc.getInstanceId(), desc);
+                        }
+                    }
+                }
+            }
+        }
+    }
 
     /** A GATT operation completed successfully */
     public static final int GATT_SUCCESS = 0;
@@ -322,6 +409,9 @@ public final class BluetoothGatt implements BluetoothProfile {
 
                     synchronized (mDeviceBusyLock) {
                         mDeviceBusy = false;
+                        mOperationQueue.clear();
+                        mWritesWithoutResponseInFlight = 0;
+                        mRequestInFlight = null;
                     }
                 }
 
@@ -366,6 +456,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                             }
                         }
                     }
+                    mAttributeIndex = new AttributeIndex(mServices);
 
                     runOrQueueCallback(new Runnable() {
                         @Override
@@ -396,13 +487,12 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
+                    final Operation request = completeRequest();
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                             || status == GATT_INSUFFICIENT_ENCRYPTION)
                             && (mAuthRetryState != AUTH_RETRY_STATE_MITM)) {
+                        retryRequest(request);
                         try {
                             final int authReq = (mAuthRetryState == AUTH_RETRY_STATE_IDLE)
                                     ? AUTHENTICATION_NO_MITM : AUTHENTICATION_MITM;
@@ -414,10 +504,12 @@ public final class BluetoothGatt implements BluetoothProfile {
                             return;
                         } catch (RemoteException | TimeoutException e) {
                             Log.e(TAG, "", e);
+                            if (request != null) completeRequest();
                         }
                     }
 
                     mAuthRetryState = AUTH_RETRY_STATE_IDLE;
+                    dispatchQueuedOperations();
 
                     BluetoothGattCharacteristic characteristic = getCharacteristicById(mDevice,
                             handle);
@@ -457,17 +549,37 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
+                    Operation request = null;
                     synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
+                        // Writes without response are only dispatched when no request is pending
+                        if (mWritesWithoutResponseInFlight > 0) {
+                            mWritesWithoutResponseInFlight--;
+                            mWritesWithoutResponseCompleted++;
+                        } else {
+                            request = completeRequest();
+                        }
                     }
 
                     BluetoothGattCharacteristic characteristic = getCharacteristicById(mDevice,
                             handle);
-                    if (characteristic == null) return;
+                    if (characteristic == null) {
+                        dispatchQueuedOperations();
+                        return;
+                    }
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                             || status == GATT_INSUFFICIENT_ENCRYPTION)
                             && (mAuthRetryState != AUTH_RETRY_STATE_MITM)) {
+                        // A queued write did not set the value and write type on the
+                        // characteristic, resend them from the operation
+                        int writeType = characteristic.getWriteType();
+                        byte[] writeValue = value;
+                        if (request != null && request.mType == OPERATION_WRITE_CHARACTERISTIC
+                                && request.mCharacteristic.getInstanceId() == handle) {
+                            writeType = request.mWriteType;
+                            writeValue = request.mValue;
+                        }
+                        retryRequest(request);
                         try {
                             final int authReq = (mAuthRetryState == AUTH_RETRY_STATE_IDLE)
                                     ? AUTHENTICATION_NO_MITM : AUTHENTICATION_MITM;
@@ -476,8 +588,8 @@ public final class BluetoothGatt implements BluetoothProfile {
                                 final SynchronousResultReceiver<Integer> recv =
                                         SynchronousResultReceiver.get();
                                 mService.writeCharacteristic(mClientIf, address, handle,
-                                        characteristic.getWriteType(), authReq, value,
-                                        mAttributionSource, recv);
+                                        writeType, authReq, writeValue, mAttributionSource,
+                                        recv);
                                 requestStatus = recv.awaitResultNoInterrupt(getSyncTimeout())
                                     .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
                                 if (requestStatus
@@ -493,10 +605,12 @@ public final class BluetoothGatt implements BluetoothProfile {
                             return;
                         } catch (RemoteException | TimeoutException e) {
                             Log.e(TAG, "", e);
+                            if (request != null) completeRequest();
                         }
                     }
 
                     mAuthRetryState = AUTH_RETRY_STATE_IDLE;
+                    dispatchQueuedOperations();
                     runOrQueueCallback(new Runnable() {
                         @Override
                         public void run() {
@@ -555,17 +669,19 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
+                    final Operation request = completeRequest();
 
                     BluetoothGattDescriptor descriptor = getDescriptorById(mDevice, handle);
-                    if (descriptor == null) return;
+                    if (descriptor == null) {
+                        dispatchQueuedOperations();
+                        return;
+                    }
 
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                             || status == GATT_INSUFFICIENT_ENCRYPTION)
                             && (mAuthRetryState != AUTH_RETRY_STATE_MITM)) {
+                        retryRequest(request);
                         try {
                             final int authReq = (mAuthRetryState == AUTH_RETRY_STATE_IDLE)
                                     ? AUTHENTICATION_NO_MITM : AUTHENTICATION_MITM;
@@ -577,10 +693,12 @@ public final class BluetoothGatt implements BluetoothProfile {
                             return;
                         } catch (RemoteException | TimeoutException e) {
                             Log.e(TAG, "", e);
+                            if (request != null) completeRequest();
                         }
                     }
 
                     mAuthRetryState = AUTH_RETRY_STATE_IDLE;
+                    dispatchQueuedOperations();
 
                     runOrQueueCallback(new Runnable() {
                         @Override
@@ -612,31 +730,40 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
+                    final Operation request = completeRequest();
 
                     BluetoothGattDescriptor descriptor = getDescriptorById(mDevice, handle);
-                    if (descriptor == null) return;
+                    if (descriptor == null) {
+                        dispatchQueuedOperations();
+                        return;
+                    }
 
                     if ((status == GATT_INSUFFICIENT_AUTHENTICATION
                             || status == GATT_INSUFFICIENT_ENCRYPTION)
                             && (mAuthRetryState != AUTH_RETRY_STATE_MITM)) {
+                        byte[] writeValue = value;
+                        if (request != null && request.mType == OPERATION_WRITE_DESCRIPTOR
+                                && request.mDescriptor.getInstanceId() == handle) {
+                            writeValue = request.mValue;
+                        }
+                        retryRequest(request);
                         try {
                             final int authReq = (mAuthRetryState == AUTH_RETRY_STATE_IDLE)
                                     ? AUTHENTICATION_NO_MITM : AUTHENTICATION_MITM;
                             final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
                             mService.writeDescriptor(mClientIf, address, handle,
-                                    authReq, value, mAttributionSource, recv);
+                                    authReq, writeValue, mAttributionSource, recv);
                             recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
                             mAuthRetryState++;
                             return;
                         } catch (RemoteException | TimeoutException e) {
                             Log.e(TAG, "", e);
+                            if (request != null) completeRequest();
                         }
                     }
 
                     mAuthRetryState = AUTH_RETRY_STATE_IDLE;
+                    dispatchQueuedOperations();
 
                     runOrQueueCallback(new Runnable() {
                         @Override
@@ -663,9 +790,8 @@ public final class BluetoothGatt implements BluetoothProfile {
                         return;
                     }
 
-                    synchronized (mDeviceBusyLock) {
-                        mDeviceBusy = false;
-                    }
+                    completeRequest();
+                    dispatchQueuedOperations();
 
                     runOrQueueCallback(new Runnable() {
                         @Override
@@ -768,6 +894,7 @@ public final class BluetoothGatt implements BluetoothProfile {
                     if (!address.equals(mDevice.getAddress())) {
                         return;
                     }
+                    mAttributeIndex = null;
 
                     runOrQueueCallback(new Runnable() {
                         @Override
@@ -809,6 +936,12 @@ public final class BluetoothGatt implements BluetoothProfile {
         unregisterApp();
         mConnState = CONN_STATE_CLOSED;
         mAuthRetryState = AUTH_RETRY_STATE_IDLE;
+        synchronized (mDeviceBusyLock) {
+            mOperationQueue.clear();
+            if (mOperationExecutor instanceof ExecutorService) {
+                ((ExecutorService) mOperationExecutor).shutdown();
+            }
+        }
     }
 
     /**
@@ -836,6 +969,10 @@ public final class BluetoothGatt implements BluetoothProfile {
      */
     /*package*/ BluetoothGattCharacteristic getCharacteristicById(BluetoothDevice device,
             int instanceId) {
+        AttributeIndex index = mAttributeIndex;
+        if (index != null) {
+            return index.mCharacteristics.get(instanceId);
+        }
         for (BluetoothGattService svc : mServices) {
             for (BluetoothGattCharacteristic charac : svc.getCharacteristics()) {
                 if (charac.getInstanceId() == instanceId) {
@@ -852,6 +989,10 @@ public final class BluetoothGatt implements BluetoothProfile {
      * @hide
      */
     /*package*/ BluetoothGattDescriptor getDescriptorById(BluetoothDevice device, int instanceId) {
+        AttributeIndex index = mAttributeIndex;
+        if (index != null) {
+            return index.mDescriptors.get(instanceId);
+        }
         for (BluetoothGattService svc : mServices) {
             for (BluetoothGattCharacteristic charac : svc.getCharacteristics()) {
                 for (BluetoothGattDescriptor desc : charac.getDescriptors()) {
@@ -880,6 +1021,223 @@ public final class BluetoothGatt implements BluetoothProfile {
         }
     }
 
+    private void enqueueOperation(Operation operation) {
+        synchronized (mDeviceBusyLock) {
+            mOperationQueue.add(operation);
+        }
+        dispatchQueuedOperations();
+    }
+
+    /** Marks the request in flight as complete, returning it if it came from the queue. */
+    private Operation completeRequest() {
+        synchronized (mDeviceBusyLock) {
+            mDeviceBusy = false;
+            Operation request = mRequestInFlight;
+            mRequestInFlight = null;
+            return request;
+        }
+    }
+
+    /**
+     * Keeps the queued request in flight while it is sent again with authentication, so that
+     * the queue does not send the next operation meanwhile.
+     */
+    private void retryRequest(Operation request) {
+        if (request == null) return;
+        synchronized (mDeviceBusyLock) {
+            mDeviceBusy = true;
+            mRequestInFlight = request;
+        }
+    }
+
+    /**
+     * Schedules sending the queued operations on the operation executor. The binder calls and
+     * the retries of busy writes do not run on the binder thread delivering the callbacks, which
+     * would hold back the callbacks to the app.
+     */
+    private void dispatchQueuedOperations() {
+        final Executor executor;
+        synchronized (mDeviceBusyLock) {
+            if (mOperationQueue.isEmpty() || mOperationExecutor == null) return;
+            executor = mOperationExecutor;
+        }
+        try {
+            executor.execute(this::sendQueuedOperations);
+        } catch (RejectedExecutionException e) {
+            // This client was closed, which drops the queued operations
+        }
+    }
+
+    @VisibleForTesting
+    void setOperationExecutor(Executor executor) {
+        synchronized (mDeviceBusyLock) {
+            mOperationExecutor = executor;
+        }
+    }
+
+    /**
+     * Sends the queued operations that the device can take now: a request when nothing is in
+     * flight, or writes without response up to the configured maximum.
+     *
+     * <p>Only one thread dispatches at a time so that operations are sent in order; operations
+     * completing meanwhile are picked up by the dispatching thread.
+     */
+    private void sendQueuedOperations() {
+        while (true) {
+            Operation operation;
+            boolean retryIfBusy;
+            int writesCompleted;
+            synchronized (mDeviceBusyLock) {
+                if (mDispatchingOperations) return;
+                operation = mOperationQueue.peek();
+                if (operation == null || mDeviceBusy) return;
+                if (operation.isWriteWithoutResponse()) {
+                    if (mWritesWithoutResponseInFlight >= mMaxWritesWithoutResponseInFlight) {
+                        return;
+                    }
+                    // The stack rejects writes while ours are in flight, one will complete soon
+                    retryIfBusy = mWritesWithoutResponseInFlight == 0;
+                    mWritesWithoutResponseInFlight++;
+                } else {
+                    if (mWritesWithoutResponseInFlight > 0) return;
+                    retryIfBusy = true;
+                    mDeviceBusy = true;
+                    mRequestInFlight = operation;
+                }
+                writesCompleted = mWritesWithoutResponseCompleted;
+                mOperationQueue.poll();
+                mDispatchingOperations = true;
+            }
+
+            int status = sendOperation(operation, retryIfBusy);
+
+            synchronized (mDeviceBusyLock) {
+                mDispatchingOperations = false;
+                if (status == BluetoothStatusCodes.SUCCESS) continue;
+                if (operation.isWriteWithoutResponse()) {
+                    mWritesWithoutResponseInFlight--;
+                    if (status == BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY) {
+                        if (mWritesWithoutResponseInFlight > 0) {
+                            // Sent again when one of the writes in flight completes
+                            mOperationQueue.addFirst(operation);
+                            return;
+                        }
+                        if (mWritesWithoutResponseCompleted != writesCompleted) {
+                            // The last write in flight completed while this one was being
+                            // sent, the stack can take it now
+                            mOperationQueue.addFirst(operation);
+                            continue;
+                        }
+                    }
+                } else {
+                    mDeviceBusy = false;
+                    mRequestInFlight = null;
+                }
+            }
+            Log.w(TAG, "sendQueuedOperations() - failed to send operation "
+                    + operation.mType + ", status=" + status);
+            failOperation(operation);
+        }
+    }
+
+    private int sendOperation(Operation operation, boolean retryIfBusy) {
+        try {
+            switch (operation.mType) {
+                case OPERATION_READ_CHARACTERISTIC: {
+                    final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
+                    mService.readCharacteristic(mClientIf, operation.mAddress,
+                            operation.mCharacteristic.getInstanceId(), AUTHENTICATION_NONE,
+                            mAttributionSource, recv);
+                    recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                    return BluetoothStatusCodes.SUCCESS;
+                }
+                case OPERATION_WRITE_CHARACTERISTIC: {
+                    int requestStatus = BluetoothStatusCodes.ERROR_UNKNOWN;
+                    for (int i = 0; i < WRITE_CHARACTERISTIC_MAX_RETRIES; i++) {
+                        final SynchronousResultReceiver<Integer> recv =
+                                SynchronousResultReceiver.get();
+                        mService.writeCharacteristic(mClientIf, operation.mAddress,
+                                operation.mCharacteristic.getInstanceId(), operation.mWriteType,
+                                AUTHENTICATION_NONE, operation.mValue, mAttributionSource, recv);
+                        requestStatus = recv.awaitResultNoInterrupt(getSyncTimeout())
+                                .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
+                        if (!retryIfBusy
+                                || requestStatus
+                                        != BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY) {
+                            break;
+                        }
+                        try {
+                            Thread.sleep(WRITE_CHARACTERISTIC_TIME_TO_WAIT);
+                        } catch (InterruptedException e) {
+                        }
+                    }
+                    return requestStatus;
+                }
+                case OPERATION_READ_DESCRIPTOR: {
+                    final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
+                    mService.readDescriptor(mClientIf, operation.mAddress,
+                            operation.mDescriptor.getInstanceId(), AUTHENTICATION_NONE,
+                            mAttributionSource, recv);
+                    recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                    return BluetoothStatusCodes.SUCCESS;
+                }
+                case OPERATION_WRITE_DESCRIPTOR: {
+                    final SynchronousResultReceiver<Integer> recv =
+                            SynchronousResultReceiver.get();
+                    mService.writeDescriptor(mClientIf, operation.mAddress,
+                            operation.mDescriptor.getInstanceId(), AUTHENTICATION_NONE,
+                            operation.mValue, mAttributionSource, recv);
+                    return recv.awaitResultNoInterrupt(getSyncTimeout())
+                            .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
+                }
+                case OPERATION_EXECUTE_RELIABLE_WRITE: {
+                    final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
+                    mService.endReliableWrite(mClientIf, operation.mAddress, true,
+                            mAttributionSource, recv);
+                    recv.awaitResultNoInterrupt(getSyncTimeout()).getValue(null);
+                    return BluetoothStatusCodes.SUCCESS;
+                }
+                default:
+                    return BluetoothStatusCodes.ERROR_UNKNOWN;
+            }
+        } catch (RemoteException | TimeoutException e) {
+            Log.e(TAG, "", e);
+            return BluetoothStatusCodes.ERROR_UNKNOWN;
+        }
+    }
+
+    /** Reports a queued operation that could not be sent through its usual callback. */
+    private void failOperation(Operation operation) {
+        runOrQueueCallback(new Runnable() {
+            @Override
+            public void run() {
+                final BluetoothGattCallback callback = mCallback;
+                if (callback == null) return;
+                switch (operation.mType) {
+                    case OPERATION_READ_CHARACTERISTIC:
+                        callback.onCharacteristicRead(BluetoothGatt.this,
+                                operation.mCharacteristic, new byte[0], GATT_FAILURE);
+                        break;
+                    case OPERATION_WRITE_CHARACTERISTIC:
+                        callback.onCharacteristicWrite(BluetoothGatt.this,
+                                operation.mCharacteristic, GATT_FAILURE);
+                        break;
+                    case OPERATION_READ_DESCRIPTOR:
+                        callback.onDescriptorRead(BluetoothGatt.this, operation.mDescriptor,
+                                GATT_FAILURE, new byte[0]);
+                        break;
+                    case OPERATION_WRITE_DESCRIPTOR:
+                        callback.onDescriptorWrite(BluetoothGatt.this, operation.mDescriptor,
+                                GATT_FAILURE);
+                        break;
+                    case OPERATION_EXECUTE_RELIABLE_WRITE:
+                        callback.onReliableWriteCompleted(BluetoothGatt.this, GATT_FAILURE);
+                        break;
+                }
+            }
+        });
+    }
+
     /**
      * Register an application callback to start using GATT.
      *
@@ -1128,6 +1486,7 @@ public final class BluetoothGatt implements BluetoothProfile {
         if (mService == null || mClientIf == 0) return false;
 
         mServices.clear();
+        mAttributeIndex = null;
 
         try {
             final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
@@ -1157,6 +1516,7 @@ public final class BluetoothGatt implements BluetoothProfile {
         if (mService == null || mClientIf == 0) return false;
 
         mServices.clear();
+        mAttributeIndex = null;
 
         try {
             final SynchronousResultReceiver recv = SynchronousResultReceiver.get();
@@ -1220,6 +1580,71 @@ public final class BluetoothGatt implements BluetoothProfile {
         return null;
     }
 
+    /**
+     * Enable or disable the operation queue of this GATT client.
+     *
+     * <p>Without the queue, only one read or write can be outstanding at a time: any other call
+     * made before its callback is invoked fails, with {@code false} or
+     * {@link BluetoothStatusCodes#ERROR_GATT_WRITE_REQUEST_BUSY}. With the queue enabled,
+     * {@link #readCharacteristic}, {@link #writeCharacteristic(BluetoothGattCharacteristic,
+     * byte[], int)}, {@link #readDescriptor}, {@link #writeDescriptor(BluetoothGattDescriptor,
+     * byte[])} and {@link #executeReliableWrite} are instead queued and sent to the remote device
+     * in order, each as soon as the previous one has completed. Their callbacks are invoked as
+     * usual; an operation that could not be sent reports {@link #GATT_FAILURE}.
+     *
+     * <p>Operations already queued are still sent after the queue is disabled. Queued operations
+     * are dropped when the connection state changes or this client is closed.
+     *
+     * @param enabled whether to queue operations made while the device is busy
+     * @see #setMaxWritesWithoutResponseInFlight
+     */
+    @RequiresNoPermission
+    public void setOperationQueueEnabled(boolean enabled) {
+        if (DBG) Log.d(TAG, "setOperationQueueEnabled() - enabled: " + enabled);
+        if (enabled) {
+            synchronized (mDeviceBusyLock) {
+                if (mOperationExecutor == null) {
+                    // A single thread keeps the operations in order, it exits while idle
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                            OPERATION_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), r -> {
+                                Thread thread = new Thread(r, "BluetoothGatt operations");
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    executor.allowCoreThreadTimeOut(true);
+                    mOperationExecutor = executor;
+                }
+            }
+        }
+        mOperationQueueEnabled = enabled;
+    }
+
+    /**
+     * Set how many characteristic writes of type
+     * {@link BluetoothGattCharacteristic#WRITE_TYPE_NO_RESPONSE} the operation queue sends
+     * without waiting for their {@link BluetoothGattCallback#onCharacteristicWrite} callback.
+     *
+     * <p>These callbacks are held back while the connection is congested, which keeps the
+     * number of writes sent ahead of the link bounded. The Bluetooth stack also limits the
+     * number of writes in flight for each device and rejects writes while the connection is
+     * congested. Writes rejected by the Bluetooth stack because it is busy are sent again once
+     * one of the writes in flight completes. Defaults to 1.
+     *
+     * @param max the maximum number of writes without response in flight, at least 1
+     * @throws IllegalArgumentException if {@code max} is smaller than 1
+     */
+    @RequiresNoPermission
+    public void setMaxWritesWithoutResponseInFlight(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be at least 1");
+        }
+        synchronized (mDeviceBusyLock) {
+            mMaxWritesWithoutResponseInFlight = max;
+        }
+        dispatchQueuedOperations();
+    }
+
     /**
      * Reads the requested characteristic from the associated remote device.
      *
@@ -1247,6 +1672,12 @@ public final class BluetoothGatt implements BluetoothProfile {
         BluetoothDevice device = service.getDevice();
         if (device == null) return false;
 
+        if (mOperationQueueEnabled) {
+            enqueueOperation(new Operation(OPERATION_READ_CHARACTERISTIC, device.getAddress(),
+                    characteristic, null, 0, null));
+            return true;
+        }
+
         synchronized (mDeviceBusyLock) {
             if (mDeviceBusy) return false;
             mDeviceBusy = true;
@@ -1391,6 +1822,12 @@ public final class BluetoothGatt implements BluetoothProfile {
             throw new IllegalArgumentException("Service must have a non-null device");
         }
 
+        if (mOperationQueueEnabled) {
+            enqueueOperation(new Operation(OPERATION_WRITE_CHARACTERISTIC, device.getAddress(),
+                    characteristic, null, writeType, value.clone()));
+            return BluetoothStatusCodes.SUCCESS;
+        }
+
         synchronized (mDeviceBusyLock) {
             if (mDeviceBusy) {
                 return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
@@ -1457,6 +1894,12 @@ public final class BluetoothGatt implements BluetoothProfile {
         BluetoothDevice device = service.getDevice();
         if (device == null) return false;
 
+        if (mOperationQueueEnabled) {
+            enqueueOperation(new Operation(OPERATION_READ_DESCRIPTOR, device.getAddress(), null,
+                    descriptor, 0, null));
+            return true;
+        }
+
         synchronized (mDeviceBusyLock) {
             if (mDeviceBusy) return false;
             mDeviceBusy = true;
@@ -1546,6 +1989,12 @@ public final class BluetoothGatt implements BluetoothProfile {
             throw new IllegalArgumentException("Service must have a non-null device");
         }
 
+        if (mOperationQueueEnabled) {
+            enqueueOperation(new Operation(OPERATION_WRITE_DESCRIPTOR, device.getAddress(), null,
+                    descriptor, 0, value.clone()));
+            return BluetoothStatusCodes.SUCCESS;
+        }
+
         synchronized (mDeviceBusyLock) {
             if (mDeviceBusy) return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
             mDeviceBusy = true;
@@ -1628,6 +2077,12 @@ public final class BluetoothGatt implements BluetoothProfile {
         if (VDBG) Log.d(TAG, "executeReliableWrite() - device: " + mDevice.getAddress());
         if (mService == null || mClientIf == 0) return false;
 
+        if (mOperationQueueEnabled) {
+            enqueueOperation(new Operation(OPERATION_EXECUTE_RELIABLE_WRITE,
+                    mDevice.getAddress(), null, null, 0, null));
+            return true;
+        }
+
         synchronized (mDeviceBusyLock) {
             if (mDeviceBusy) return false;
             mDeviceBusy = true;
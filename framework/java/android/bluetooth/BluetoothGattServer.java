@@ -822,6 +822,80 @@ public final class BluetoothGattServer implements BluetoothProfile {
         }
     }
 
+    /**
+     * Send a notification or indication that a local characteristic has been
+     * updated to several remote devices at once.
+     *
+     * <p>This is equivalent to calling
+     * {@link #notifyCharacteristicChanged(BluetoothDevice, BluetoothGattCharacteristic, boolean,
+     * byte[])} for each device, but with a single call into the Bluetooth stack. Devices that
+     * are not connected are skipped, the others are still notified.
+     *
+     * @param devices the remote devices to receive the notification/indication, typically all
+     * clients that enabled notifications/indications for the characteristic
+     * @param characteristic the local characteristic that has been updated
+     * @param confirm {@code true} to request confirmation from the clients (indication) or
+     * {@code false} to send a notification
+     * @param value the characteristic value
+     * @return {@link BluetoothStatusCodes#SUCCESS} if the notification has been triggered for
+     * all devices, {@link BluetoothStatusCodes#ERROR_DEVICE_NOT_CONNECTED} if any of them is
+     * not connected
+     * @throws IllegalArgumentException if the devices, characteristic value or service is null
+     */
+    @RequiresLegacyBluetoothPermission
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_CONNECT)
+    @NotifyCharacteristicReturnValues
+    public int notifyCharacteristicChanged(@NonNull List<BluetoothDevice> devices,
+            @NonNull BluetoothGattCharacteristic characteristic, boolean confirm,
+            @NonNull byte[] value) {
+        if (VDBG) Log.d(TAG, "notifyCharacteristicChanged() - devices: " + devices.size());
+        if (mService == null || mServerIf == 0) {
+            return BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND;
+        }
+
+        if (characteristic == null) {
+            throw new IllegalArgumentException("characteristic must not be null");
+        }
+        if (devices == null) {
+            throw new IllegalArgumentException("devices must not be null");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Characteristic value must not be null");
+        }
+        if (value.length > GATT_MAX_ATTR_LEN) {
+            throw new IllegalArgumentException(
+                    "notification should not be longer than max length of an attribute value");
+        }
+        BluetoothGattService service = characteristic.getService();
+        if (service == null) {
+            throw new IllegalArgumentException("Characteristic must have a non-null service");
+        }
+
+        List<String> addresses = new ArrayList<>(devices.size());
+        for (BluetoothDevice device : devices) {
+            if (device == null) {
+                throw new IllegalArgumentException("device must not be null");
+            }
+            addresses.add(device.getAddress());
+        }
+
+        try {
+            final SynchronousResultReceiver<Integer> recv = SynchronousResultReceiver.get();
+            mService.sendNotificationToDevices(mServerIf, addresses,
+                    characteristic.getInstanceId(), confirm,
+                    value, mAttributionSource, recv);
+            return recv.awaitResultNoInterrupt(getSyncTimeout())
+                .getValue(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
+        } catch (TimeoutException e) {
+            Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+            return BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND;
+        } catch (RemoteException e) {
+            Log.e(TAG, "", e);
+            throw e.rethrowFromSystemServer();
+        }
+    }
+
     /**
      * Add a service to the list of services to be hosted.
      *
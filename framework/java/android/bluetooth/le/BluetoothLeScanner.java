@@ -18,6 +18,7 @@ package android.bluetooth.le;
 
 import static android.bluetooth.le.BluetoothLeUtils.getSyncTimeout;
 
+import android.annotation.CallbackExecutor;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.annotation.RequiresNoPermission;
@@ -34,19 +35,24 @@ import android.bluetooth.annotations.RequiresBluetoothLocationPermission;
 import android.bluetooth.annotations.RequiresBluetoothScanPermission;
 import android.bluetooth.annotations.RequiresLegacyBluetoothAdminPermission;
 import android.content.AttributionSource;
+import android.os.Binder;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.RemoteException;
 import android.os.WorkSource;
 import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.SynchronousResultReceiver;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -159,6 +165,48 @@ public final class BluetoothLeScanner {
         startScan(filters, settings, null, callback, /*callbackIntent=*/ null);
     }
 
+    /**
+     * Start Bluetooth LE scan. Same as {@link #startScan(List, ScanSettings, ScanCallback)} but
+     * the callbacks are invoked on {@code executor} instead of the main thread, and the results
+     * may be coalesced.
+     * <p>
+     * With a {@code coalescingWindowMillis} greater than 0, the results that would be delivered
+     * to {@link ScanCallback#onScanResult} with {@link ScanSettings#CALLBACK_TYPE_ALL_MATCHES}
+     * are instead collected for up to that time and delivered together to
+     * {@link ScanCallback#onBatchScanResults}. Other callback types are delivered as they arrive,
+     * after the results collected so far. This reduces the number of callbacks when many devices
+     * are advertising, at the cost of latency.
+     * <p>
+     * An app must have
+     * {@link android.Manifest.permission#ACCESS_COARSE_LOCATION ACCESS_COARSE_LOCATION} permission
+     * in order to get results. An App targeting Android Q or later must have
+     * {@link android.Manifest.permission#ACCESS_FINE_LOCATION ACCESS_FINE_LOCATION} permission
+     * in order to get results.
+     *
+     * @param filters Optional list of ScanFilters for finding exact BLE devices.
+     * @param settings Optional settings for the scan.
+     * @param coalescingWindowMillis How long to collect results before delivering them together,
+     * or 0 to deliver each result as it arrives.
+     * @param executor The executor on which the callbacks are invoked.
+     * @param callback Callback used to deliver scan results.
+     * @throws IllegalArgumentException If {@code coalescingWindowMillis} is negative.
+     */
+    @RequiresLegacyBluetoothAdminPermission
+    @RequiresBluetoothScanPermission
+    @RequiresBluetoothLocationPermission
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_SCAN)
+    public void startScan(@Nullable List<ScanFilter> filters, @Nullable ScanSettings settings,
+            long coalescingWindowMillis, @NonNull @CallbackExecutor Executor executor,
+            @NonNull ScanCallback callback) {
+        Objects.requireNonNull(executor, "executor cannot be null");
+        Objects.requireNonNull(callback, "callback cannot be null");
+        if (coalescingWindowMillis < 0) {
+            throw new IllegalArgumentException("coalescingWindowMillis is negative");
+        }
+        startScan(filters, settings != null ? settings : new ScanSettings.Builder().build(),
+                null, callback, null, executor, coalescingWindowMillis);
+    }
+
     /**
      * Start Bluetooth LE scan using a {@link PendingIntent}. The scan results will be delivered via
      * the PendingIntent. Use this method of scanning if your process is not always running and it
@@ -243,6 +291,14 @@ public final class BluetoothLeScanner {
     private int startScan(List<ScanFilter> filters, ScanSettings settings,
             final WorkSource workSource, final ScanCallback callback,
             final PendingIntent callbackIntent) {
+        return startScan(filters, settings, workSource, callback, callbackIntent, null, 0);
+    }
+
+    @RequiresPermission(android.Manifest.permission.BLUETOOTH_SCAN)
+    private int startScan(List<ScanFilter> filters, ScanSettings settings,
+            final WorkSource workSource, final ScanCallback callback,
+            final PendingIntent callbackIntent, final Executor executor,
+            final long coalescingWindowMillis) {
         BluetoothLeUtils.checkAdapterStateOn(mBluetoothAdapter);
         if (callback == null && callbackIntent == null) {
             throw new IllegalArgumentException("callback is null");
@@ -252,7 +308,7 @@ public final class BluetoothLeScanner {
         }
         synchronized (mLeScanClients) {
             if (callback != null && mLeScanClients.containsKey(callback)) {
-                return postCallbackErrorOrReturn(callback,
+                return postCallbackErrorOrReturn(callback, executor,
                             ScanCallback.SCAN_FAILED_ALREADY_STARTED);
             }
             IBluetoothGatt gatt;
@@ -262,23 +318,24 @@ public final class BluetoothLeScanner {
                 gatt = null;
             }
             if (gatt == null) {
-                return postCallbackErrorOrReturn(callback, ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
+                return postCallbackErrorOrReturn(callback, executor,
+                        ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
             }
             if (!isSettingsConfigAllowedForScan(settings)) {
-                return postCallbackErrorOrReturn(callback,
+                return postCallbackErrorOrReturn(callback, executor,
                         ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED);
             }
             if (!isHardwareResourcesAvailableForScan(settings)) {
-                return postCallbackErrorOrReturn(callback,
+                return postCallbackErrorOrReturn(callback, executor,
                         ScanCallback.SCAN_FAILED_OUT_OF_HARDWARE_RESOURCES);
             }
             if (!isSettingsAndFilterComboAllowed(settings, filters)) {
-                return postCallbackErrorOrReturn(callback,
+                return postCallbackErrorOrReturn(callback, executor,
                         ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED);
             }
             if (callback != null) {
                 BleScanCallbackWrapper wrapper = new BleScanCallbackWrapper(gatt, filters,
-                        settings, workSource, callback);
+                        settings, workSource, callback, executor, coalescingWindowMillis);
                 wrapper.startRegistration();
             } else {
                 try {
@@ -397,7 +454,8 @@ public final class BluetoothLeScanner {
      * Bluetooth GATT interface callbacks
      */
     @SuppressLint("AndroidFrameworkRequiresPermission")
-    private class BleScanCallbackWrapper extends IScannerCallback.Stub {
+    @VisibleForTesting
+    class BleScanCallbackWrapper extends IScannerCallback.Stub {
         private static final int REGISTRATION_CALLBACK_TIMEOUT_MILLIS = 2000;
 
         private final ScanCallback mScanCallback;
@@ -405,6 +463,20 @@ public final class BluetoothLeScanner {
         private final WorkSource mWorkSource;
         private ScanSettings mSettings;
         private IBluetoothGatt mBluetoothGatt;
+        // Null to invoke the callbacks on the main thread through mHandler
+        private final Executor mExecutor;
+        private final long mCoalescingWindowMillis;
+
+        // Results waiting for the end of the coalescing window
+        @GuardedBy("mPendingResults")
+        private final List<ScanResult> mPendingResults = new ArrayList<>();
+        private final Runnable mFlushPendingResults = this::flushPendingResults;
+        // Callbacks in the order they were received, handed to the executor by a single thread
+        // at a time and without holding mPendingResults.
+        @GuardedBy("mPendingResults")
+        private final ArrayDeque<Runnable> mCallbacks = new ArrayDeque<>();
+        @GuardedBy("mPendingResults")
+        private boolean mExecutingCallbacks;
 
         // mLeHandle 0: not registered
         // -2: registration failed because app is scanning to frequently
@@ -414,15 +486,69 @@ public final class BluetoothLeScanner {
 
         public BleScanCallbackWrapper(IBluetoothGatt bluetoothGatt,
                 List<ScanFilter> filters, ScanSettings settings,
-                WorkSource workSource, ScanCallback scanCallback) {
+                WorkSource workSource, ScanCallback scanCallback, Executor executor,
+                long coalescingWindowMillis) {
             mBluetoothGatt = bluetoothGatt;
             mFilters = filters;
             mSettings = settings;
             mWorkSource = workSource;
             mScanCallback = scanCallback;
+            mExecutor = executor;
+            mCoalescingWindowMillis = coalescingWindowMillis;
             mScannerId = 0;
         }
 
+        /**
+         * Hands the queued callbacks to the executor in order. Must be called without holding
+         * mPendingResults, as a direct executor runs the app callback on this thread.
+         */
+        private void executeCallbacks() {
+            synchronized (mPendingResults) {
+                if (mExecutingCallbacks) {
+                    // The thread already executing callbacks will pick up the new ones
+                    return;
+                }
+                mExecutingCallbacks = true;
+            }
+            try {
+                while (true) {
+                    final Runnable callback;
+                    synchronized (mPendingResults) {
+                        callback = mCallbacks.poll();
+                        if (callback == null) {
+                            mExecutingCallbacks = false;
+                            return;
+                        }
+                    }
+                    execute(mExecutor, callback);
+                }
+            } catch (RuntimeException e) {
+                synchronized (mPendingResults) {
+                    mExecutingCallbacks = false;
+                }
+                throw e;
+            }
+        }
+
+        /** Delivers the results collected during the coalescing window, if any. */
+        private void flushPendingResults() {
+            synchronized (mPendingResults) {
+                flushPendingResultsLocked();
+            }
+            executeCallbacks();
+        }
+
+        @GuardedBy("mPendingResults")
+        private void flushPendingResultsLocked() {
+            mHandler.removeCallbacks(mFlushPendingResults);
+            if (mPendingResults.isEmpty()) {
+                return;
+            }
+            final List<ScanResult> results = new ArrayList<>(mPendingResults);
+            mPendingResults.clear();
+            mCallbacks.add(() -> mScanCallback.onBatchScanResults(results));
+        }
+
         public void startRegistration() {
             synchronized (this) {
                 // Scan stopped.
@@ -434,7 +560,8 @@ public final class BluetoothLeScanner {
                     wait(REGISTRATION_CALLBACK_TIMEOUT_MILLIS);
                 } catch (TimeoutException | InterruptedException | RemoteException e) {
                     Log.e(TAG, "application registeration exception", e);
-                    postCallbackError(mScanCallback, ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
+                    postCallbackError(mScanCallback, mExecutor,
+                            ScanCallback.SCAN_FAILED_INTERNAL_ERROR);
                 }
                 if (mScannerId > 0) {
                     mLeScanClients.put(mScanCallback, this);
@@ -446,7 +573,7 @@ public final class BluetoothLeScanner {
                     // If scanning too frequently, don't report anything to the app.
                     if (mScannerId == -2) return;
 
-                    postCallbackError(mScanCallback,
+                    postCallbackError(mScanCallback, mExecutor,
                             ScanCallback.SCAN_FAILED_APPLICATION_REGISTRATION_FAILED);
                 }
             }
@@ -472,6 +599,11 @@ public final class BluetoothLeScanner {
                 }
                 mScannerId = -1;
             }
+            // Results are not delivered once the scan is stopped.
+            synchronized (mPendingResults) {
+                mHandler.removeCallbacks(mFlushPendingResults);
+                mPendingResults.clear();
+            }
         }
 
         @RequiresPermission(android.Manifest.permission.BLUETOOTH_SCAN)
@@ -548,28 +680,35 @@ public final class BluetoothLeScanner {
                     return;
                 };
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
+            if (mCoalescingWindowMillis > 0) {
+                synchronized (mPendingResults) {
+                    mPendingResults.add(scanResult);
+                    if (mPendingResults.size() == 1) {
+                        mHandler.postDelayed(mFlushPendingResults, mCoalescingWindowMillis);
+                    }
+                }
+                return;
+            }
+            synchronized (mPendingResults) {
+                mCallbacks.add(() -> {
                     if (Log.isLoggable(TAG, Log.DEBUG)) {
                         Log.d(TAG, "onScanResult() - handler run");
                     }
-                    mScanCallback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult);
-                }
-            });
+                    mScanCallback.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES,
+                            scanResult);
+                });
+            }
+            executeCallbacks();
         }
 
         @Override
         public void onBatchScanResults(final List<ScanResult> results) {
             Attributable.setAttributionSource(results, mAttributionSource);
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    mScanCallback.onBatchScanResults(results);
-                }
-            });
+            synchronized (mPendingResults) {
+                flushPendingResultsLocked();
+                mCallbacks.add(() -> mScanCallback.onBatchScanResults(results));
+            }
+            executeCallbacks();
         }
 
         @Override
@@ -585,10 +724,9 @@ public final class BluetoothLeScanner {
                     return;
                 }
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
+            synchronized (mPendingResults) {
+                flushPendingResultsLocked();
+                mCallbacks.add(() -> {
                     if (onFound) {
                         mScanCallback.onScanResult(ScanSettings.CALLBACK_TYPE_FIRST_MATCH,
                                 scanResult);
@@ -596,8 +734,9 @@ public final class BluetoothLeScanner {
                         mScanCallback.onScanResult(ScanSettings.CALLBACK_TYPE_MATCH_LOST,
                                 scanResult);
                     }
-                }
-            });
+                });
+            }
+            executeCallbacks();
         }
 
         @Override
@@ -610,22 +749,24 @@ public final class BluetoothLeScanner {
                     return;
                 }
             }
-            postCallbackError(mScanCallback, errorCode);
+            postCallbackError(mScanCallback, mExecutor, errorCode);
         }
     }
 
-    private int postCallbackErrorOrReturn(final ScanCallback callback, final int errorCode) {
+    private int postCallbackErrorOrReturn(final ScanCallback callback, final Executor executor,
+            final int errorCode) {
         if (callback == null) {
             return errorCode;
         } else {
-            postCallbackError(callback, errorCode);
+            postCallbackError(callback, executor, errorCode);
             return ScanCallback.NO_ERROR;
         }
     }
 
     @SuppressLint("AndroidFrameworkBluetoothPermission")
-    private void postCallbackError(final ScanCallback callback, final int errorCode) {
-        mHandler.post(new Runnable() {
+    private void postCallbackError(final ScanCallback callback, final Executor executor,
+            final int errorCode) {
+        execute(executor, new Runnable() {
             @Override
             public void run() {
                 callback.onScanFailed(errorCode);
@@ -633,6 +774,20 @@ public final class BluetoothLeScanner {
         });
     }
 
+    /** Runs a callback on {@code executor}, or on the main thread if it is null. */
+    private void execute(Executor executor, Runnable runnable) {
+        if (executor == null) {
+            mHandler.post(runnable);
+            return;
+        }
+        final long identity = Binder.clearCallingIdentity();
+        try {
+            executor.execute(runnable);
+        } finally {
+            Binder.restoreCallingIdentity(identity);
+        }
+    }
+
     private boolean isSettingsConfigAllowedForScan(ScanSettings settings) {
         if (mBluetoothAdapter.isOffloadedFilteringSupported()) {
             return true;
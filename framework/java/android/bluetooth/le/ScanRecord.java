@@ -458,6 +458,39 @@ public final class ScanRecord {
         return false;
     }
 
+    /**
+     * Finds the last AD structure of type {@code fieldType} in raw scan record bytes, without
+     * decoding or copying them.
+     *
+     * @param manufacturerId if not negative, only matches structures whose data starts with this
+     * little endian 16 bit manufacturer id, which is then not part of the returned data
+     * @return the offset of the data in {@code scanRecord} in the upper 32 bits and its length in
+     * the lower 32 bits, or -1 if there is no such structure
+     * @hide
+     */
+    static long findField(byte[] scanRecord, int fieldType, int manufacturerId) {
+        long found = -1;
+        int currentPos = 0;
+        while (currentPos < scanRecord.length) {
+            int length = scanRecord[currentPos] & 0xFF;
+            if (length == 0 || currentPos + 1 + length > scanRecord.length) {
+                break;
+            }
+            int dataPos = currentPos + 2;
+            int dataLength = length - 1;
+            if ((scanRecord[currentPos + 1] & 0xFF) == fieldType) {
+                if (manufacturerId < 0) {
+                    found = ((long) dataPos << 32) | dataLength;
+                } else if (dataLength >= 2 && (((scanRecord[dataPos + 1] & 0xFF) << 8)
+                        + (scanRecord[dataPos] & 0xFF)) == manufacturerId) {
+                    found = ((long) (dataPos + 2) << 32) | (dataLength - 2);
+                }
+            }
+            currentPos += length + 1;
+        }
+        return found;
+    }
+
     private ScanRecord(List<ParcelUuid> serviceUuids,
             List<ParcelUuid> serviceSolicitationUuids,
             SparseArray<byte[]> manufacturerData,
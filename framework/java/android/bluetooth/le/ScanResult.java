@@ -24,10 +24,15 @@ import android.content.AttributionSource;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
  * ScanResult for Bluetooth LE scan.
+ *
+ * <p>Two scan results are equal if their scan records have the same content, as returned by
+ * {@link ScanRecord#getBytes()}, and their other fields are equal. The {@link ScanRecord}
+ * instances themselves are not compared.
  */
 public final class ScanResult implements Parcelable, Attributable {
 
@@ -77,9 +82,16 @@ public final class ScanResult implements Parcelable, Attributable {
     // Remote Bluetooth device.
     private BluetoothDevice mDevice;
 
-    // Scan record, including advertising data and scan response data.
+    // Raw bytes of the scan record, including advertising data and scan response data.
+    @Nullable
+    private byte[] mScanRecordBytes;
+
+    // Scan record decoded from mScanRecordBytes on first use, as most results crossing binder
+    // are only looked at for their device and RSSI.
     @Nullable
-    private ScanRecord mScanRecord;
+    private volatile ScanRecord mScanRecord;
+    // Guards decoding mScanRecord, as apps may synchronize on the result itself.
+    private final Object mScanRecordLock = new Object();
 
     // Received signal strength.
     private int mRssi;
@@ -109,6 +121,7 @@ public final class ScanResult implements Parcelable, Attributable {
             long timestampNanos) {
         mDevice = device;
         mScanRecord = scanRecord;
+        mScanRecordBytes = scanRecord != null ? scanRecord.getBytes() : null;
         mRssi = rssi;
         mTimestampNanos = timestampNanos;
         mEventType = (DATA_COMPLETE << 5) | ET_LEGACY_MASK | ET_CONNECTABLE_MASK;
@@ -145,6 +158,7 @@ public final class ScanResult implements Parcelable, Attributable {
         mRssi = rssi;
         mPeriodicAdvertisingInterval = periodicAdvertisingInterval;
         mScanRecord = scanRecord;
+        mScanRecordBytes = scanRecord != null ? scanRecord.getBytes() : null;
         mTimestampNanos = timestampNanos;
     }
 
@@ -160,9 +174,9 @@ public final class ScanResult implements Parcelable, Attributable {
         } else {
             dest.writeInt(0);
         }
-        if (mScanRecord != null) {
+        if (mScanRecordBytes != null) {
             dest.writeInt(1);
-            dest.writeByteArray(mScanRecord.getBytes());
+            dest.writeByteArray(mScanRecordBytes);
         } else {
             dest.writeInt(0);
         }
@@ -181,7 +195,7 @@ public final class ScanResult implements Parcelable, Attributable {
             mDevice = BluetoothDevice.CREATOR.createFromParcel(in);
         }
         if (in.readInt() == 1) {
-            mScanRecord = ScanRecord.parseFromBytes(in.createByteArray());
+            mScanRecordBytes = in.createByteArray();
         }
         mRssi = in.readInt();
         mTimestampNanos = in.readLong();
@@ -215,7 +229,67 @@ public final class ScanResult implements Parcelable, Attributable {
      */
     @Nullable
     public ScanRecord getScanRecord() {
-        return mScanRecord;
+        ScanRecord scanRecord = mScanRecord;
+        if (scanRecord == null && mScanRecordBytes != null) {
+            synchronized (mScanRecordLock) {
+                scanRecord = mScanRecord;
+                if (scanRecord == null) {
+                    scanRecord = ScanRecord.parseFromBytes(mScanRecordBytes);
+                    mScanRecord = scanRecord;
+                }
+            }
+        }
+        return scanRecord;
+    }
+
+    /**
+     * Copies the data of an advertising data structure of the scan record into {@code buffer},
+     * without decoding the scan record. If the scan record has several structures of that type,
+     * the last one is copied, as with {@link ScanRecord#getAdvertisingDataMap()}.
+     *
+     * @param type the advertising data type, one of the {@code DATA_TYPE_} constants of
+     * {@link ScanRecord}
+     * @param buffer the buffer to copy the data to. If it is smaller than the data, only the
+     * beginning of the data is copied.
+     * @return the length of the data, which may be larger than {@code buffer}, or -1 if the scan
+     * record has no such structure
+     */
+    public int copyAdvertisingData(@ScanRecord.AdvertisingDataType int type,
+            @NonNull byte[] buffer) {
+        return copyField(type, -1, buffer);
+    }
+
+    /**
+     * Copies the manufacturer specific data associated with {@code manufacturerId} into
+     * {@code buffer}, without decoding the scan record. This is the data returned by
+     * {@link ScanRecord#getManufacturerSpecificData(int)}.
+     *
+     * @param manufacturerId the 16 bit company identifier of the manufacturer
+     * @param buffer the buffer to copy the data to. If it is smaller than the data, only the
+     * beginning of the data is copied.
+     * @return the length of the data, which may be larger than {@code buffer}, or -1 if the scan
+     * record has no data for this manufacturer
+     */
+    public int copyManufacturerSpecificData(int manufacturerId, @NonNull byte[] buffer) {
+        if (manufacturerId < 0 || manufacturerId > 0xFFFF) {
+            return -1;
+        }
+        return copyField(ScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA, manufacturerId, buffer);
+    }
+
+    private int copyField(int type, int manufacturerId, byte[] buffer) {
+        Objects.requireNonNull(buffer, "buffer cannot be null");
+        if (mScanRecordBytes == null) {
+            return -1;
+        }
+        long field = ScanRecord.findField(mScanRecordBytes, type, manufacturerId);
+        if (field < 0) {
+            return -1;
+        }
+        int offset = (int) (field >>> 32);
+        int length = (int) field;
+        System.arraycopy(mScanRecordBytes, offset, buffer, 0, Math.min(length, buffer.length));
+        return length;
     }
 
     /**
@@ -310,7 +384,7 @@ public final class ScanResult implements Parcelable, Attributable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(mDevice, mRssi, mScanRecord, mTimestampNanos,
+        return Objects.hash(mDevice, mRssi, Arrays.hashCode(mScanRecordBytes), mTimestampNanos,
                 mEventType, mPrimaryPhy, mSecondaryPhy,
                 mAdvertisingSid, mTxPower,
                 mPeriodicAdvertisingInterval);
@@ -326,7 +400,7 @@ public final class ScanResult implements Parcelable, Attributable {
         }
         ScanResult other = (ScanResult) obj;
         return Objects.equals(mDevice, other.mDevice) && (mRssi == other.mRssi)
-                && Objects.equals(mScanRecord, other.mScanRecord)
+                && Arrays.equals(mScanRecordBytes, other.mScanRecordBytes)
                 && (mTimestampNanos == other.mTimestampNanos)
                 && mEventType == other.mEventType
                 && mPrimaryPhy == other.mPrimaryPhy
@@ -339,7 +413,7 @@ public final class ScanResult implements Parcelable, Attributable {
     @Override
     public String toString() {
         return "ScanResult{" + "device=" + mDevice + ", scanRecord="
-                + Objects.toString(mScanRecord) + ", rssi=" + mRssi
+                + Objects.toString(getScanRecord()) + ", rssi=" + mRssi
                 + ", timestampNanos=" + mTimestampNanos + ", eventType=" + mEventType
                 + ", primaryPhy=" + mPrimaryPhy + ", secondaryPhy=" + mSecondaryPhy
                 + ", advertisingSid=" + mAdvertisingSid + ", txPower=" + mTxPower
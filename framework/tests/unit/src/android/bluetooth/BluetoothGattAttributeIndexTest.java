@@ -0,0 +1,177 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import android.content.AttributionSource;
+import android.os.ParcelUuid;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.modules.utils.SynchronousResultReceiver;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Unit test cases for the lookup of attributes by handle in {@link BluetoothGatt}.
+ */
+public class BluetoothGattAttributeIndexTest extends TestCase {
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final int CLIENT_IF = 1;
+    // Each service takes 10 handles: its declaration, then 3 characteristics with a declaration,
+    // a value and a client characteristic configuration descriptor.
+    private static final int SERVICES = 30;
+    private static final int CHARACTERISTICS_PER_SERVICE = 3;
+    private static final int HANDLES_PER_SERVICE = 1 + 3 * CHARACTERISTICS_PER_SERVICE;
+    private static final byte[] VALUE = new byte[] {1, 2, 3};
+
+    private IBluetoothGattCallback mGattCallback;
+    private BluetoothGatt mGatt;
+    private final List<BluetoothGattCharacteristic> mChanged = new ArrayList<>();
+
+    private class FakeGattService extends IBluetoothGatt.Default {
+        @Override
+        public void registerClient(ParcelUuid appId, IBluetoothGattCallback callback,
+                boolean eattSupport, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            mGattCallback = callback;
+            receiver.send(null);
+        }
+
+        @Override
+        public void clientConnect(int clientIf, String address, boolean isDirect, int transport,
+                boolean opportunistic, int phy, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            receiver.send(null);
+        }
+
+        @Override
+        public void discoverServices(int clientIf, String address,
+                AttributionSource attributionSource, SynchronousResultReceiver receiver) {
+            receiver.send(null);
+        }
+    }
+
+    private final BluetoothGattCallback mCallback = new BluetoothGattCallback() {
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt,
+                BluetoothGattCharacteristic characteristic, byte[] value) {
+            mChanged.add(characteristic);
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(ADDRESS);
+        mGatt = new BluetoothGatt(new FakeGattService(), device, BluetoothDevice.TRANSPORT_LE,
+                false, BluetoothDevice.PHY_LE_1M_MASK, null);
+        assertTrue(mGatt.connect(false, mCallback, null));
+        mGattCallback.onClientRegistered(BluetoothGatt.GATT_SUCCESS, CLIENT_IF);
+        mGattCallback.onClientConnectionState(BluetoothGatt.GATT_SUCCESS, CLIENT_IF, true,
+                ADDRESS);
+    }
+
+    /** Builds a database of {@code services * HANDLES_PER_SERVICE} attributes. */
+    private static List<BluetoothGattService> buildDatabase(int services) {
+        List<BluetoothGattService> database = new ArrayList<>();
+        int handle = 1;
+        for (int i = 0; i < services; i++) {
+            BluetoothGattService service = new BluetoothGattService(UUID.randomUUID(), handle++,
+                    BluetoothGattService.SERVICE_TYPE_PRIMARY);
+            for (int j = 0; j < CHARACTERISTICS_PER_SERVICE; j++) {
+                handle++; // characteristic declaration
+                BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(
+                        UUID.randomUUID(), handle++, BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                        BluetoothGattCharacteristic.PERMISSION_READ);
+                characteristic.addDescriptor(new BluetoothGattDescriptor(
+                        UUID.randomUUID(), handle++, BluetoothGattDescriptor.PERMISSION_WRITE));
+                service.addCharacteristic(characteristic);
+            }
+            database.add(service);
+        }
+        return database;
+    }
+
+    private static int lastCharacteristicHandle(List<BluetoothGattService> database) {
+        List<BluetoothGattCharacteristic> characteristics =
+                database.get(database.size() - 1).getCharacteristics();
+        return characteristics.get(characteristics.size() - 1).getInstanceId();
+    }
+
+    /** The lookup walking the whole database, as done before the index. */
+    private static BluetoothGattCharacteristic findByWalk(List<BluetoothGattService> database,
+            int handle) {
+        for (BluetoothGattService svc : database) {
+            for (BluetoothGattCharacteristic charac : svc.getCharacteristics()) {
+                if (charac.getInstanceId() == handle) {
+                    return charac;
+                }
+            }
+        }
+        return null;
+    }
+
+    @SmallTest
+    public void testLookup_findsEveryAttribute() throws Exception {
+        List<BluetoothGattService> database = buildDatabase(SERVICES);
+        mGattCallback.onSearchComplete(ADDRESS, database, BluetoothGatt.GATT_SUCCESS);
+
+        for (BluetoothGattService service : database) {
+            assertNull(mGatt.getCharacteristicById(null, service.getInstanceId()));
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                assertSame(characteristic,
+                        mGatt.getCharacteristicById(null, characteristic.getInstanceId()));
+                BluetoothGattDescriptor descriptor = characteristic.getDescriptors().get(0);
+                assertSame(descriptor, mGatt.getDescriptorById(null, descriptor.getInstanceId()));
+                assertNull(mGatt.getCharacteristicById(null, descriptor.getInstanceId()));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testServiceChanged_rebuildsLookupAfterDiscovery() throws Exception {
+        List<BluetoothGattService> database = buildDatabase(1);
+        mGattCallback.onSearchComplete(ADDRESS, database, BluetoothGatt.GATT_SUCCESS);
+        int handle = lastCharacteristicHandle(database);
+        mGattCallback.onNotify(ADDRESS, handle, VALUE);
+
+        mGattCallback.onServiceChanged(ADDRESS);
+        assertTrue(mGatt.discoverServices());
+        List<BluetoothGattService> changedDatabase = buildDatabase(1);
+        mGattCallback.onSearchComplete(ADDRESS, changedDatabase, BluetoothGatt.GATT_SUCCESS);
+        mGattCallback.onNotify(ADDRESS, handle, VALUE);
+
+        assertEquals(2, mChanged.size());
+        assertSame(findByWalk(database, handle), mChanged.get(0));
+        assertSame(findByWalk(changedDatabase, handle), mChanged.get(1));
+    }
+
+    @SmallTest
+    public void testServiceChanged_looksUpAttributesUntilDiscovery() throws Exception {
+        List<BluetoothGattService> database = buildDatabase(SERVICES);
+        mGattCallback.onSearchComplete(ADDRESS, database, BluetoothGatt.GATT_SUCCESS);
+        int handle = lastCharacteristicHandle(database);
+
+        mGattCallback.onServiceChanged(ADDRESS);
+        mGattCallback.onNotify(ADDRESS, handle, VALUE);
+
+        assertEquals(1, mChanged.size());
+        assertSame(findByWalk(database, handle), mChanged.get(0));
+    }
+}
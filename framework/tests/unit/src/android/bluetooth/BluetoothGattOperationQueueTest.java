@@ -0,0 +1,300 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import android.content.AttributionSource;
+import android.os.ParcelUuid;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.android.modules.utils.SynchronousResultReceiver;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Unit test cases for the operation queue of {@link BluetoothGatt}, run against a fake
+ * {@link IBluetoothGatt} that completes a fixed number of packets per connection event.
+ */
+public class BluetoothGattOperationQueueTest extends TestCase {
+    private static final String TAG = "BluetoothGattOperationQueueTest";
+
+    private static final String ADDRESS = "00:01:02:03:04:05";
+    private static final int CLIENT_IF = 1;
+    private static final int CHARACTERISTIC_HANDLE = 3;
+    private static final int PACKETS_PER_EVENT = 4;
+    private static final int WRITES = 60;
+    private static final byte[] VALUE = new byte[] {1, 2, 3};
+
+    private FakeGattService mFakeService;
+    private RecordingCallback mCallback;
+    private BluetoothGatt mGatt;
+    private BluetoothGattCharacteristic mCharacteristic;
+
+    /**
+     * Emulates the Bluetooth stack and the remote device. Operations sent by the client are
+     * completed at the next connection event, up to {@link #PACKETS_PER_EVENT} of them. Like the
+     * native stack, it accepts operations while others are still pending.
+     */
+    private static class FakeGattService extends IBluetoothGatt.Default {
+        final ArrayDeque<String> mPending = new ArrayDeque<>();
+        final List<String> mSent = new ArrayList<>();
+        final List<byte[]> mWrittenValues = new ArrayList<>();
+        IBluetoothGattCallback mGattCallback;
+        int mEvents = 0;
+        // Runs instead of accepting the next write, which is then rejected as busy
+        Runnable mRejectNextWrite;
+
+        @Override
+        public void registerClient(ParcelUuid appId, IBluetoothGattCallback callback,
+                boolean eattSupport, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            mGattCallback = callback;
+            receiver.send(null);
+        }
+
+        @Override
+        public void clientConnect(int clientIf, String address, boolean isDirect, int transport,
+                boolean opportunistic, int phy, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            receiver.send(null);
+        }
+
+        @Override
+        public void readCharacteristic(int clientIf, String address, int handle, int authReq,
+                AttributionSource attributionSource, SynchronousResultReceiver receiver) {
+            send("read");
+            receiver.send(null);
+        }
+
+        @Override
+        public void writeCharacteristic(int clientIf, String address, int handle, int writeType,
+                int authReq, byte[] value, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            if (mRejectNextWrite != null) {
+                Runnable rejectNextWrite = mRejectNextWrite;
+                mRejectNextWrite = null;
+                rejectNextWrite.run();
+                receiver.send(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY);
+                return;
+            }
+            send(writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                    ? "writeNoResponse" : "write");
+            mWrittenValues.add(value);
+            receiver.send(BluetoothStatusCodes.SUCCESS);
+        }
+
+        private void send(String operation) {
+            mSent.add(operation);
+            mPending.add(operation);
+        }
+
+        /** Completes the operations sent before this connection event. */
+        void runConnectionEvent() throws Exception {
+            mEvents++;
+            List<String> completed = new ArrayList<>();
+            while (completed.size() < PACKETS_PER_EVENT && !mPending.isEmpty()) {
+                completed.add(mPending.poll());
+            }
+            // Operations sent from the callbacks go out at the next connection event
+            for (String operation : completed) {
+                if (operation.equals("read")) {
+                    mGattCallback.onCharacteristicRead(ADDRESS, BluetoothGatt.GATT_SUCCESS,
+                            CHARACTERISTIC_HANDLE, VALUE);
+                } else {
+                    mGattCallback.onCharacteristicWrite(ADDRESS, BluetoothGatt.GATT_SUCCESS,
+                            CHARACTERISTIC_HANDLE, VALUE);
+                }
+            }
+        }
+    }
+
+    private static class RecordingCallback extends BluetoothGattCallback {
+        final List<String> mCompleted = new ArrayList<>();
+        Runnable mOnWrite;
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                BluetoothGattCharacteristic characteristic, byte[] value, int status) {
+            mCompleted.add("read:" + status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                BluetoothGattCharacteristic characteristic, int status) {
+            mCompleted.add("write:" + status);
+            if (mOnWrite != null) {
+                mOnWrite.run();
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mFakeService = new FakeGattService();
+        mCallback = new RecordingCallback();
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(ADDRESS);
+        mGatt = new BluetoothGatt(mFakeService, device, BluetoothDevice.TRANSPORT_LE, false,
+                BluetoothDevice.PHY_LE_1M_MASK, null);
+        assertTrue(mGatt.connect(false, mCallback, null));
+
+        IBluetoothGattCallback gattCallback = mFakeService.mGattCallback;
+        gattCallback.onClientRegistered(BluetoothGatt.GATT_SUCCESS, CLIENT_IF);
+        gattCallback.onClientConnectionState(BluetoothGatt.GATT_SUCCESS, CLIENT_IF, true, ADDRESS);
+
+        BluetoothGattService service = new BluetoothGattService(UUID.randomUUID(), 1,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        mCharacteristic = new BluetoothGattCharacteristic(UUID.randomUUID(),
+                CHARACTERISTIC_HANDLE,
+                BluetoothGattCharacteristic.PROPERTY_READ
+                        | BluetoothGattCharacteristic.PROPERTY_WRITE
+                        | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
+                BluetoothGattCharacteristic.PERMISSION_READ
+                        | BluetoothGattCharacteristic.PERMISSION_WRITE);
+        service.addCharacteristic(mCharacteristic);
+        List<BluetoothGattService> services = new ArrayList<>();
+        services.add(service);
+        gattCallback.onSearchComplete(ADDRESS, services, BluetoothGatt.GATT_SUCCESS);
+    }
+
+    /** Enables the queue, sending the operations on the calling thread. */
+    private void enableQueue() {
+        mGatt.setOperationQueueEnabled(true);
+        mGatt.setOperationExecutor(Runnable::run);
+    }
+
+    private int writeWithoutResponse() {
+        return mGatt.writeCharacteristic(mCharacteristic, VALUE,
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+    }
+
+    private int runUntilWritesCompleted(int writes) throws Exception {
+        while (mCallback.mCompleted.size() < writes) {
+            mFakeService.runConnectionEvent();
+            assertTrue("Writes not completed", mFakeService.mEvents <= writes);
+        }
+        return mFakeService.mEvents;
+    }
+
+    @SmallTest
+    public void testWithoutQueue_rejectsOperationsWhileBusy() {
+        assertTrue(mGatt.readCharacteristic(mCharacteristic));
+
+        assertFalse(mGatt.readCharacteristic(mCharacteristic));
+        assertEquals(BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY, writeWithoutResponse());
+    }
+
+    @SmallTest
+    public void testQueue_sendsOperationsInOrderOneAtATime() throws Exception {
+        enableQueue();
+
+        assertTrue(mGatt.readCharacteristic(mCharacteristic));
+        assertEquals(BluetoothStatusCodes.SUCCESS, mGatt.writeCharacteristic(mCharacteristic,
+                VALUE, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        assertEquals(BluetoothStatusCodes.SUCCESS, writeWithoutResponse());
+        assertTrue(mGatt.readCharacteristic(mCharacteristic));
+        assertEquals(1, mFakeService.mSent.size());
+
+        for (int i = 0; i < 4; i++) {
+            mFakeService.runConnectionEvent();
+        }
+
+        assertEquals(List.of("read", "write", "writeNoResponse", "read"), mFakeService.mSent);
+        assertEquals(List.of("read:0", "write:0", "write:0", "read:0"), mCallback.mCompleted);
+    }
+
+    @SmallTest
+    public void testQueue_resendsWriteRejectedWhileLastWriteInFlightCompletes() throws Exception {
+        enableQueue();
+        mGatt.setMaxWritesWithoutResponseInFlight(2);
+        assertEquals(BluetoothStatusCodes.SUCCESS, writeWithoutResponse());
+        // The write in flight completes while the next one is being sent, which the stack
+        // rejects as busy as it has not yet processed the completion
+        mFakeService.mRejectNextWrite = () -> {
+            try {
+                mFakeService.runConnectionEvent();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+
+        assertEquals(BluetoothStatusCodes.SUCCESS, writeWithoutResponse());
+
+        assertEquals(List.of("writeNoResponse", "writeNoResponse"), mFakeService.mSent);
+        mFakeService.runConnectionEvent();
+        assertEquals(List.of("write:0", "write:0"), mCallback.mCompleted);
+    }
+
+    @SmallTest
+    public void testQueue_resendsQueuedValueOnAuthenticationRetry() throws Exception {
+        enableQueue();
+        assertEquals(BluetoothStatusCodes.SUCCESS, mGatt.writeCharacteristic(mCharacteristic,
+                VALUE, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        assertEquals(BluetoothStatusCodes.SUCCESS, writeWithoutResponse());
+
+        mFakeService.mPending.clear();
+        mFakeService.mGattCallback.onCharacteristicWrite(ADDRESS,
+                BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION, CHARACTERISTIC_HANDLE,
+                new byte[0]);
+
+        // The write is sent again with its value, and the queue waits for its completion
+        assertEquals(List.of("write", "write"), mFakeService.mSent);
+        assertTrue(Arrays.equals(VALUE, mFakeService.mWrittenValues.get(1)));
+        assertTrue(mCallback.mCompleted.isEmpty());
+        mFakeService.runConnectionEvent();
+        mFakeService.runConnectionEvent();
+        assertEquals(List.of("write", "write", "writeNoResponse"), mFakeService.mSent);
+        assertEquals(List.of("write:0", "write:0"), mCallback.mCompleted);
+    }
+
+    /**
+     * Writes a stream of values without response, first one at a time from the write callback
+     * as apps do without the queue, then through the queue with several writes in flight.
+     */
+    @SmallTest
+    public void testQueue_writesWithoutResponseThroughput() throws Exception {
+        int[] written = {1};
+        mCallback.mOnWrite = () -> {
+            if (written[0] < WRITES) {
+                written[0]++;
+                assertEquals(BluetoothStatusCodes.SUCCESS, writeWithoutResponse());
+            }
+        };
+        assertEquals(BluetoothStatusCodes.SUCCESS, writeWithoutResponse());
+        int eventsWithoutQueue = runUntilWritesCompleted(WRITES);
+
+        mCallback.mOnWrite = null;
+        mCallback.mCompleted.clear();
+        mFakeService.mEvents = 0;
+        enableQueue();
+        mGatt.setMaxWritesWithoutResponseInFlight(PACKETS_PER_EVENT);
+        for (int i = 0; i < WRITES; i++) {
+            assertEquals(BluetoothStatusCodes.SUCCESS, writeWithoutResponse());
+        }
+        int eventsWithQueue = runUntilWritesCompleted(WRITES);
+
+        Log.i(TAG, "Connection events for " + WRITES + " writes: without queue="
+                + eventsWithoutQueue + " with queue=" + eventsWithQueue);
+        assertEquals(WRITES, eventsWithoutQueue);
+        assertEquals(WRITES / PACKETS_PER_EVENT, eventsWithQueue);
+    }
+}
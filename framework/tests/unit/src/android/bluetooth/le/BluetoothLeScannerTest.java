@@ -0,0 +1,214 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth.le;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.IBluetoothGatt;
+import android.bluetooth.le.BluetoothLeScanner.BleScanCallbackWrapper;
+import android.content.AttributionSource;
+import android.os.Looper;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.util.HexDump;
+import com.android.modules.utils.SynchronousResultReceiver;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test cases for the delivery of scan results by {@link BluetoothLeScanner}, driving the
+ * callbacks of the stack directly.
+ */
+public class BluetoothLeScannerTest extends TestCase {
+    private static final int SCANNER_ID = 1;
+    private static final long SHORT_WINDOW_MILLIS = 50;
+    private static final long LONG_WINDOW_MILLIS = 60000;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static final String RECORD_IBEACON =
+            "0201061AFF4C000215426C7565436861726D426561636F6E730EFE1355C5091"
+            + "68020691E0EFE13551109426C7565436861726D5F31363936383500000000";
+
+    private BluetoothLeScanner mScanner;
+    private RecordingCallback mCallback;
+    private final List<Thread> mCallbackThreads = new ArrayList<>();
+    private final Executor mExecutor = runnable -> {
+        synchronized (mCallbackThreads) {
+            mCallbackThreads.add(Thread.currentThread());
+        }
+        runnable.run();
+    };
+
+    private static class FakeGattService extends IBluetoothGatt.Default {
+        @Override
+        public void startScan(int scannerId, ScanSettings settings, List<ScanFilter> filters,
+                AttributionSource attributionSource, SynchronousResultReceiver receiver) {
+            receiver.send(null);
+        }
+
+        @Override
+        public void stopScan(int scannerId, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            receiver.send(null);
+        }
+
+        @Override
+        public void unregisterScanner(int scannerId, AttributionSource attributionSource,
+                SynchronousResultReceiver receiver) {
+            receiver.send(null);
+        }
+    }
+
+    private static class RecordingCallback extends ScanCallback {
+        final List<String> mEvents = new ArrayList<>();
+        final CountDownLatch mBatchLatch = new CountDownLatch(1);
+        Runnable mOnScanResult;
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            synchronized (this) {
+                mEvents.add("result:" + callbackType);
+            }
+            if (mOnScanResult != null) {
+                mOnScanResult.run();
+            }
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            synchronized (this) {
+                mEvents.add("batch:" + results.size());
+            }
+            mBatchLatch.countDown();
+        }
+
+        synchronized List<String> events() {
+            return new ArrayList<>(mEvents);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mScanner = new BluetoothLeScanner(BluetoothAdapter.getDefaultAdapter());
+        mCallback = new RecordingCallback();
+    }
+
+    private BleScanCallbackWrapper startScan(long coalescingWindowMillis) {
+        BleScanCallbackWrapper wrapper = mScanner.new BleScanCallbackWrapper(
+                new FakeGattService(), null, new ScanSettings.Builder().build(), null, mCallback,
+                mExecutor, coalescingWindowMillis);
+        wrapper.onScannerRegistered(BluetoothGatt.GATT_SUCCESS, SCANNER_ID);
+        return wrapper;
+    }
+
+    private static ScanResult newScanResult() {
+        return new ScanResult(null, 0x1b, 1, 0, ScanResult.SID_NOT_PRESENT,
+                ScanResult.TX_POWER_NOT_PRESENT, -60, 0,
+                ScanRecord.parseFromBytes(HexDump.hexStringToByteArray(RECORD_IBEACON)), 1234);
+    }
+
+    @SmallTest
+    public void testWithoutWindow_deliversEachResultOnExecutor() {
+        BleScanCallbackWrapper wrapper = startScan(0);
+
+        wrapper.onScanResult(newScanResult());
+        wrapper.onScanResult(newScanResult());
+
+        String allMatches = "result:" + ScanSettings.CALLBACK_TYPE_ALL_MATCHES;
+        assertEquals(List.of(allMatches, allMatches), mCallback.events());
+        assertEquals(List.of(Thread.currentThread(), Thread.currentThread()), mCallbackThreads);
+    }
+
+    @SmallTest
+    public void testWindow_flushesResultsAsOneBatch() throws Exception {
+        BleScanCallbackWrapper wrapper = startScan(SHORT_WINDOW_MILLIS);
+
+        wrapper.onScanResult(newScanResult());
+        wrapper.onScanResult(newScanResult());
+        wrapper.onScanResult(newScanResult());
+
+        assertTrue(mCallback.mBatchLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(List.of("batch:3"), mCallback.events());
+        assertEquals(List.of(Looper.getMainLooper().getThread()), mCallbackThreads);
+    }
+
+    @SmallTest
+    public void testWindow_flushesBeforeFound() {
+        BleScanCallbackWrapper wrapper = startScan(LONG_WINDOW_MILLIS);
+
+        wrapper.onScanResult(newScanResult());
+        wrapper.onScanResult(newScanResult());
+        wrapper.onFoundOrLost(true, newScanResult());
+
+        assertEquals(List.of("batch:2", "result:" + ScanSettings.CALLBACK_TYPE_FIRST_MATCH),
+                mCallback.events());
+        wrapper.stopLeScan();
+    }
+
+    @SmallTest
+    public void testWindow_flushesBeforeLost() {
+        BleScanCallbackWrapper wrapper = startScan(LONG_WINDOW_MILLIS);
+
+        wrapper.onScanResult(newScanResult());
+        wrapper.onFoundOrLost(false, newScanResult());
+        wrapper.onScanResult(newScanResult());
+        wrapper.onFoundOrLost(false, newScanResult());
+
+        String lost = "result:" + ScanSettings.CALLBACK_TYPE_MATCH_LOST;
+        assertEquals(List.of("batch:1", lost, "batch:1", lost), mCallback.events());
+        wrapper.stopLeScan();
+    }
+
+    @SmallTest
+    public void testDirectExecutor_callbackCanWaitForStopOnAnotherThread() throws Exception {
+        BleScanCallbackWrapper wrapper = startScan(0);
+        boolean[] stopped = {false};
+        mCallback.mOnScanResult = () -> {
+            Thread stopThread = new Thread(wrapper::stopLeScan);
+            stopThread.start();
+            try {
+                stopThread.join(TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stopped[0] = !stopThread.isAlive();
+        };
+
+        wrapper.onScanResult(newScanResult());
+
+        assertTrue("stopLeScan blocked behind the scan callback", stopped[0]);
+    }
+
+    @SmallTest
+    public void testStop_dropsPendingResults() throws Exception {
+        BleScanCallbackWrapper wrapper = startScan(SHORT_WINDOW_MILLIS);
+
+        wrapper.onScanResult(newScanResult());
+        wrapper.stopLeScan();
+        wrapper.onScanResult(newScanResult());
+
+        assertFalse(mCallback.mBatchLatch.await(SHORT_WINDOW_MILLIS * 4,
+                TimeUnit.MILLISECONDS));
+        assertTrue(mCallback.events().isEmpty());
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth.le;
+
+import android.os.Debug;
+import android.os.Parcel;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.android.internal.util.HexDump;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Unit test cases for {@link ScanResult}.
+ */
+public class ScanResultTest extends TestCase {
+    private static final String TAG = "ScanResultTest";
+
+    // iBeacon from ScanRecordTest, with 23 bytes of manufacturer data for Apple (0x004C)
+    private static final String RECORD_IBEACON =
+            "0201061AFF4C000215426C7565436861726D426561636F6E730EFE1355C5091"
+            + "68020691E0EFE13551109426C7565436861726D5F31363936383500000000";
+    private static final int APPLE_ID = 0x004C;
+
+    private static final int BENCHMARK_RESULTS = 100;
+
+    private static ScanResult newScanResult() {
+        return new ScanResult(null, 0x1b, 1, 0, ScanResult.SID_NOT_PRESENT,
+                ScanResult.TX_POWER_NOT_PRESENT, -60, 0,
+                ScanRecord.parseFromBytes(HexDump.hexStringToByteArray(RECORD_IBEACON)), 1234);
+    }
+
+    private static ScanResult parcelAndUnparcel(ScanResult result) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            result.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return ScanResult.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @SmallTest
+    public void testParcel_decodesScanRecordOnAccess() {
+        ScanResult result = newScanResult();
+
+        ScanResult unparceled = parcelAndUnparcel(result);
+
+        assertEquals(result, unparceled);
+        assertEquals(result.hashCode(), unparceled.hashCode());
+        ScanRecord scanRecord = unparceled.getScanRecord();
+        assertNotNull(scanRecord);
+        assertSame(scanRecord, unparceled.getScanRecord());
+        assertTrue(Arrays.equals(result.getScanRecord().getBytes(), scanRecord.getBytes()));
+        assertTrue(Arrays.equals(result.getScanRecord().getManufacturerSpecificData(APPLE_ID),
+                scanRecord.getManufacturerSpecificData(APPLE_ID)));
+    }
+
+    @SmallTest
+    public void testParcel_withoutScanRecord() {
+        ScanResult result = new ScanResult(null, null, -60, 1234);
+
+        ScanResult unparceled = parcelAndUnparcel(result);
+
+        assertNull(unparceled.getScanRecord());
+        assertEquals(-1, unparceled.copyAdvertisingData(ScanRecord.DATA_TYPE_FLAGS, new byte[1]));
+    }
+
+    @SmallTest
+    public void testEquals_comparesScanRecordContent() {
+        ScanResult result = newScanResult();
+        ScanResult sameContent = newScanResult();
+
+        assertNotSame(result.getScanRecord(), sameContent.getScanRecord());
+        assertEquals(result, sameContent);
+        assertEquals(result.hashCode(), sameContent.hashCode());
+    }
+
+    @SmallTest
+    public void testCopyManufacturerSpecificData() {
+        ScanResult result = parcelAndUnparcel(newScanResult());
+        byte[] expected = ScanRecord.parseFromBytes(HexDump.hexStringToByteArray(RECORD_IBEACON))
+                .getManufacturerSpecificData(APPLE_ID);
+
+        byte[] buffer = new byte[32];
+        int length = result.copyManufacturerSpecificData(APPLE_ID, buffer);
+        assertEquals(expected.length, length);
+        assertTrue(Arrays.equals(expected, Arrays.copyOf(buffer, length)));
+
+        byte[] shortBuffer = new byte[4];
+        assertEquals(expected.length, result.copyManufacturerSpecificData(APPLE_ID, shortBuffer));
+        assertTrue(Arrays.equals(Arrays.copyOf(expected, 4), shortBuffer));
+
+        assertEquals(-1, result.copyManufacturerSpecificData(0x00E0, buffer));
+    }
+
+    @SmallTest
+    public void testCopyAdvertisingData() {
+        ScanResult result = parcelAndUnparcel(newScanResult());
+        byte[] buffer = new byte[32];
+
+        assertEquals(1, result.copyAdvertisingData(ScanRecord.DATA_TYPE_FLAGS, buffer));
+        assertEquals(0x06, buffer[0]);
+        assertEquals(-1, result.copyAdvertisingData(ScanRecord.DATA_TYPE_TX_POWER_LEVEL, buffer));
+    }
+
+    /**
+     * Counts the allocations of unparceling results whose scan record is decoded, as it was
+     * always done, against results only looked at for their RSSI and manufacturer data.
+     */
+    @SmallTest
+    @SuppressWarnings("deprecation")
+    public void testUnparcel_allocationsPerResult() {
+        ScanResult result = newScanResult();
+        Parcel parcel = Parcel.obtain();
+        byte[] buffer = new byte[32];
+        try {
+            for (int i = 0; i < BENCHMARK_RESULTS; i++) {
+                result.writeToParcel(parcel, 0);
+            }
+
+            Debug.startAllocCounting();
+            try {
+                parcel.setDataPosition(0);
+                Debug.resetThreadAllocCount();
+                for (int i = 0; i < BENCHMARK_RESULTS; i++) {
+                    ScanResult.CREATOR.createFromParcel(parcel).getScanRecord();
+                }
+                int decodedAllocations = Debug.getThreadAllocCount();
+
+                parcel.setDataPosition(0);
+                Debug.resetThreadAllocCount();
+                for (int i = 0; i < BENCHMARK_RESULTS; i++) {
+                    ScanResult unparceled = ScanResult.CREATOR.createFromParcel(parcel);
+                    unparceled.getRssi();
+                    unparceled.copyManufacturerSpecificData(APPLE_ID, buffer);
+                }
+                int lazyAllocations = Debug.getThreadAllocCount();
+
+                parcel.setDataPosition(0);
+                ScanResult unparceled = ScanResult.CREATOR.createFromParcel(parcel);
+                Debug.resetThreadAllocCount();
+                unparceled.copyManufacturerSpecificData(APPLE_ID, buffer);
+                int copyAllocations = Debug.getThreadAllocCount();
+
+                Log.i(TAG, "Allocations per result: decoded="
+                        + (decodedAllocations / (float) BENCHMARK_RESULTS)
+                        + " lazy=" + (lazyAllocations / (float) BENCHMARK_RESULTS));
+                assertTrue(lazyAllocations < decodedAllocations);
+                assertEquals(0, copyAllocations);
+            } finally {
+                Debug.stopAllocCounting();
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.bluetooth;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets threads wait for the adapter to reach a state, woken up by the adapter state changes
+ * reported through {@link android.bluetooth.IBluetoothCallback} instead of polling the state.
+ *
+ * <p>A waiter must be registered before checking the current state, so that a change happening
+ * in between is not missed.
+ */
+class AdapterStateWaiter {
+    /** A wait for any of a set of states. */
+    static class Waiter {
+        private final Set<Integer> mStates;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private volatile boolean mReached = false;
+
+        private Waiter(Set<Integer> states) {
+            mStates = states;
+        }
+
+        /**
+         * Waits until one of the states is reached or the state should be checked again.
+         *
+         * @return false if the timeout elapsed first
+         */
+        boolean await(long timeoutMs) throws InterruptedException {
+            return mLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        /** Returns whether one of the states has been reported since the waiter was registered. */
+        boolean isReached() {
+            return mReached;
+        }
+    }
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final List<Waiter> mWaiters = new ArrayList<>();
+
+    Waiter register(Set<Integer> states) {
+        Waiter waiter = new Waiter(states);
+        synchronized (mLock) {
+            mWaiters.add(waiter);
+        }
+        return waiter;
+    }
+
+    void unregister(Waiter waiter) {
+        synchronized (mLock) {
+            mWaiters.remove(waiter);
+        }
+    }
+
+    /** Wakes up the waiters for {@code newState}. */
+    void onStateChange(int newState) {
+        synchronized (mLock) {
+            for (Waiter waiter : mWaiters) {
+                if (waiter.mStates.contains(newState)) {
+                    waiter.mReached = true;
+                    waiter.mLatch.countDown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up all waiters to check the state again, e.g. when the Bluetooth service goes away
+     * and no further state change will be reported.
+     */
+    void onServiceDisconnected() {
+        synchronized (mLock) {
+            for (Waiter waiter : mWaiters) {
+                waiter.mLatch.countDown();
+            }
+        }
+    }
+}
@@ -175,6 +175,8 @@ public class BluetoothManagerService extends IBluetoothManager.Stub {
 
     private static final int MAX_ERROR_RESTART_RETRIES = 6;
     private static final int MAX_WAIT_FOR_ENABLE_DISABLE_RETRIES = 10;
+    // How long waitForState waits for the adapter to reach a state
+    private static final long WAIT_FOR_STATE_TIMEOUT_MS = 3000;
 
     // Bluetooth persisted setting is off
     private static final int BLUETOOTH_OFF = 0;
@@ -280,6 +282,15 @@ public class BluetoothManagerService extends IBluetoothManager.Stub {
     private int mCrashes;
     private long mLastEnabledTime;
 
+    // Time the last toggle was requested, or 0 once its target state has been reached
+    @GuardedBy("mActiveLogs")
+    private long mToggleStartTime;
+    @GuardedBy("mActiveLogs")
+    private boolean mToggleEnable;
+    private final LatencyHistogram mEnableLatency = new LatencyHistogram("Enable to ON");
+    private final LatencyHistogram mDisableLatency =
+            new LatencyHistogram("Disable to OFF or BLE_ON");
+
     // configuration from external IBinder call which is used to
     // synchronize with broadcast receiver.
     private boolean mQuietEnableExternal;
@@ -314,6 +325,18 @@ public class BluetoothManagerService extends IBluetoothManager.Stub {
         }
     };
 
+    private final AdapterStateWaiter mStateWaiter = new AdapterStateWaiter();
+
+    // Wakes up waitForState without going through mHandler, which is the thread waiting. Unlike
+    // mBluetoothCallback, it stays registered while the service is restarted or recovered.
+    private final IBluetoothCallback mStateWaitCallback = new IBluetoothCallback.Stub() {
+        @Override
+        public void onBluetoothStateChange(int prevState, int newState) {
+            mStateWaiter.onStateChange(newState);
+            recordToggleLatency(prevState, newState);
+        }
+    };
+
     public void onUserRestrictionsChanged(UserHandle userHandle) {
         final boolean newBluetoothDisallowed = mUserManager.hasUserRestrictionForUser(
                 UserManager.DISALLOW_BLUETOOTH, userHandle);
@@ -1538,6 +1561,8 @@ public class BluetoothManagerService extends IBluetoothManager.Stub {
                 try {
                     synchronousUnregisterCallback(mBluetoothCallback,
                             mContext.getAttributionSource());
+                    synchronousUnregisterCallback(mStateWaitCallback,
+                            mContext.getAttributionSource());
                 } catch (RemoteException | TimeoutException e) {
                     Log.e(TAG, "Unable to unregister BluetoothCallback", e);
                 }
@@ -2019,6 +2044,8 @@ public class BluetoothManagerService extends IBluetoothManager.Stub {
             Message msg = mHandler.obtainMessage(MESSAGE_BLUETOOTH_SERVICE_DISCONNECTED);
             if (name.equals("com.android.bluetooth.btservice.AdapterService")) {
                 msg.arg1 = SERVICE_IBLUETOOTH;
+                // No more state changes will be reported, let waitForState check the state.
+                mStateWaiter.onServiceDisconnected();
             } else if (name.equals("com.android.bluetooth.gatt.GattService")) {
                 msg.arg1 = SERVICE_IBLUETOOTHGATT;
             } else {
@@ -2360,6 +2387,8 @@ public class BluetoothManagerService extends IBluetoothManager.Stub {
                         try {
                             synchronousRegisterCallback(mBluetoothCallback,
                                     mContext.getAttributionSource());
+                            synchronousRegisterCallback(mStateWaitCallback,
+                                    mContext.getAttributionSource());
                         } catch (RemoteException | TimeoutException e) {
                             Log.e(TAG, "Unable to register BluetoothCallback", e);
                         }
@@ -2917,31 +2946,78 @@ public class BluetoothManagerService extends IBluetoothManager.Stub {
         return waitForState(states, true);
     }
     private boolean waitForState(Set<Integer> states, boolean failIfUnbind) {
-        for (int i = 0; i < 10; i++) {
-            mBluetoothLock.readLock().lock();
+        long deadline = SystemClock.elapsedRealtime() + WAIT_FOR_STATE_TIMEOUT_MS;
+        while (true) {
+            // Registered before checking the state, to not miss a change in between
+            AdapterStateWaiter.Waiter waiter = mStateWaiter.register(states);
             try {
-                if (mBluetooth == null && failIfUnbind) {
-                    Log.e(TAG, "waitForState " + states + " Bluetooth is not unbind");
-                    return false;
+                mBluetoothLock.readLock().lock();
+                try {
+                    if (mBluetooth == null && failIfUnbind) {
+                        Log.e(TAG, "waitForState " + states + " Bluetooth is not unbind");
+                        return false;
+                    }
+                    if (mBluetooth == null && states.contains(BluetoothAdapter.STATE_OFF)) {
+                        return true; // We are so OFF that the bluetooth is not bind
+                    }
+                    if (mBluetooth != null && states.contains(synchronousGetState())) {
+                        return true;
+                    }
+                } finally {
+                    mBluetoothLock.readLock().unlock();
                 }
-                if (mBluetooth == null && states.contains(BluetoothAdapter.STATE_OFF)) {
-                    return true; // We are so OFF that the bluetooth is not bind
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0 || !waiter.await(remaining)) {
+                    break;
                 }
-                if (mBluetooth != null && states.contains(synchronousGetState())) {
+                if (waiter.isReached()) {
                     return true;
                 }
+                // The service went away, check the state again
             } catch (RemoteException | TimeoutException e) {
                 Log.e(TAG, "getState()", e);
                 break;
+            } catch (InterruptedException e) {
+                Log.e(TAG, "waitForState " + states + " interrupted", e);
+                Thread.currentThread().interrupt();
+                break;
             } finally {
-                mBluetoothLock.readLock().unlock();
+                mStateWaiter.unregister(waiter);
             }
-            SystemClock.sleep(300);
         }
         Log.e(TAG, "waitForState " + states + " time out");
         return false;
     }
 
+    private void recordToggleLatency(int prevState, int newState) {
+        long latency;
+        boolean enable;
+        synchronized (mActiveLogs) {
+            if (mToggleStartTime == 0) {
+                return;
+            }
+            if (mToggleEnable ? newState != BluetoothAdapter.STATE_ON
+                    : !isDisableComplete(prevState, newState)) {
+                return;
+            }
+            latency = SystemClock.elapsedRealtime() - mToggleStartTime;
+            enable = mToggleEnable;
+            mToggleStartTime = 0;
+        }
+        (enable ? mEnableLatency : mDisableLatency).add(latency);
+    }
+
+    /**
+     * A disable is complete once the adapter is OFF, or once classic is down and the adapter
+     * stays in BLE_ON for the apps that keep BLE scanning on.
+     */
+    private boolean isDisableComplete(int prevState, int newState) {
+        return newState == BluetoothAdapter.STATE_OFF
+                || (prevState == BluetoothAdapter.STATE_TURNING_OFF
+                        && newState == BluetoothAdapter.STATE_BLE_ON
+                        && !mBleApps.isEmpty());
+    }
+
     private void sendDisableMsg(int reason, String packageName) {
         mHandler.sendMessage(mHandler.obtainMessage(MESSAGE_DISABLE));
         addActiveLog(reason, packageName, false);
@@ -2965,6 +3041,8 @@ public class BluetoothManagerService extends IBluetoothManager.Stub {
             }
             mActiveLogs.add(
                     new ActiveLog(reason, packageName, enable, System.currentTimeMillis()));
+            mToggleStartTime = SystemClock.elapsedRealtime();
+            mToggleEnable = enable;
         }
 
         if (enable) {
@@ -3184,6 +3262,10 @@ public class BluetoothManagerService extends IBluetoothManager.Stub {
             writer.println("  " + app.getPackageName());
         }
 
+        writer.println("\nToggle latency:");
+        mEnableLatency.dump(writer);
+        mDisableLatency.dump(writer);
+
         writer.println("\nBluetoothManagerService:");
         writer.println("  mEnable:" + mEnable);
         writer.println("  mQuietEnable:" + mQuietEnable);
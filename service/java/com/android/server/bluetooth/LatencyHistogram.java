@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.bluetooth;
+
+import java.io.PrintWriter;
+
+/** Counts latencies in buckets of growing width, for dumpsys. */
+class LatencyHistogram {
+    // Upper bounds of the buckets, in milliseconds. The last bucket is unbounded.
+    private static final long[] BUCKET_BOUNDS_MS = {100, 250, 500, 1000, 2000, 5000, 10000};
+
+    private final String mName;
+    private final int[] mCounts = new int[BUCKET_BOUNDS_MS.length + 1];
+    private int mCount = 0;
+    private long mTotalMs = 0;
+    private long mMaxMs = 0;
+
+    LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    synchronized void add(long latencyMs) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && latencyMs >= BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mCount++;
+        mTotalMs += latencyMs;
+        mMaxMs = Math.max(mMaxMs, latencyMs);
+    }
+
+    synchronized void dump(PrintWriter writer) {
+        writer.print("  " + mName + ": count=" + mCount);
+        if (mCount == 0) {
+            writer.println();
+            return;
+        }
+        writer.println(" avg=" + (mTotalMs / mCount) + "ms max=" + mMaxMs + "ms");
+        StringBuilder buckets = new StringBuilder("   ");
+        long lowerBound = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            if (i < BUCKET_BOUNDS_MS.length) {
+                buckets.append(" [").append(lowerBound).append('-')
+                        .append(BUCKET_BOUNDS_MS[i]).append("ms):");
+                lowerBound = BUCKET_BOUNDS_MS[i];
+            } else {
+                buckets.append(" [").append(lowerBound).append("ms-):");
+            }
+            buckets.append(mCounts[i]);
+        }
+        writer.println(buckets);
+    }
+}
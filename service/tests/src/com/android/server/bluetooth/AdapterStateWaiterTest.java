@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Set;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AdapterStateWaiterTest {
+    private final AdapterStateWaiter mStateWaiter = new AdapterStateWaiter();
+
+    @Test
+    public void testStateReached() throws Exception {
+        AdapterStateWaiter.Waiter waiter = mStateWaiter.register(
+                Set.of(BluetoothAdapter.STATE_OFF, BluetoothAdapter.STATE_BLE_ON));
+
+        mStateWaiter.onStateChange(BluetoothAdapter.STATE_BLE_ON);
+
+        assertThat(waiter.await(0)).isTrue();
+        assertThat(waiter.isReached()).isTrue();
+    }
+
+    @Test
+    public void testOtherState() throws Exception {
+        AdapterStateWaiter.Waiter waiter = mStateWaiter.register(Set.of(BluetoothAdapter.STATE_ON));
+
+        mStateWaiter.onStateChange(BluetoothAdapter.STATE_TURNING_ON);
+
+        assertThat(waiter.await(0)).isFalse();
+        assertThat(waiter.isReached()).isFalse();
+    }
+
+    @Test
+    public void testServiceDisconnected() throws Exception {
+        AdapterStateWaiter.Waiter waiter = mStateWaiter.register(Set.of(BluetoothAdapter.STATE_ON));
+
+        mStateWaiter.onServiceDisconnected();
+
+        assertThat(waiter.await(0)).isTrue();
+        assertThat(waiter.isReached()).isFalse();
+    }
+
+    @Test
+    public void testUnregistered() throws Exception {
+        AdapterStateWaiter.Waiter waiter = mStateWaiter.register(Set.of(BluetoothAdapter.STATE_ON));
+        mStateWaiter.unregister(waiter);
+
+        mStateWaiter.onStateChange(BluetoothAdapter.STATE_ON);
+
+        assertThat(waiter.await(0)).isFalse();
+    }
+
+    @Test
+    public void testWakesUpWaitingThread() throws Exception {
+        AdapterStateWaiter.Waiter waiter = mStateWaiter.register(Set.of(BluetoothAdapter.STATE_ON));
+        Thread thread = new Thread(() -> mStateWaiter.onStateChange(BluetoothAdapter.STATE_ON));
+
+        thread.start();
+
+        assertThat(waiter.await(3000)).isTrue();
+        assertThat(waiter.isReached()).isTrue();
+        thread.join();
+    }
+}